@@ -7,14 +7,19 @@ import com.google.appinventor.client.OdeAsyncCallback;
 import static com.google.appinventor.client.Ode.MESSAGES;
 import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.settings.project.ProjectSettings;
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithDelta;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectService;
 import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.Timer;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -46,6 +51,10 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // Content of the open files as it was last saved. Once a file has been saved, only the changes
+  // to it are sent to the server.
+  private final Map<FileEditor, String> savedContents;
+
   /**
    * Creates the editor manager.
    */
@@ -54,6 +63,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedContents = new HashMap<FileEditor, String>();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -119,6 +129,7 @@ public final class EditorManager {
       // won't be a file editor for it. So, check fileEditor for null.
       if (fileEditor != null) {
         dirtyFileEditors.remove(fileEditor);
+        savedContents.remove(fileEditor);
         projectEditor.closeFileEditor(fileId);
       }
     }
@@ -138,6 +149,11 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    for (Iterator<FileEditor> it = savedContents.keySet().iterator(); it.hasNext(); ) {
+      if (it.next().getProjectId() == projectId) {
+        it.remove();
+      }
+    }
   }
 
   /**
@@ -201,11 +217,9 @@ public final class EditorManager {
    */
   public void saveDirtyEditors(final Command afterSaving) {
     // Collect the files that need to be saved.
-    List<FileDescriptorWithContent> filesToSave = new ArrayList<FileDescriptorWithContent>();
+    Map<FileEditor, String> filesToSave = new LinkedHashMap<FileEditor, String>();
     for (FileEditor fileEditor : dirtyFileEditors) {
-      FileDescriptorWithContent fileContent = new FileDescriptorWithContent(
-          fileEditor.getProjectId(), fileEditor.getFileId(), fileEditor.getRawFileContent());
-      filesToSave.add(fileContent);
+      filesToSave.put(fileEditor, fileEditor.getRawFileContent());
     }
     dirtyFileEditors.clear();
 
@@ -248,46 +262,99 @@ public final class EditorManager {
    * Saves multiple files to the ODE server and calls the afterSavingFiles
    * command after they have all been saved successfully.
    *
+   * If all of the files have been saved before, only the changes to them are
+   * sent. If the server no longer has the content that the changes were
+   * computed against, the whole content of the files is sent instead.
+   *
    * If any errors occur while saving, the afterSavingFiles command will not be
    * executed.
-   * If filesWithContent is empty, the afterSavingFiles command is called
+   * If filesToSave is empty, the afterSavingFiles command is called
    * immediately, not asynchronously.
    *
-   * @param filesWithContent  the files that need to be saved
+   * @param filesToSave  the file editors that need to be saved and their content
    * @param afterSavingFiles  optional command to be executed after file
    *                          editors are saved.
    */
   private void saveMultipleFilesAtOnce(
-      final List<FileDescriptorWithContent> filesWithContent, final Command afterSavingFiles) {
-    if (filesWithContent.isEmpty()) {
+      final Map<FileEditor, String> filesToSave, final Command afterSavingFiles) {
+    if (filesToSave.isEmpty()) {
       // No files needed saving.
       // Execute the afterSavingFiles command if one was given.
       if (afterSavingFiles != null) {
         afterSavingFiles.execute();
       }
 
-    } else {
-      Ode.getInstance().getProjectService().save(filesWithContent,
+    } else if (savedContents.keySet().containsAll(filesToSave.keySet())) {
+      List<FileDescriptorWithDelta> filesWithDelta = new ArrayList<FileDescriptorWithDelta>();
+      for (Map.Entry<FileEditor, String> entry : filesToSave.entrySet()) {
+        FileEditor fileEditor = entry.getKey();
+        TextDelta delta = TextDelta.between(savedContents.get(fileEditor), entry.getValue());
+        filesWithDelta.add(new FileDescriptorWithDelta(
+            fileEditor.getProjectId(), fileEditor.getFileId(), delta.encode()));
+      }
+      Ode.getInstance().getProjectService().saveDeltas(filesWithDelta,
           new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
         @Override
         public void onSuccess(Long date) {
-          // Call the project editor's onSave method for each file that was saved and update the
-          // project's modification date.
-          for (FileDescriptorWithContent fileDescriptor : filesWithContent) {
-            long projectId = fileDescriptor.getProjectId();
-            ProjectEditor projectEditor = openProjectEditors.get(projectId);
-            if (projectEditor != null) {
-              projectEditor.onSave(fileDescriptor.getFileId());
-            }
-            Ode.getInstance().updateModificationDate(projectId, date);
-          }
-
-          // Execute the afterSavingFiles command if one was given.
-          if (afterSavingFiles != null) {
-            afterSavingFiles.execute();
+          if (date == ProjectService.DELTA_CONFLICT) {
+            saveWholeFiles(filesToSave, afterSavingFiles);
+          } else {
+            onFilesSaved(filesToSave, date, afterSavingFiles);
           }
         }
       });
+
+    } else {
+      saveWholeFiles(filesToSave, afterSavingFiles);
+    }
+  }
+
+  /**
+   * Saves the whole content of multiple files to the ODE server and calls the
+   * afterSavingFiles command after they have all been saved successfully.
+   *
+   * @param filesToSave  the file editors that need to be saved and their content
+   * @param afterSavingFiles  optional command to be executed after file
+   *                          editors are saved.
+   */
+  private void saveWholeFiles(
+      final Map<FileEditor, String> filesToSave, final Command afterSavingFiles) {
+    List<FileDescriptorWithContent> filesWithContent = new ArrayList<FileDescriptorWithContent>();
+    for (Map.Entry<FileEditor, String> entry : filesToSave.entrySet()) {
+      FileEditor fileEditor = entry.getKey();
+      filesWithContent.add(new FileDescriptorWithContent(
+          fileEditor.getProjectId(), fileEditor.getFileId(), entry.getValue()));
+    }
+    Ode.getInstance().getProjectService().save(filesWithContent,
+        new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+      @Override
+      public void onSuccess(Long date) {
+        onFilesSaved(filesToSave, date, afterSavingFiles);
+      }
+    });
+  }
+
+  /**
+   * Records the saved content of the given files, calls the project editor's
+   * onSave method for each of them, updates the projects' modification date
+   * and then calls the afterSavingFiles command.
+   */
+  private void onFilesSaved(
+      Map<FileEditor, String> savedFiles, long date, Command afterSavingFiles) {
+    for (Map.Entry<FileEditor, String> entry : savedFiles.entrySet()) {
+      FileEditor fileEditor = entry.getKey();
+      savedContents.put(fileEditor, entry.getValue());
+      long projectId = fileEditor.getProjectId();
+      ProjectEditor projectEditor = openProjectEditors.get(projectId);
+      if (projectEditor != null) {
+        projectEditor.onSave(fileEditor.getFileId());
+      }
+      Ode.getInstance().updateModificationDate(projectId, date);
+    }
+
+    // Execute the afterSavingFiles command if one was given.
+    if (afterSavingFiles != null) {
+      afterSavingFiles.execute();
     }
   }
 }
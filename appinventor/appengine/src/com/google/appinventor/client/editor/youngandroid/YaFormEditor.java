@@ -168,7 +168,14 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
         });
       }
     };
-    Ode.getInstance().getProjectService().load(getProjectId(), getFileId(), callback);
+    // The content of the form is usually sent together with the project nodes.
+    String loadedContent = Ode.getInstance().getProjectManager().getProject(getProjectId())
+        .takeLoadedFileContent(getFileId());
+    if (loadedContent != null) {
+      callback.onSuccess(loadedContent);
+    } else {
+      Ode.getInstance().getProjectService().load(getProjectId(), getFileId(), callback);
+    }
   }
 
   @Override
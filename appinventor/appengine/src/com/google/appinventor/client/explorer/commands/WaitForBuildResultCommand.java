@@ -36,6 +36,8 @@ import java.util.Date;
 public class WaitForBuildResultCommand extends ChainableCommand {
   // The build target
   private final String target;
+  // The shortest time between the starts of two requests for the build result. The server waits
+  // for the build to finish before answering, so usually the next request is made right away.
   private static final int WAIT_INTERVAL_MILLIS = 10000;
   private final MessagesOutput messagesOutput;
   private final String buildRequestTime;
@@ -73,6 +75,7 @@ public class WaitForBuildResultCommand extends ChainableCommand {
     final Ode ode = Ode.getInstance();
     messagesOutput.clear();
     messagesOutput.addMessages(MESSAGES.buildRequestedMessage(node.getName(), buildRequestTime));
+    final long requestStartMillis = System.currentTimeMillis();
 
     OdeAsyncCallback<RpcResult> callback =
         new OdeAsyncCallback<RpcResult>(
@@ -109,14 +112,19 @@ public class WaitForBuildResultCommand extends ChainableCommand {
           executionFailedOrCanceled();
         } else {
           // Build isn't done yet
-          Timer timer = new Timer() {
-            @Override
-            public void run() {
-              execute(node);
-            }
-          };
-          // TODO(user): Maybe do an exponential backoff here.
-          timer.schedule(WAIT_INTERVAL_MILLIS);
+          int delayMillis = (int) (WAIT_INTERVAL_MILLIS -
+              (System.currentTimeMillis() - requestStartMillis));
+          if (delayMillis <= 0) {
+            execute(node);
+          } else {
+            Timer timer = new Timer() {
+              @Override
+              public void run() {
+                execute(node);
+              }
+            };
+            timer.schedule(delayMillis);
+          }
         }
       }
 
@@ -6,12 +6,16 @@ import com.google.appinventor.client.Ode;
 import static com.google.appinventor.client.Ode.MESSAGES;
 import com.google.appinventor.client.OdeAsyncCallback;
 import com.google.appinventor.client.settings.project.ProjectSettings;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectWithContents;
 import com.google.appinventor.shared.rpc.project.UserProject;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class represents a project.
@@ -32,6 +36,10 @@ public final class Project {
   // Project specific settings
   private ProjectSettings settings; // lazily and asynchronously initialized
 
+  // Contents of files that were loaded together with the project nodes and haven't been taken by
+  // their editors yet
+  private final Map<String, String> loadedFileContents;
+
   /**
    * Creates a new project.
    *
@@ -41,6 +49,7 @@ public final class Project {
     this.projectInfo = projectInfo;
 
     projectChangeListeners = new ArrayList<ProjectChangeListener>();
+    loadedFileContents = new HashMap<String, String>();
   }
 
   /*
@@ -55,14 +64,17 @@ public final class Project {
         settings.loadSettings();
       }
 
-      Ode.getInstance().getProjectService().getProject(
+      Ode.getInstance().getProjectService().openProject(
           getProjectId(),
-          new OdeAsyncCallback<ProjectRootNode>(
+          new OdeAsyncCallback<ProjectWithContents>(
               // failure message
               MESSAGES.projectLoadError()) {
             @Override
-            public void onSuccess(ProjectRootNode result) {
-              projectRoot = result;
+            public void onSuccess(ProjectWithContents result) {
+              projectRoot = result.getRootNode();
+              for (FileDescriptorWithContent file : result.getFiles()) {
+                loadedFileContents.put(file.getFileId(), file.getContent());
+              }
 
               loadingInProgress = false;
               fireProjectLoaded();
@@ -150,6 +162,19 @@ public final class Project {
     return projectRoot;
   }
 
+  /**
+   * Returns the content of the given file if it was loaded together with the
+   * project nodes, and forgets it, so that later loads of the file get its
+   * current content from the backend.
+   *
+   * @param fileId  file ID
+   * @return  file content, or null if the file content wasn't loaded with the
+   *          project nodes or has already been taken
+   */
+  public String takeLoadedFileContent(String fileId) {
+    return loadedFileContents.remove(fileId);
+  }
+
   /**
    * Adds the given node to the project.
    *
@@ -0,0 +1,105 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Records in memcache which builds have finished, so that requests waiting
+ * for a build result can find out within a fraction of a second without
+ * reading the project's output files from the datastore.
+ *
+ * <p>Memcache may drop entries at any time, so a build that is not marked as
+ * finished here may still have finished. Callers must check the datastore
+ * before deciding that a build is not done.
+ *
+ */
+public final class BuildStatusStore {
+  private static final String MEMCACHE_NAMESPACE = "buildstatus";
+
+  // Entries expire after this long. A client that has not asked for the result
+  // by then reads it from the datastore.
+  private static final int EXPIRATION_SECS = 10 * 60;
+
+  // How often a waiting request checks memcache, in milliseconds.
+  @VisibleForTesting
+  static final long CHECK_INTERVAL_MILLIS = 250;
+
+  private final MemcacheService memcache;
+
+  /**
+   * Creates a BuildStatusStore that uses the default memcache service.
+   */
+  public BuildStatusStore() {
+    this(MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE));
+  }
+
+  @VisibleForTesting
+  BuildStatusStore(MemcacheService memcache) {
+    this.memcache = memcache;
+  }
+
+  /**
+   * Forgets that a build of the given project into the given build output
+   * directory has finished. Called when a new build is requested.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   * @param buildOutputDir the directory the build output files are saved to
+   */
+  public void clearFinished(String userId, long projectId, String buildOutputDir) {
+    memcache.delete(key(userId, projectId, buildOutputDir));
+  }
+
+  /**
+   * Records that a build of the given project has finished and its output
+   * files have been saved to the given build output directory.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   * @param buildOutputDir the directory the build output files are saved to
+   */
+  public void markFinished(String userId, long projectId, String buildOutputDir) {
+    memcache.put(key(userId, projectId, buildOutputDir), Boolean.TRUE,
+        Expiration.byDeltaSeconds(EXPIRATION_SECS));
+  }
+
+  /**
+   * Waits until a build of the given project is marked as finished, or until
+   * the given time has passed.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   * @param buildOutputDir the directory the build output files are saved to
+   * @param timeoutMillis the longest time to wait, in milliseconds
+   * @return true if the build was marked as finished, false if the wait
+   *         timed out or was interrupted
+   */
+  public boolean awaitFinished(String userId, long projectId, String buildOutputDir,
+      long timeoutMillis) {
+    String key = key(userId, projectId, buildOutputDir);
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (true) {
+      if (memcache.contains(key)) {
+        return true;
+      }
+      long remainingMillis = deadline - System.currentTimeMillis();
+      if (remainingMillis <= 0) {
+        return false;
+      }
+      try {
+        Thread.sleep(Math.min(CHECK_INTERVAL_MILLIS, remainingMillis));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+  }
+
+  private static String key(String userId, long projectId, String buildOutputDir) {
+    return userId + ":" + projectId + ":" + buildOutputDir;
+  }
+}
@@ -117,11 +117,11 @@ public class DownloadServlet extends OdeServlet {
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
             uriComponents[PROJECT_TITLE_INDEX] : null;
         final boolean includeProjectHistory = true;
-        String zipName = (projectTitle == null) ? null :
+        String zipName = (projectTitle == null) ?
+            fileExporter.getProjectSourceZipName(userId, projectId) :
             StringUtils.normalizeForFilename(projectTitle) + ".zip";
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-            projectId, includeProjectHistory, false, zipName);
-        downloadableFile = zipFile.getRawFile();
+        exportProjectSourceZip(resp, userId, projectId, includeProjectHistory, false, zipName);
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         // Download project source files for the specified user project as a zip.
@@ -170,9 +170,9 @@ public class DownloadServlet extends OdeServlet {
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".zip";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-            projectId, /* include history*/ true, /* include keystore */ true, zipName);
-        downloadableFile = zipFile.getRawFile();
+        exportProjectSourceZip(resp, projectUserId, projectId, /* include history*/ true,
+            /* include keystore */ true, zipName);
+        return;
         
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
@@ -209,9 +209,7 @@ public class DownloadServlet extends OdeServlet {
     byte[] content = downloadableFile.getContent();
 
     // Set http response information
-    resp.setStatus(HttpServletResponse.SC_OK);
-    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
-    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+    setDownloadHeaders(resp, fileName);
     resp.setContentLength(content.length);
 
     // Attach download data
@@ -219,4 +217,26 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Writes the source files of a project to the response as a zip, as they are
+   * read from storage, so that the zip is never held in memory.
+   */
+  private void exportProjectSourceZip(HttpServletResponse resp, String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, String zipName)
+      throws IOException {
+    // The length of the zip isn't known until it has been written, so the
+    // response has no content length.
+    setDownloadHeaders(resp, zipName);
+    ServletOutputStream out = resp.getOutputStream();
+    fileExporter.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, out);
+    out.close();
+  }
+
+  private static void setDownloadHeaders(HttpServletResponse resp, String fileName) {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+  }
 }
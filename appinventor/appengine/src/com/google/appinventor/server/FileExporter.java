@@ -6,6 +6,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 import javax.annotation.Nullable;
 
@@ -50,6 +51,35 @@ public interface FileExporter {
                                           boolean includeAndroidKeystore, @Nullable String zipName)
       throws IOException;
 
+  /**
+   * Writes the project source files as a zip to the given stream, without
+   * holding the zip in memory. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param out the stream to write the zip to
+   * @return the number of zipped files
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files), in which case nothing is written to out
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+                             boolean includeAndroidKeystore, OutputStream out)
+      throws IOException;
+
+  /**
+   * Returns the name that {@link #exportProjectSourceZip(String, long, boolean,
+   * boolean, String)} gives the zip of a project when no name is desired.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @return the name of the zip
+   */
+  String getProjectSourceZipName(String userId, long projectId);
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -3,7 +3,6 @@
 package com.google.appinventor.server;
 
 import com.google.common.base.Strings;
-import com.google.appinventor.server.storage.ObjectifyStorageIo;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
@@ -12,6 +11,7 @@ import com.google.appinventor.shared.storage.StorageUtil;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -59,12 +59,22 @@ public final class FileExporterImpl implements FileExporter {
                                                  boolean includeAndroidKeystore,
                                                  @Nullable String zipName) throws IOException {
     // Download project source files as a zip.
-    if (storageIo instanceof ObjectifyStorageIo) {
-      return ((ObjectifyStorageIo)storageIo).exportProjectSourceZip(userId, projectId,
-          includeProjectHistory, includeAndroidKeystore, zipName);
-    } else {
-      throw new IllegalArgumentException("Objectify only");
-    }
+    return storageIo.exportProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, zipName);
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+                                    boolean includeAndroidKeystore, OutputStream out)
+      throws IOException {
+    // Stream project source files as a zip.
+    return storageIo.exportProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, out);
+  }
+
+  @Override
+  public String getProjectSourceZipName(String userId, long projectId) {
+    return storageIo.getProjectName(userId, projectId) + ".zip";
   }
 
   @Override
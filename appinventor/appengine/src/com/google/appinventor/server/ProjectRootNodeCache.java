@@ -0,0 +1,83 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.logging.Logger;
+
+/**
+ * Caches the project trees that are sent to the client in memcache, so that
+ * opening a project doesn't have to list and classify all of its files again.
+ *
+ * <p>A tree is cached for one modification date of the project. Adding or
+ * removing files changes the modification date, so a tree is never found for
+ * a date after its files changed, and old trees simply expire.
+ *
+ * <p>Trees are cached per user as well as per project, so that a tree is only
+ * ever returned to a user who was allowed to build it.
+ *
+ */
+public final class ProjectRootNodeCache {
+  private static final Logger LOG = Logger.getLogger(ProjectRootNodeCache.class.getName());
+
+  private static final String MEMCACHE_NAMESPACE = "projecttree";
+
+  // Entries expire after this long, even if memcache doesn't need the space.
+  private static final int EXPIRATION_SECS = 60 * 60;
+
+  private final MemcacheService memcache;
+
+  /**
+   * Creates a ProjectRootNodeCache that uses the default memcache service.
+   */
+  public ProjectRootNodeCache() {
+    this(MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE));
+  }
+
+  @VisibleForTesting
+  ProjectRootNodeCache(MemcacheService memcache) {
+    this.memcache = memcache;
+  }
+
+  /**
+   * Returns the cached tree of the given project, or null if no tree is
+   * cached for the given modification date.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   * @param dateModified the modification date of the project
+   * @return the root node of the project tree, or null
+   */
+  public ProjectRootNode get(String userId, long projectId, long dateModified) {
+    Object value = memcache.get(key(userId, projectId, dateModified));
+    return (value instanceof ProjectRootNode) ? (ProjectRootNode) value : null;
+  }
+
+  /**
+   * Caches the tree of the given project for the given modification date.
+   *
+   * @param userId the user who owns the project
+   * @param projectId project ID
+   * @param dateModified the modification date of the project when the tree was
+   *        built
+   * @param rootNode the root node of the project tree
+   */
+  public void put(String userId, long projectId, long dateModified, ProjectRootNode rootNode) {
+    try {
+      memcache.put(key(userId, projectId, dateModified), rootNode,
+          Expiration.byDeltaSeconds(EXPIRATION_SECS));
+    } catch (IllegalArgumentException e) {
+      // The tree is larger than memcache allows. It is built again the next time.
+      LOG.info("Not caching the tree of project " + projectId + ": " + e.getMessage());
+    }
+  }
+
+  private static String key(String userId, long projectId, long dateModified) {
+    return userId + ":" + projectId + ":" + dateModified;
+  }
+}
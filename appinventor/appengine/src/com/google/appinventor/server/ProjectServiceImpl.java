@@ -2,21 +2,27 @@
 
 package com.google.appinventor.server;
 
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.server.project.CommonProjectService;
 import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
+import com.google.appinventor.server.storage.FileConflictException;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithDelta;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
+import com.google.appinventor.shared.rpc.project.ProjectWithContents;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -103,13 +109,7 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<UserProject> getProjectInfos() {
-    String userId = userInfoProvider.getUserId();
-    List<Long> projectIds = storageIo.getProjects(userId);
-    List<UserProject> projectInfos = Lists.newArrayListWithExpectedSize(projectIds.size());
-    for (Long projectId : projectIds) {
-      projectInfos.add(makeUserProject(userId, projectId));
-    }
-    return projectInfos;
+    return storageIo.getUserProjects(userInfoProvider.getUserId());
   }
 
   /**
@@ -124,6 +124,19 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
     return getProjectRpcImpl(userId, projectId).getRootNode(userId, projectId);
   }
 
+  /**
+   * Returns the root node for the given project together with the contents
+   * of the files that are loaded when the project is opened.
+   * @param projectId  project ID as received by {@link #getProjects()}
+   *
+   * @return  root node of project and contents of its initially loaded files
+   */
+  @Override
+  public ProjectWithContents openProject(long projectId) {
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).openProject(userId, projectId);
+  }
+
   /**
    * Returns a string with the project settings.
    * @param projectId  project ID
@@ -198,14 +211,30 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
    */
   @Override
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
-    List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Load the files of each project in one batch.
+    Map<Long, List<String>> fileIdsByProject = Maps.newLinkedHashMap();
+    for (FileDescriptor file : files) {
+      List<String> fileIds = fileIdsByProject.get(file.getProjectId());
+      if (fileIds == null) {
+        fileIds = Lists.newArrayList();
+        fileIdsByProject.put(file.getProjectId(), fileIds);
+      }
+      fileIds.add(file.getFileId());
+    }
+    Map<Long, Map<String, String>> contentsByProject = Maps.newHashMap();
+    for (Map.Entry<Long, List<String>> entry : fileIdsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      contentsByProject.put(projectId,
+          getProjectRpcImpl(userId, projectId).load(userId, projectId, entry.getValue()));
+    }
+
+    List<FileDescriptorWithContent> result = Lists.newArrayListWithExpectedSize(files.size());
     for (FileDescriptor file : files) {
       long projectId = file.getProjectId();
       String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      result.add(new FileDescriptorWithContent(projectId, fileId,
+          contentsByProject.get(projectId).get(fileId)));
     }
     return result;
   }
@@ -238,11 +267,58 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   @Override
   public long save(List<FileDescriptorWithContent> filesAndContent) {
     final String userId = userInfoProvider.getUserId();
-    long date = 0;
+    // Save the files of each project in one batch. If a file appears more than once, the last
+    // content wins, as it did when the files were saved one at a time.
+    Map<Long, Map<String, String>> contentsByProject = Maps.newLinkedHashMap();
     for (FileDescriptorWithContent fileAndContent : filesAndContent) {
-     long projectId = fileAndContent.getProjectId();
-     date = getProjectRpcImpl(userId, projectId).
-         save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+      Map<String, String> contents = contentsByProject.get(fileAndContent.getProjectId());
+      if (contents == null) {
+        contents = Maps.newLinkedHashMap();
+        contentsByProject.put(fileAndContent.getProjectId(), contents);
+      }
+      contents.put(fileAndContent.getFileId(), fileAndContent.getContent());
+    }
+    long date = 0;
+    for (Map.Entry<Long, Map<String, String>> entry : contentsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      date = getProjectRpcImpl(userId, projectId).save(userId, projectId, entry.getValue());
+    }
+    return date;
+  }
+
+  /**
+   * Saves changes to the contents of multiple files, given as deltas against
+   * their saved contents.
+   *
+   * @param filesAndDeltas  list containing file descriptors and the encoded
+   *                        deltas against their saved content
+   * @return modification date for last modified project of list, or
+   *         {@link ProjectService#DELTA_CONFLICT}
+   */
+  @Override
+  public long saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas) {
+    final String userId = userInfoProvider.getUserId();
+    // As in save(List), save the files of each project in one batch.
+    Map<Long, Map<String, TextDelta>> deltasByProject = Maps.newLinkedHashMap();
+    for (FileDescriptorWithDelta fileAndDelta : filesAndDeltas) {
+      Map<String, TextDelta> deltas = deltasByProject.get(fileAndDelta.getProjectId());
+      if (deltas == null) {
+        deltas = Maps.newLinkedHashMap();
+        deltasByProject.put(fileAndDelta.getProjectId(), deltas);
+      }
+      deltas.put(fileAndDelta.getFileId(), TextDelta.decode(fileAndDelta.getDelta()));
+    }
+    long date = 0;
+    for (Map.Entry<Long, Map<String, TextDelta>> entry : deltasByProject.entrySet()) {
+      long projectId = entry.getKey();
+      try {
+        date = getProjectRpcImpl(userId, projectId).saveDeltas(userId, projectId,
+            entry.getValue());
+      } catch (FileConflictException e) {
+        // The client's copy of the file is out of date, it will save the whole content instead.
+        LOG.info(e.getMessage());
+        return DELTA_CONFLICT;
+      }
     }
     return date;
   }
@@ -265,6 +341,8 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
 
   /**
    * Gets the result of a build command for the project.
+   * If the build is not yet done, waits a while for it to finish before
+   * answering.
    *
    * @param projectId  project ID
    * @param target  build target (optional, implementation dependent)
@@ -293,9 +371,6 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   }
 
   private UserProject makeUserProject(String userId, long projectId) {
-    // TODO(user): note that multiple calls like this on the data store
-    // can be really inefficient. Make a storagIo.getProject() method to get
-    // all of this at once?
     return new UserProject(projectId, storageIo.getProjectName(userId, projectId),
                            storageIo.getProjectType(userId, projectId),
                            storageIo.getProjectDateCreated(userId, projectId),
@@ -308,7 +383,7 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   private CommonProjectService getProjectRpcImpl(final String userId, long projectId) {
     String projectType = storageIo.getProjectType(userId, projectId);
     if (!projectType.isEmpty()) {
-      return getProjectRpcImpl(userId, storageIo.getProjectType(userId, projectId));
+      return getProjectRpcImpl(userId, projectType);
     } else {
       throw CrashReport.createAndLogError(LOG, getThreadLocalRequest(), 
           "user=" + userId + ", project=" + projectId,
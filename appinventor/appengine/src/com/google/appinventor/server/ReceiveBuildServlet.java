@@ -34,6 +34,7 @@ public class ReceiveBuildServlet extends OdeServlet {
 
   private final OdeAuthFilter odeFilter = new OdeAuthFilter();
   private final transient StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+  private final transient BuildStatusStore buildStatusStore = new BuildStatusStore();
 
   @Override
   public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -77,6 +78,8 @@ public class ReceiveBuildServlet extends OdeServlet {
           storageIo.uploadRawFile(projectId, filePath, userId, fileBytes);
         }
       }
+      // Wake up any request that is waiting for this build's result.
+      buildStatusStore.markFinished(userId, projectId, buildFileDirPath);
     } finally {
       odeFilter.removeUser();
     }
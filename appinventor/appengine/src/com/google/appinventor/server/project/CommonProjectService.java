@@ -2,14 +2,21 @@
 
 package com.google.appinventor.server.project;
 
+import com.google.appinventor.common.youngandroid.TextDelta;
+import com.google.appinventor.server.storage.FileConflictException;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.shared.rpc.RpcResult;
+import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.ProjectWithContents;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -78,6 +85,41 @@ public abstract class CommonProjectService {
    */
   public abstract ProjectRootNode getRootNode(String userId, long projectId);
 
+  /**
+   * Returns the project root node for the requested project together with
+   * the contents of the files that the client loads when it opens the
+   * project.
+   *
+   * @param userId the user id
+   * @param projectId  project ID as received by {@link
+   *                   com.google.appinventor.shared.rpc.project.ProjectService#getProjects()}
+   *
+   * @return  root node of project and contents of its initially loaded files
+   */
+  public ProjectWithContents openProject(String userId, long projectId) {
+    ProjectRootNode rootNode = getRootNode(userId, projectId);
+    List<String> fileIds = getFileIdsLoadedOnOpen(rootNode);
+    List<FileDescriptorWithContent> files =
+        new ArrayList<FileDescriptorWithContent>(fileIds.size());
+    if (!fileIds.isEmpty()) {
+      for (Map.Entry<String, String> entry : load(userId, projectId, fileIds).entrySet()) {
+        files.add(new FileDescriptorWithContent(projectId, entry.getKey(), entry.getValue()));
+      }
+    }
+    return new ProjectWithContents(rootNode, files);
+  }
+
+  /**
+   * Returns the IDs of the files that the client loads when it opens a
+   * project. Their contents are sent together with the project tree.
+   *
+   * @param rootNode  root node of the project
+   * @return  IDs of the files to send with the project tree
+   */
+  protected List<String> getFileIdsLoadedOnOpen(ProjectRootNode rootNode) {
+    return Collections.emptyList();
+  }
+
   /**
    * Adds a file to the given project.
    *
@@ -103,9 +145,10 @@ public abstract class CommonProjectService {
    * @return modification date for project
    */
   public long deleteFile(String userId, long projectId, String fileId) {
-    final long date = storageIo.deleteFile(userId, projectId, fileId);
+    // Drop the file from the source list before deleteFile changes the modification date, so
+    // that a project tree cached under the new date can't still list the deleted file.
     storageIo.removeSourceFilesFromProject(userId, projectId, false, fileId);
-    return date;
+    return storageIo.deleteFile(userId, projectId, fileId);
   }
 
   /**
@@ -120,8 +163,8 @@ public abstract class CommonProjectService {
     // TODO(user): This is not efficient.
     for (String fileId : storageIo.getProjectSourceFiles(userId, projectId)) {
       if (fileId.startsWith(directory + '/') && fileId.indexOf('/', directory.length() + 1) == -1) {
-        storageIo.deleteFile(userId, projectId, fileId);
         storageIo.removeSourceFilesFromProject(userId, projectId, false, fileId);
+        storageIo.deleteFile(userId, projectId, fileId);
       }
     }
     return storageIo.getProjectDateModified(userId, projectId);
@@ -143,6 +186,19 @@ public abstract class CommonProjectService {
     return storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Loads the contents of several files of a project.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  map from file ID to file content, in the order of fileIds
+   */
+  public Map<String, String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    *
@@ -159,6 +215,34 @@ public abstract class CommonProjectService {
         content, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Saves the contents of several files of a project.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param contents  map from file ID to the content to be saved
+   * @return modification date for project
+   */
+  public long save(String userId, long projectId, Map<String, String> contents) {
+    return storageIo.uploadFiles(projectId, userId, contents, StorageUtil.DEFAULT_CHARSET);
+  }
+
+  /**
+   * Saves changes to several files of a project, given as deltas against the
+   * saved contents of the files.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param deltas  map from file ID to the delta against its saved content
+   * @return modification date for project
+   * @throws FileConflictException if the saved content of a file is not the
+   *         content its delta was computed against
+   */
+  public long saveDeltas(String userId, long projectId, Map<String, TextDelta> deltas)
+      throws FileConflictException {
+    return storageIo.uploadFileDeltas(projectId, userId, deltas, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Invokes a build command for the project.
    *
@@ -7,9 +7,11 @@ import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.server.BuildStatusStore;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.FileExporterImpl;
+import com.google.appinventor.server.ProjectRootNodeCache;
 import com.google.appinventor.server.Server;
 import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.flags.Flag;
@@ -24,7 +26,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -41,8 +42,10 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -108,6 +111,15 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
 
+  // Longest time, in milliseconds, that a request for a build result waits for the build to
+  // finish before answering that the build is not yet done. Set to 0 to answer right away.
+  private static final Flag<Integer> buildResultWaitMillis =
+      Flag.createFlag("build.result.wait.millis", 20000);
+
+  private final BuildStatusStore buildStatusStore = new BuildStatusStore();
+
+  private final ProjectRootNodeCache rootNodeCache = new ProjectRootNodeCache();
+
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
   }
@@ -300,6 +312,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     newProject.setProjectHistory(oldProjectHistory);
 
     // Get the old project's source files and add them to new project, modifying where necessary.
+    // The files that are copied unchanged are read together at the end, so that their blobs are
+    // read in parallel.
+    Map<String, String> copiedFileNames = Maps.newLinkedHashMap();
     for (String oldSourceFileName : storageIo.getProjectSourceFiles(userId, oldProjectId)) {
       String newSourceFileName;
 
@@ -329,10 +344,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         // If we get here, we know that the contents of the file can just be copied from the old
         // project. Since it might be a binary file, we copy it as a raw file (that works for both
         // text and binary files).
-        byte[] contents = storageIo.downloadRawFile(userId, oldProjectId, oldSourceFileName);
-        newProject.addRawFile(new RawFile(newSourceFileName, contents));
+        copiedFileNames.put(oldSourceFileName, newSourceFileName);
       }
     }
+    Map<String, byte[]> copiedContents = storageIo.downloadRawFiles(userId, oldProjectId,
+        Lists.newArrayList(copiedFileNames.keySet()));
+    for (Map.Entry<String, String> entry : copiedFileNames.entrySet()) {
+      newProject.addRawFile(new RawFile(entry.getValue(), copiedContents.get(entry.getKey())));
+    }
 
     // Create the new project and return the new project's id.
     return storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode, vname));
@@ -340,6 +359,19 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   @Override
   public ProjectRootNode getRootNode(String userId, long projectId) {
+    // The tree only changes when files are added or removed, which changes the modification date.
+    // Read the date before the files, so that a tree is never cached for a later date than the
+    // files it was built from.
+    long dateModified = storageIo.getProjectDateModified(userId, projectId);
+    ProjectRootNode rootNode = rootNodeCache.get(userId, projectId, dateModified);
+    if (rootNode == null) {
+      rootNode = buildRootNode(userId, projectId);
+      rootNodeCache.put(userId, projectId, dateModified, rootNode);
+    }
+    return rootNode;
+  }
+
+  private ProjectRootNode buildRootNode(String userId, long projectId) {
     // Create root, assets, and source nodes (they are mocked nodes as they don't really
     // have to exist like this on the file system)
     ProjectRootNode rootNode =
@@ -380,6 +412,19 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return rootNode;
   }
 
+  @Override
+  protected List<String> getFileIdsLoadedOnOpen(ProjectRootNode rootNode) {
+    // The client loads the properties of every form when it opens the project. The codeblocks
+    // sources are loaded by the Blocks Editor.
+    List<String> fileIds = Lists.newArrayList();
+    for (ProjectNode node : rootNode.getAllSourceNodes()) {
+      if (node instanceof YoungAndroidFormNode) {
+        fileIds.add(node.getFileId());
+      }
+    }
+    return fileIds;
+  }
+
   @Override
   public long addFile(String userId, long projectId, String fileId) {
     if (fileId.endsWith(FORM_PROPERTIES_EXTENSION)) {
@@ -450,8 +495,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    buildStatusStore.clearFinished(userId, projectId, outputFileDir);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipOutputStream = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
@@ -462,15 +508,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
 
-      BufferedOutputStream bufferedOutputStream =
-          new BufferedOutputStream(connection.getOutputStream());
+      // Write the zip straight to the connection, instead of building it in memory first.
+      zipOutputStream = new CountingOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-          projectName + ".zip");
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      fileExporter.exportProjectSourceZip(userId, projectId, false,
+          /* includeAndroidKeystore */ true, zipOutputStream);
+      zipOutputStream.flush();
+      zipOutputStream.close();
 
       int responseCode = connection.getResponseCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
@@ -522,8 +567,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too 
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutputStream != null) {
+        long zipFileLength = zipOutputStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           wrappedException = new IllegalArgumentException(
               "Sorry, can't package projects larger than 5MB."
@@ -593,7 +638,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   }
 
   /**
-   * Check if there are any build results available for the given user's project
+   * Check if there are any build results available for the given user's project.
+   * If the build is not yet done, waits up to build.result.wait.millis for it to
+   * finish before answering.
    *
    * @param user the User that owns the {@code projectId}.
    * @param projectId  project id to be built
@@ -608,6 +655,22 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   @Override
   public RpcResult getBuildResult(User user, long projectId, String target) {
     String userId = user.getUserId();
+    RpcResult buildResult = readBuildResult(userId, projectId, target);
+    if (buildResult.getResult() == -1 && buildResultWaitMillis.get() > 0) {
+      // ReceiveBuildServlet marks the build as finished once it has saved the output files, so
+      // we only read them from storage again when that happens.
+      if (buildStatusStore.awaitFinished(userId, projectId, BUILD_FOLDER + '/' + target,
+          buildResultWaitMillis.get())) {
+        buildResult = readBuildResult(userId, projectId, target);
+      }
+    }
+    return buildResult;
+  }
+
+  /*
+   * Reads the build result for the given user's project from its build output files.
+   */
+  private RpcResult readBuildResult(String userId, long projectId, String target) {
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
     RpcResult buildResult = new RpcResult(-1, "", ""); // Build not finished yet
@@ -5,10 +5,12 @@ package com.google.appinventor.server.project.youngandroid;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.io.CharStreams;
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.common.youngandroid.YaHttpServerConstants;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.project.WebStartSupport;
+import com.google.appinventor.server.storage.FileConflictException;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.util.JsonpConnectionUtil;
 import com.google.appinventor.server.util.ModifiedHeaders;
@@ -23,6 +25,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -178,6 +181,25 @@ public final class YoungAndroidWebStartSupport extends WebStartSupport {
         out.write(data);
         out.close();
 
+      } else if (req.getHeader(YaHttpServerConstants.TEXT_DELTA_HEADER) != null) {
+        // Codeblocks is posting the changes to a project source file that it saved before.
+        TextDelta delta;
+        try {
+          delta = TextDelta.decode(content);
+        } catch (IllegalArgumentException e) {
+          resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+          return;
+        }
+        try {
+          getStorageIo().uploadFileDeltas(projectId, userId,
+              Collections.singletonMap(fileName, delta), StorageUtil.DEFAULT_CHARSET);
+          resp.setStatus(HttpServletResponse.SC_OK);
+          resp.setContentType(CONTENT_TYPE);
+        } catch (FileConflictException e) {
+          // Codeblocks posts the whole file when its changes can't be applied.
+          resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+        }
+
       } else {
         // Codeblocks is posting a project source file.
         if (!content.endsWith("\n")) {
@@ -0,0 +1,593 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.common.youngandroid.TextDelta;
+import com.google.appinventor.server.CrashReport;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.shared.rpc.Motd;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.UserProject;
+import com.google.appinventor.shared.rpc.user.User;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A StorageIo that caches the results of another StorageIo.
+ *
+ * <p>App Engine runs the server on several instances, and a write handled by one instance can't
+ * invalidate a cache in the memory of another. So there are two tiers:
+ * <ul>
+ * <li>Project metadata that never changes (the name, type and creation date of a project) is
+ *     cached in the memory of this instance, in a bounded LRU map, and in memcache.
+ * <li>Everything else that is cached (the user's list of projects, user and project settings,
+ *     project modification dates, project file lists and small project files) is cached only in
+ *     memcache, which all instances share. Writes through this class delete the affected
+ *     entries.
+ * </ul>
+ *
+ * <p>Entries are added to memcache only if they are not already there, and deleted entries may
+ * not be re-added for a few seconds. This keeps a read that started before a write from putting
+ * back the value that the write replaced.
+ *
+ * <p>Like the underlying StorageIo, the methods that check that the user owns the project do so
+ * before returning a cached value, using the cached list of the user's projects.
+ */
+public class CachingStorageIo implements StorageIo {
+  // The value of these flags can be changed in appengine-web.xml
+  static final Flag<Boolean> useCache = Flag.createFlag("storage.cache", false);
+  static final Flag<Boolean> useMemcache = Flag.createFlag("storage.cache.memcache", true);
+  static final Flag<Integer> localCacheEntries =
+      Flag.createFlag("storage.cache.local.entries", 10000);
+
+  private static final Logger LOG = Logger.getLogger(CachingStorageIo.class.getName());
+
+  private static final String MEMCACHE_NAMESPACE = "storage";
+
+  // Files larger than this are not cached. Memcache values are limited to 1 MB.
+  @VisibleForTesting
+  static final int MAX_CACHED_FILE_BYTES = 100 * 1024;
+
+  // Entries expire from memcache after this long, even if memcache doesn't need the space.
+  private static final int MEMCACHE_EXPIRATION_SECS = 60 * 60;
+
+  // How long a deleted memcache entry may not be re-added, in milliseconds. This must be longer
+  // than a read from the underlying StorageIo.
+  private static final long MEMCACHE_NO_READD_MILLIS = 10 * 1000;
+
+  // Use this interface to define how to read a value that is not in the cache.
+  private interface Loader<T> {
+    T load();
+  }
+
+  private final StorageIo storageIo;
+
+  // The shared cache, or null if memcache is not used.
+  private final MemcacheService memcache;
+
+  // The cache of immutable project metadata on this instance, in least recently used order.
+  private final Map<String, Object> localCache;
+
+  /**
+   * Creates a CachingStorageIo.
+   *
+   * @param storageIo the StorageIo whose results are cached
+   */
+  public CachingStorageIo(StorageIo storageIo) {
+    this(storageIo, useMemcache.get()
+        ? MemcacheServiceFactory.getMemcacheService(MEMCACHE_NAMESPACE)
+        : null, localCacheEntries.get());
+  }
+
+  @VisibleForTesting
+  CachingStorageIo(StorageIo storageIo, @Nullable MemcacheService memcache,
+      final int maxLocalCacheEntries) {
+    this.storageIo = storageIo;
+    this.memcache = memcache;
+    localCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, Object>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > maxLocalCacheEntries;
+          }
+        });
+  }
+
+  // User management
+
+  @Override
+  public User getUser(String userId) {
+    return storageIo.getUser(userId);
+  }
+
+  @Override
+  public User getUser(String userId, String email) {
+    return storageIo.getUser(userId, email);
+  }
+
+  @Override
+  public void setUserEmail(String userId, String email) {
+    storageIo.setUserEmail(userId, email);
+  }
+
+  @Override
+  public void setTosAccepted(String userId) {
+    storageIo.setTosAccepted(userId);
+  }
+
+  @Override
+  public String loadSettings(final String userId) {
+    return getShared(settingsKey(userId), new Loader<String>() {
+      @Override
+      public String load() {
+        return storageIo.loadSettings(userId);
+      }
+    });
+  }
+
+  @Override
+  public void storeSettings(String userId, String settings) {
+    try {
+      storageIo.storeSettings(userId, settings);
+    } finally {
+      invalidate(settingsKey(userId));
+    }
+  }
+
+  // Project management
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings) {
+    try {
+      return storageIo.createProject(userId, project, projectSettings);
+    } finally {
+      invalidate(projectsKey(userId));
+    }
+  }
+
+  @Override
+  public void deleteProject(String userId, long projectId) {
+    try {
+      storageIo.deleteProject(userId, projectId);
+    } finally {
+      invalidate(projectsKey(userId), projectSettingsKey(projectId),
+          dateModifiedKey(projectId), sourceFilesKey(projectId), outputFilesKey(projectId),
+          projectNameKey(projectId), projectTypeKey(projectId), dateCreatedKey(projectId));
+      // The files of the project are no longer reachable, because the project is not in the
+      // user's list of projects. They expire from memcache eventually.
+    }
+  }
+
+  @Override
+  public List<Long> getProjects(final String userId) {
+    return getShared(projectsKey(userId), new Loader<ArrayList<Long>>() {
+      @Override
+      public ArrayList<Long> load() {
+        return new ArrayList<Long>(storageIo.getProjects(userId));
+      }
+    });
+  }
+
+  @Override
+  public List<UserProject> getUserProjects(String userId) {
+    // The underlying StorageIo reads all the projects in one batch, so there is nothing to gain
+    // by reading some of their metadata from the cache.
+    return storageIo.getUserProjects(userId);
+  }
+
+  @Override
+  public String loadProjectSettings(final String userId, final long projectId) {
+    if (!getProjects(userId).contains(projectId)) {
+      // Let the underlying StorageIo report the error.
+      return storageIo.loadProjectSettings(userId, projectId);
+    }
+    return getShared(projectSettingsKey(projectId), new Loader<String>() {
+      @Override
+      public String load() {
+        return storageIo.loadProjectSettings(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public void storeProjectSettings(String userId, long projectId, String settings) {
+    try {
+      storageIo.storeProjectSettings(userId, projectId, settings);
+    } finally {
+      invalidate(projectSettingsKey(projectId));
+    }
+  }
+
+  @Override
+  public String getProjectType(final String userId, final long projectId) {
+    return getImmutable(projectTypeKey(projectId), new Loader<String>() {
+      @Override
+      public String load() {
+        return storageIo.getProjectType(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public String getProjectName(final String userId, final long projectId) {
+    return getImmutable(projectNameKey(projectId), new Loader<String>() {
+      @Override
+      public String load() {
+        return storageIo.getProjectName(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public long getProjectDateModified(final String userId, final long projectId) {
+    return getShared(dateModifiedKey(projectId), new Loader<Long>() {
+      @Override
+      public Long load() {
+        return storageIo.getProjectDateModified(userId, projectId);
+      }
+    });
+  }
+
+  @Override
+  public String getProjectHistory(String userId, long projectId) {
+    return storageIo.getProjectHistory(userId, projectId);
+  }
+
+  @Override
+  public long getProjectDateCreated(final String userId, final long projectId) {
+    return getImmutable(dateCreatedKey(projectId), new Loader<Long>() {
+      @Override
+      public Long load() {
+        return storageIo.getProjectDateCreated(userId, projectId);
+      }
+    });
+  }
+
+  // Non-project-specific file management
+
+  @Override
+  public void addFilesToUser(String userId, String... fileIds) {
+    storageIo.addFilesToUser(userId, fileIds);
+  }
+
+  @Override
+  public List<String> getUserFiles(String userId) {
+    return storageIo.getUserFiles(userId);
+  }
+
+  @Override
+  public void uploadUserFile(String userId, String fileId, String content, String encoding) {
+    storageIo.uploadUserFile(userId, fileId, content, encoding);
+  }
+
+  @Override
+  public void uploadRawUserFile(String userId, String fileName, byte[] content) {
+    storageIo.uploadRawUserFile(userId, fileName, content);
+  }
+
+  @Override
+  public String downloadUserFile(String userId, String fileId, String encoding) {
+    return storageIo.downloadUserFile(userId, fileId, encoding);
+  }
+
+  @Override
+  public byte[] downloadRawUserFile(String userId, String fileName) {
+    return storageIo.downloadRawUserFile(userId, fileName);
+  }
+
+  @Override
+  public void deleteUserFile(String userId, String fileId) {
+    storageIo.deleteUserFile(userId, fileId);
+  }
+
+  // File management
+
+  @Override
+  public int getMaxJobSizeBytes() {
+    return storageIo.getMaxJobSizeBytes();
+  }
+
+  @Override
+  public void addSourceFilesToProject(String userId, long projectId, boolean changeModDate,
+      String... fileIds) {
+    try {
+      storageIo.addSourceFilesToProject(userId, projectId, changeModDate, fileIds);
+    } finally {
+      invalidate(sourceFilesKey(projectId), dateModifiedKey(projectId));
+    }
+  }
+
+  @Override
+  public void addOutputFilesToProject(String userId, long projectId, String... fileIds) {
+    try {
+      storageIo.addOutputFilesToProject(userId, projectId, fileIds);
+    } finally {
+      invalidate(outputFilesKey(projectId));
+    }
+  }
+
+  @Override
+  public void removeSourceFilesFromProject(String userId, long projectId, boolean changeModDate,
+      String... fileIds) {
+    try {
+      storageIo.removeSourceFilesFromProject(userId, projectId, changeModDate, fileIds);
+    } finally {
+      invalidate(sourceFilesKey(projectId), dateModifiedKey(projectId));
+      invalidate(fileKeys(projectId, fileIds));
+    }
+  }
+
+  @Override
+  public void removeOutputFilesFromProject(String userId, long projectId, String... fileIds) {
+    try {
+      storageIo.removeOutputFilesFromProject(userId, projectId, fileIds);
+    } finally {
+      invalidate(outputFilesKey(projectId));
+      invalidate(fileKeys(projectId, fileIds));
+    }
+  }
+
+  @Override
+  public List<String> getProjectSourceFiles(final String userId, final long projectId) {
+    if (!getProjects(userId).contains(projectId)) {
+      // Let the underlying StorageIo report the error.
+      return storageIo.getProjectSourceFiles(userId, projectId);
+    }
+    return getShared(sourceFilesKey(projectId), new Loader<ArrayList<String>>() {
+      @Override
+      public ArrayList<String> load() {
+        return new ArrayList<String>(storageIo.getProjectSourceFiles(userId, projectId));
+      }
+    });
+  }
+
+  @Override
+  public List<String> getProjectOutputFiles(final String userId, final long projectId) {
+    if (!getProjects(userId).contains(projectId)) {
+      // Let the underlying StorageIo report the error.
+      return storageIo.getProjectOutputFiles(userId, projectId);
+    }
+    return getShared(outputFilesKey(projectId), new Loader<ArrayList<String>>() {
+      @Override
+      public ArrayList<String> load() {
+        return new ArrayList<String>(storageIo.getProjectOutputFiles(userId, projectId));
+      }
+    });
+  }
+
+  @Override
+  public long uploadFile(long projectId, String fileId, String userId, String content,
+      String encoding) {
+    try {
+      return storageIo.uploadFile(projectId, fileId, userId, content, encoding);
+    } finally {
+      invalidate(fileKey(projectId, fileId), dateModifiedKey(projectId));
+    }
+  }
+
+  @Override
+  public long uploadRawFile(long projectId, String fileId, String userId, byte[] content) {
+    try {
+      return storageIo.uploadRawFile(projectId, fileId, userId, content);
+    } finally {
+      invalidate(fileKey(projectId, fileId), dateModifiedKey(projectId));
+    }
+  }
+
+  @Override
+  public long uploadFiles(long projectId, String userId, Map<String, String> contents,
+      String encoding) {
+    try {
+      return storageIo.uploadFiles(projectId, userId, contents, encoding);
+    } finally {
+      invalidate(dateModifiedKey(projectId));
+      invalidate(fileKeys(projectId, contents.keySet().toArray(new String[contents.size()])));
+    }
+  }
+
+  @Override
+  public long uploadFileDeltas(long projectId, String userId, Map<String, TextDelta> deltas,
+      String encoding) throws FileConflictException {
+    try {
+      return storageIo.uploadFileDeltas(projectId, userId, deltas, encoding);
+    } finally {
+      invalidate(dateModifiedKey(projectId));
+      invalidate(fileKeys(projectId, deltas.keySet().toArray(new String[deltas.size()])));
+    }
+  }
+
+  @Override
+  public long deleteFile(String userId, long projectId, String fileId) {
+    try {
+      return storageIo.deleteFile(userId, projectId, fileId);
+    } finally {
+      invalidate(fileKey(projectId, fileId), dateModifiedKey(projectId),
+          sourceFilesKey(projectId), outputFilesKey(projectId));
+    }
+  }
+
+  @Override
+  public String downloadFile(String userId, long projectId, String fileId, String encoding) {
+    try {
+      return new String(downloadRawFile(userId, projectId, fileId), encoding);
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, user=" +
+          userId + ", project=" + projectId + ", file=" + fileId, e);
+    }
+  }
+
+  @Override
+  public Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding) {
+    // The underlying StorageIo reads all the files in one batch.
+    return storageIo.downloadFiles(userId, projectId, fileIds, encoding);
+  }
+
+  @Override
+  public byte[] downloadRawFile(String userId, long projectId, String fileId) {
+    if (memcache == null || !getProjects(userId).contains(projectId)) {
+      // Let the underlying StorageIo report the error, if any.
+      return storageIo.downloadRawFile(userId, projectId, fileId);
+    }
+    String key = fileKey(projectId, fileId);
+    byte[] content = (byte[]) memcache.get(key);
+    if (content == null) {
+      content = storageIo.downloadRawFile(userId, projectId, fileId);
+      if (content.length <= MAX_CACHED_FILE_BYTES) {
+        memcache.put(key, content, Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECS),
+            MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      }
+    }
+    return content;
+  }
+
+  @Override
+  public Map<String, byte[]> downloadRawFiles(String userId, long projectId,
+      List<String> fileIds) {
+    // The underlying StorageIo reads all the files in one batch.
+    return storageIo.downloadRawFiles(userId, projectId, fileIds);
+  }
+
+  // MOTD management
+
+  @Override
+  public Motd getCurrentMotd() {
+    return storageIo.getCurrentMotd();
+  }
+
+  @Override
+  public ProjectSourceZip exportProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory, boolean includeAndroidKeystore, @Nullable String zipName)
+      throws IOException {
+    return storageIo.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipName);
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+      boolean includeAndroidKeystore, OutputStream out) throws IOException {
+    return storageIo.exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, out);
+  }
+
+  @Override
+  public String findUserByEmail(String email) throws NoSuchElementException {
+    return storageIo.findUserByEmail(email);
+  }
+
+  /*
+   * Returns the value for the given key from memcache, loading it and adding it to memcache if
+   * it is not there.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T getShared(String key, Loader<T> loader) {
+    if (memcache == null) {
+      return loader.load();
+    }
+    T value = (T) memcache.get(key);
+    if (value == null) {
+      value = loader.load();
+      memcache.put(key, value, Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECS),
+          MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+    return value;
+  }
+
+  /*
+   * Returns the value for the given key, which must never change once it is set, from the local
+   * cache or from memcache, loading it if it is in neither. Values that the underlying StorageIo
+   * returns for missing projects ("" or 0) are not cached.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T getImmutable(String key, Loader<T> loader) {
+    T value = (T) localCache.get(key);
+    if (value == null && memcache != null) {
+      value = (T) memcache.get(key);
+    }
+    if (value == null) {
+      value = loader.load();
+      if ("".equals(value) || Long.valueOf(0).equals(value)) {
+        return value;
+      }
+      if (memcache != null) {
+        memcache.put(key, value, Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECS),
+            MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      }
+    }
+    localCache.put(key, value);
+    return value;
+  }
+
+  private void invalidate(String... keys) {
+    for (String key : keys) {
+      localCache.remove(key);
+      if (memcache != null) {
+        memcache.delete(key, MEMCACHE_NO_READD_MILLIS);
+      }
+    }
+  }
+
+  private static String settingsKey(String userId) {
+    return "settings:" + userId;
+  }
+
+  private static String projectsKey(String userId) {
+    return "projects:" + userId;
+  }
+
+  private static String projectSettingsKey(long projectId) {
+    return "projectSettings:" + projectId;
+  }
+
+  private static String projectTypeKey(long projectId) {
+    return "projectType:" + projectId;
+  }
+
+  private static String projectNameKey(long projectId) {
+    return "projectName:" + projectId;
+  }
+
+  private static String dateCreatedKey(long projectId) {
+    return "dateCreated:" + projectId;
+  }
+
+  private static String dateModifiedKey(long projectId) {
+    return "dateModified:" + projectId;
+  }
+
+  private static String sourceFilesKey(long projectId) {
+    return "sourceFiles:" + projectId;
+  }
+
+  private static String outputFilesKey(long projectId) {
+    return "outputFiles:" + projectId;
+  }
+
+  private static String fileKey(long projectId, String fileId) {
+    return "file:" + projectId + ":" + fileId;
+  }
+
+  private static String[] fileKeys(long projectId, String... fileIds) {
+    String[] keys = new String[fileIds.length];
+    for (int i = 0; i < fileIds.length; i++) {
+      keys[i] = fileKey(projectId, fileIds[i]);
+    }
+    return keys;
+  }
+}
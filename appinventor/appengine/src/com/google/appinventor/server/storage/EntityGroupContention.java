@@ -0,0 +1,110 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the transaction conflicts, retries and exhausted retry budgets of
+ * the entity groups that ObjectifyStorageIo works on, so that hot entity
+ * groups can be found in the logs.
+ *
+ * <p>Only the most recently contended entity groups are kept, so that the
+ * memory used by the counters stays bounded.
+ *
+ */
+final class EntityGroupContention {
+  /**
+   * The counters of one entity group.
+   */
+  static final class Counts {
+    private int conflicts;
+    private int retries;
+    private int exhausted;
+
+    int getConflicts() {
+      return conflicts;
+    }
+
+    int getRetries() {
+      return retries;
+    }
+
+    int getExhausted() {
+      return exhausted;
+    }
+
+    @Override
+    public String toString() {
+      return "conflicts=" + conflicts + ", retries=" + retries + ", exhausted=" + exhausted;
+    }
+  }
+
+  private final Map<String, Counts> counts;
+
+  EntityGroupContention(final int maxEntityGroups) {
+    counts = new LinkedHashMap<String, Counts>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Counts> eldest) {
+        return size() > maxEntityGroups;
+      }
+    };
+  }
+
+  /**
+   * Records that a transaction on the given entity group failed because of a
+   * concurrent modification, and returns a description of the counters of the
+   * entity group after the update.
+   */
+  synchronized String recordConflict(String entityGroup) {
+    Counts c = getOrCreate(entityGroup);
+    c.conflicts++;
+    return c.toString();
+  }
+
+  /**
+   * Records that a job on the given entity group is being retried.
+   */
+  synchronized void recordRetry(String entityGroup) {
+    getOrCreate(entityGroup).retries++;
+  }
+
+  /**
+   * Records that a job on the given entity group ran out of retries, and
+   * returns a description of the counters of the entity group after the update.
+   */
+  synchronized String recordExhausted(String entityGroup) {
+    Counts c = getOrCreate(entityGroup);
+    c.exhausted++;
+    return c.toString();
+  }
+
+  /**
+   * Returns a copy of the counters of the given entity group, or null if there
+   * are none.
+   */
+  @VisibleForTesting
+  synchronized Counts get(String entityGroup) {
+    Counts c = counts.get(entityGroup);
+    if (c == null) {
+      return null;
+    }
+    Counts copy = new Counts();
+    copy.conflicts = c.conflicts;
+    copy.retries = c.retries;
+    copy.exhausted = c.exhausted;
+    return copy;
+  }
+
+  private Counts getOrCreate(String entityGroup) {
+    Counts c = counts.get(entityGroup);
+    if (c == null) {
+      c = new Counts();
+      counts.put(entityGroup, c);
+    }
+    return c;
+  }
+}
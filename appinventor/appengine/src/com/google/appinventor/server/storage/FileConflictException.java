@@ -0,0 +1,28 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+/**
+ * Exception for a change to a file that was computed against content that is
+ * no longer, or was never, the saved content of the file.
+ *
+ */
+public class FileConflictException extends Exception {
+  private final long projectId;
+  private final String fileName;
+
+  public FileConflictException(long projectId, String fileName) {
+    super("The saved content of " + fileName + " in project " + projectId +
+        " is not the content the change was computed against");
+    this.projectId = projectId;
+    this.fileName = fileName;
+  }
+
+  public long getProjectId() {
+    return projectId;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+}
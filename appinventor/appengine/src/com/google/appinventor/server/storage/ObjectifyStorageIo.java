@@ -2,6 +2,7 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
@@ -9,12 +10,14 @@ import com.google.appengine.api.files.AppEngineFile;
 import com.google.appengine.api.files.FileService;
 import com.google.appengine.api.files.FileServiceFactory;
 import com.google.appengine.api.files.FileWriteChannel;
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.StoredData.FileData;
 import com.google.appinventor.server.storage.StoredData.MotdData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.appinventor.server.storage.StoredData.SharedBlobData;
 import com.google.appinventor.server.storage.StoredData.UserData;
 import com.google.appinventor.server.storage.StoredData.UserFileData;
 import com.google.appinventor.server.storage.StoredData.UserProjectData;
@@ -23,9 +26,11 @@ import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
@@ -42,10 +47,23 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -73,12 +91,57 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // The number of times that the blobs of a save are written again after a failure. The
+  // shared blob jobs that the writes run have retries of their own, so this is small.
+  private static final int MAX_BLOB_WRITE_RETRIES = 2;
+
+  // The value of these flags can be changed in appengine-web.xml
+  // Jobs that fail are retried after a random delay of up to
+  // initialRetryBackoffMillis * 2^(tries - 1), but never more than
+  // maxRetryBackoffMillis. A job stops being retried once the delays would add
+  // up to more than retryBudgetMillis, even if it has retries left.
+  static final Flag<Integer> initialRetryBackoffMillis =
+      Flag.createFlag("storage.retry.backoff.initial.millis", 20);
+  static final Flag<Integer> maxRetryBackoffMillis =
+      Flag.createFlag("storage.retry.backoff.max.millis", 1000);
+  static final Flag<Integer> retryBudgetMillis =
+      Flag.createFlag("storage.retry.budget.millis", 5000);
+
+  // The number of entity groups whose contention counters are kept
+  private static final int MAX_CONTENDED_ENTITY_GROUPS = 1000;
+
+  private static final EntityGroupContention contention =
+      new EntityGroupContention(MAX_CONTENDED_ENTITY_GROUPS);
+
+  private static final Random random = new Random();
+
+  // The value of this flag can be changed in appengine-web.xml
+  // The largest number of blobs that are read, written or deleted at the same
+  // time by one request. Set to 1 to handle blobs one after another.
+  static final Flag<Integer> blobParallelism = Flag.createFlag("storage.blob.parallelism", 8);
+
+  // The value of this flag can be changed in appengine-web.xml
+  // When true, assets with the same content share one reference counted blob,
+  // across all projects and users.
+  static final Flag<Boolean> shareAssetBlobs = Flag.createFlag("storage.blob.share.assets", true);
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
   // on "datastore" should be for objects in the same entity group.
   @VisibleForTesting
   abstract class JobRetryHelper {
+    // The root of the entity group of the job, or null if it isn't known
+    private final Key<?> entityGroup;
+
+    JobRetryHelper() {
+      this(null);
+    }
+
+    JobRetryHelper(@Nullable Key<?> entityGroup) {
+      this.entityGroup = entityGroup;
+    }
+
     public abstract void run(Objectify datastore) throws ObjectifyException;
     /*
      * Called before retrying the job. Note that the underlying datastore
@@ -95,6 +158,23 @@ public class ObjectifyStorageIo implements  StorageIo {
   private class Result<T> {
     T t;
   }
+
+  // A blob that a FileData points to. If contentHash is not null, the blob is
+  // shared and must be released with releaseBlobs() instead of deleted.
+  private static final class BlobRef {
+    final String blobstorePath;
+    final String contentHash;
+
+    BlobRef(String blobstorePath, @Nullable String contentHash) {
+      this.blobstorePath = blobstorePath;
+      this.contentHash = contentHash;
+    }
+
+    @Override
+    public String toString() {
+      return contentHash == null ? blobstorePath : blobstorePath + " (" + contentHash + ")";
+    }
+  }
   
   private FileService fileService;
 
@@ -106,6 +186,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(FileData.class);
     ObjectifyService.register(UserFileData.class);
     ObjectifyService.register(MotdData.class);
+    ObjectifyService.register(SharedBlobData.class);
   }
 
   ObjectifyStorageIo() {
@@ -133,7 +214,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public User getUser(final String userId, final String email) {
     final User user = new User(userId, email, false, false);
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserData userData = datastore.find(userKey(userId));
@@ -166,7 +247,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void setTosAccepted(final String userId) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserData userData = datastore.find(userKey(userId));
@@ -184,7 +265,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void setUserEmail(final String userId, final String email) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserData userData = datastore.find(userKey(userId));
@@ -203,7 +284,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public String loadSettings(final String userId) {
     final Result<String> settings = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserData userData = datastore.find(UserData.class, userId);
@@ -223,7 +304,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void storeSettings(final String userId, final String settings) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserData userData = datastore.find(userKey(userId));
@@ -242,144 +323,121 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public long createProject(final String userId, final Project project,
       final String projectSettings) {
-    final Result<Long> projectId = new Result<Long>();
-    final List<String> blobsToDelete = new ArrayList<String>();
+    // Reserve the project id up front, so that the blobs can be written before the job that
+    // creates the project, and the job can work on the project's entity group.
+    final long projectId = ObjectifyService.factory().allocateIds(ProjectData.class, 1)
+        .iterator().next().getId();
+    final Key<ProjectData> projectKey = projectKey(projectId);
+
     final List<FileData> addedFiles = new ArrayList<FileData>();
+    Map<String, byte[]> blobContents = new LinkedHashMap<String, byte[]>();
+    try {
+      for (TextFile file : project.getSourceFiles()) {
+        addSourceFile(projectKey, file.getFileName(),
+            file.getContent().getBytes(DEFAULT_ENCODING), addedFiles, blobContents);
+      }
+    } catch (UnsupportedEncodingException e) {  // shouldn't happen!
+      throw CrashReport.createAndLogError(LOG, null, project.getProjectName(), e);
+    }
+    for (RawFile file : project.getRawSourceFiles()) {
+      addSourceFile(projectKey, file.getFileName(), file.getContent(), addedFiles, blobContents);
+    }
+
+    // First phase: write the blobs, in parallel and before the job that creates the project.
+    final Map<String, BlobRef> blobRefs;
+    try {
+      blobRefs = uploadToBlobstoreWithRetries(projectId, blobContents);
+    } catch (BlobWriteException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    for (FileData addedFile : addedFiles) {
+      if (addedFile.isBlob) {
+        setBlob(addedFile, blobRefs.get(addedFile.fileName));
+      }
+    }
 
+    // Second phase: commit the project and the pointers to the blobs. If this fails, the blobs
+    // are deleted.
+    boolean committed = false;
     try {
       // first job is on the project entity, creating the ProjectData object
       // and the associated files.
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey) {
         @Override
-        public void run(Objectify datastore) throws ObjectifyException {
+        public void run(Objectify datastore) {
           long date = System.currentTimeMillis();
           ProjectData pd = new ProjectData();
-          pd.id = null;  // let Objectify auto-generate the project id
+          pd.id = projectId;
           pd.dateCreated = date;
           pd.dateModified = date;
           pd.history = project.getProjectHistory();
           pd.name = project.getProjectName();
           pd.settings = projectSettings;
           pd.type = project.getProjectType();
-          datastore.put(pd); // put the project in the db so that it gets assigned an id
-
-          assert pd.id != null;
-          projectId.t = pd.id;
-          // After the job commits projectId.t should end up with the last value
-          // we've gotten for pd.id (i.e. the one that committed if there
-          // was no error).
-          // Note that while we cannot expect to read back a value that we've
-          // written in this job, reading the assigned id from pd should work.
-
-          Key<ProjectData> projectKey = projectKey(projectId.t);
-          try {
-            for (TextFile file : project.getSourceFiles()) {
-              try {
-                addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE,
-                    file.getFileName(), file.getContent().getBytes(DEFAULT_ENCODING)));
-              } catch (BlobWriteException e) {
-                rememberBlobsToDelete();
-                // Note that this makes the BlobWriteException fatal. The job will
-                // not be retried if we get this exception.
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
-              }
-            }
-          } catch (UnsupportedEncodingException e) {  // shouldn't happen!
-            rememberBlobsToDelete();
-            throw CrashReport.createAndLogError(LOG, null, project.getProjectName(), e);
-          }
-          for (RawFile file : project.getRawSourceFiles()) {
-            try {
-              addedFiles.add(createRawFile(projectKey, FileData.RoleEnum.SOURCE, file.getFileName(),
-                  file.getContent()));
-            } catch (BlobWriteException e) {
-              rememberBlobsToDelete();
-              // Note that this makes the BlobWriteException fatal. The job will
-              // not be retried if we get this exception.
-              throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
-            }
-          }
+          datastore.put(pd);
           datastore.put(addedFiles);  // batch put
         }
-
-        @Override
-        public void onNonFatalError() {
-          rememberBlobsToDelete();
-        }
-        
-        private void rememberBlobsToDelete() {
-          for (FileData addedFile : addedFiles) {
-            if (addedFile.isBlob && addedFile.blobstorePath != null) {
-              blobsToDelete.add(addedFile.blobstorePath);
-            }
-          }
-          // clear addedFiles in case we end up here more than once
-          addedFiles.clear();
-        }
       });
-            
+
       // second job is on the user entity
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserProjectData upd = new UserProjectData();
-          upd.projectId = projectId.t;
+          upd.projectId = projectId;
           upd.settings = projectSettings;
           upd.state = UserProjectData.StateEnum.OPEN;
           upd.userKey = userKey(userId);
           datastore.put(upd);
         }
       });
-    } catch (ObjectifyException e) {          
-      for (FileData addedFile : addedFiles) {
-        if (addedFile.isBlob && addedFile.blobstorePath != null) {
-          blobsToDelete.add(addedFile.blobstorePath);
-        }
-      }
-      // clear addedFiles in case we end up here more than once
-      addedFiles.clear();
+      committed = true;
+    } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId.t), e);
+          collectUserProjectErrorInfo(userId, projectId), e);
     } finally {
-      // Need to delete any orphaned blobs outside of the transaction to avoid multiple entity
-      // group errors. The lookup of the blob key seems to be the thing that
-      // triggers the error.
-      for (String blobToDelete: blobsToDelete) {
-        deleteBlobstoreFile(blobToDelete);
+      if (!committed) {
+        // Need to delete any orphaned blobs outside of the transaction to avoid multiple entity
+        // group errors. The lookup of the blob key seems to be the thing that
+        // triggers the error.
+        releaseBlobs(blobRefs.values());
       }
     }
-    return projectId.t;
+    return projectId;
   }
 
   /*
-   *  Creates and returns a new FileData object with the specified fields.
-   *  Does not check for the existence of the object and does not update
-   *  the database.
+   *  Creates a new FileData object for a source file and adds it to addedFiles.
+   *  If the file belongs in the blobstore, its content is added to blobContents
+   *  instead of the FileData object. Does not check for the existence of the
+   *  object and does not update the database.
    */
-  private FileData createRawFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
-      String fileName, byte[] content) throws BlobWriteException, ObjectifyException {
+  private void addSourceFile(Key<ProjectData> projectKey, String fileName, byte[] content,
+      List<FileData> addedFiles, Map<String, byte[]> blobContents) {
     FileData file = new FileData();
     file.fileName = fileName;
     file.projectKey = projectKey;
-    file.role = role;
+    file.role = FileData.RoleEnum.SOURCE;
     if (useBlobstoreForFile(fileName)) {
       file.isBlob = true;
-      file.blobstorePath = uploadToBlobstore(content, makeBlobName(projectKey.getId(), fileName));
+      blobContents.put(fileName, content);
     } else {
       file.content = content;
     }
-    return file;
+    addedFiles.add(file);
   }
 
   @Override
   public void deleteProject(final String userId, final long projectId) {
     // blobs associated with the project
-    final List<String> blobPaths = new ArrayList<String>();
+    final List<BlobRef> blobRefs = new ArrayList<BlobRef>();
     try {
       // first job deletes the UserProjectData in the user's entity group
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           // delete the UserProjectData object
@@ -390,14 +448,15 @@ public class ObjectifyStorageIo implements  StorageIo {
       });
       // second job deletes the project files and ProjectData in the project's
       // entity group
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           Key<ProjectData> projectKey = projectKey(projectId);
           Query<FileData> fdq = datastore.query(FileData.class).ancestor(projectKey);
+          blobRefs.clear();
           for (FileData fd: fdq) {
             if (fd.isBlob) {
-              blobPaths.add(fd.blobstorePath);
+              blobRefs.add(blobRef(fd));
             }
           }
           datastore.delete(fdq);
@@ -406,9 +465,7 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
       });
       // have to delete the blobs outside of the user and project jobs
-      for (String blobPath: blobPaths) {
-        deleteBlobstoreFile(blobPath);
-      }
+      releaseBlobs(blobRefs);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId), e);
@@ -420,7 +477,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public List<Long> getProjects(final String userId) {
     final List<Long> projects = new ArrayList<Long>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           Key<UserData> userKey = userKey(userId);
@@ -436,6 +493,30 @@ public class ObjectifyStorageIo implements  StorageIo {
     return projects;
   }
 
+  @Override
+  public List<UserProject> getUserProjects(final String userId) {
+    List<Long> projectIds = getProjects(userId);
+    // A transaction can only read from a few entity groups, and each project is its own entity
+    // group, so read all of the projects in one batch get outside of a transaction. Gets by key
+    // are strongly consistent.
+    Map<Long, ProjectData> projects;
+    try {
+      projects = ObjectifyService.begin().get(ProjectData.class, projectIds);
+    } catch (RuntimeException e) {
+      throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+    }
+
+    List<UserProject> userProjects = new ArrayList<UserProject>(projectIds.size());
+    for (Long projectId : projectIds) {
+      ProjectData pd = projects.get(projectId);
+      if (pd != null) {
+        userProjects.add(new UserProject(projectId, pd.name, pd.type, pd.dateCreated,
+            pd.dateModified));
+      }
+    }
+    return userProjects;
+  }
+
   @Override
   public String loadProjectSettings(final String userId, final long projectId) {
     if (!getProjects(userId).contains(projectId)) {
@@ -445,7 +526,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     final Result<String> settings = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -467,7 +548,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public void storeProjectSettings(final String userId, final long projectId,
       final String settings) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -487,7 +568,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public String getProjectType(final String userId, final long projectId) {
     final Result<String> projectType = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -509,7 +590,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public String getProjectName(final String userId, final long projectId) {
     final Result<String> projectName = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -531,7 +612,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public long getProjectDateModified(final String userId, final long projectId) {
     final Result<Long> modDate = new Result<Long>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -558,7 +639,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     final Result<String> projectHistory = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -580,7 +661,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public long getProjectDateCreated(final String userId, final long projectId) {
     final Result<Long> dateCreated = new Result<Long>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           ProjectData pd = datastore.find(projectKey(projectId));
@@ -601,7 +682,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void addFilesToUser(final String userId, final String... fileNames) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           Key<UserData> userKey = userKey(userId);
@@ -643,7 +724,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public List<String> getUserFiles(final String userId) {
     final List<String> fileList = new ArrayList<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           Key<UserData> userKey = userKey(userId);
@@ -662,7 +743,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public void uploadUserFile(final String userId, final String fileName,
       final String content, final String encoding) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           byte[] bytes;
@@ -685,7 +766,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public void uploadRawUserFile(final String userId, final String fileName,
       final byte[] content) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           addUserFileContents(datastore, userId, fileName, content);
@@ -712,7 +793,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       final String encoding) {
     final Result<String> result = new Result<String>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           try {
@@ -733,7 +814,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   public byte[] downloadRawUserFile(final String userId, final String fileName) {
     final Result<byte[]> result = new Result<byte[]>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           UserFileData ufd = datastore.find(userFileKey(userKey(userId), fileName));
@@ -754,7 +835,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void deleteUserFile(final String userId, final String fileName) {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(userKey(userId)) {
         @Override
         public void run(Objectify datastore) {
           Key<UserFileData> ufdKey = userFileKey(userKey(userId), fileName);
@@ -783,7 +864,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           new UnauthorizedAccessException(userId, projectId, null));
     }
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
@@ -804,7 +885,7 @@ public class ObjectifyStorageIo implements  StorageIo {
           new UnauthorizedAccessException(userId, projectId, null));
     }
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           addFilesToProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
@@ -852,44 +933,56 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void removeSourceFilesFromProject(final String userId, final long projectId,
       final boolean changeModDate, final String... fileNames) {
+    final List<BlobRef> blobRefs = new ArrayList<BlobRef>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate,
+              blobRefs, fileNames);
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    releaseBlobs(blobRefs);
   }
 
   @Override
   public void removeOutputFilesFromProject(final String userId, final long projectId,
       final String... fileNames) {
+    final List<BlobRef> blobRefs = new ArrayList<BlobRef>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
+          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false,
+              blobRefs, fileNames);
         }
       });
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    releaseBlobs(blobRefs);
   }
 
+  // The blobs of the removed files are added to blobRefs, to be released after the job.
   private void removeFilesFromProject(Objectify datastore, long projectId,
-      FileData.RoleEnum role, boolean changeModDate, String... fileNames) {
+      FileData.RoleEnum role, boolean changeModDate, List<BlobRef> blobRefs,
+      String... fileNames) {
     Key<ProjectData> projectKey = projectKey(projectId);
     List<Key<FileData>> filesToRemove = new ArrayList<Key<FileData>>();
+    blobRefs.clear();
     for (String fileName : fileNames) {
       FileData fd = datastore.find(projectFileKey(projectKey, fileName));
       if (fd != null) {
         if (fd.role.equals(role)) {
           filesToRemove.add(projectFileKey(projectKey, fileName));
+          if (fd.isBlob) {
+            blobRefs.add(blobRef(fd));
+          }
         } else {
           throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(null, projectId, fileName),
@@ -912,7 +1005,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     final Result<List<String>> result = new Result<List<String>>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.SOURCE);
@@ -934,7 +1027,7 @@ public class ObjectifyStorageIo implements  StorageIo {
    }
    final Result<List<String>> result = new Result<List<String>>();
    try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           result.t = getProjectFiles(datastore, projectId, FileData.RoleEnum.TARGET);
@@ -986,57 +1079,210 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public long uploadRawFile(final long projectId, final String fileName, final String userId,
       final byte[] content) {
+    // As in uploadFiles, write the new blob before the job and only point the file at it in
+    // the job.
+    Map<String, BlobRef> newBlobRefs = Collections.emptyMap();
+    if (useBlobstoreForFile(fileName)) {
+      try {
+        newBlobRefs = uploadToBlobstoreWithRetries(projectId,
+            Collections.singletonMap(fileName, content));
+      } catch (BlobWriteException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    final BlobRef newBlobRef = newBlobRefs.get(fileName);
     final Result<Long> modTime = new Result<Long>();
-    final boolean useBlobstore = useBlobstoreForFile(fileName);
-    final Result<String> oldBlobstorePath = new Result<String>();
+    final Result<BlobRef> oldBlobRef = new Result<BlobRef>();
+    boolean committed = false;
     try {
-      runJobWithRetries(new JobRetryHelper() {
-        FileData fd;
-
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
-          fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
+          FileData fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
           Preconditions.checkState(fd != null);
-          if (fd.isBlob) {
-            // mark the old blobstore blob for deletion
-           oldBlobstorePath.t = fd.blobstorePath;
-          }
-          if (useBlobstore) {
-            fd.isBlob = true;
-            try {
-              fd.blobstorePath = uploadToBlobstore(content, makeBlobName(projectId, fileName));
-            } catch (BlobWriteException e) {
-              // Note that this makes the BlobWriteException fatal. The job will
-              // not be retried if we get this exception.
-              throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
+          // mark the old blobstore blob for deletion
+          oldBlobRef.t = fd.isBlob ? blobRef(fd) : null;
+          if (newBlobRef != null) {
+            setBlob(fd, newBlobRef);
           } else {
-            fd.content = content;
+            setContent(fd, content);
           }
           datastore.put(fd);
           modTime.t = updateProjectModDate(datastore, projectId);
         }
+      });
+      committed = true;
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      // It would have been convenient to delete the old blobstore file within the run() method
+      // above but that caused an exception where the app engine datastore claimed to be doing
+      // operations on multiple entity groups within the same transaction.  Apparently the
+      // blobstore operations are, at least partially, also datastore operations.
+      if (committed) {
+        if (oldBlobRef.t != null) {
+          releaseBlobs(Collections.singletonList(oldBlobRef.t));
+        }
+      } else {
+        releaseBlobs(newBlobRefs.values());
+      }
+    }
+    return modTime.t;
+  }
 
+  @Override
+  public long uploadFiles(final long projectId, final String userId, Map<String, String> contents,
+      String encoding) {
+    final Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    try {
+      for (Map.Entry<String, String> entry : contents.entrySet()) {
+        rawContents.put(entry.getKey(), entry.getValue().getBytes(encoding));
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+          + collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    try {
+      return uploadRawFiles(projectId, userId, rawContents, null);
+    } catch (FileConflictException e) {
+      // Not thrown without base files.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public long uploadFileDeltas(final long projectId, final String userId,
+      Map<String, TextDelta> deltas, String encoding) throws FileConflictException {
+    // Read the files that the deltas apply to. uploadRawFiles() checks that they haven't changed
+    // when it writes the new contents.
+    Key<ProjectData> projectKey = projectKey(projectId);
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(deltas.size());
+    for (String fileName : deltas.keySet()) {
+      fileKeys.add(projectFileKey(projectKey, fileName));
+    }
+    final Result<Map<Key<FileData>, FileData>> files = new Result<Map<Key<FileData>, FileData>>();
+    try {
+      runJobWithRetries(new JobRetryHelper(projectKey) {
         @Override
-        public void onNonFatalError() {
-          if (fd != null && fd.blobstorePath != null) {
-            oldBlobstorePath.t = fd.blobstorePath;
-          }
+        public void run(Objectify datastore) {
+          files.t = datastore.get(fileKeys);
         }
       });
-      // It would have been convenient to delete the old blobstore file within the run() method
-      // above but that caused an exception where the app engine datastore claimed to be doing
-      // operations on multiple entity groups within the same transaction.  Apparently the blobstore
-      // operations are, at least partially, also datastore operations.
-      if (oldBlobstorePath.t != null) {
-        deleteBlobstoreFile(oldBlobstorePath.t);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    Map<String, byte[]> baseContents = getFileContents(userId, projectId, fileKeys, files.t);
+
+    Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    Map<String, FileData> baseFiles = new LinkedHashMap<String, FileData>();
+    for (Key<FileData> fileKey : fileKeys) {
+      String fileName = fileKey.getName();
+      TextDelta delta = deltas.get(fileName);
+      try {
+        String base = new String(baseContents.get(fileName), encoding);
+        if (!delta.appliesTo(base)) {
+          throw new FileConflictException(projectId, fileName);
+        }
+        if (!delta.isEmpty()) {
+          rawContents.put(fileName, delta.applyTo(base).getBytes(encoding));
+          baseFiles.put(fileName, files.t.get(fileKey));
+        }
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    if (rawContents.isEmpty()) {
+      // Nothing changed, so there is nothing to write.
+      return getProjectDateModified(userId, projectId);
+    }
+    return uploadRawFiles(projectId, userId, rawContents, baseFiles);
+  }
+
+  /*
+   * Uploads the given contents in a single transaction. If baseFiles is not null, it contains
+   * the entities of the files as they were read before the contents were computed, and nothing
+   * is saved if any of the files has changed since.
+   */
+  private long uploadRawFiles(final long projectId, final String userId,
+      final Map<String, byte[]> rawContents, @Nullable final Map<String, FileData> baseFiles)
+      throws FileConflictException {
+    final Key<ProjectData> projectKey = projectKey(projectId);
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(rawContents.size());
+    Map<String, byte[]> blobContents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, byte[]> entry : rawContents.entrySet()) {
+      fileKeys.add(projectFileKey(projectKey, entry.getKey()));
+      if (useBlobstoreForFile(entry.getKey())) {
+        blobContents.put(entry.getKey(), entry.getValue());
       }
+    }
+
+    // First phase: write the new blobs, in parallel and before the job that points the files at
+    // them.
+    final Map<String, BlobRef> newBlobRefs;
+    try {
+      newBlobRefs = uploadToBlobstoreWithRetries(projectId, blobContents);
+    } catch (BlobWriteException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+
+    // Second phase: point the files at the new blobs. If this fails, the new blobs are deleted,
+    // otherwise the old ones are.
+    final Result<Long> modTime = new Result<Long>();
+    final Result<String> changedFile = new Result<String>();
+    final List<BlobRef> oldBlobRefs = new ArrayList<BlobRef>();
+    boolean committed = false;
+    try {
+      runJobWithRetries(new JobRetryHelper(projectKey) {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobRefs.clear();
+          changedFile.t = null;
+          Map<Key<FileData>, FileData> files = datastore.get(fileKeys);
+          List<FileData> filesToPut = new ArrayList<FileData>(fileKeys.size());
+          for (Key<FileData> fileKey : fileKeys) {
+            FileData fd = files.get(fileKey);
+            Preconditions.checkState(fd != null);
+            String fileName = fileKey.getName();
+            if (baseFiles != null && !sameContent(fd, baseFiles.get(fileName))) {
+              changedFile.t = fileName;
+              return;
+            }
+            if (fd.isBlob) {
+              // mark the old blobstore blob for deletion
+              oldBlobRefs.add(blobRef(fd));
+            }
+            if (newBlobRefs.containsKey(fileName)) {
+              setBlob(fd, newBlobRefs.get(fileName));
+            } else {
+              setContent(fd, rawContents.get(fileName));
+            }
+            filesToPut.add(fd);
+          }
+          datastore.put(filesToPut);
+          modTime.t = updateProjectModDate(datastore, projectId);
+        }
+      });
+      committed = changedFile.t == null;
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } finally {
+      // As in uploadRawFile, delete the blobs outside of the job.
+      releaseBlobs(committed ? oldBlobRefs : newBlobRefs.values());
+    }
+    if (changedFile.t != null) {
+      throw new FileConflictException(projectId, changedFile.t);
     }
     return modTime.t;
   }
@@ -1056,6 +1302,285 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  /*
+   * Releases the given blobs, in parallel: blobs that are not shared are deleted, and shared
+   * blobs are deleted once no file points to them anymore. Like deleteBlobstoreFile(), this
+   * must be called outside of any job.
+   */
+  private void releaseBlobs(Collection<BlobRef> blobRefs) {
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(blobRefs.size());
+    for (final BlobRef blobRef : blobRefs) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          if (blobRef.contentHash == null) {
+            deleteBlobstoreFile(blobRef.blobstorePath);
+          } else {
+            releaseSharedBlob(blobRef.contentHash);
+          }
+          return null;
+        }
+      });
+    }
+    try {
+      ParallelTasks.invokeAll(tasks, blobParallelism.get(), getBlobThreadFactory());
+    } catch (ExecutionException e) {
+      // deleteBlobstoreFile() and releaseSharedBlob() log their own errors, so we only get here
+      // if we were interrupted.
+      CrashReport.createAndLogError(LOG, null, "Error releasing blobs " + blobRefs, e);
+    }
+  }
+
+  /*
+   * Writes the given contents to the blobstore like uploadToBlobstore(), and tries again if
+   * the writes fail with a ConcurrentModificationException or an ObjectifyException. The
+   * blobs of a failed try are released before the next one. A BlobWriteException is not
+   * retried. This doesn't start a job of its own, and must be called outside of any job.
+   */
+  private Map<String, BlobRef> uploadToBlobstoreWithRetries(long projectId,
+      Map<String, byte[]> contents) throws BlobWriteException, ObjectifyException {
+    if (contents.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    int tries = 0;
+    while (true) {
+      try {
+        return uploadToBlobstore(projectId, contents);
+      } catch (ConcurrentModificationException e) {
+        if (++tries > MAX_BLOB_WRITE_RETRIES) {
+          throw new ObjectifyException(e);
+        }
+        LOG.log(Level.WARNING, "Retrying blob writes of project " + projectId, e);
+      } catch (ObjectifyException e) {
+        if (++tries > MAX_BLOB_WRITE_RETRIES) {
+          throw e;
+        }
+        LOG.log(Level.WARNING, "Retrying blob writes of project " + projectId, e);
+      }
+      try {
+        Thread.sleep(getRetryBackoffMillis(tries));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ObjectifyException(e);
+      }
+    }
+  }
+
+  /*
+   * Writes the given contents to the blobstore, in parallel, and returns a map from file name
+   * to blob. Files for which shareBlobForFile() is true share the blob of any other file with
+   * the same content, and their content is only written if there is no such blob yet. If any of
+   * the writes fails, the writes that haven't started yet are skipped and the blobs that were
+   * acquired are released. This must be called outside of any job.
+   */
+  private Map<String, BlobRef> uploadToBlobstore(final long projectId,
+      Map<String, byte[]> contents) throws BlobWriteException, ObjectifyException {
+    final List<BlobRef> acquiredBlobRefs = Collections.synchronizedList(new ArrayList<BlobRef>());
+    final AtomicBoolean failed = new AtomicBoolean();
+    List<Callable<BlobRef>> tasks = new ArrayList<Callable<BlobRef>>(contents.size());
+    for (final Map.Entry<String, byte[]> entry : contents.entrySet()) {
+      tasks.add(new Callable<BlobRef>() {
+        @Override
+        public BlobRef call() throws BlobWriteException, ObjectifyException {
+          if (failed.get()) {
+            // The blob would only be released again.
+            return null;
+          }
+          boolean acquired = false;
+          try {
+            String blobName = makeBlobName(projectId, entry.getKey());
+            BlobRef blobRef = shareBlobForFile(entry.getKey())
+                ? acquireSharedBlob(entry.getValue(), blobName)
+                : new BlobRef(uploadToBlobstore(entry.getValue(), blobName), null);
+            acquiredBlobRefs.add(blobRef);
+            acquired = true;
+            return blobRef;
+          } finally {
+            if (!acquired) {
+              failed.set(true);
+            }
+          }
+        }
+      });
+    }
+    List<BlobRef> blobRefs;
+    try {
+      blobRefs = ParallelTasks.invokeAll(tasks, blobParallelism.get(), getBlobThreadFactory());
+    } catch (ExecutionException e) {
+      releaseBlobs(acquiredBlobRefs);
+      Throwable cause = e.getCause();
+      if (cause instanceof BlobWriteException) {
+        throw (BlobWriteException) cause;
+      } else if (cause instanceof ObjectifyException) {
+        throw (ObjectifyException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ObjectifyException(e);
+    }
+    Map<String, BlobRef> result = new LinkedHashMap<String, BlobRef>();
+    Iterator<BlobRef> blobRefIterator = blobRefs.iterator();
+    for (String fileName : contents.keySet()) {
+      result.put(fileName, blobRefIterator.next());
+    }
+    return result;
+  }
+
+  /*
+   * Returns a reference to the shared blob with the given content, writing the blob if there is
+   * none yet. The reference must be released with releaseSharedBlob(), even if it is never
+   * stored in a FileData. This must be called outside of any job.
+   */
+  private BlobRef acquireSharedBlob(byte[] content, String name)
+      throws BlobWriteException, ObjectifyException {
+    final String contentHash = contentHash(content);
+    final Key<SharedBlobData> sharedBlobKey = sharedBlobKey(contentHash);
+    final Result<String> blobstorePath = new Result<String>();
+    // Most of the time, another file already has this content. Just count one more reference.
+    runJobWithRetries(new JobRetryHelper(sharedBlobKey) {
+      @Override
+      public void run(Objectify datastore) {
+        blobstorePath.t = null;
+        SharedBlobData sbd = datastore.find(sharedBlobKey);
+        if (sbd != null) {
+          sbd.refCount++;
+          datastore.put(sbd);
+          blobstorePath.t = sbd.blobstorePath;
+        }
+      }
+    });
+    if (blobstorePath.t != null) {
+      return new BlobRef(blobstorePath.t, contentHash);
+    }
+
+    // Write the blob, then publish it, unless another request has published the same content
+    // in the meantime.
+    final String newBlobstorePath = uploadToBlobstore(content, name);
+    try {
+      runJobWithRetries(new JobRetryHelper(sharedBlobKey) {
+        @Override
+        public void run(Objectify datastore) {
+          SharedBlobData sbd = datastore.find(sharedBlobKey);
+          if (sbd == null) {
+            sbd = new SharedBlobData();
+            sbd.contentHash = contentHash;
+            sbd.blobstorePath = newBlobstorePath;
+          }
+          sbd.refCount++;
+          datastore.put(sbd);
+          blobstorePath.t = sbd.blobstorePath;
+        }
+      });
+    } finally {
+      if (!newBlobstorePath.equals(blobstorePath.t)) {
+        deleteBlobstoreFile(newBlobstorePath);
+      }
+    }
+    return new BlobRef(blobstorePath.t, contentHash);
+  }
+
+  /*
+   * Releases a reference to the shared blob with the given content hash, and deletes the blob
+   * if that was the last reference. Errors are logged but not fatal. This must be called outside
+   * of any job.
+   */
+  private void releaseSharedBlob(String contentHash) {
+    final Key<SharedBlobData> sharedBlobKey = sharedBlobKey(contentHash);
+    final Result<String> unusedBlobstorePath = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper(sharedBlobKey) {
+        @Override
+        public void run(Objectify datastore) {
+          unusedBlobstorePath.t = null;
+          SharedBlobData sbd = datastore.find(sharedBlobKey);
+          if (sbd == null) {
+            return;
+          }
+          sbd.refCount--;
+          if (sbd.refCount > 0) {
+            datastore.put(sbd);
+          } else {
+            datastore.delete(sharedBlobKey);
+            unusedBlobstorePath.t = sbd.blobstorePath;
+          }
+        }
+      });
+    } catch (ObjectifyException e) {
+      // Like blob delete errors, don't make this fatal. The blob is leaked.
+      CrashReport.createAndLogError(LOG, null, "Error releasing shared blob " + contentHash, e);
+    }
+    if (unusedBlobstorePath.t != null) {
+      deleteBlobstoreFile(unusedBlobstorePath.t);
+    }
+  }
+
+  /*
+   * Returns the hash that identifies the shared blob with the given content.
+   */
+  @VisibleForTesting
+  static String contentHash(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+      StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {  // shouldn't happen!
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @VisibleForTesting
+  boolean shareBlobForFile(String fileName) {
+    return shareAssetBlobs.get() && fileName.contains("assets/");
+  }
+
+  private static BlobRef blobRef(FileData fd) {
+    return new BlobRef(fd.blobstorePath, fd.blobHash);
+  }
+
+  // Whether the given entities of a file point at the same content. A blob is never rewritten,
+  // so files with the same blobstore path have the same content.
+  private static boolean sameContent(FileData fd, FileData other) {
+    return fd.isBlob == other.isBlob
+        && Objects.equal(fd.blobstorePath, other.blobstorePath)
+        && Arrays.equals(fd.content, other.content);
+  }
+
+  // Points the given file at the given blob.
+  private static void setBlob(FileData fd, BlobRef blobRef) {
+    fd.isBlob = true;
+    fd.blobstorePath = blobRef.blobstorePath;
+    fd.blobHash = blobRef.contentHash;
+    // If the content was previously stored in the datastore, clear it out.
+    fd.content = null;
+  }
+
+  // Stores the given content in the given file, instead of in a blob.
+  private static void setContent(FileData fd, byte[] content) {
+    fd.isBlob = false;
+    fd.blobstorePath = null;
+    fd.blobHash = null;
+    fd.content = content;
+  }
+
+  /*
+   * Returns the factory of the threads that read, write and delete blobs in parallel, or null
+   * if they can't be created and the blobs must be handled one after another.
+   */
+  @VisibleForTesting
+  @Nullable
+  ThreadFactory getBlobThreadFactory() {
+    try {
+      return ThreadManager.currentRequestThreadFactory();
+    } catch (RuntimeException e) {
+      // Outside of a request, for example in tests, there is no request to create threads for.
+      return null;
+    }
+  }
+
+
   private String uploadToBlobstore(byte[] content, String name) 
       throws BlobWriteException, ObjectifyException {
     // Create a new Blob file with generic mime-type "application/octet-stream"
@@ -1095,16 +1620,14 @@ public class ObjectifyStorageIo implements  StorageIo {
           new UnauthorizedAccessException(userId, projectId, null));
     }
     final Result<Long> modTime = new Result<Long>();
-    final Result<String> oldBlobstorePath = new Result<String>();
+    final Result<BlobRef> oldBlobRef = new Result<BlobRef>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
           FileData fileData = datastore.find(fileKey);
-          if (fileData != null) {
-            oldBlobstorePath.t = fileData.blobstorePath;
-          }
+          oldBlobRef.t = (fileData != null && fileData.isBlob) ? blobRef(fileData) : null;
           datastore.delete(fileKey);
           modTime.t = updateProjectModDate(datastore, projectId);
         }
@@ -1113,8 +1636,8 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
-    if (oldBlobstorePath.t != null) {
-      deleteBlobstoreFile(oldBlobstorePath.t);
+    if (oldBlobRef.t != null) {
+      releaseBlobs(Collections.singletonList(oldBlobRef.t));
     }
     return (modTime.t == null) ? 0 : modTime.t;
   }
@@ -1140,10 +1663,9 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectUserProjectErrorInfo(userId, projectId),
           new UnauthorizedAccessException(userId, projectId, null));
     }
-    final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
           Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
@@ -1155,24 +1677,107 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob outside of the job
-    FileData fileData = fd.t;
-    if (fileData != null) {
-      if (fileData.isBlob) {
-        try {
-          result.t = getBlobstoreBytes(fileData.blobstorePath);
-        } catch (BlobReadException e) {
-          throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
+    return getFileContent(userId, projectId, fileName, fd.t);
+  }
+
+  @Override
+  public Map<String, String> downloadFiles(String userId, long projectId,
+      List<String> fileNames, String encoding) {
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, byte[]> entry :
+        downloadRawFiles(userId, projectId, fileNames).entrySet()) {
+      try {
+        contents.put(entry.getKey(), new String(entry.getValue(), encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+            + collectProjectErrorInfo(userId, projectId, entry.getKey()), e);
+      }
+    }
+    return contents;
+  }
+
+  @Override
+  public Map<String, byte[]> downloadRawFiles(final String userId, final long projectId,
+      List<String> fileNames) {
+    if (!getProjects(userId).contains(projectId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    Key<ProjectData> projectKey = projectKey(projectId);
+    final List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(fileNames.size());
+    for (String fileName : fileNames) {
+      fileKeys.add(projectFileKey(projectKey, fileName));
+    }
+    final Result<Map<Key<FileData>, FileData>> files = new Result<Map<Key<FileData>, FileData>>();
+    try {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
+        @Override
+        public void run(Objectify datastore) {
+          files.t = datastore.get(fileKeys);
         }
-      } else {
-        result.t = fileData.content;
+      });
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return getFileContents(userId, projectId, fileKeys, files.t);
+  }
+
+  /*
+   * Returns the contents of the given files, in the order of fileKeys. The blobs are read in
+   * parallel, so this must be called outside of any job.
+   */
+  private Map<String, byte[]> getFileContents(final String userId, final long projectId,
+      List<Key<FileData>> fileKeys, Map<Key<FileData>, FileData> files) {
+    List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>(fileKeys.size());
+    for (Key<FileData> fileKey : fileKeys) {
+      final String fileName = fileKey.getName();
+      final FileData fd = files.get(fileKey);
+      tasks.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return getFileContent(userId, projectId, fileName, fd);
+        }
+      });
+    }
+    List<byte[]> fileContents;
+    try {
+      fileContents = ParallelTasks.invokeAll(tasks, blobParallelism.get(),
+          getBlobThreadFactory());
+    } catch (ExecutionException e) {
+      // getFileContent() reports its own errors.
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
       }
-    } else {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+    for (int i = 0; i < fileKeys.size(); i++) {
+      contents.put(fileKeys.get(i).getName(), fileContents.get(i));
+    }
+    return contents;
+  }
+
+  // Note: this must be called outside of any transaction, because it may read
+  // from blobstore.
+  private byte[] getFileContent(String userId, long projectId, String fileName,
+      @Nullable FileData fileData) {
+    if (fileData == null) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName),
           new FileNotFoundException("No data for " + fileName));
     }
-    return result.t;
+    if (fileData.isBlob) {
+      try {
+        return getBlobstoreBytes(fileData.blobstorePath);
+      } catch (BlobReadException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    return fileData.content;
   }
 
   // Note: this must be called outside of any transaction, since getBlobKey()
@@ -1193,6 +1798,28 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  // Note: like getBlobstoreBytes(), this must be called outside of any transaction.
+  // BlobstoreInputStream reads the blob in chunks, so the blob is never held in memory.
+  private void copyBlobstoreFile(String blobstorePath, OutputStream out)
+      throws BlobReadException {
+    AppEngineFile blobstoreFile = new AppEngineFile(blobstorePath);
+    BlobKey blobKey = fileService.getBlobKey(blobstoreFile);
+    if (blobKey == null) {
+      throw new BlobReadException("getBlobKey() returned null for " + blobstorePath);
+    }
+    try {
+      InputStream blobInputStream = new BlobstoreInputStream(blobKey);
+      try {
+        ByteStreams.copy(blobInputStream, out);
+      } finally {
+        blobInputStream.close();
+      }
+    } catch (IOException e) {
+      throw new BlobReadException(e, "Error trying to copy blob from " + blobstorePath
+          + ", blobkey = " + blobKey);
+    }
+  }
+
   /**
    *  Exports project files as a zip archive
    * @param userId a user Id (the request is made on behalf of this user)
@@ -1208,7 +1835,37 @@ public class ObjectifyStorageIo implements  StorageIo {
                                                  final boolean includeProjectHistory,
                                                  final boolean includeAndroidKeystore,
                                                  @Nullable String zipName) throws IOException {
-    final Result<Integer> fileCount = new Result<Integer>();
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<Integer> fileCount = new Result<Integer>();
+    String projectName = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, zipFile, fileCount);
+
+    if (zipName == null) {
+      zipName = projectName + ".zip";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
+    projectSourceZip.setMetadata(projectName);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+      boolean includeAndroidKeystore, OutputStream out) throws IOException {
+    Result<Integer> fileCount = new Result<Integer>();
+    writeProjectSourceZip(userId, projectId, includeProjectHistory, includeAndroidKeystore, out,
+        fileCount);
+    return fileCount.t;
+  }
+
+  /*
+   * Writes the source files of a project to the given stream as a zip, sets
+   * fileCount to the number of files in the zip and returns the name of the
+   * project. The stream is not closed.
+   */
+  private String writeProjectSourceZip(final String userId, final long projectId,
+      final boolean includeProjectHistory, boolean includeAndroidKeystore,
+      OutputStream outputStream, Result<Integer> fileCount) throws IOException {
     fileCount.t = 0;
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
@@ -1220,14 +1877,13 @@ public class ObjectifyStorageIo implements  StorageIo {
     final Result<String> projectName = new Result<String>();
     projectName.t = null;
     String fileName = null;
-    
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
-    
+
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(projectKey(projectId)) {
         @Override
         public void run(Objectify datastore) {
+          // Start over if the job is retried.
+          fileData.clear();
           Key<ProjectData> projectKey = projectKey(projectId);
           boolean foundFiles = false;
           for (FileData fd : datastore.query(FileData.class).ancestor(projectKey)) {
@@ -1250,24 +1906,56 @@ public class ObjectifyStorageIo implements  StorageIo {
           }
         }
       });
+    } catch (ObjectifyException e) {
+      CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      throw new IOException("Reflecting exception for userid " + userId +
+          " projectId " + projectId + ", original exception " + e.getMessage());
+    }
 
+    if (fileData.isEmpty()) {
+      // Check this before writing anything, so that the caller can still
+      // report the error.
+      throw new IllegalArgumentException("No files to download");
+    }
+
+    final Result<byte[]> androidKeystore = new Result<byte[]>();
+    if (includeAndroidKeystore) {
+      try {
+        runJobWithRetries(new JobRetryHelper(userKey(userId)) {
+            @Override
+            public void run(Objectify datastore) {
+              Key<UserData> userKey = userKey(userId);
+              for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
+                if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
+                    (ufd.content.length > 0)) {
+                  androidKeystore.t = ufd.content;
+                }
+              }
+            }
+          });
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
+      }
+    }
+
+    ZipOutputStream out = new ZipOutputStream(outputStream);
+    try {
       // Process the file contents outside of the job since we can't read
       // blobs in the job.
       for (FileData fd : fileData) {
         fileName = fd.fileName;
-        byte[] data;
+        out.putNextEntry(new ZipEntry(fileName));
         if (fd.isBlob) {
           try {
-            data = getBlobstoreBytes(fd.blobstorePath);
+            copyBlobstoreFile(fd.blobstorePath, out);
           } catch (BlobReadException e) {
             throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
           }
         } else {
-          data = fd.content;
+          out.write(fd.content, 0, fd.content.length);
         }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
         out.closeEntry();
         fileCount.t++;
       }
@@ -1278,67 +1966,28 @@ public class ObjectifyStorageIo implements  StorageIo {
         out.closeEntry();
         fileCount.t++;
       }
-    } catch (ObjectifyException e) {
-      CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
-      throw new IOException("Reflecting exception for userid " + userId +
-          " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
-
-    if (fileCount.t == 0) {
-      // can't close out since will get a ZipException due to the lack of files
-      throw new IllegalArgumentException("No files to download");
-    }
-
-    if (includeAndroidKeystore) {
-      try {
-        runJobWithRetries(new JobRetryHelper() {
-            @Override
-            public void run(Objectify datastore) {
-              try {
-                Key<UserData> userKey = userKey(userId);
-                for (UserFileData ufd : datastore.query(UserFileData.class).ancestor(userKey)) {
-                  if (ufd.fileName.equals(StorageUtil.ANDROID_KEYSTORE_FILENAME) &&
-                      (ufd.content.length > 0)) {
-                    out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-                    out.write(ufd.content, 0, ufd.content.length);
-                    out.closeEntry();
-                    fileCount.t++;
-                  }
-                }
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, 
-                        StorageUtil.ANDROID_KEYSTORE_FILENAME), e);
-              }
-            }
-          });
-      } catch (ObjectifyException e) {
-        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
-      }
-    }
-
-    out.close();
-
-    if (zipName == null) {
-      zipName = projectName.t + ".zip";
+    if (androidKeystore.t != null) {
+      out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
+      out.write(androidKeystore.t, 0, androidKeystore.t.length);
+      out.closeEntry();
+      fileCount.t++;
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    // Finish the zip without closing the caller's stream.
+    out.finish();
+    return projectName.t;
   }
 
   @Override
   public Motd getCurrentMotd() {
     final Result<Motd> motd = new Result<Motd>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(motdKey()) {
         @Override
         public void run(Objectify datastore) {
           MotdData motdData = datastore.find(MotdData.class, MOTD_ID);
@@ -1369,7 +2018,7 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   private void initMotd() {
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runJobWithRetries(new JobRetryHelper(motdKey()) {
         @Override
         public void run(Objectify datastore) {
           MotdData motdData = datastore.find(MotdData.class, MOTD_ID);
@@ -1400,6 +2049,14 @@ public class ObjectifyStorageIo implements  StorageIo {
     return new Key<UserData>(UserData.class, userId);
   }
 
+  private Key<MotdData> motdKey() {
+    return new Key<MotdData>(MotdData.class, MOTD_ID);
+  }
+
+  private Key<SharedBlobData> sharedBlobKey(String contentHash) {
+    return new Key<SharedBlobData>(SharedBlobData.class, contentHash);
+  }
+
   private Key<ProjectData> projectKey(long projectId) {
     return new Key<ProjectData>(ProjectData.class, projectId);
   }
@@ -1427,7 +2084,9 @@ public class ObjectifyStorageIo implements  StorageIo {
    */
   @VisibleForTesting
   void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    String entityGroup = String.valueOf(job.entityGroup);
     int tries = 0;
+    long totalBackoffMillis = 0;
     while (tries <= MAX_JOB_RETRIES) {
       Objectify datastore = ObjectifyService.beginTransaction();
       try {
@@ -1436,7 +2095,8 @@ public class ObjectifyStorageIo implements  StorageIo {
         break;
       } catch (ConcurrentModificationException ex) {
         job.onNonFatalError();
-        LOG.log(Level.WARNING, "Optimistic concurrency failure", ex);
+        LOG.log(Level.WARNING, "Optimistic concurrency failure on " + entityGroup + " ("
+            + contention.recordConflict(entityGroup) + ")", ex);
       } catch (ObjectifyException oe) {
         // maybe this should be a fatal error? I think the only thing
         // that creates this exception (other than this method) is uploadToBlobstore
@@ -1451,12 +2111,54 @@ public class ObjectifyStorageIo implements  StorageIo {
         }
       }
       tries++;
+      if (tries > MAX_JOB_RETRIES) {
+        break;
+      }
+      // Back off before retrying, so that jobs that conflict with each other
+      // don't retry in lockstep and conflict again.
+      long backoffMillis = getRetryBackoffMillis(tries);
+      totalBackoffMillis += backoffMillis;
+      if (totalBackoffMillis > retryBudgetMillis.get()) {
+        tries = MAX_JOB_RETRIES + 1;
+        break;
+      }
+      contention.recordRetry(entityGroup);
+      try {
+        Thread.sleep(backoffMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ObjectifyException(e);
+      }
     }
     if (tries > MAX_JOB_RETRIES) {
+      LOG.log(Level.WARNING, "Couldn't commit job on " + entityGroup + " ("
+          + contention.recordExhausted(entityGroup) + ")");
       throw new ObjectifyException("Couldn't commit job after max retries.");
     }
   }
 
+  /*
+   * Returns a random delay before the given retry of a job, with an upper bound
+   * that grows exponentially with the number of tries.
+   */
+  @VisibleForTesting
+  static long getRetryBackoffMillis(int tries) {
+    long maxBackoffMillis = maxRetryBackoffMillis.get();
+    long bound = Math.min(maxBackoffMillis,
+        initialRetryBackoffMillis.get().longValue() << Math.min(tries - 1, 30));
+    if (bound <= 0) {
+      return 0;
+    }
+    synchronized (random) {
+      return random.nextInt((int) bound) + 1;
+    }
+  }
+
+  @VisibleForTesting
+  static EntityGroupContention getContention() {
+    return contention;
+  }
+
   private static String collectUserErrorInfo(final String userId) {
     return collectUserErrorInfo(userId, CrashReport.NOT_AVAILABLE);
   }
@@ -1497,6 +2199,12 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @VisibleForTesting
+  long getSharedBlobRefCount(String contentHash) {
+    SharedBlobData sbd = ObjectifyService.begin().find(sharedBlobKey(contentHash));
+    return (sbd == null) ? 0 : sbd.refCount;
+  }
+
   @VisibleForTesting
   ProjectData getProject(long projectId) {
     return ObjectifyService.begin().find(projectKey(projectId));
@@ -0,0 +1,89 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs independent tasks, such as blobstore reads and writes, on a bounded
+ * number of threads and waits for all of them to finish.
+ *
+ * <p>On App Engine the threads must be created with the thread factory of the
+ * current request, and they end when the tasks have finished, before the
+ * request does.
+ *
+ */
+final class ParallelTasks {
+  private ParallelTasks() {
+  }
+
+  /**
+   * Runs the given tasks and returns their results, in the same order as the
+   * tasks. The tasks are run on the calling thread, one after another, if
+   * there is only one task, if maxThreads is 1 or less, or if threadFactory is
+   * null.
+   *
+   * <p>All tasks are run even if some of them fail.
+   *
+   * @param tasks the tasks to run
+   * @param maxThreads the largest number of tasks to run at the same time
+   * @param threadFactory creates the threads that run the tasks
+   * @return the results of the tasks
+   * @throws ExecutionException if a task failed. The cause is the exception
+   *         thrown by the first failed task, in task order.
+   */
+  static <T> List<T> invokeAll(List<? extends Callable<T>> tasks, int maxThreads,
+      @Nullable ThreadFactory threadFactory) throws ExecutionException {
+    List<T> results = new ArrayList<T>(tasks.size());
+    if (tasks.size() <= 1 || maxThreads <= 1 || threadFactory == null) {
+      Exception failure = null;
+      for (Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        } catch (Exception e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return results;
+    }
+
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(maxThreads, tasks.size()), threadFactory);
+    try {
+      List<Future<T>> futures = executor.invokeAll(tasks);
+      ExecutionException failure = null;
+      for (Future<T> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
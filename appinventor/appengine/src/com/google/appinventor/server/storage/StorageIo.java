@@ -2,13 +2,17 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.shared.rpc.Motd;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.user.User;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -110,6 +114,15 @@ public interface StorageIo {
    */
   List<Long> getProjects(String userId);
 
+  /**
+   * Returns the name, type and dates of all projects for the given user,
+   * reading them from the data store in a constant number of round trips.
+   *
+   * @param userId  user ID
+   * @return  list of projects
+   */
+  List<UserProject> getUserProjects(String userId);
+
   /**
    * Returns a string with the project settings.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -324,6 +337,33 @@ public interface StorageIo {
    */
   long uploadRawFile(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Uploads several files of a project in a single transaction, updating the
+   * modification date of the project once.
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param contents  map from file ID to file content
+   * @param encoding encoding of contents
+   * @return modification date for project
+   */
+  long uploadFiles(long projectId, String userId, Map<String, String> contents, String encoding);
+
+  /**
+   * Applies deltas to text files of a project and saves the results in a
+   * single transaction, updating the modification date of the project once.
+   * If the delta of any file doesn't apply to its saved content, none of the
+   * files are saved.
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param deltas  map from file ID to the delta to apply to its saved content
+   * @param encoding encoding of the files' content
+   * @return modification date for project
+   * @throws FileConflictException if the saved content of a file is not the
+   *         content its delta was computed against
+   */
+  long uploadFileDeltas(long projectId, String userId, Map<String, TextDelta> deltas,
+      String encoding) throws FileConflictException;
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -344,6 +384,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files of a project, reading them from
+   * the data store in a single batch.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  map from file ID to text file content, in the order of fileIds
+   */
+  Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Downloads raw file data.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -354,6 +407,17 @@ public interface StorageIo {
    */
   byte[] downloadRawFile(String userId, long projectId, String fileId);
 
+  /**
+   * Downloads the data of several files of a project, reading them from the
+   * data store in a single batch and from the blobstore in parallel.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   *
+   * @return  map from file ID to file content, in the order of fileIds
+   */
+  Map<String, byte[]> downloadRawFiles(String userId, long projectId, List<String> fileIds);
+
   // MOTD management
 
   /**
@@ -377,6 +441,23 @@ public interface StorageIo {
                                           boolean includeProjectHistory,
                                           boolean includeAndroidKeystore,
                                           @Nullable String zipName) throws IOException;
+
+  /**
+   *  Writes project files as a zip archive to the given stream, without
+   *  holding the archive or the content of any blobstore file in memory. The
+   *  stream is not closed.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param out  the stream to write the zip archive to
+   *
+   * @return  the number of files in the zip archive
+   * @throws IllegalArgumentException if the project has no source files, in
+   *    which case nothing is written to the stream
+   */
+  int exportProjectSourceZip(String userId, long projectId, boolean includeProjectHistory,
+      boolean includeAndroidKeystore, OutputStream out) throws IOException;
   
   /**
    * Find a user's id given their email address. Note that this query is case
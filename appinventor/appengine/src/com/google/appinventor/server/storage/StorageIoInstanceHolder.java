@@ -11,7 +11,9 @@ package com.google.appinventor.server.storage;
  *
  */
 public class StorageIoInstanceHolder {
-  public static final StorageIo INSTANCE = new ObjectifyStorageIo();
+  public static final StorageIo INSTANCE = CachingStorageIo.useCache.get()
+      ? new CachingStorageIo(new ObjectifyStorageIo())
+      : new ObjectifyStorageIo();
   
   private StorageIoInstanceHolder() {} // not to be instantiated
     
@@ -147,10 +147,29 @@ public class StoredData {
     // The Blobstore path to use to get the data from Blobstore
     String blobstorePath;
 
+    // If the Blobstore blob is shared with other files that have the same content, the hash of
+    // the content, which is the id of the SharedBlobData that counts the references to the blob.
+    // Shared blobs must be released, never deleted directly.
+    String blobHash;
+
     // File settings
     String settings;
   }
 
+  // A Blobstore blob that is shared by all the files, in any project of any user, that have the
+  // same content. The SharedBlobData class is an entity root.
+  @Unindexed
+  static final class SharedBlobData {
+    // The hash of the content of the blob
+    @Id String contentHash;
+
+    // The Blobstore path to use to get the data from Blobstore
+    String blobstorePath;
+
+    // The number of files that point to the blob. The blob is deleted when this drops to 0.
+    long refCount;
+  }
+
   // MOTD data.
   @Unindexed
   static final class MotdData {
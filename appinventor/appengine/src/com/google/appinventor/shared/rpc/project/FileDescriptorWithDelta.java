@@ -0,0 +1,47 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.shared.rpc.project;
+
+/**
+ * Describes a file (using its project and file IDs) and a change to its saved
+ * content.
+ *
+ * @see com.google.appinventor.common.youngandroid.TextDelta
+ */
+public final class FileDescriptorWithDelta extends FileDescriptor {
+
+  // For serialization
+  private static final long serialVersionUID = -3275148613470921062L;
+
+  // Encoded delta
+  private String delta;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private FileDescriptorWithDelta() {
+  }
+
+  /**
+   * Creates a new descriptor for a file and a change to its content.
+   *
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param delta  encoded delta against the saved content of the file
+   */
+  public FileDescriptorWithDelta(long projectId, String fileId, String delta) {
+    super(projectId, fileId);
+    this.delta = delta;
+  }
+
+  /**
+   * Returns the encoded delta against the saved content of the associated file.
+   *
+   * @return  encoded delta
+   */
+  public String getDelta() {
+    return delta;
+  }
+}
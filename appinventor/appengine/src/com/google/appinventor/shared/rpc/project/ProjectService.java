@@ -64,6 +64,17 @@ public interface ProjectService extends RemoteService {
    */
   ProjectRootNode getProject(long projectId);
 
+  /**
+   * Returns the root node for the given project together with the contents
+   * of the files that are loaded when the project is opened, so that opening
+   * a project takes a single request.
+   * @param projectId  project ID as received by
+   *                   {@link #getProjects()}
+   *
+   * @return  root node of project and contents of its initially loaded files
+   */
+  ProjectWithContents openProject(long projectId);
+
   /**
    * Returns a string with the project settings.
    * @param projectId  project ID
@@ -138,6 +149,27 @@ public interface ProjectService extends RemoteService {
    */
   public long save(List<FileDescriptorWithContent> filesAndContent);
 
+  /**
+   * Value returned by {@link #saveDeltas(List)} if the delta of a file does
+   * not apply to the saved content of the file.
+   */
+  long DELTA_CONFLICT = -1;
+
+  /**
+   * Saves changes to the contents of multiple files. Each change is a delta
+   * against the content of the file that the client saved last, so that only
+   * the changed text is sent. If the saved content of a file is not the
+   * content its delta was computed against, that file is not saved and
+   * {@link #DELTA_CONFLICT} is returned; the client must then save the whole
+   * content of the files with {@link #save(List)}.
+   *
+   * @param filesAndDeltas  list containing file descriptors and the encoded
+   *                        deltas against their saved content
+   * @return modification date for last modified project of list, or
+   *         {@link #DELTA_CONFLICT}
+   */
+  long saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas);
+
   /**
    * Invokes a build command for the project on the back-end.
    *
@@ -150,6 +182,8 @@ public interface ProjectService extends RemoteService {
 
   /**
    * Gets the result of a build command for the project from the back-end.
+   * If the build is not yet done, the back-end may wait a while for it to
+   * finish before answering.
    *
    * @param projectId  project ID
    * @param target  build target (optional, implementation dependent)
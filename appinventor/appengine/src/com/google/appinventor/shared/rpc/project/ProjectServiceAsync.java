@@ -46,6 +46,11 @@ public interface ProjectServiceAsync {
    */
   void getProject(long projectId, AsyncCallback<ProjectRootNode> callback);
 
+  /**
+   * @see ProjectService#openProject(long)
+   */
+  void openProject(long projectId, AsyncCallback<ProjectWithContents> callback);
+
   /**
    * @see ProjectService#loadProjectSettings(long)
    */
@@ -86,6 +91,11 @@ public interface ProjectServiceAsync {
    */
   void save(List<FileDescriptorWithContent> filesAndContent, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#saveDeltas(List)
+   */
+  void saveDeltas(List<FileDescriptorWithDelta> filesAndDeltas, AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#build(long, String)
    */
@@ -0,0 +1,60 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The tree of a project together with the contents of the files that the
+ * client loads when it opens the project.
+ *
+ */
+public final class ProjectWithContents implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 4186528307724569214L;
+
+  // Root node of the project tree
+  private ProjectRootNode rootNode;
+
+  // Files loaded when the project is opened
+  private List<FileDescriptorWithContent> files;
+
+  /**
+   * Default constructor (for serialization only).
+   * Unfortunately this will prevent any fields from being marked as final!
+   */
+  @SuppressWarnings("unused")
+  private ProjectWithContents() {
+  }
+
+  /**
+   * Creates a new project tree with file contents.
+   *
+   * @param rootNode  root node of the project
+   * @param files  files of the project and their content
+   */
+  public ProjectWithContents(ProjectRootNode rootNode, List<FileDescriptorWithContent> files) {
+    this.rootNode = rootNode;
+    this.files = files;
+  }
+
+  /**
+   * Returns the root node of the project.
+   *
+   * @return  project root node
+   */
+  public ProjectRootNode getRootNode() {
+    return rootNode;
+  }
+
+  /**
+   * Returns the files that the client loads when it opens the project.
+   *
+   * @return  list of file descriptors and their content
+   */
+  public List<FileDescriptorWithContent> getFiles() {
+    return files;
+  }
+}
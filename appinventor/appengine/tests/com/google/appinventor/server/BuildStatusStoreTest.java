@@ -0,0 +1,54 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildStatusStore class.
+ *
+ */
+public class BuildStatusStoreTest extends TestCase {
+  private static final String USER_ID = "1";
+  private static final long PROJECT_ID = 1234L;
+  private static final String BUILD_OUTPUT_DIR = "build/Android";
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private BuildStatusStore store;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    helper.setUp();
+    store = new BuildStatusStore(MemcacheServiceFactory.getMemcacheService("buildstatus"));
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    helper.tearDown();
+  }
+
+  public void testAwaitFinishedTimesOut() {
+    long start = System.currentTimeMillis();
+    assertFalse(store.awaitFinished(USER_ID, PROJECT_ID, BUILD_OUTPUT_DIR, 300));
+    assertTrue(System.currentTimeMillis() - start >= 300);
+  }
+
+  public void testMarkAndClearFinished() {
+    store.markFinished(USER_ID, PROJECT_ID, BUILD_OUTPUT_DIR);
+    assertTrue(store.awaitFinished(USER_ID, PROJECT_ID, BUILD_OUTPUT_DIR, 0));
+    // Other projects and build output directories are not affected.
+    assertFalse(store.awaitFinished(USER_ID, PROJECT_ID + 1, BUILD_OUTPUT_DIR, 0));
+    assertFalse(store.awaitFinished(USER_ID, PROJECT_ID, "build/Other", 0));
+
+    store.clearFinished(USER_ID, PROJECT_ID, BUILD_OUTPUT_DIR);
+    assertFalse(store.awaitFinished(USER_ID, PROJECT_ID, BUILD_OUTPUT_DIR, 0));
+  }
+}
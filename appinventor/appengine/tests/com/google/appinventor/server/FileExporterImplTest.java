@@ -121,6 +121,26 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
         StorageUtil.DEFAULT_CHARSET));
   }
 
+  public void testExportProjectSourceZipToStream() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = exporter.exportProjectSourceZip(USER_ID, projectId, true, false, out);
+    Map<String, byte[]> content = testExportProjectSourceZipHelper(
+        new ProjectSourceZip(PROJECT_NAME + ".zip", out.toByteArray(), fileCount));
+    assertEquals(3, content.size());
+    assertEquals(PROJECT_NAME + ".zip", exporter.getProjectSourceZipName(USER_ID, projectId));
+  }
+
+  public void testExportProjectSourceZipToStreamWithNonExistingProject() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      exporter.exportProjectSourceZip(USER_ID, projectId + 1, false, false, out);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(0, out.size());
+  }
+
   public void testExportProjectSourceZipWithNonExistingProject() throws IOException {
     try {
       exporter.exportProjectSourceZip(USER_ID, projectId + 1, false, false, null);
@@ -0,0 +1,61 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidAssetNode;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidAssetsFolder;
+import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ProjectRootNodeCache class.
+ *
+ */
+public class ProjectRootNodeCacheTest extends TestCase {
+  private static final String USER_ID = "1";
+  private static final long PROJECT_ID = 1234L;
+  private static final long DATE_MODIFIED = 5678L;
+
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private ProjectRootNodeCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    helper.setUp();
+    cache = new ProjectRootNodeCache(MemcacheServiceFactory.getMemcacheService("projecttree"));
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    helper.tearDown();
+  }
+
+  public void testPutAndGet() {
+    assertNull(cache.get(USER_ID, PROJECT_ID, DATE_MODIFIED));
+
+    ProjectRootNode rootNode = new YoungAndroidProjectNode("Project1", PROJECT_ID);
+    YoungAndroidAssetsFolder assetsNode = new YoungAndroidAssetsFolder("assets");
+    rootNode.addChild(assetsNode);
+    assetsNode.addChild(new YoungAndroidAssetNode("kitty.png", "assets/kitty.png"));
+    cache.put(USER_ID, PROJECT_ID, DATE_MODIFIED, rootNode);
+
+    ProjectRootNode cachedNode = cache.get(USER_ID, PROJECT_ID, DATE_MODIFIED);
+    assertEquals("Project1", cachedNode.getName());
+    assertEquals(PROJECT_ID, cachedNode.getProjectId());
+    assertNotNull(cachedNode.findNode("assets/kitty.png"));
+
+    // The tree is not found for other modification dates, projects or users.
+    assertNull(cache.get(USER_ID, PROJECT_ID, DATE_MODIFIED + 1));
+    assertNull(cache.get(USER_ID, PROJECT_ID + 1, DATE_MODIFIED));
+    assertNull(cache.get("2", PROJECT_ID, DATE_MODIFIED));
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appinventor.common.testutils.TestUtils;
+import com.google.appinventor.shared.rpc.project.Project;
+import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
+import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.apphosting.utils.config.GenerationDirectory;
+import com.google.common.io.ByteStreams;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests CachingStorageIo class.
+ *
+ */
+public class CachingStorageIoTest extends TestCase {
+  private static final String APPENGINE_GENERATED_DIR = TestUtils.APP_INVENTOR_ROOT_DIR +
+      "/appengine/build/tests/appengine-generated";
+  private static final String USER_ID = "1";
+  private static final String OTHER_USER_ID = "2";
+  private static final String PROJECT_NAME = "Project1";
+  private static final String PROJECT_TYPE = "FakeProjectType";
+  private static final String FILE_NAME = "src/File1.scm";
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private ObjectifyStorageIo storageIo;
+  private CachingStorageIo cachingStorageIo;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    System.setProperty(GenerationDirectory.GENERATED_DIR_PROPERTY, APPENGINE_GENERATED_DIR);
+    helper.setUp();
+    storageIo = new ObjectifyStorageIo();
+    cachingStorageIo = new CachingStorageIo(storageIo,
+        MemcacheServiceFactory.getMemcacheService("storage"), 100);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    super.tearDown();
+    helper.tearDown();
+  }
+
+  public void testWritesInvalidateCachedValues() throws Exception {
+    long projectId = createProject();
+    assertEquals(Arrays.asList(projectId), cachingStorageIo.getProjects(USER_ID));
+    assertEquals("content1", cachingStorageIo.downloadFile(USER_ID, projectId, FILE_NAME,
+        "UTF-8"));
+    long dateModified = cachingStorageIo.getProjectDateModified(USER_ID, projectId);
+
+    Thread.sleep(10);
+    long newDateModified = cachingStorageIo.uploadFile(projectId, FILE_NAME, USER_ID,
+        "content2", "UTF-8");
+    assertTrue(newDateModified > dateModified);
+    assertEquals("content2", cachingStorageIo.downloadFile(USER_ID, projectId, FILE_NAME,
+        "UTF-8"));
+    assertEquals(newDateModified, cachingStorageIo.getProjectDateModified(USER_ID, projectId));
+
+    cachingStorageIo.storeProjectSettings(USER_ID, projectId, "settings2");
+    assertEquals("settings2", cachingStorageIo.loadProjectSettings(USER_ID, projectId));
+
+    cachingStorageIo.deleteProject(USER_ID, projectId);
+    assertTrue(cachingStorageIo.getProjects(USER_ID).isEmpty());
+  }
+
+  public void testProjectMetadata() throws Exception {
+    long projectId = createProject();
+    assertEquals(PROJECT_NAME, cachingStorageIo.getProjectName(USER_ID, projectId));
+    assertEquals(PROJECT_TYPE, cachingStorageIo.getProjectType(USER_ID, projectId));
+    assertEquals(storageIo.getProjectDateCreated(USER_ID, projectId),
+        cachingStorageIo.getProjectDateCreated(USER_ID, projectId));
+
+    // Missing projects are not cached.
+    assertEquals("", cachingStorageIo.getProjectName(USER_ID, projectId + 1));
+  }
+
+  public void testOwnershipIsChecked() throws Exception {
+    long projectId = createProject();
+    assertEquals(Arrays.asList(FILE_NAME),
+        cachingStorageIo.getProjectSourceFiles(USER_ID, projectId));
+    try {
+      cachingStorageIo.getProjectSourceFiles(OTHER_USER_ID, projectId);
+      fail();
+    } catch (RuntimeException e) {
+      // expected
+    }
+    try {
+      cachingStorageIo.downloadRawFile(OTHER_USER_ID, projectId, FILE_NAME);
+      fail();
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
+
+  public void testExportProjectSourceZip() throws Exception {
+    long projectId = createProject();
+    cachingStorageIo.uploadFile(projectId, FILE_NAME, USER_ID, "content2", "UTF-8");
+
+    ProjectSourceZip zip = cachingStorageIo.exportProjectSourceZip(USER_ID, projectId, false,
+        false, null);
+    assertEquals(PROJECT_NAME + ".zip", zip.getFileName());
+    ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip.getContent()));
+    assertEquals(FILE_NAME, in.getNextEntry().getName());
+    assertEquals("content2", new String(ByteStreams.toByteArray(in), "UTF-8"));
+    assertNull(in.getNextEntry());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(1, cachingStorageIo.exportProjectSourceZip(USER_ID, projectId, false, false,
+        out));
+    assertTrue(out.size() > 0);
+  }
+
+  private long createProject() {
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType(PROJECT_TYPE);
+    project.addTextFile(new TextFile(FILE_NAME, "content1"));
+    return cachingStorageIo.createProject(USER_ID, project, "settings1");
+  }
+}
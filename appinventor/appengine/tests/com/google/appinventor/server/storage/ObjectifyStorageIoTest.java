@@ -13,14 +13,19 @@ import com.google.appengine.api.files.GSFileOptions;
 import com.google.appengine.api.files.LockException;
 import com.google.appengine.api.files.RecordReadChannel;
 import com.google.appengine.api.files.RecordWriteChannel;
+import com.google.appinventor.common.youngandroid.TextDelta;
 import com.google.appinventor.server.LocalDatastoreTestCase;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.appinventor.server.storage.StoredData.UserData;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
+import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -28,7 +33,10 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Tests for {@link ObjectifyStorageIo}.
@@ -145,6 +153,26 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(1, storage.getProjects(USER_ID).size());
   }
 
+  public void testGetUserProjects() {
+    final String USER_ID = "450";
+    storage.getUser(USER_ID);
+    assertTrue(storage.getUserProjects(USER_ID).isEmpty());
+    long projectId1 = storage.createProject(USER_ID, project, SETTINGS);
+    long projectId2 = storage.createProject(USER_ID, project, SETTINGS);
+    storage.deleteProject(USER_ID, projectId1);
+
+    List<UserProject> userProjects = storage.getUserProjects(USER_ID);
+    assertEquals(1, userProjects.size());
+    UserProject userProject = userProjects.get(0);
+    assertEquals(projectId2, userProject.getProjectId());
+    assertEquals(PROJECT_NAME, userProject.getProjectName());
+    assertEquals(FAKE_PROJECT_TYPE, userProject.getProjectType());
+    assertEquals(storage.getProjectDateCreated(USER_ID, projectId2),
+        userProject.getDateCreated());
+    assertEquals(storage.getProjectDateModified(USER_ID, projectId2),
+        userProject.getDateModified());
+  }
+
   public void testCreateProjectFailFirst() {
     final String USER_ID = "600";
     // fail on first job in createProject (2nd job overall)
@@ -231,6 +259,22 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(1, storageIo.numBlobsDeleted());
   }
 
+  public void testCreateProjectDoesNotRewriteBlobsOnRetry() {
+    final String USER_ID = "740";
+    FailingBlobFileService failingFileService = new FailingBlobFileService(0);
+    // the first try of the first job in createProject (2nd job overall) fails
+    // with a conflict, and is retried.
+    FailingJobObjectifyStorageIo storageIo =
+        new FailingJobObjectifyStorageIo(0, failingFileService, 2);
+    storageIo.getUser(USER_ID);
+    long projectId = storageIo.createProject(USER_ID, project, SETTINGS);
+    assertEquals(3, failingFileService.numBlobsCreated());
+    assertEquals(0, storageIo.numBlobsDeleted());
+    assertEquals(Arrays.asList(projectId), storageIo.getProjects(USER_ID));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT2,
+        storageIo.downloadRawFile(USER_ID, projectId, RAW_FILE_NAME2)));
+  }
+
   public void testUploadBeforeAdd() {
     final String USER_ID = "800";
     storage.getUser(USER_ID);
@@ -375,6 +419,100 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testUploadDownloadFiles() {
+    final String USER_ID = "1250";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+    long modificationDate = storage.getProjectDateModified(USER_ID, projectId);
+
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME2, FILE_CONTENT1);
+    contents.put(FILE_NAME1, FILE_CONTENT2);
+    long newModificationDate = storage.uploadFiles(projectId, USER_ID, contents,
+        StorageUtil.DEFAULT_CHARSET);
+    assertTrue(newModificationDate >= modificationDate);
+    assertEquals(newModificationDate, storage.getProjectDateModified(USER_ID, projectId));
+    // FILE_NAME2 is a blocks file, so it is stored in blobstore.
+    assertTrue(storage.isBlobFile(projectId, FILE_NAME2));
+
+    Map<String, String> downloaded = storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(FILE_NAME1, FILE_NAME2), StorageUtil.DEFAULT_CHARSET);
+    assertEquals(Arrays.asList(FILE_NAME1, FILE_NAME2),
+        new ArrayList<String>(downloaded.keySet()));
+    assertEquals(FILE_CONTENT2, downloaded.get(FILE_NAME1));
+    assertEquals(FILE_CONTENT1, downloaded.get(FILE_NAME2));
+
+    try {
+      storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME1, "missing"),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
+
+  public void testUploadFileDeltas() throws Exception {
+    final String USER_ID = "1255";
+    storage.getUser(USER_ID);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    long modificationDate = storage.uploadFiles(projectId, USER_ID, contents,
+        StorageUtil.DEFAULT_CHARSET);
+
+    // An empty delta doesn't change anything.
+    Map<String, TextDelta> deltas = new LinkedHashMap<String, TextDelta>();
+    deltas.put(FILE_NAME1, TextDelta.between(FILE_CONTENT1, FILE_CONTENT1));
+    assertEquals(modificationDate, storage.uploadFileDeltas(projectId, USER_ID, deltas,
+        StorageUtil.DEFAULT_CHARSET));
+
+    // Deltas are applied to files in the datastore and in blobstore.
+    String newContent1 = FILE_CONTENT1.replace("quick", "slow");
+    String newContent2 = FILE_CONTENT2 + " and a z";
+    deltas.put(FILE_NAME1, TextDelta.between(FILE_CONTENT1, newContent1));
+    deltas.put(FILE_NAME2, TextDelta.between(FILE_CONTENT2, newContent2));
+    long newModificationDate = storage.uploadFileDeltas(projectId, USER_ID, deltas,
+        StorageUtil.DEFAULT_CHARSET);
+    assertTrue(newModificationDate >= modificationDate);
+    assertTrue(storage.isBlobFile(projectId, FILE_NAME2));
+    Map<String, String> downloaded = storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(FILE_NAME1, FILE_NAME2), StorageUtil.DEFAULT_CHARSET);
+    assertEquals(newContent1, downloaded.get(FILE_NAME1));
+    assertEquals(newContent2, downloaded.get(FILE_NAME2));
+
+    // If one of the deltas doesn't apply to the saved content, no file is saved.
+    deltas.put(FILE_NAME1, TextDelta.between(newContent1, FILE_CONTENT1));
+    deltas.put(FILE_NAME2, TextDelta.between(FILE_CONTENT2, "stale"));
+    try {
+      storage.uploadFileDeltas(projectId, USER_ID, deltas, StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (FileConflictException e) {
+      assertEquals(FILE_NAME2, e.getFileName());
+    }
+    assertEquals(newContent1, storage.downloadFile(USER_ID, projectId, FILE_NAME1,
+        StorageUtil.DEFAULT_CHARSET));
+    assertEquals(newContent2, storage.downloadFile(USER_ID, projectId, FILE_NAME2,
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
+  public void testDownloadRawFiles() throws Exception {
+    final String USER_ID = "1260";
+    storage.getUser(USER_ID);
+    long projectId = storage.createProject(USER_ID, project, SETTINGS);
+
+    Map<String, byte[]> downloaded = storage.downloadRawFiles(USER_ID, projectId,
+        Arrays.asList(RAW_FILE_NAME2, FILE_NAME1, RAW_FILE_NAME1));
+    assertEquals(Arrays.asList(RAW_FILE_NAME2, FILE_NAME1, RAW_FILE_NAME1),
+        new ArrayList<String>(downloaded.keySet()));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT2, downloaded.get(RAW_FILE_NAME2)));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT1, downloaded.get(RAW_FILE_NAME1)));
+    assertEquals(FILE_CONTENT1, new String(downloaded.get(FILE_NAME1),
+        StorageUtil.DEFAULT_CHARSET));
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
@@ -484,6 +622,38 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     // TODO(sharon): should test large blob files (e.g., >2MB (chunk size), >4MB (row size));
   }
 
+  public void testAssetsWithTheSameContentShareBlobs() {
+    final String USER_ID = "1350";
+    final String USER_ID2 = "1360";
+    final byte[] content = "shared asset".getBytes();
+    final String contentHash = ObjectifyStorageIo.contentHash(content);
+    storage.getUser(USER_ID);
+    storage.getUser(USER_ID2);
+
+    Project sharingProject = new Project(PROJECT_NAME);
+    sharingProject.setProjectType(FAKE_PROJECT_TYPE);
+    sharingProject.addRawFile(new RawFile(ASSET_FILE_NAME1, content));
+    long projectId1 = storage.createProject(USER_ID, sharingProject, SETTINGS);
+    long projectId2 = storage.createProject(USER_ID2, sharingProject, SETTINGS);
+    assertEquals(2, storage.getSharedBlobRefCount(contentHash));
+
+    // Replacing the content of a file releases the shared blob.
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, ASSET_FILE_CONTENT1);
+    assertEquals(1, storage.getSharedBlobRefCount(contentHash));
+    assertTrue(Arrays.equals(content,
+        storage.downloadRawFile(USER_ID2, projectId2, ASSET_FILE_NAME1)));
+
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, content);
+    assertEquals(2, storage.getSharedBlobRefCount(contentHash));
+    storage.deleteProject(USER_ID, projectId1);
+    assertEquals(1, storage.getSharedBlobRefCount(contentHash));
+    assertTrue(Arrays.equals(content,
+        storage.downloadRawFile(USER_ID2, projectId2, ASSET_FILE_NAME1)));
+
+    storage.removeSourceFilesFromProject(USER_ID2, projectId2, false, ASSET_FILE_NAME1);
+    assertEquals(0, storage.getSharedBlobRefCount(contentHash));
+  }
+
   public void testOldBlockFilesInDatastoreStillWork() {
     // Create new storage object that forces storage in the datastore
     ObjectifyStorageIo oldStyleStorage = new ObjectifyStorageIo() {
@@ -533,6 +703,37 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertNull(result);
   }
 
+  public void testRetryBackoffIsBounded() {
+    for (int tries = 1; tries < 40; tries++) {
+      long backoffMillis = ObjectifyStorageIo.getRetryBackoffMillis(tries);
+      assertTrue(backoffMillis >= 1);
+      assertTrue(backoffMillis <= ObjectifyStorageIo.maxRetryBackoffMillis.get());
+      assertTrue(backoffMillis <=
+          ObjectifyStorageIo.initialRetryBackoffMillis.get() << Math.min(tries - 1, 30));
+    }
+  }
+
+  public void testConflictsAreRetriedAndCounted() throws Exception {
+    final String USER_ID = "2100";
+    storage.getUser(USER_ID);
+    final int[] runs = { 0 };
+    storage.runJobWithRetries(storage.new JobRetryHelper(
+        new Key<UserData>(UserData.class, USER_ID)) {
+      @Override
+      public void run(Objectify datastore) {
+        if (++runs[0] <= 2) {
+          throw new ConcurrentModificationException("conflict (on purpose)");
+        }
+      }
+    });
+    assertEquals(3, runs[0]);
+    EntityGroupContention.Counts counts = ObjectifyStorageIo.getContention().get(
+        new Key<UserData>(UserData.class, USER_ID).toString());
+    assertEquals(2, counts.getConflicts());
+    assertEquals(2, counts.getRetries());
+    assertEquals(0, counts.getExhausted());
+  }
+
   public void testWrongUserThrowsException() throws Exception {
     final String USER_ID = "1600";
     final String USER_ID2 = "1700";
@@ -558,30 +759,65 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
    */
   private static class FailingJobObjectifyStorageIo extends ObjectifyStorageIo {
     private final int failingRun;
+    private final int conflictingRun;
     private int run;
     private int numDeletedBlobs = 0;
 
     FailingJobObjectifyStorageIo(int failingRun) {
       super();
       this.failingRun = failingRun;
+      conflictingRun = 0;
       run = 0;
     }
 
     FailingJobObjectifyStorageIo(int failingRun, FileService fileService) {
+      this(failingRun, fileService, 0);
+    }
+
+    // The first try of the job of the Nth call to runJobWithRetries, where N is
+    // conflictingRun, fails with a ConcurrentModificationException.
+    FailingJobObjectifyStorageIo(int failingRun, FileService fileService, int conflictingRun) {
       super(fileService);
       this.failingRun = failingRun;
+      this.conflictingRun = conflictingRun;
       run = 0;
     }
 
     @Override
-    void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    void runJobWithRetries(final JobRetryHelper job) throws ObjectifyException {
       ++run;
-      if (run != failingRun) {
-        super.runJobWithRetries(job);
-      } else {
+      if (run == failingRun) {
         throw new ObjectifyException("job failed (on purpose)");
+      } else if (run == conflictingRun) {
+        super.runJobWithRetries(new JobRetryHelper() {
+          private boolean conflicted;
+
+          @Override
+          public void run(Objectify datastore) throws ObjectifyException {
+            if (!conflicted) {
+              conflicted = true;
+              throw new ConcurrentModificationException("conflict (on purpose)");
+            }
+            job.run(datastore);
+          }
+        });
+      } else {
+        super.runJobWithRetries(job);
       }
     }
+
+    // Handle the blobs one after another, so that they can be counted.
+    @Override
+    ThreadFactory getBlobThreadFactory() {
+      return null;
+    }
+
+    // Don't share blobs, so that each file writes its own blob and the jobs of
+    // the shared blobs don't count.
+    @Override
+    boolean shareBlobForFile(String fileName) {
+      return false;
+    }
     
     @Override
     protected void deleteBlobstoreFile(String blobstorePath) {
@@ -0,0 +1,105 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.server.storage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests ParallelTasks class.
+ *
+ */
+public class ParallelTasksTest extends TestCase {
+
+  public void testResultsAreInTaskOrder() throws Exception {
+    List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < 20; i++) {
+      final int value = i;
+      tasks.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          // Finish the later tasks first.
+          Thread.sleep(20 - value);
+          return value;
+        }
+      });
+    }
+    List<Integer> results =
+        ParallelTasks.invokeAll(tasks, 4, Executors.defaultThreadFactory());
+    assertEquals(20, results.size());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, results.get(i).intValue());
+    }
+  }
+
+  public void testThreadsAreBounded() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (int i = 0; i < 12; i++) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          Thread.sleep(10);
+          running.decrementAndGet();
+          return null;
+        }
+      });
+    }
+    ParallelTasks.invokeAll(tasks, 3, Executors.defaultThreadFactory());
+    assertTrue(maxRunning.get() <= 3);
+  }
+
+  public void testWithoutThreadFactoryTasksRunOnCallingThread() throws Exception {
+    final Thread caller = Thread.currentThread();
+    Callable<Boolean> task = new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return Thread.currentThread() == caller;
+      }
+    };
+    assertEquals(Arrays.asList(true, true),
+        ParallelTasks.invokeAll(Arrays.asList(task, task), 4, null));
+    assertEquals(Arrays.asList(true, true),
+        ParallelTasks.invokeAll(Arrays.asList(task, task), 1, Executors.defaultThreadFactory()));
+  }
+
+  public void testAllTasksRunWhenOneFails() throws Exception {
+    for (int maxThreads = 1; maxThreads <= 2; maxThreads++) {
+      final AtomicInteger runs = new AtomicInteger();
+      Callable<Void> ok = new Callable<Void>() {
+        @Override
+        public Void call() {
+          runs.incrementAndGet();
+          return null;
+        }
+      };
+      Callable<Void> failing = new Callable<Void>() {
+        @Override
+        public Void call() {
+          runs.incrementAndGet();
+          throw new IllegalStateException("fails (on purpose)");
+        }
+      };
+      try {
+        ParallelTasks.invokeAll(Arrays.asList(ok, failing, ok), maxThreads,
+            Executors.defaultThreadFactory());
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+      assertEquals(3, runs.get());
+    }
+  }
+}
@@ -8,41 +8,49 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Extremely simple HTTP server.
  *
- * <p>Listens on a single port. Requests are handled one at a time, in the order
- * they are received. All replies must be content type text.
+ * <p>Listens on a single port. Connections are handled by a bounded pool of
+ * worker threads, so a slow request doesn't hold up requests on other
+ * connections. Connections are kept alive between requests if the client
+ * asks for it. All replies must be content type text.
  *
  * @author lizlooney@google.com (Liz Looney)
  */
 public final class HttpServer {
   /**
-   * The Producer thread accepts connections and puts them in the connection
-   * queue.
+   * The Producer thread accepts connections and hands them to the worker pool.
    */
   class Producer implements Runnable {
     private final ServerSocket serverSocket;
-    private final BlockingQueue<Socket> connectionQueue;
 
-    private Producer(ServerSocket serverSocket, BlockingQueue<Socket> connectionQueue) {
+    private Producer(ServerSocket serverSocket) {
       this.serverSocket = serverSocket;
-      this.connectionQueue = connectionQueue;
     }
 
     @Override
@@ -62,15 +70,13 @@ public final class HttpServer {
         }
 
         if (socket != null) {
-          cancelConnectivityTimerTask();
-          setConnectivityStatus(true);
-
+          openConnections.add(socket);
           try {
-            connectionQueue.put(socket);
-          } catch (InterruptedException e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
-            }
+            workerPool.execute(new Connection(socket));
+          } catch (RejectedExecutionException e) {
+            // All workers are busy and the queue is full, or the server is shutting down.
+            log("    rejecting connection, too many connections\n");
+            closeConnection(socket);
           }
         }
       }
@@ -78,61 +84,69 @@ public final class HttpServer {
   }
 
   /**
-   * The Consumer thread takes requests from the connection queue and handles
-   * them.
+   * A Connection handles the requests that are received on one socket, until
+   * the client closes the connection, the connection is idle for too long, or
+   * the client doesn't want to keep the connection alive.
    */
-  class Consumer implements Runnable {
-    private final BlockingQueue<Socket> connectionQueue;
+  class Connection implements Runnable {
+    private final Socket socket;
 
-    private Consumer(BlockingQueue<Socket> connectionQueue) {
-      this.connectionQueue = connectionQueue;
+    private Connection(Socket socket) {
+      this.socket = socket;
     }
 
     @Override
     public void run() {
-      while (!shutDown) {
-        Socket socket = null;
-        try {
-          socket = connectionQueue.take();
-        } catch (InterruptedException e) {
-          if (LOG_TO_SYSTEM_OUT) {
-            e.printStackTrace(System.out);
+      // Handle the requests, and catch any exceptions that get thrown.
+      try {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        boolean keepAlive = true;
+        while (keepAlive && !shutDown) {
+          HttpRequest request = readHttpRequest(reader);
+          if (request == null) {
+            // The client closed the connection.
+            break;
           }
-        }
-        if (socket != null) {
-          // Handle the connection, and catch any exceptions that get thrown.
+          requestStarted();
           try {
-            processRequest(socket);
-          } catch (Throwable e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
-            }
+            keepAlive = request.isKeepAlive();
+            processRequest(socket, request, keepAlive);
+          } finally {
+            requestFinished();
           }
-          try {
-            socket.close();
-          } catch (IOException e) {
-            if (LOG_TO_SYSTEM_OUT) {
-              e.printStackTrace(System.out);
-            }
+          if (shutDown) {
+            // The quit request has been answered.
+            notifyShutDown();
+            break;
           }
-          scheduleConnectivityTimerTask();
+          // Wait a shorter time for the next request on this connection.
+          socket.setSoTimeout(KEEP_ALIVE_TIMEOUT_MILLIS);
+        }
+      } catch (SocketTimeoutException e) {
+        // The connection was idle for too long.
+      } catch (Throwable e) {
+        if (LOG_TO_SYSTEM_OUT) {
+          e.printStackTrace(System.out);
         }
+      } finally {
+        closeConnection(socket);
       }
     }
 
     /**
      * Process a request.
      */
-    private void processRequest(Socket socket) throws IOException {
-      Pair<String, String> protocolAndUri = readHttpRequest(socket);
-      String protocol = protocolAndUri.getFirst();
-      String uri = protocolAndUri.getSecond();
+    private void processRequest(Socket socket, HttpRequest request, boolean keepAlive)
+        throws IOException {
+      String protocol = request.getMethod();
+      String uri = request.getUri();
       log("processRequest: " + protocol + " " + uri + "\n");
 
       // Fail if the server's secret number has not be set yet.
       if (secret == 0) {
         reply(socket, "ERROR: service is unavailable at this time.<p>\n",
-            ResponseCode.SERVICE_UNAV);
+            ResponseCode.SERVICE_UNAV, keepAlive);
         return;
       }
 
@@ -141,7 +155,7 @@ public final class HttpServer {
       if (!addr.equals("127.0.0.1")) {
         log("    rejecting request from unauthorized client\n");
         reply(socket, "ERROR: " + addr + " unauthorized to send request.<p>\n",
-            ResponseCode.UNAUTHORIZED);
+            ResponseCode.UNAUTHORIZED, keepAlive);
         return;
       }
 
@@ -149,7 +163,7 @@ public final class HttpServer {
       if (!protocol.equals("GET")) {
         log("    rejecting request of unsupported protocol " + protocol + "\n");
         reply(socket, "ERROR: " + protocol + " not implemented.<p>\n",
-            ResponseCode.NOT_IMPL);
+            ResponseCode.NOT_IMPL, keepAlive);
         return;
       }
 
@@ -160,36 +174,89 @@ public final class HttpServer {
 
       // Validate the request parameters
       if (!validateRequestParameters(parameters, secret)) {
-        reply(socket, "ERROR: request is bad.<p>\n", ResponseCode.BAD_REQUEST);
+        reply(socket, "ERROR: request is bad.<p>\n", ResponseCode.BAD_REQUEST, keepAlive);
         return;
       }
 
       HttpRequestHandler handler = getHandlerForKey(handlerKey);
       if (handler != null) {
-        reply(socket, handler.handleRequest(parameters), ResponseCode.REQUEST_OK);
+        long startTime = System.nanoTime();
+        String response = handler.handleRequest(parameters);
+        getLatencyCounter(handlerKey).record(System.nanoTime() - startTime);
+        reply(socket, response, ResponseCode.REQUEST_OK, keepAlive);
       } else {
-        reply(socket, "Page not found: " + uri + "\n", ResponseCode.NOT_FOUND);
+        reply(socket, "Page not found: " + uri + "\n", ResponseCode.NOT_FOUND, keepAlive);
       }
     }
+  }
 
-    private void reply(Socket socket, String body, ResponseCode responseCode) throws IOException {
-      byte[] utf8Bytes = body.getBytes("UTF-8");
+  /**
+   * The first line and the headers of an HTTP request that matter to this
+   * server.
+   */
+  static class HttpRequest {
+    private final String method;
+    private final String uri;
+    private final String version;
+    private final String connectionHeader;
+
+    HttpRequest(String method, String uri, String version, String connectionHeader) {
+      this.method = method;
+      this.uri = uri;
+      this.version = version;
+      this.connectionHeader = connectionHeader;
+    }
 
-      // Set headers.
-      String outputHeaders = "HTTP/1.0 " + responseCode.getCode() + " "
-          + responseCode.getDescription() + "\r\n"
-          + "Content-Type: text/plain\r\n"
-          + "Content-Length: " + utf8Bytes.length + "\r\n"
-          + "Cache-Control: no-cache\r\n\r\n";
+    String getMethod() {
+      return method;
+    }
 
-      // Write the headers.
-      OutputStream outputStream = socket.getOutputStream();
-      PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, "UTF-8"));
-      writer.write(outputHeaders);
-      writer.flush();
+    String getUri() {
+      return uri;
+    }
 
-      // Write the body.
-      outputStream.write(utf8Bytes);
+    /**
+     * Returns true if the client wants the connection to be kept alive after
+     * this request. HTTP/1.1 connections are kept alive unless the client
+     * says otherwise. HTTP/1.0 connections are only kept alive if the client
+     * asks for it.
+     */
+    boolean isKeepAlive() {
+      if (connectionHeader != null) {
+        if (connectionHeader.equalsIgnoreCase("close")) {
+          return false;
+        }
+        if (connectionHeader.equalsIgnoreCase("keep-alive")) {
+          return true;
+        }
+      }
+      return "HTTP/1.1".equals(version);
+    }
+  }
+
+  /**
+   * Counts the requests of one handler and the time it took to handle them.
+   */
+  static class LatencyCounter {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    synchronized void record(long nanos) {
+      count++;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    synchronized long getCount() {
+      return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+      long averageMillis = (count == 0) ? 0 : totalNanos / count / 1000000;
+      return count + " requests, average " + averageMillis + " ms, max " +
+          (maxNanos / 1000000) + " ms";
     }
   }
 
@@ -221,6 +288,16 @@ public final class HttpServer {
   private static final long NO_CONNECTIVITY_TIME_MILLIS = 5000;
   private static final long NO_CONNECTIVITY_TIME_NANO = NO_CONNECTIVITY_TIME_MILLIS * 1000000;
 
+  // The number of worker threads that handle connections. Browsers open up to six connections to
+  // the same host, so this is enough to handle all the connections of one browser at once.
+  private static final int WORKER_THREADS = 8;
+
+  // The number of accepted connections that can wait for a worker thread.
+  private static final int MAX_WAITING_CONNECTIONS = 16;
+
+  // How long a kept-alive connection waits for the next request before it is closed.
+  private static final int KEEP_ALIVE_TIMEOUT_MILLIS = 5000;
+
   public static final boolean LOG_TO_SYSTEM_OUT = false;
 
   /**
@@ -234,6 +311,16 @@ public final class HttpServer {
   private final Map<String, HttpRequestHandler> handlers;
 
   private volatile boolean shutDown;
+  private final Object shutDownLock;
+
+  private final ThreadPoolExecutor workerPool;
+
+  // The sockets of the connections that are open, so that they can be closed when the server
+  // shuts down.
+  private final Set<Socket> openConnections;
+
+  // The latency counters of the handlers, by handler key.
+  private final ConcurrentMap<String, LatencyCounter> latencyCounters;
 
   // List of listeners for events.
   private final List<HttpServerEventListener> eventListeners;
@@ -242,6 +329,7 @@ public final class HttpServer {
   private final Timer connectivityTimer;
   private volatile long lastRequestTime;  // in nano seconds
   private volatile TimerTask connectivityTimerTask;
+  private int activeRequests; // guarded by connectivityTimer
 
   /**
    * Initialize the server, but don't start it up yet.
@@ -251,6 +339,20 @@ public final class HttpServer {
     eventListeners = new ArrayList<HttpServerEventListener>();
     connectivityStatus = true;
     connectivityTimer = new Timer("HttpServer-ConnectivityTimer");
+    shutDownLock = new Object();
+    workerPool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS,
+        0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_WAITING_CONNECTIONS),
+        new ThreadFactory() {
+          private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "HttpServer-Worker-" + threadNumber.getAndIncrement());
+          }
+        });
+    openConnections = Collections.synchronizedSet(new HashSet<Socket>());
+    latencyCounters = new ConcurrentHashMap<String, LatencyCounter>();
 
     // Register some basic handlers.
     setHandler(JsonpConstants.CONTACT, new JsonpRequestHandler(this) {
@@ -352,28 +454,25 @@ public final class HttpServer {
     int port = serverSocket.getLocalPort();
     firePortSelected(port);
 
-    BlockingQueue<Socket> connectionQueue = new LinkedBlockingQueue<Socket>();
-    Thread producerThread = new Thread(new Producer(serverSocket, connectionQueue),
-        "HttpServer-Producer");
-    Thread consumerThread = new Thread(new Consumer(connectionQueue), "HttpServer-Consumer");
-
+    Thread producerThread = new Thread(new Producer(serverSocket), "HttpServer-Producer");
     producerThread.start();
-    consumerThread.start();
 
-    // Because the consumerThread will be the one to set the shutDown field, it will be the first
-    // to finish.
-    try {
-      consumerThread.join();
-    } catch (InterruptedException e) {
-      if (LOG_TO_SYSTEM_OUT) {
-        e.printStackTrace(System.out);
+    // Wait until a worker thread has answered the quit request.
+    synchronized (shutDownLock) {
+      while (!shutDown) {
+        try {
+          shutDownLock.wait();
+        } catch (InterruptedException e) {
+          if (LOG_TO_SYSTEM_OUT) {
+            e.printStackTrace(System.out);
+          }
+        }
       }
     }
 
-    // After the consumerThread finishes, the producerThread will either finish
-    // on its own after checking the shutDown field or it will be blocked inside the
-    // ServerSocket.accept() method. By closing the server socket here, it will cause the
-    // ServerSocket.accept() method to throw a SocketException.
+    // The producerThread will either finish on its own after checking the shutDown field or it
+    // will be blocked inside the ServerSocket.accept() method. By closing the server socket here,
+    // it will cause the ServerSocket.accept() method to throw a SocketException.
     try {
       serverSocket.close();
     } catch (IOException e) {
@@ -390,6 +489,101 @@ public final class HttpServer {
         e.printStackTrace(System.out);
       }
     }
+
+    // Close the connections that are still open, so that workers waiting for the next request on
+    // a kept-alive connection finish right away.
+    workerPool.shutdown();
+    List<Socket> sockets;
+    synchronized (openConnections) {
+      sockets = new ArrayList<Socket>(openConnections);
+    }
+    for (Socket socket : sockets) {
+      closeConnection(socket);
+    }
+    try {
+      workerPool.awaitTermination(KEEP_ALIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      if (LOG_TO_SYSTEM_OUT) {
+        e.printStackTrace(System.out);
+      }
+    }
+    log("handler latencies:\n" + getLatencyReport());
+  }
+
+  /**
+   * Wakes up {@link #runHttpServer} so that it shuts down the server.
+   */
+  private void notifyShutDown() {
+    synchronized (shutDownLock) {
+      shutDown = true;
+      shutDownLock.notifyAll();
+    }
+  }
+
+  private void closeConnection(Socket socket) {
+    openConnections.remove(socket);
+    try {
+      socket.close();
+    } catch (IOException e) {
+      if (LOG_TO_SYSTEM_OUT) {
+        e.printStackTrace(System.out);
+      }
+    }
+  }
+
+  private LatencyCounter getLatencyCounter(String handlerKey) {
+    LatencyCounter latencyCounter = latencyCounters.get(handlerKey);
+    if (latencyCounter == null) {
+      latencyCounters.putIfAbsent(handlerKey, new LatencyCounter());
+      latencyCounter = latencyCounters.get(handlerKey);
+    }
+    return latencyCounter;
+  }
+
+  /**
+   * Returns how many requests each handler has answered and how long it took,
+   * one handler per line.
+   */
+  public String getLatencyReport() {
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, LatencyCounter> entry :
+        new TreeMap<String, LatencyCounter>(latencyCounters).entrySet()) {
+      report.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+    }
+    return report.toString();
+  }
+
+  /**
+   * Returns the number of requests that the handler for the given request has
+   * answered.
+   */
+  long getRequestCount(String request) {
+    LatencyCounter latencyCounter = latencyCounters.get(getHandlerKey(request));
+    return (latencyCounter == null) ? 0 : latencyCounter.getCount();
+  }
+
+  /**
+   * Called when a worker starts to process a request.
+   */
+  private void requestStarted() {
+    synchronized (connectivityTimer) {
+      activeRequests++;
+      cancelConnectivityTimerTask();
+      setConnectivityStatus(true);
+    }
+  }
+
+  /**
+   * Called when a worker has processed a request. The connectivity timer only
+   * runs while no requests are being processed.
+   */
+  private void requestFinished() {
+    synchronized (connectivityTimer) {
+      activeRequests--;
+      if (activeRequests == 0) {
+        scheduleConnectivityTimerTask();
+      }
+    }
   }
 
   private void cancelConnectivityTimerTask() {
@@ -451,30 +645,65 @@ public final class HttpServer {
   }
 
   /**
-   * Reads the HTTP request from the given socket and returns the protocol and
-   * URI as a Pair.
+   * Writes a reply to the given socket.
    */
-  private static Pair<String, String> readHttpRequest(Socket socket) throws IOException {
-    BufferedReader reader = new BufferedReader(
-        new InputStreamReader(socket.getInputStream(), "UTF-8"));
+  private static void reply(Socket socket, String body, ResponseCode responseCode,
+      boolean keepAlive) throws IOException {
+    byte[] utf8Bytes = body.getBytes("UTF-8");
+
+    // Set headers.
+    String outputHeaders = "HTTP/1.1 " + responseCode.getCode() + " "
+        + responseCode.getDescription() + "\r\n"
+        + "Content-Type: text/plain\r\n"
+        + "Content-Length: " + utf8Bytes.length + "\r\n"
+        + "Cache-Control: no-cache\r\n"
+        + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+    byte[] headerBytes = outputHeaders.getBytes("UTF-8");
+
+    // Write the headers and the body together, so that the client gets the whole reply at once.
+    byte[] reply = new byte[headerBytes.length + utf8Bytes.length];
+    System.arraycopy(headerBytes, 0, reply, 0, headerBytes.length);
+    System.arraycopy(utf8Bytes, 0, reply, headerBytes.length, utf8Bytes.length);
+    OutputStream outputStream = socket.getOutputStream();
+    outputStream.write(reply);
+    outputStream.flush();
+  }
+
+  /**
+   * Reads the next HTTP request from the given reader, including its headers.
+   * Returns null if the client closed the connection before sending another
+   * request.
+   */
+  static HttpRequest readHttpRequest(BufferedReader reader) throws IOException {
     // Find the first non-blank line.
     String line;
     do {
       line = reader.readLine();
       if (line == null) {
-        throw new IllegalStateException("readLine returned null");
+        return null;
       }
     } while (line.length() == 0);
 
-    // Get the protocol and URI.
+    // Get the protocol, URI and version.
     String[] parts = line.split(" +", 3);
     if (parts.length < 2) {
       throw new IllegalStateException("Cannot find protocol and URI in HTTP request " + line);
     }
-    String protocol = parts[0];
+    String method = parts[0];
     String uri = parts[1];
+    String version = (parts.length > 2) ? parts[2].trim() : "HTTP/1.0";
+
+    // Read the headers up to the blank line that ends them, so that the next request on the
+    // connection is read from the right place.
+    String connectionHeader = null;
+    while ((line = reader.readLine()) != null && line.length() != 0) {
+      int colon = line.indexOf(':');
+      if (colon != -1 && line.substring(0, colon).trim().equalsIgnoreCase("Connection")) {
+        connectionHeader = line.substring(colon + 1).trim();
+      }
+    }
 
-    return new Pair<String, String>(protocol, uri);
+    return new HttpRequest(method, uri, version, connectionHeader);
   }
 
   /**
@@ -3,6 +3,8 @@
 package com.google.appinventor.blockseditor.youngandroid;
 
 import com.google.appinventor.blockseditor.jsonp.Util;
+import com.google.appinventor.common.youngandroid.TextDelta;
+import com.google.appinventor.common.youngandroid.YaHttpServerConstants;
 
 import openblocks.yacodeblocks.ExternalController;
 import openblocks.yacodeblocks.FeedbackReporter;
@@ -31,10 +33,15 @@ public final class YaCodeblocksController implements ExternalController {
   private final String baseUrl;
   private String formPropertiesPath;
 
+  // The codeblocks source that was last saved to each path. Once a source has been saved, only
+  // the changes to it are sent to the server.
+  private final Map<String, String> savedSources;
+
   public YaCodeblocksController(YaHttpServerMain.ServerConnection conn, String baseUrl) {
     this.conn = conn;
     this.baseUrl = baseUrl;
     this.formPropertiesPath = "";
+    this.savedSources = new HashMap<String, String>();
   }
 
   @Override
@@ -43,25 +50,66 @@ public final class YaCodeblocksController implements ExternalController {
       throw new IOException("Can't save codeblocks source since we don't know " +
           "the path name yet!");
     }
+    // The server saves the source with a trailing newline, so the changes must be computed
+    // against a source that ends with one.
+    if (!contents.endsWith("\n")) {
+      contents = contents + "\n";
+    }
     System.out.println("Trying to save codeblocks source");
-    if (writeContentsToServer(path, contents, "codeblocks source")) {
+    String savedSource = savedSources.get(path);
+    if ((savedSource != null && writeDeltaToServer(path, TextDelta.between(savedSource, contents)))
+        || writeContentsToServer(path, contents, "codeblocks source")) {
+      savedSources.put(path, contents);
       System.out.println("Successfully saved codeblocks source");
     } else {
+      savedSources.remove(path);
       throw new IOException("Couldn't save blocks source");
     }
   }
 
+  /*
+   * Posts the changes to a source that was saved before. Returns false if the changes were not
+   * saved, for example because the server no longer has the source they were computed against,
+   * in which case the caller should post the whole source. Errors are reported by that post.
+   */
+  // @VisibleForTesting
+  boolean writeDeltaToServer(String path, TextDelta delta) {
+    try {
+      HttpURLConnection httpUrlConn = postToServer(path, delta.encode(), true);
+      int responseCode = checkForUpdatedAppInventorServer(httpUrlConn);
+      if (responseCode == HttpURLConnection.HTTP_OK ||
+          responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+        System.out.println("Saved changes to codeblocks source");
+        return true;
+      }
+      System.out.println("Couldn't save changes to codeblocks source (error=" + responseCode
+          + "), saving the whole source");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return false;
+  }
+
+  private HttpURLConnection postToServer(String path, String body, boolean isDelta)
+      throws IOException {
+    HttpURLConnection httpUrlConn = conn.getConnection(baseUrl + path);
+    httpUrlConn.setDoOutput(true);
+    httpUrlConn.setRequestMethod("POST");
+    httpUrlConn.addRequestProperty("Content-Type", "text/plain; charset=utf-8");
+    if (isDelta) {
+      httpUrlConn.addRequestProperty(YaHttpServerConstants.TEXT_DELTA_HEADER, "true");
+    }
+    httpUrlConn.connect();
+    OutputStreamWriter writer = new OutputStreamWriter(httpUrlConn.getOutputStream(), "UTF-8");
+    writer.write(body);
+    writer.close();
+    return httpUrlConn;
+  }
+
   // @VisibleForTesting
   boolean writeContentsToServer(String path, String contents, String what) {
     try {
-      HttpURLConnection httpUrlConn = conn.getConnection(baseUrl + path);
-      httpUrlConn.setDoOutput(true);
-      httpUrlConn.setRequestMethod("POST");
-      httpUrlConn.addRequestProperty("Content-Type", "text/plain; charset=utf-8");
-      httpUrlConn.connect();
-      OutputStreamWriter writer = new OutputStreamWriter(httpUrlConn.getOutputStream(), "UTF-8");
-      writer.write(contents);
-      writer.close();
+      HttpURLConnection httpUrlConn = postToServer(path, contents, false);
       int responseCode = checkForUpdatedAppInventorServer(httpUrlConn);
       if (responseCode == HttpURLConnection.HTTP_OK ||
           responseCode == HttpURLConnection.HTTP_NO_CONTENT ||
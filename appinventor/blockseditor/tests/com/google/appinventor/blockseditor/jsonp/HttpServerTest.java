@@ -9,8 +9,15 @@ import com.google.common.collect.Maps;
 
 import junit.framework.TestCase;
 
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.Socket;
 import java.util.Map;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Unit tests for {@link HttpServer}.
@@ -20,6 +27,192 @@ import java.util.Map;
 public class HttpServerTest extends TestCase {
   private static final int REQUIRED_SECRET = 217;
 
+  private HttpServer server;
+  private Thread serverThread;
+  private int port;
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (serverThread != null) {
+      Socket socket = new Socket("127.0.0.1", port);
+      try {
+        sendRequest(socket, JsonpConstants.QUIT, "HTTP/1.1", "close");
+        readResponseBody(socket);
+      } finally {
+        socket.close();
+      }
+      serverThread.join(10000);
+      assertFalse(serverThread.isAlive());
+    }
+    super.tearDown();
+  }
+
+  /**
+   * Starts a server on another thread and waits until it listens on its port.
+   */
+  private void startServer() throws Exception {
+    server = new HttpServer();
+    server.setSecret(REQUIRED_SECRET);
+    final CountDownLatch portSelected = new CountDownLatch(1);
+    server.addHttpServerEventListener(new HttpServerEventListener() {
+      @Override
+      public void onPortSelected(HttpServer server, int port) {
+        HttpServerTest.this.port = port;
+        portSelected.countDown();
+      }
+
+      @Override
+      public void onConnectivityStatusChange(HttpServer server, boolean status) {
+      }
+    });
+    serverThread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          server.runHttpServer();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    serverThread.start();
+    assertTrue(portSelected.await(10, TimeUnit.SECONDS));
+  }
+
+  private static void sendRequest(Socket socket, String request, String version,
+      String connectionHeader) throws IOException {
+    String requestLine = "GET /" + request
+        + "?" + JsonpConstants.OUTPUT + "=" + JsonpConstants.REQUIRED_OUTPUT_VALUE
+        + "&" + JsonpConstants.CALLBACK + "=" + JsonpConstants.REQUIRED_CALLBACK_VALUE
+        + "&" + JsonpConstants.ID + "=jr_123"
+        + "&" + JsonpConstants.SECRET + "=" + REQUIRED_SECRET
+        + " " + version + "\r\n";
+    String headers = "Host: 127.0.0.1\r\n";
+    if (connectionHeader != null) {
+      headers += "Connection: " + connectionHeader + "\r\n";
+    }
+    OutputStream outputStream = socket.getOutputStream();
+    outputStream.write((requestLine + headers + "\r\n").getBytes("UTF-8"));
+    outputStream.flush();
+  }
+
+  /**
+   * Reads one response from the given socket and returns its body.
+   */
+  private static String readResponseBody(Socket socket) throws IOException {
+    DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+    int contentLength = -1;
+    String line;
+    while ((line = readLine(inputStream)).length() != 0) {
+      if (line.startsWith("Content-Length:")) {
+        contentLength = Integer.parseInt(line.substring("Content-Length:".length()).trim());
+      }
+    }
+    assertTrue(contentLength >= 0);
+    byte[] body = new byte[contentLength];
+    inputStream.readFully(body);
+    return new String(body, "UTF-8");
+  }
+
+  private static String readLine(DataInputStream inputStream) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = inputStream.read()) != '\n') {
+      assertTrue("connection closed", c != -1);
+      if (c != '\r') {
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+  public void testReadHttpRequest() throws Exception {
+    BufferedReader reader = new BufferedReader(new StringReader(
+        "\r\nGET /a?b=c HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+        + "GET /d HTTP/1.0\r\n\r\n"));
+    HttpServer.HttpRequest request = HttpServer.readHttpRequest(reader);
+    assertEquals("GET", request.getMethod());
+    assertEquals("/a?b=c", request.getUri());
+    assertFalse(request.isKeepAlive());
+
+    request = HttpServer.readHttpRequest(reader);
+    assertEquals("/d", request.getUri());
+    assertFalse(request.isKeepAlive());
+
+    assertNull(HttpServer.readHttpRequest(reader));
+  }
+
+  public void testIsKeepAlive() throws Exception {
+    assertTrue(new HttpServer.HttpRequest("GET", "/", "HTTP/1.1", null).isKeepAlive());
+    assertFalse(new HttpServer.HttpRequest("GET", "/", "HTTP/1.1", "close").isKeepAlive());
+    assertFalse(new HttpServer.HttpRequest("GET", "/", "HTTP/1.0", null).isKeepAlive());
+    assertTrue(new HttpServer.HttpRequest("GET", "/", "HTTP/1.0", "Keep-Alive").isKeepAlive());
+  }
+
+  public void testRequestsOnKeptAliveConnection() throws Exception {
+    startServer();
+    server.setHandler("echo", new HttpRequestHandler() {
+      @Override
+      public String handleRequest(Map<String, String> parameters) {
+        return "echo " + parameters.get(JsonpConstants.ID);
+      }
+    });
+
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      sendRequest(socket, "echo", "HTTP/1.1", null);
+      assertEquals("echo jr_123", readResponseBody(socket));
+      sendRequest(socket, "echo", "HTTP/1.1", null);
+      assertEquals("echo jr_123", readResponseBody(socket));
+    } finally {
+      socket.close();
+    }
+    assertEquals(2, server.getRequestCount("echo"));
+  }
+
+  public void testSlowRequestDoesNotBlockOtherConnections() throws Exception {
+    startServer();
+    final CountDownLatch slowRequestStarted = new CountDownLatch(1);
+    final CountDownLatch fastRequestAnswered = new CountDownLatch(1);
+    server.setHandler("slow", new HttpRequestHandler() {
+      @Override
+      public String handleRequest(Map<String, String> parameters) {
+        slowRequestStarted.countDown();
+        try {
+          fastRequestAnswered.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "slow";
+      }
+    });
+    server.setHandler("fast", new HttpRequestHandler() {
+      @Override
+      public String handleRequest(Map<String, String> parameters) {
+        return "fast";
+      }
+    });
+
+    Socket slowSocket = new Socket("127.0.0.1", port);
+    Socket fastSocket = new Socket("127.0.0.1", port);
+    try {
+      sendRequest(slowSocket, "slow", "HTTP/1.1", null);
+      assertTrue(slowRequestStarted.await(10, TimeUnit.SECONDS));
+
+      // The fast request is answered while the slow request is still being handled.
+      sendRequest(fastSocket, "fast", "HTTP/1.1", null);
+      assertEquals("fast", readResponseBody(fastSocket));
+      fastRequestAnswered.countDown();
+
+      assertEquals("slow", readResponseBody(slowSocket));
+    } finally {
+      slowSocket.close();
+      fastSocket.close();
+    }
+    assertEquals(1, server.getRequestCount("slow"));
+    assertEquals(1, server.getRequestCount("fast"));
+  }
+
   private Map<String, String> createValidParameters() {
     return ImmutableMap.of(
         JsonpConstants.OUTPUT, JsonpConstants.REQUIRED_OUTPUT_VALUE,
@@ -21,6 +21,7 @@ import openblocks.renderable.BlockImageIcon.ImageLocation;
 import openblocks.workspace.ISupportMemento;
 import openblocks.yacodeblocks.Escapers;
 import openblocks.yacodeblocks.ProcedureBlockManager;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 import openblocks.codeblocks.BlockConnector.PositionType;
 
@@ -33,15 +34,9 @@ import openblocks.codeblocks.BlockConnector.PositionType;
  */
 public class Block implements ISupportMemento {
 
-  /** The ID that is to be assigned to the next new block */
-  private static long NEXT_ID = 1;
-
   //Defines a NULL id for a Block
   public static final Long NULL = Long.valueOf(-1);
 
-  /** A universal hashmap of all the Block instances*/
-  private final static HashMap<Long, Block> ALL_BLOCKS= new HashMap<Long,Block>();
-
   public static final String BAD_BLOCK_FORMAT_MESSAGE =
       "Block may have an old version. Please replace it";
 
@@ -109,17 +104,20 @@ public class Block implements ISupportMemento {
    */
   protected Block(Long id, String genusName, String label, boolean linkToStubs){
 
-    if (ALL_BLOCKS.containsKey(id)) {
-      Block dup = ALL_BLOCKS.get(id);
+    WorkspaceContext context = WorkspaceContext.current();
+    Map<Long, Block> allBlocks = context.getBlocks();
+    if (allBlocks.containsKey(id)) {
+      Block dup = allBlocks.get(id);
       System.out.println("pre-existing block is: "+dup+" with genus "+dup.getGenusName()+" and label "+dup.getBlockLabel());
-      assert !ALL_BLOCKS.containsKey(id) : "Block id: "+id+" already exists!  BlockGenus "+genusName+" label: "+label;
+      assert !allBlocks.containsKey(id) :
+          "Block id: "+id+" already exists!  BlockGenus "+genusName+" label: "+label;
     }
     this.blockID = id;
 
     //if this assigned id value equals the next id to automatically assign
     // a new block, increment the next id value by 1
-    if (id.longValue() == NEXT_ID)
-      NEXT_ID++;
+    if (id.longValue() == context.getNextBlockId())
+      context.setNextBlockId(id.longValue() + 1);
 
     sockets = new ArrayList<BlockConnector>();
     argumentDescriptions = new ArrayList<String>();
@@ -157,11 +155,11 @@ public class Block implements ISupportMemento {
 
       this.expandGroups = new ArrayList<List<BlockConnector>>(genus.getExpandGroups());
 
-      //add to ALL_BLOCKS
+      //add to the blocks of the workspace context
       //warning: publishing this block before constructor finishes has the
       //potential to cause some problems such as data races
       //other threads could access this block from getBlock()
-      ALL_BLOCKS.put(this.blockID, this);
+      allBlocks.put(this.blockID, this);
 
       //add itself to stubs hashmap
       //however factory blocks will have entries in hashmap...
@@ -186,12 +184,9 @@ public class Block implements ISupportMemento {
    */
   public Block(String genusName, String label, boolean linkToStubs){
     //more will go into constructor;
-    this(NEXT_ID, genusName, label, linkToStubs);
+    this(WorkspaceContext.current().getNextBlockId(), genusName, label, linkToStubs);
 
-    NEXT_ID++;
-
-    while(ALL_BLOCKS.containsKey(NEXT_ID))
-      NEXT_ID++;
+    skipUsedIds();
   }
 
   /**
@@ -203,12 +198,9 @@ public class Block implements ISupportMemento {
    */
   public Block(String genusName, String label){
     //more will go into constructor;
-    this(NEXT_ID, genusName, label, true);
-
-    NEXT_ID++;
+    this(WorkspaceContext.current().getNextBlockId(), genusName, label, true);
 
-    while(ALL_BLOCKS.containsKey(NEXT_ID))
-      NEXT_ID++;
+    skipUsedIds();
   }
 
   /**
@@ -255,7 +247,7 @@ public class Block implements ISupportMemento {
    * @return the Block instance with the specified blockID
    */
   public static Block getBlock(Long blockID){
-    return ALL_BLOCKS.get(blockID);
+    return WorkspaceContext.current().getBlocks().get(blockID);
   }
 
   /**
@@ -270,16 +262,30 @@ public class Block implements ISupportMemento {
    */
   public static void reset(){
     //System.out.println("reseting all blocks");
-    ALL_BLOCKS.clear();
-    NEXT_ID = 1;
+    WorkspaceContext context = WorkspaceContext.current();
+    context.getBlocks().clear();
+    context.setNextBlockId(1);
+    context.getYailCache().clear();
+  }
+
+  /**
+   * Advances the next id to automatically assign past the ids that are
+   * already used by blocks.
+   */
+  private static void skipUsedIds() {
+    WorkspaceContext context = WorkspaceContext.current();
+    long nextId = context.getNextBlockId() + 1;
+    while (context.getBlocks().containsKey(nextId))
+      nextId++;
+    context.setNextBlockId(nextId);
   }
 
   /**
-   * Remove block from ALL_BLOCKS for benefit of RenderableBlock who created
-   * it just to get a collapsed shape.
+   * Remove block from the blocks of the workspace context for benefit of
+   * RenderableBlock who created it just to get a collapsed shape.
    */
   public void forget() {
-    ALL_BLOCKS.remove(blockID);
+    WorkspaceContext.current().getBlocks().remove(blockID);
   }
   ///////////////////
   //BLOCK prop
@@ -1771,7 +1777,9 @@ public class Block implements ISupportMemento {
       return input;
     if (mapping.containsKey(input))
       return mapping.get(input);
-    Long newID = Long.valueOf(NEXT_ID++);
+    WorkspaceContext context = WorkspaceContext.current();
+    Long newID = Long.valueOf(context.getNextBlockId());
+    context.setNextBlockId(newID.longValue() + 1);
     mapping.put(input, newID);
     return newID;
   }
@@ -1779,7 +1787,7 @@ public class Block implements ISupportMemento {
   //Temp code so compiler can see all blocks
   //TODO remove when a more appropriate method exists for the workspace
   public static Iterable<Block> getAllBlocks() {
-    return ALL_BLOCKS.values();
+    return WorkspaceContext.current().getBlocks().values();
   }
 
   /***********************************
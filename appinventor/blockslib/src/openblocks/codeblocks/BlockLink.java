@@ -4,6 +4,7 @@ import openblocks.renderable.RenderableBlock;
 import openblocks.workspace.Workspace;
 import openblocks.workspace.WorkspaceEvent;
 import openblocks.yacodeblocks.FeedbackReporter;
+import openblocks.yacodeblocks.WorkspaceContext;
 import openblocks.yacodeblocks.WorkspaceControllerHolder;
 import openblocks.codeblockutil.SoundManager;
 import openblocks.codeblockutil.Sound;
@@ -31,13 +32,6 @@ public class BlockLink {
   private BlockConnector plug;
   private BlockConnector socket;
 
-  //information regarding the last BlockLink instance
-  private static Long lastPlugID;
-  private static Long lastSocketID;
-  private static BlockConnector lastPlug;
-  private static BlockConnector lastSocket;
-  private static BlockLink lastLink;
-
   /**
    * Private constructor to (somewhat) limit object creation
    * @param block1
@@ -64,10 +58,6 @@ public class BlockLink {
       plugBlockID = block2.getBlockID();
       socketBlockID = block1.getBlockID();
     }
-    lastPlugID = plugBlockID;
-    lastSocketID = socketBlockID;
-    lastPlug = plug;
-    lastSocket = socket;
     lastPlugBlockID = Block.NULL;
   }
 
@@ -195,13 +185,19 @@ public class BlockLink {
    */
   public static BlockLink getBlockLink(Block block1, Block block2, BlockConnector socket1,
       BlockConnector socket2) {
-    // If these arguments are the same as the last call to getBlockLink, return the old object
-    // instead of creating a new one
-    if (!((block1.getBlockID().equals(lastPlugID) && block2.getBlockID().equals(lastSocketID) &&
-        socket1.equals(lastPlug) && socket2.equals(lastSocket)) ||
-        (block2.getBlockID().equals(lastPlugID) && block1.getBlockID().equals(lastSocketID) &&
-            socket2.equals(lastPlug) && socket1.equals(lastSocket)))) {
+    // If these arguments are the same as the last call to getBlockLink in this workspace, return
+    // the old object instead of creating a new one
+    WorkspaceContext context = WorkspaceContext.current();
+    BlockLink lastLink = context.getLastBlockLink();
+    if (lastLink == null ||
+        !((block1.getBlockID().equals(lastLink.plugBlockID) &&
+            block2.getBlockID().equals(lastLink.socketBlockID) &&
+            socket1.equals(lastLink.plug) && socket2.equals(lastLink.socket)) ||
+        (block2.getBlockID().equals(lastLink.plugBlockID) &&
+            block1.getBlockID().equals(lastLink.socketBlockID) &&
+            socket2.equals(lastLink.plug) && socket1.equals(lastLink.socket)))) {
       lastLink = new BlockLink(block1, block2, socket1, socket2);
+      context.setLastBlockLink(lastLink);
     }
     return lastLink;
   }
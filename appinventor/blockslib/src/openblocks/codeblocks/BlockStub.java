@@ -8,6 +8,7 @@ import openblocks.workspace.Workspace;
 import openblocks.workspace.WorkspaceEvent;
 import openblocks.yacodeblocks.FeedbackReporter;
 import openblocks.yacodeblocks.ProcedureBlockManager;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 import java.awt.Color;
 import java.util.ArrayList;
@@ -46,16 +47,21 @@ public class BlockStub extends Block {
    * there may be multiple blocks with the same genus and name (as in the case
    * of arguments)
    */
-  protected static HashMap<String, Set<Long>> parentNameToParentBlocks =
-      new HashMap<String, Set<Long>>();
-  protected static HashMap<String, Set<Long>> parentNameToBlockStubs =
-      new HashMap<String, Set<Long>>();
+  protected static HashMap<String, Set<Long>> parentNameToParentBlocks() {
+    return WorkspaceContext.current().getParentNameToParentBlocks();
+  }
+
+  protected static HashMap<String, Set<Long>> parentNameToBlockStubs() {
+    return WorkspaceContext.current().getParentNameToBlockStubs();
+  }
 
   /**
    * Temporary mapping for parent type (caller plugs).
    * TODO(user) remove once BlockUtilities cloneBlock() is finished
    */
-  private static Map<String, String> parentToPlugType = new HashMap<String, String>();
+  private static Map<String, String> parentToPlugType() {
+    return WorkspaceContext.current().getParentToPlugType();
+  }
 
   // stub type string constants
   private static final String GETTER_STUB = "getter";
@@ -139,7 +145,7 @@ public class BlockStub extends Block {
       // If our parent already has a plug type, we want to update
       // Note that we don't need to call renderables, since we are still
       // in the constructor
-      String kind = parentToPlugType.get(parent.getBlockLabel() + parent.getGenusName());
+      String kind = parentToPlugType().get(parent.getBlockLabel() + parent.getGenusName());
       if (kind != null) {
         removeBeforeAndAfter();
         // TODO(user) commented code relates to creating mirror
@@ -171,7 +177,7 @@ public class BlockStub extends Block {
     // parent should have existed in hashmap before this stub was created
     // (look at main Block constructor)
     // thus no problem should occur with following line
-    parentNameToBlockStubs.get(parentName + parentGenus).add(this.getBlockID());
+    parentNameToBlockStubs().get(parentName + parentGenus).add(this.getBlockID());
 
   }
 
@@ -219,12 +225,12 @@ public class BlockStub extends Block {
     // there's a chance that the parent for this has not been
     // added to parentNameToBlockStubs mapping
     String key = parentName + parentGenus;
-    if (parentNameToBlockStubs.containsKey(key)) {
-      parentNameToBlockStubs.get(key).add(this.getBlockID());
+    if (parentNameToBlockStubs().containsKey(key)) {
+      parentNameToBlockStubs().get(key).add(this.getBlockID());
     } else {
       HashSet<Long> stubs = new HashSet<Long>();
       stubs.add(this.getBlockID());
-      parentNameToBlockStubs.put(key, stubs);
+      parentNameToBlockStubs().put(key, stubs);
     }
   }
 
@@ -232,8 +238,8 @@ public class BlockStub extends Block {
    * Clears all the mappings between parents and stubs.
    */
   public static void reset() {
-    parentNameToBlockStubs.clear();
-    parentNameToParentBlocks.clear();
+    parentNameToBlockStubs().clear();
+    parentNameToParentBlocks().clear();
   }
 
   /**
@@ -242,8 +248,8 @@ public class BlockStub extends Block {
    */
   public static void forgetStub(long blockID) {
     if (! (Block.getBlock(blockID) instanceof BlockStub)) return;
-    for (String key : parentNameToBlockStubs.keySet()) {
-      parentNameToBlockStubs.get(key).remove(blockID);
+    for (String key : parentNameToBlockStubs().keySet()) {
+      parentNameToBlockStubs().get(key).remove(blockID);
     }
   }
 
@@ -251,8 +257,8 @@ public class BlockStub extends Block {
    * Returns true iff blockID is in the child stub list of some parent
    */
   public static boolean hasParent(long blockID) {
-    for (String key : parentNameToBlockStubs.keySet()) {
-      Set<Long> childStubs = parentNameToBlockStubs.get(key);
+    for (String key : parentNameToBlockStubs().keySet()) {
+      Set<Long> childStubs = parentNameToBlockStubs().get(key);
       if (childStubs.contains(blockID)) {
         return true;
       }
@@ -265,7 +271,7 @@ public class BlockStub extends Block {
    * @param blockID
    */
   public static Iterable<Long> getStubsOfParent(Long blockID) {
-    Set<Long> stubs = parentNameToBlockStubs.get(
+    Set<Long> stubs = parentNameToBlockStubs().get(
         Block.getBlock(blockID).getBlockLabel() + Block.getBlock(blockID).getGenusName());
     if (stubs != null) {
       return stubs;
@@ -279,7 +285,7 @@ public class BlockStub extends Block {
    * @param blockID
    */
   public static int countStubsOfParent(Long blockID) {
-    Set<Long> stubs = parentNameToBlockStubs.get(
+    Set<Long> stubs = parentNameToBlockStubs().get(
         Block.getBlock(blockID).getBlockLabel() + Block.getBlock(blockID).getGenusName());
     if (stubs != null) {
       return stubs.size();
@@ -294,13 +300,13 @@ public class BlockStub extends Block {
    */
   public static void putNewParentInStubMap(Long blockID) {
     String key = Block.getBlock(blockID).getBlockLabel() + Block.getBlock(blockID).getGenusName();
-    if (parentNameToParentBlocks.get(key) == null) {
-      parentNameToParentBlocks.put(key, new HashSet<Long>());
+    if (parentNameToParentBlocks().get(key) == null) {
+      parentNameToParentBlocks().put(key, new HashSet<Long>());
     }
-    parentNameToParentBlocks.get(key).add(blockID);
+    parentNameToParentBlocks().get(key).add(blockID);
 
-    if (parentNameToBlockStubs.get(key) == null) {
-      parentNameToBlockStubs.put(key, new HashSet<Long>());
+    if (parentNameToBlockStubs().get(key) == null) {
+      parentNameToBlockStubs().put(key, new HashSet<Long>());
     }
 
     // notify dangling stubs and update their renderables
@@ -308,7 +314,7 @@ public class BlockStub extends Block {
     // and reflect that graphically
     //TODO(user) Figure out if/how dangling stubs come about and whether they
     // should.
-    for (Long stubID : parentNameToBlockStubs.get(key)) {
+    for (Long stubID : parentNameToBlockStubs().get(key)) {
       BlockStub stub = (BlockStub) Block.getBlock(stubID);
       stub.notifyRenderable();
     }
@@ -322,10 +328,10 @@ public class BlockStub extends Block {
   public static void removeParentFromStubMap(Long blockID) {
     Block block = Block.getBlock(blockID);
     String key = block.getBlockLabel() + block.getGenusName();
-    if (parentNameToParentBlocks.containsKey(key)) {
-      parentNameToParentBlocks.get(key).remove(blockID);
-      if (parentNameToParentBlocks.get(key).size() == 0) {
-        parentNameToParentBlocks.remove(key);
+    if (parentNameToParentBlocks().containsKey(key)) {
+      parentNameToParentBlocks().get(key).remove(blockID);
+      if (parentNameToParentBlocks().get(key).size() == 0) {
+        parentNameToParentBlocks().remove(key);
       }
     }
   }
@@ -350,16 +356,16 @@ public class BlockStub extends Block {
     // only update if parents name really did "change" meaning the new parent name is
     // different from the old parent name
     if (oldKey.equals(newKey)) return;
-    if (parentNameToParentBlocks.get(newKey) == null) {
-      parentNameToParentBlocks.put(newKey, new HashSet<Long>());
+    if (parentNameToParentBlocks().get(newKey) == null) {
+      parentNameToParentBlocks().put(newKey, new HashSet<Long>());
     }
-    parentNameToParentBlocks.get(newKey).add(parentID);
+    parentNameToParentBlocks().get(newKey).add(parentID);
     // special cases for arguments
     if (parentBlock.isArgument()) {
       argumentNameChanged(newParentName, parentID, parentBlock, oldKey, newKey);
     } else {
       // update the parent name of each stub
-      Set<Long> stubs = parentNameToBlockStubs.get(oldKey);
+      Set<Long> stubs = parentNameToBlockStubs().get(oldKey);
       if (stubs == null) {
         System.out.println(
             "parentNameChanged: can't find old parent in map. duplicate stubs?");
@@ -374,16 +380,16 @@ public class BlockStub extends Block {
       }
 
       // check if any stubs already exist for new key
-      Set<Long> existingStubs = parentNameToBlockStubs.get(newKey);
+      Set<Long> existingStubs = parentNameToBlockStubs().get(newKey);
       if (existingStubs != null) {
         stubs.addAll(existingStubs);
       }
       System.out.println("Put2 :" + newKey);
-      parentNameToBlockStubs.put(newKey, stubs);
+      parentNameToBlockStubs().put(newKey, stubs);
 
       // remove old parent name from hash maps
-      parentNameToParentBlocks.remove(oldKey);
-      parentNameToBlockStubs.remove(oldKey);
+      parentNameToParentBlocks().remove(oldKey);
+      parentNameToBlockStubs().remove(oldKey);
     }
   }
 
@@ -400,7 +406,7 @@ public class BlockStub extends Block {
     Set<Long> stubsToMove = new HashSet<Long>();
     List<BlockStub> possibleDefinitions = new ArrayList<BlockStub>();
 
-    for (Long stubID : parentNameToBlockStubs.get(oldKey)) {
+    for (Long stubID : parentNameToBlockStubs().get(oldKey)) {
       BlockStub blockStub = (BlockStub) Block.getBlock(stubID);
       if (ProcedureBlockManager.isInSameProcedure(parentBlock, blockStub)) {
         stubsToMove.add(stubID);
@@ -417,7 +423,7 @@ public class BlockStub extends Block {
     BlockStub definitionToMove = null;
     // If there were multiple arguments with this name, at least one definition
     // was invisible.  Make one visible, and then move it.
-    if (parentNameToParentBlocks.get(oldKey).size() >= 2) {
+    if (parentNameToParentBlocks().get(oldKey).size() >= 2) {
       for (BlockStub blockStub : possibleDefinitions) {
         if (!blockStub.getRenderableBlock().isVisible()) {
           blockStub.getRenderableBlock().showBlock(true);
@@ -433,7 +439,7 @@ public class BlockStub extends Block {
     }
 
     // If there is already an arg with the new name, make this arg's definition invisible
-    if (parentNameToParentBlocks.get(newKey).size() >= 2) {
+    if (parentNameToParentBlocks().get(newKey).size() >= 2) {
       definitionToMove.getRenderableBlock().showBlock(false);
       definitionToMove.notifyRenderable();
     }
@@ -443,12 +449,12 @@ public class BlockStub extends Block {
       blockStub.setBlockLabel(newParentName);
       blockStub.notifyRenderable();
     }
-    if (parentNameToBlockStubs.get(newKey) == null) {
-      parentNameToBlockStubs.put(newKey, new HashSet<Long>());
+    if (parentNameToBlockStubs().get(newKey) == null) {
+      parentNameToBlockStubs().put(newKey, new HashSet<Long>());
     }
-    parentNameToBlockStubs.get(newKey).addAll(stubsToMove);
-    parentNameToBlockStubs.get(oldKey).removeAll(stubsToMove);
-    parentNameToParentBlocks.get(oldKey).remove(parentID);
+    parentNameToBlockStubs().get(newKey).addAll(stubsToMove);
+    parentNameToBlockStubs().get(oldKey).removeAll(stubsToMove);
+    parentNameToParentBlocks().get(oldKey).remove(parentID);
   }
 
   /**
@@ -461,7 +467,7 @@ public class BlockStub extends Block {
         Block.getBlock(parentID).getGenusName();
 
     // update each stub
-    Set<Long> stubs = parentNameToBlockStubs.get(key);
+    Set<Long> stubs = parentNameToBlockStubs().get(key);
     for (Long stub : stubs) {
       BlockStub blockStub = (BlockStub) Block.getBlock(stub);
       blockStub.setPageLabel(newPageLabel);
@@ -480,7 +486,7 @@ public class BlockStub extends Block {
 
     // update each stub only if stub is a caller (as callers are the only type of stubs that
     // can change its connectors after being created)
-    Set<Long> stubs = parentNameToBlockStubs.get(key);
+    Set<Long> stubs = parentNameToBlockStubs().get(key);
     for (Long stub : stubs) {
       BlockStub blockStub = (BlockStub) Block.getBlock(stub);
       if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
@@ -502,13 +508,13 @@ public class BlockStub extends Block {
 
     //  Update our type mapping.
     if (kind == null) {
-      parentToPlugType.remove(key);
+      parentToPlugType().remove(key);
     } else {
-      parentToPlugType.put(key, kind);
+      parentToPlugType().put(key, kind);
     }
 
     //  update each stub only if stub is a caller
-    Set<Long> stubs = parentNameToBlockStubs.get(key);
+    Set<Long> stubs = parentNameToBlockStubs().get(key);
     for (Long stub : stubs) {
       BlockStub blockStub = (BlockStub) Block.getBlock(stub);
       if (blockStub.stubGenus.startsWith(CALLER_STUB)) {
@@ -539,10 +545,10 @@ public class BlockStub extends Block {
    */
   public Set<Long> getParents() {
     String key = parentName + parentGenus;
-    if (!parentNameToParentBlocks.containsKey(key)) {
+    if (!parentNameToParentBlocks().containsKey(key)) {
       return null;
     }
-    return parentNameToParentBlocks.get(key);
+    return parentNameToParentBlocks().get(key);
   }
 
 
@@ -555,10 +561,10 @@ public class BlockStub extends Block {
    */
   public static int countBlocksWithName(Block parent) {
     String key = parent.getBlockLabel() + parent.getGenusName();
-    if (!parentNameToParentBlocks.containsKey(key)) {
+    if (!parentNameToParentBlocks().containsKey(key)) {
       return 0;
     }
-    return parentNameToParentBlocks.get(key).size();
+    return parentNameToParentBlocks().get(key).size();
   }
 
   /**
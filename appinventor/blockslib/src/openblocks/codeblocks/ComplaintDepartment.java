@@ -5,10 +5,10 @@ package openblocks.codeblocks;
 import openblocks.renderable.Complaint;
 import openblocks.renderable.RenderableBlock;
 import openblocks.workspace.Workspace;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 import java.awt.Color;
 import java.awt.Rectangle;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -33,8 +33,6 @@ public class ComplaintDepartment {
   public static final Color ERROR_COLOR = Color.RED;
   public static final Color WARNING_COLOR = Color.YELLOW;
 
-  private static final List<String> compileErrors = new ArrayList<String>();
-  private static Rectangle complaintRect;
   private long blockID;
 
   public ComplaintDepartment(long bID) {
@@ -47,8 +45,9 @@ public class ComplaintDepartment {
         rb.removeComplaint();
       }
     }
-    compileErrors.clear();
-    complaintRect = new Rectangle(0, 0, -1, -1);
+    WorkspaceContext context = WorkspaceContext.current();
+    context.getCompileErrors().clear();
+    context.setComplaintRect(new Rectangle(0, 0, -1, -1));
   }
 
   /**
@@ -59,8 +58,9 @@ public class ComplaintDepartment {
    * @param severe true means fatal error
    */
    public void complain(String complaint, boolean severe)  {
+    WorkspaceContext context = WorkspaceContext.current();
     if (severe) {
-      compileErrors.add(complaint);
+      context.getCompileErrors().add(complaint);
     }
     RenderableBlock rb = RenderableBlock.getRenderableBlock(blockID);
     String message = (severe ? "Error" : "Warning") + ": " + complaint + "\n";
@@ -75,7 +75,8 @@ public class ComplaintDepartment {
       // clump. Expand the whole clump so user can see the complaint.
       rb.getTopmost().setCollapsed(false);
     }
-    complaintRect = complaintRect.union(rb.getBounds().union(balloon.getBounds()));
+    context.setComplaintRect(
+        context.getComplaintRect().union(rb.getBounds().union(balloon.getBounds())));
     balloon.reformBlockNote();
   }
 
@@ -86,8 +87,9 @@ public class ComplaintDepartment {
    */
   public static int showCompiletimeComplaints() {
     //TODO(user) scrollToShowRectangle doesn't seem to work properly at the Swing level
-    Workspace.getInstance().getBlockCanvas().scrollToShowRectangle(complaintRect);
-    return compileErrors.size();
+    WorkspaceContext context = WorkspaceContext.current();
+    Workspace.getInstance().getBlockCanvas().scrollToShowRectangle(context.getComplaintRect());
+    return context.getCompileErrors().size();
   }
 
   /* Called from build server after generating YAIL.
@@ -95,6 +97,7 @@ public class ComplaintDepartment {
    * @return the compile errors as an array of String
    */
   public static String[] getCompileErrors() {
+    List<String> compileErrors = WorkspaceContext.current().getCompileErrors();
     return compileErrors.toArray(new String[compileErrors.size()]);
   }
 
@@ -107,7 +110,8 @@ public class ComplaintDepartment {
     balloon.setText("Error: " + complaint + "\n");
     balloon.getBlockNoteLabel().setActive(true);
     balloon.getBlockNoteLabel().setBackground(ERROR_COLOR);
-    complaintRect = rb.getBounds().union(balloon.getBounds());
+    Rectangle complaintRect = rb.getBounds().union(balloon.getBounds());
+    WorkspaceContext.current().setComplaintRect(complaintRect);
     balloon.reformBlockNote();
     //TODO(user) scrollToShowRectangle doesn't seem to work properly at the Swing level
     Workspace.getInstance().getBlockCanvas().scrollToShowRectangle(complaintRect);
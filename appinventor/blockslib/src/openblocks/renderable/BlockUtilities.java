@@ -4,7 +4,6 @@ import java.awt.Container;
 import java.awt.Point;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -28,21 +27,18 @@ import openblocks.codeblocks.BlockLinkChecker;
 import openblocks.codeblocks.BlockStub;
 import openblocks.yacodeblocks.FeedbackReporter;
 import openblocks.yacodeblocks.ProcedureBlockManager;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 public class BlockUtilities {
   private static boolean DEBUG = false;
 
   public static final String CONFIRM_DELETE_MESSAGE = "Really remove selected blocks?";
 
-  // Map from genusName+label -> counter. Keeps an instance counter for each <genus, label>
-  // pair. We add the label into the key so that we don't end up with, e.g., x1, y2, z3 instead of
-  // x1, y1, z1 for x, y, z arguments.
-  private static final Map<String, Integer> instanceCounter = new HashMap<String, Integer>();
   private static double zoom = 1.0;
 
   public static void reset(){
     zoom = 1.0;
-    instanceCounter.clear();
+    WorkspaceContext.current().getInstanceCounter().clear();
   }
   public static void setZoomLevel(double newZoom) {
     zoom = newZoom;
@@ -529,6 +525,10 @@ public class BlockUtilities {
     String labelWithIndex = startLabel;  // labelWithIndex will have the instance value
 
     // initialize value that will be appended to the end of the label
+    // The instance counter maps genusName+label -> counter. Keeps an instance counter for each
+    // <genus, label> pair. We add the label into the key so that we don't end up with, e.g.,
+    // x1, y2, z3 instead of x1, y1, z1 for x, y, z arguments.
+    Map<String, Integer> instanceCounter = WorkspaceContext.current().getInstanceCounter();
     String instanceKey = genusName + startLabel;
     int value = (instanceCounter.containsKey(instanceKey))
                  ? instanceCounter.get(instanceKey).intValue()
@@ -30,6 +30,7 @@ import openblocks.workspace.WorkspaceEvent;
 import openblocks.workspace.WorkspaceWidget;
 import openblocks.yacodeblocks.BlockParser;
 import openblocks.yacodeblocks.FeedbackReporter;
+import openblocks.yacodeblocks.WorkspaceContext;
 import openblocks.yacodeblocks.WorkspaceController;
 import openblocks.yacodeblocks.WorkspaceControllerHolder;
 
@@ -58,7 +59,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.swing.JComponent;
@@ -149,9 +149,6 @@ public class RenderableBlock extends JComponent implements SearchableElement,
  //  private static final double NEARBY_RADIUS = 20.0;
   /** The alpha level while dragging - lower means more transparent */
   private static final  float DRAGGING_ALPHA = 0.66F;
-  /** Mapping from blockID to the corresponding RenderableBlock instance */
-  private static final Map<Long, RenderableBlock> ALL_RENDERABLE_BLOCKS =
-      new HashMap<Long, RenderableBlock>();
 
   // COMPONENT FIELDS
   /** BlockID of this.  MAY BE Block.NULL */
@@ -245,7 +242,7 @@ public class RenderableBlock extends JComponent implements SearchableElement,
 
     this.parent = parent;
     this.blockID = blockID;
-    ALL_RENDERABLE_BLOCKS.put(blockID, this);
+    WorkspaceContext.current().getRenderableBlocks().put(blockID, this);
 
     boolean collapseable = isCollapseable(getBlock().getGenusName());
 
@@ -565,11 +562,15 @@ public class RenderableBlock extends JComponent implements SearchableElement,
     if (DEBUG) {
       System.out.println("reseting all renderable blocks");
     }
-    ALL_RENDERABLE_BLOCKS.clear();
+    WorkspaceContext.current().getRenderableBlocks().clear();
     BlockUtilities.reset();
     Block.reset();
     BlockStub.reset();
-    System.gc();
+    // A headless workspace is reset after every form it compiles, possibly while other
+    // workspaces are compiling, so leave garbage collection to the VM there.
+    if (!WorkspaceControllerHolder.isHeadless()) {
+      System.gc();
+    }
   }
 
   public JComponentDragHandler getDragHandler() {
@@ -1095,14 +1096,14 @@ public class RenderableBlock extends JComponent implements SearchableElement,
    * @return the Renderable specified by blockID; null if RenderableBlock does not exist
    */
   public static RenderableBlock getRenderableBlock(Long blockID){
-    return ALL_RENDERABLE_BLOCKS.get(blockID);
+    return WorkspaceContext.current().getRenderableBlocks().get(blockID);
   }
 
   /**
   * @return sll the RenderableBlocks on the canvas
    */
   public static Collection<RenderableBlock> getAllRenderableBlocks(){
-    return  ALL_RENDERABLE_BLOCKS.values();
+    return WorkspaceContext.current().getRenderableBlocks().values();
   }
 
   //// BLOCK RESIZING ////
@@ -1590,6 +1591,18 @@ public class RenderableBlock extends JComponent implements SearchableElement,
     return false;
   }
 
+  /**
+   * @return true iff this block or any of its descendants has a complaint
+   */
+  public boolean familyHasComplaint() {
+    for (RenderableBlock rb : getThisPlusDescendants()) {
+      if (rb.hasComplaint()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public Report getReport(){
     for (BlockNote bn : blockNotes) {
       if (bn instanceof Report) {
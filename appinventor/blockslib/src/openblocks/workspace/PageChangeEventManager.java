@@ -1,7 +1,6 @@
 package openblocks.workspace;
 
-import java.util.HashSet;
-import java.util.Set;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 /**
  * The PageChangeEventmanager is in charged of
@@ -16,11 +15,12 @@ import java.util.Set;
  * An object can subscribe to page-change events
  * by delegating itself through the static method
  * PageChangeEventManager.addPageChangeListener(). 
+ *
+ * Listeners are kept in the current WorkspaceContext,
+ * so page changes are only seen by listeners of the
+ * same workspace.
  */
 public class PageChangeEventManager {
-	/** A NON-REPEATING set of page-change listeners */
-	private static Set<PageChangeListener> observers = new HashSet<PageChangeListener>();
-	
 	/**
 	 * @param l - the listener to be added
 	 * 
@@ -32,7 +32,7 @@ public class PageChangeEventManager {
 	
 	public static void addPageChangeListener(PageChangeListener l){
 		if(l == null) throw new RuntimeException("May not subsribe a null listener to PageChanged events");
-		observers.add(l);
+		WorkspaceContext.current().getPageChangeListeners().add(l);
 	}
 	
 	/**
@@ -41,7 +41,7 @@ public class PageChangeEventManager {
 	 * @effects notifies all observers of Page Changed events to update themselves
 	 */
 	public static void notifyListeners(){
-		for(PageChangeListener l : observers){
+		for(PageChangeListener l : WorkspaceContext.current().getPageChangeListeners()){
 			l.update();
 		}
 	}
@@ -40,6 +40,7 @@ import openblocks.workspace.typeblocking.FocusTraversalManager;
 import openblocks.workspace.typeblocking.TypeBlockManager;
 import openblocks.codeblocks.Block;
 import openblocks.codeblockutil.CGraphite;
+import openblocks.yacodeblocks.WorkspaceContext;
 
 /**
  * The Workspace is the main block area, where blocks are manipulated and assembled.
@@ -50,11 +51,6 @@ public class Workspace extends JLayeredPane
     implements ISupportMemento, RBParent  {
 
   private static final long serialVersionUID = 328149080422L;
-  /**
-   * Single Workspace instance
-   */
-  private static Workspace ws = new Workspace();
-
   /** WorkspaceListeners that monitor:
    * block: added, removed, dropped, label changed, connected, disconnected
    * workspace: scrolled, zoom changed
@@ -192,10 +188,17 @@ public class Workspace extends JLayeredPane
   }
 
   /**
-   * Returns the one <code>Workspace</code> instance
-   * @return the one <code>Workspace</code> instance
+   * Returns the <code>Workspace</code> instance of the current
+   * <code>WorkspaceContext</code>, creating it if necessary
+   * @return the <code>Workspace</code> instance of the current context
    */
   public static Workspace getInstance(){
+    WorkspaceContext context = WorkspaceContext.current();
+    Workspace ws = context.getWorkspace();
+    if (ws == null) {
+      ws = new Workspace();
+      context.setWorkspace(ws);
+    }
     return ws;
   }
 
@@ -261,13 +264,13 @@ public class Workspace extends JLayeredPane
     Iterator<WorkspaceWidget> it = workspaceWidgets.iterator();
     //TODO: HUGE HACK, get rid of this. bascally, the facotry has priority
     if(factory.contains(
-        SwingUtilities.convertPoint(ws, point, factory.getJComponent()).x,
-        SwingUtilities.convertPoint(ws, point, factory.getJComponent()).y)) return factory;
+        SwingUtilities.convertPoint(this, point, factory.getJComponent()).x,
+        SwingUtilities.convertPoint(this, point, factory.getJComponent()).y)) return factory;
     WorkspaceWidget widget = null;
     while(it.hasNext()){
       //convert point to the widgets' coordinate system
       widget = it.next();
-      p = SwingUtilities.convertPoint(ws, point, widget.getJComponent());
+      p = SwingUtilities.convertPoint(this, point, widget.getJComponent());
       //test if widget contains point and widget is visible
       if(widget.contains(p.x, p.y) && widget.getJComponent().isVisible()) {
         return widget; // because these are sorted by draw depth, the first hit is on top
@@ -7,7 +7,6 @@ import openblocks.workspace.WorkspaceEvent;
 import openblocks.workspace.WorkspaceListener;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -22,10 +21,11 @@ import javax.swing.SwingUtilities;
  *
  * Autosaver provides a history mechanism that supports undo and redo
  * operations on saved state. It keeps a history, which is a list of
- * state strings, along with a "currentState" pointer that points to the
+ * states along with a "currentState" pointer that points to the
  * current place in the history (the state from the most recent save or
  * restore). A new save operation will save the state immediately after the
- * currentState, wiping out any following saved states.
+ * currentState, wiping out any following saved states. Only the current
+ * state is kept in full; the others are kept as deltas (see UndoHistory).
  *   - checkpoint: If any user-initiated changes have been made since the last
  *           save or restore, truncate the history list after the currentState,
  *           append the new state, and advance the currentState pointer to be
@@ -37,14 +37,11 @@ import javax.swing.SwingUtilities;
  *           currentState in the history, move the currentState pointer forward
  *           and restores the workspace to that state.
  *
- * TODO(sharon): consider compressing the saved history strings to avoid
- * consuming too much memory (and possibly allowing a larger number
- * of saved states).
  * @author sharon@google.com (Sharon Perl) - undo/redo
  */
 public class AutoSaver implements WorkspaceListener {
   private static final boolean DEBUG = false;
-  private static final int MAX_HISTORY_SIZE = 20; // max depth of undo stack
+  private static final int MAX_HISTORY_SIZE = 50; // max depth of undo stack
 
   // Set testingMode to true to prevent the AutoSaver from really trying
   // to save files
@@ -63,11 +60,10 @@ public class AutoSaver implements WorkspaceListener {
   private volatile boolean listening = false;
   // alreadySaving prevents auto-save if explicit save is already in progress
   private volatile boolean alreadySaving = false;
-  private volatile ArrayList<String> history;
+  private final UndoHistory history = new UndoHistory(MAX_HISTORY_SIZE);
   // if non-null, lastFormProperties should be the form properties string
   // that goes with the blocks state in history
   private volatile String lastFormProperties;
-  private volatile int currentState;  // an index into history
   private final Object saverLock = new Object();  // protects volatile fields
 
   private final WorkspaceController controller;
@@ -214,7 +210,7 @@ public class AutoSaver implements WorkspaceListener {
     disableButton(saveButton);
 
     synchronized (saverLock) {
-      if (workspaceChangedByUser || currentState < 0) {
+      if (workspaceChangedByUser || history.isEmpty()) {
         addToHistory(saveString);
         workspaceChangedByUser = false;
       } else {
@@ -380,55 +376,23 @@ public class AutoSaver implements WorkspaceListener {
     }
   }
 
-  // Add stateString to history just past currentState and increment
-  // currentState to point to the newly added state. Correct
-  // the undo and redo buttons to reflect what is possible in the current
-  // state.
+  // Add stateString to history just past currentState and make it the
+  // currentState. Correct the undo and redo buttons to reflect what is
+  // possible in the current state.
   // Note: must be called with saverLock held
   private void addToHistory(String stateString) {
     if (DEBUG) {
-      System.out.println("++addTohistory: current=" + currentState + ", size=" +
-          history.size());
+      System.out.println("++addTohistory: size=" + history.size());
     }
-    if (currentState >= 0 && stateString.equals(history.get(currentState))) {
+    if (!history.add(stateString)) {
       if (DEBUG) {
         System.out.println("stateString==history[currentState]. not adding");
       }
       return;
     }
-    if (currentState == history.size() - 1) {
-      // common case unless we've been undo'ing
-      if (history.size() >= MAX_HISTORY_SIZE) {
-        System.out.println("Truncating undo history.");
-        history.remove(0);
-        currentState -= 1; // adjust for shift in history items
-      }
-      currentState += 1;
-      history.add(stateString);
-      fixButtons();
-    } else {
-      // the new state goes into the history just after the current state
-      currentState += 1;
-      try {
-        history.set(currentState, stateString);
-        // clear out the history beyond index currentState. Do it from high
-        // to low indexes to avoid having to shift elements.
-        for (int i = history.size() - 1; i > currentState; --i) {
-          history.remove(i);
-        }
-      } catch (IndexOutOfBoundsException e) {
-        e.printStackTrace();
-        if (DEBUG) {
-          System.out.println("Unexpected bounds exception on history. " +
-              "size = " + history.size() + ", index = " + currentState);
-        }
-      } finally {
-        fixButtons();
-      }
-    }
+    fixButtons();
     if (DEBUG) {
-      System.out.println("--addTohistory: currentState = " + currentState + ", history.size() = "
-          + history.size());
+      System.out.println("--addTohistory: history.size() = " + history.size());
     }
   }
 
@@ -446,12 +410,12 @@ public class AutoSaver implements WorkspaceListener {
     }
     checkpoint();
     synchronized (saverLock) {
-      if (currentState > 0) {
+      if (history.canUndo()) {
         stopListening();
-        currentState -= 1;
+        String state = history.undo();
         fixButtons();
         try {
-          controller.doLoadBlocks(history.get(currentState));
+          controller.doLoadBlocks(state);
           if (lastFormProperties == null) {
             controller.sendCurrentProjectDefinitionsToRepl();
           } else {
@@ -486,12 +450,12 @@ public class AutoSaver implements WorkspaceListener {
     }
     checkpoint();
     synchronized (saverLock) {
-      if (currentState < history.size() - 1) {
+      if (history.canRedo()) {
         stopListening();
-        currentState += 1;
+        String state = history.redo();
         fixButtons();
         try {
-          controller.doLoadBlocks(history.get(currentState));
+          controller.doLoadBlocks(state);
           if (lastFormProperties == null) {
             controller.sendCurrentProjectDefinitionsToRepl();
           } else {
@@ -528,8 +492,7 @@ public class AutoSaver implements WorkspaceListener {
    */
   public void clearHistory() {
     synchronized (saverLock) {
-      history = new ArrayList<String>();
-      currentState = -1;
+      history.clear();
       fixButtons();
     }
   }
@@ -537,12 +500,12 @@ public class AutoSaver implements WorkspaceListener {
   // Fix up the enabled/disabled state of the undo and redo buttons based
   // on currentState and history. Call with saverLock held.
    private void fixButtons() {
-    if (currentState > 0) {
+    if (history.canUndo()) {
       enableButton(undoButton);
     } else {
       disableButton(undoButton);
     }
-    if (currentState < history.size() - 1)
+    if (history.canRedo())
       enableButton(redoButton);
     else {
       disableButton(redoButton);
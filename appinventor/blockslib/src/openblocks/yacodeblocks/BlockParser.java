@@ -1268,15 +1268,13 @@ public class BlockParser {
         WorkspaceControllerHolder.get().getComponentBlockManager().getGenusFromComponentName(
             componentName);
     // TODO(user): remove 'value' hack
-    HashMap<String, HashSet<String>> propertyRules =
-        BlockRules.genusToPropertyRules.get(componentGenus);
     String type = "";
     // TODO(user): we currently only allow properties to have one type, yet
     // they are
     // stored in a hashset. We should either store them as a pair, or create
     // some mechanism
     // for a hierarchy of Codeblocks types.
-    for (String propType : propertyRules.get(property)) {
+    for (String propType : BlockRules.getPropertyTypes(componentGenus, property)) {
       type = propType;
     }
     return YAIL_QUOTE + type;
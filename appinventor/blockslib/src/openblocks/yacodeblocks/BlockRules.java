@@ -39,6 +39,8 @@ public class BlockRules {
 
   // Map from component genus to component property rules. Property rules are a map from
   // component properties to a corresponding set of Codeblocks types.
+  // Unlike the other rules, property rules are added while components are loaded into a
+  // workspace, so access to this map is synchronized on the BlockRules class.
   protected static Map<String, HashMap<String, HashSet<String>>> genusToPropertyRules =
       new HashMap<String, HashMap<String, HashSet<String>>>();
 
@@ -175,7 +177,8 @@ public class BlockRules {
    * @param propName The name of the component property
    * @param type The Codeblocks type of the component's property
    */
-  protected static void createPropertyRules(String componentGenus, String propName, String type) {
+  protected static synchronized void createPropertyRules(String componentGenus, String propName,
+      String type) {
     HashMap<String, HashSet<String>> propertyMap =
         genusToPropertyRules.get(componentGenus);
     if (propertyMap == null) {
@@ -228,11 +231,10 @@ public class BlockRules {
         // just the generic "component" type.
         return COMPONENT_TYPES;
       }
-      if (getPropertyTypes(socketComponentGenus, property) ==  null) {
+      HashSet<String> propertyTypes = getPropertyTypes(socketComponentGenus, property);
+      if (propertyTypes ==  null) {
         return null;
       } else {
-        HashSet<String> propertyTypes =
-            new HashSet<String>(getPropertyTypes(socketComponentGenus, property));
         propertyTypes.add("value");
         return propertyTypes;
       }
@@ -273,12 +275,19 @@ public class BlockRules {
     return plugGenus.equals("componentSetter") || plugGenus.equals("componentTypeSetter");
   }
 
-  private static HashSet<String> getPropertyTypes(String genus, String property) {
+  /**
+   * Returns a copy of the Codeblocks types of a component property.
+   * @param genus The genus name of the component
+   * @param property The name of the component property
+   * @return the types, or null if there are no rules for the property
+   */
+  protected static synchronized HashSet<String> getPropertyTypes(String genus, String property) {
     HashMap<String, HashSet<String>> propertyRules = genusToPropertyRules.get(genus);
     if (propertyRules == null) {
       return null;
     }
-    return propertyRules.get(property);
+    HashSet<String> propertyTypes = propertyRules.get(property);
+    return (propertyTypes == null) ? null : new HashSet<String>(propertyTypes);
   }
 
   /**
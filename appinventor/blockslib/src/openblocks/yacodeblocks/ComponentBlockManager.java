@@ -681,7 +681,9 @@ public class ComponentBlockManager implements WorkspaceListener {
       sb.append(" " + componentNameToInfo.get(name));
     }
     sb.append("\n");
-    sb.append("genusToPropertyRules: " + BlockRules.genusToPropertyRules.toString() + '\n');
+    synchronized (BlockRules.class) {
+      sb.append("genusToPropertyRules: " + BlockRules.genusToPropertyRules.toString() + '\n');
+    }
     return sb.toString();
   }
 
@@ -8,6 +8,7 @@ import openblocks.renderable.RenderableBlock;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -57,6 +58,7 @@ public class PhoneCommManager {
   public static final String REPL_ENCODED_CLOSE_BRACKET = REPL_ESCAPE + "2";
 
   private static final String YAIL_NEWLINE = "(newline)";
+  private static final String YAIL_BEGIN = "(begin ";
   private static final String LOCALHOST = "127.0.0.1";
 
   // This message to runtime.scm establishes the strings used to punctuate
@@ -126,6 +128,29 @@ public class PhoneCommManager {
   private volatile boolean waitingForProjectLoad = false;
   private volatile boolean connectedToPhone = false; // true iff repl running on phone
 
+  // The project definitions that were last sent to the phone, and the ones
+  // that the phone has loaded successfully and not changed since, as wrapped
+  // by wrapReplInput. The whole strings are kept and compared, since a
+  // shorter key could collide and leave stale code on the phone. Protected
+  // by statusLock.
+  private String sentProjectDefinitions = null;
+  private String loadedProjectDefinitions = null;
+
+  // How long edits are collected before they are sent to the phone together.
+  private static final long REPL_SYNC_DELAY_MILLIS = 300;
+
+  /*
+   * Definitions and property settings that are sent to the phone as the user
+   * edits are queued here, so that bursts of edits are sent as one batch and
+   * only the latest definition of each block is sent.
+   */
+  private final ReplSyncQueue replSyncQueue = new ReplSyncQueue(new ReplSyncQueue.Sender() {
+    @Override
+    public void sendBatch(List<ReplSyncQueue.Item> items) {
+      replControllerSendBatchAsync(items);
+    }
+  }, REPL_SYNC_DELAY_MILLIS);
+
   public PhoneCommManager() {
     downloadedProjectAssets = new ConcurrentHashMap<String, String>();
   }
@@ -375,7 +400,8 @@ public class PhoneCommManager {
    * communication to the phone to finish.
    *
    * replControllerCreateAndSend sends a data string to the REPL, creating
-   * a new instance of a working REPL first if necessary.
+   * a new instance of a working REPL first if necessary. Anything queued with
+   * {@link #replControllerQueueAsync} is sent first.
    *
    * @param data The data string to be sent to the REPL.
    * just sent back to the REPL so we can use this information in processing the response
@@ -389,13 +415,98 @@ public class PhoneCommManager {
    */
   public void replControllerCreateAndSendAsync(final String data, final String purpose,
                                                final Long blockID, final boolean loading) {
-    replControllerCreateAndSend(data, purpose, blockID, loading, true);
+    replSyncQueue.flush();
+    replControllerCreateAndSend(wrapReplInput(data, returnTag(purpose, blockID)),
+        purpose.equals(REPL_PROJECT_LOADING), loading, true);
+  }
+
+  /**
+   * Queues a data string to be sent to the REPL together with other data
+   * strings queued within a short time. A data string replaces any queued data
+   * string with the same key, so only the latest one is sent.
+   *
+   * Use this for definitions and property settings that are sent as the user
+   * edits. Use {@link #replControllerCreateAndSendAsync} for anything that
+   * the user is waiting for.
+   *
+   * @param key identifies what the data string defines, see ReplSyncQueue
+   * @param data The data string to be sent to the REPL.
+   * @param purpose a string documenting the purpose of this call
+   * @param blockID the block id of the block that this call originates from.  Use 0 if there is
+   *        no block (or no single block).
+   */
+  public void replControllerQueueAsync(String key, String data, String purpose, long blockID) {
+    if (psReplController == null) {
+      return;
+    }
+    replSyncQueue.add(new ReplSyncQueue.Item(key, data, purpose, blockID));
+  }
+
+  /**
+   * Sends the project definitions to the REPL, unless they are the same as
+   * the definitions that the phone has already loaded and nothing else has
+   * been sent to the phone since.
+   *
+   * @param projectDefinitions the yail code for all the project definitions
+   */
+  public void sendProjectDefinitionsAsync(String projectDefinitions) {
+    // The project definitions include the current definition of every block.
+    replSyncQueue.discardBlockDefinitions();
+    String wrapped = wrapReplInput(projectDefinitions, returnTag(REPL_PROJECT_LOADING, 0));
+    boolean alreadyLoaded;
+    synchronized (statusLock) {
+      alreadyLoaded = connectedToPhone && wrapped.equals(loadedProjectDefinitions);
+    }
+    if (alreadyLoaded) {
+      if (DEBUG) {
+        System.out.println("Project definitions are already loaded on the phone");
+      }
+    } else {
+      replControllerCreateAndSend(wrapped, true, true, true);
+    }
+    // Property settings that are still queued go after the project definitions, since loading
+    // the project resets all properties.
+    replSyncQueue.flush();
+  }
+
+  /*
+   * Sends a batch of queued data strings to the REPL in a single evaluation.
+   * Each data string still gets its own return tag, so that the responses go
+   * to the right blocks.
+   */
+  private void replControllerSendBatchAsync(List<ReplSyncQueue.Item> items) {
+    StringBuilder batch = new StringBuilder();
+    if (items.size() > 1) {
+      batch.append(YAIL_BEGIN);
+    }
+    for (ReplSyncQueue.Item item : items) {
+      batch.append(wrapReplInput(item.getData(),
+          returnTag(item.getPurpose(), item.getBlockID()))).append(' ');
+    }
+    if (items.size() > 1) {
+      batch.append(')');
+    }
+    if (DEBUG) {
+      System.out.println("Sending a batch of " + items.size() + " definitions");
+    }
+    replControllerCreateAndSend(batch.toString(), false, false, true);
+  }
+
+  private static String returnTag(String purpose, long blockID) {
+    return purpose + REPL_BLOCK_ID_INDICATOR + blockID;
+  }
+
+  private static String wrapReplInput(String data, String returnTag) {
+    return "(" + RUNTIME_REPL_COMMUNICATION_INPUT_WRAPPER + " "
+        + data + " \"" + returnTag + "\")";
   }
 
   /* See replControllerCreateAndSendAsync for documentation
+   * @param wrapped the data string, already wrapped by wrapReplInput
+   * @param projectLoading whether wrapped loads the project definitions
    */
-  private void replControllerCreateAndSend(final String data, final String purpose,
-      final Long blockID, final boolean loading, boolean asynchronous) {
+  private void replControllerCreateAndSend(final String wrapped, final boolean projectLoading,
+      final boolean loading, boolean asynchronous) {
     if (psReplController == null) {
       return;
     }
@@ -410,7 +521,7 @@ public class PhoneCommManager {
         // If we might have a working controller, try the send directly.
         if (connectedToPhone()) {
           try {
-            psReplControllerSend(data, purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString());
+            psReplControllerSendWrapped(wrapped, projectLoading);
             return;
           } catch (IOException e) {
             if (DEBUG) {
@@ -424,7 +535,7 @@ public class PhoneCommManager {
         try {
           psReplControllerRestart(!loading /* don't send defns to phone if already loading */,
               loading /*restart the app if we're loading*/);
-          psReplControllerSend(data, purpose + REPL_BLOCK_ID_INDICATOR + blockID.toString());
+          psReplControllerSendWrapped(wrapped, projectLoading);
           return;
         } catch (IOException e) {
           setConnectedToPhone(false);
@@ -526,17 +637,17 @@ public class PhoneCommManager {
         System.out.println("Sending project startup definitions");
       }
       psPushAssetsToPhone();
-      psReplControllerSend(projectDefinitions, REPL_PROJECT_LOADING + REPL_BLOCK_ID_INDICATOR
-          + "0");
+      psReplControllerSendWrapped(wrapReplInput(projectDefinitions,
+          returnTag(REPL_PROJECT_LOADING, 0)), true);
     }
     setConnectedToPhone(true);
   }
 
   // REQUIRES: is called from the phone synchronizer queue
   // expects that replController is in a good state
-  private void psReplControllerSend(String data, String returnTag) throws IOException {
-    String wrapped = "(" + RUNTIME_REPL_COMMUNICATION_INPUT_WRAPPER + " "
-        + data + " \"" + returnTag + "\")";
+  // wrapped should come from wrapReplInput, possibly several of them in a begin
+  private void psReplControllerSendWrapped(String wrapped, boolean projectLoading)
+      throws IOException {
     /* Kawa's REPL behaves nastily when you give it an input that has linebreaks
      * in it.  It seems to echo those back and spits out a prompt for each new
      * line.So we avoid the multiple prompts by replacing all whitespace with spaces.
@@ -548,13 +659,18 @@ public class PhoneCommManager {
     if (DEBUG) {
       System.out.println("Sending to phone: " + noWhitespace);
     }
+    synchronized (statusLock) {
+      // Whatever is sent, the phone will no longer have just the loaded project definitions. If
+      // this isn't a project load, the acknowledgement of an earlier project load doesn't
+      // change that.
+      loadedProjectDefinitions = null;
+      sentProjectDefinitions = projectLoading ? wrapped : null;
+    }
     // Note that this send can trigger an IOException
-    boolean projectLoading = false;
     try {
       setSendingToPhone(true);
-      if (returnTag.startsWith(REPL_PROJECT_LOADING)) {
+      if (projectLoading) {
         setWaitingForProjectLoad(true);
-        projectLoading = true;
       }
       psReplController.send(noWhitespace);
     } catch (IOException e) {
@@ -788,6 +904,9 @@ public class PhoneCommManager {
       }
       // see if purpose was project loading and enable repl comm button if so
       if (pr.purpose.equals(REPL_PROJECT_LOADING)) {
+        synchronized (statusLock) {
+          loadedProjectDefinitions = pr.success ? sentProjectDefinitions : null;
+        }
         setWaitingForProjectLoad(false);
       }
     }
@@ -834,6 +953,10 @@ public class PhoneCommManager {
    * Reset any existing REPL Controller
    */
   private void psResetReplController() {
+    synchronized (statusLock) {
+      // The app on the phone will be restarted, losing its definitions.
+      loadedProjectDefinitions = null;
+    }
     if (!(psReplController == null)) {
       // do some finalization here?
       psReplController.reset();
@@ -0,0 +1,166 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Collects the definitions and property settings that the blocks editor sends
+ * to the REPL on the phone while the user edits, so that they can be sent
+ * together.
+ *
+ * Each item has a key, such as the ID of the block it defines. An item
+ * replaces any queued item with the same key, since only the latest
+ * definition of a block matters to the phone. The queued items are passed to
+ * the sender as one batch when no new item has been queued for a short while,
+ * or when {@link #flush} is called. Code that sends anything else to the
+ * phone must flush the queue first, so that the phone sees everything in the
+ * order it was produced.
+ *
+ */
+final class ReplSyncQueue {
+  private static final String BLOCK_KEY_PREFIX = "block:";
+  private static final String PROPERTY_KEY_PREFIX = "property:";
+
+  /**
+   * Sends a batch of items to the phone.
+   */
+  interface Sender {
+    void sendBatch(List<Item> items);
+  }
+
+  /**
+   * Code to evaluate on the phone and the return tag of its result.
+   */
+  static final class Item {
+    private final String key;
+    private final String data;
+    private final String purpose;
+    private final long blockID;
+
+    Item(String key, String data, String purpose, long blockID) {
+      this.key = key;
+      this.data = data;
+      this.purpose = purpose;
+      this.blockID = blockID;
+    }
+
+    String getKey() {
+      return key;
+    }
+
+    String getData() {
+      return data;
+    }
+
+    String getPurpose() {
+      return purpose;
+    }
+
+    long getBlockID() {
+      return blockID;
+    }
+  }
+
+  private final Sender sender;
+  private final long delayMillis;
+  private final Timer timer = new Timer("ReplSyncQueue", true);
+
+  // Items by key, in the order they were last queued. Guarded by this.
+  private final Map<String, Item> items = new LinkedHashMap<String, Item>();
+  private TimerTask flushTask;
+  private long firstItemTime; // when the oldest queued item was queued, in milliseconds
+
+  /**
+   * Creates a queue.
+   *
+   * @param sender the sender of the batches
+   * @param delayMillis how long to wait for more items before sending a batch
+   */
+  ReplSyncQueue(Sender sender, long delayMillis) {
+    this.sender = sender;
+    this.delayMillis = delayMillis;
+  }
+
+  /**
+   * Returns the key of the definition of a block.
+   */
+  static String blockKey(long blockID) {
+    return BLOCK_KEY_PREFIX + blockID;
+  }
+
+  /**
+   * Returns the key of the setting of a component property.
+   */
+  static String propertyKey(String componentName, String propertyName) {
+    return PROPERTY_KEY_PREFIX + componentName + "." + propertyName;
+  }
+
+  /**
+   * Queues an item, replacing any queued item with the same key. The batch is
+   * sent once no item has been queued for the delay given to the constructor,
+   * but no later than four times that delay after its first item was queued.
+   */
+  synchronized void add(Item item) {
+    // Remove the old item first so that the new one goes to the end of the batch.
+    items.remove(item.getKey());
+    items.put(item.getKey(), item);
+    long now = System.currentTimeMillis();
+    if (flushTask != null) {
+      flushTask.cancel();
+    } else {
+      firstItemTime = now;
+    }
+    flushTask = new TimerTask() {
+      @Override
+      public void run() {
+        flush();
+      }
+    };
+    timer.schedule(flushTask, Math.max(0, Math.min(delayMillis,
+        firstItemTime + 4 * delayMillis - now)));
+  }
+
+  /**
+   * Sends the queued items now, if there are any. The sender is called with
+   * the lock held, so that a batch can't overtake one that was flushed
+   * before it.
+   */
+  synchronized void flush() {
+    if (flushTask != null) {
+      flushTask.cancel();
+      flushTask = null;
+    }
+    if (items.isEmpty()) {
+      return;
+    }
+    List<Item> batch = new ArrayList<Item>(items.values());
+    items.clear();
+    sender.sendBatch(batch);
+  }
+
+  /**
+   * Removes the queued block definitions. This is used when all of the
+   * definitions of the project are about to be sent anyway.
+   */
+  synchronized void discardBlockDefinitions() {
+    for (Iterator<String> iterator = items.keySet().iterator(); iterator.hasNext(); ) {
+      if (iterator.next().startsWith(BLOCK_KEY_PREFIX)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of queued items.
+   */
+  synchronized int size() {
+    return items.size();
+  }
+}
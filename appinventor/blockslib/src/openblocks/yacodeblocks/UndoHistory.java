@@ -0,0 +1,136 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import com.google.appinventor.common.youngandroid.TextDelta;
+
+import java.util.LinkedList;
+
+/**
+ * The undo/redo history of the blocks workspace.
+ *
+ * The history is a sequence of saved workspace states with a pointer to the
+ * current state. Only the current state is kept in full. The states before
+ * and after it are kept as deltas, each of which turns a state into its
+ * neighbor. Successive states usually differ in one small region, so the
+ * memory the history uses grows with the size of the edits rather than with
+ * the size of the workspace.
+ *
+ * A history is not thread-safe. AutoSaver only uses it with its saverLock
+ * held.
+ *
+ */
+final class UndoHistory {
+  private final int maxSize;
+
+  // The current state, or null if the history is empty.
+  private String current;
+
+  // undoDeltas.getLast() turns the current state into the previous state.
+  private final LinkedList<TextDelta> undoDeltas = new LinkedList<TextDelta>();
+
+  // redoDeltas.getLast() turns the current state into the next state.
+  private final LinkedList<TextDelta> redoDeltas = new LinkedList<TextDelta>();
+
+  /**
+   * Creates an empty history.
+   *
+   * @param maxSize the maximum number of states in the history
+   */
+  UndoHistory(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns true if no state has been added since the history was created or
+   * cleared.
+   */
+  boolean isEmpty() {
+    return current == null;
+  }
+
+  /**
+   * Returns the number of states in the history.
+   */
+  int size() {
+    return isEmpty() ? 0 : undoDeltas.size() + 1 + redoDeltas.size();
+  }
+
+  /**
+   * Returns the current state, or null if the history is empty.
+   */
+  String getCurrent() {
+    return current;
+  }
+
+  /**
+   * Adds a state just after the current state, discards the states after it,
+   * and makes it the current state. If the history is full, the oldest state
+   * is discarded.
+   *
+   * @param state the workspace state
+   * @return false if the state is the same as the current state, in which
+   *         case the history is not changed
+   */
+  boolean add(String state) {
+    if (current != null) {
+      if (state.equals(current)) {
+        return false;
+      }
+      undoDeltas.addLast(TextDelta.between(state, current));
+      if (undoDeltas.size() >= maxSize) {
+        undoDeltas.removeFirst();
+      }
+    }
+    redoDeltas.clear();
+    current = state;
+    return true;
+  }
+
+  boolean canUndo() {
+    return !undoDeltas.isEmpty();
+  }
+
+  boolean canRedo() {
+    return !redoDeltas.isEmpty();
+  }
+
+  /**
+   * Moves back to the previous state and returns it.
+   *
+   * @throws IllegalStateException if there is no previous state
+   */
+  String undo() {
+    if (!canUndo()) {
+      throw new IllegalStateException("Nothing to undo");
+    }
+    String previous = undoDeltas.removeLast().applyTo(current);
+    redoDeltas.addLast(TextDelta.between(previous, current));
+    current = previous;
+    return current;
+  }
+
+  /**
+   * Moves forward to the next state and returns it.
+   *
+   * @throws IllegalStateException if there is no next state
+   */
+  String redo() {
+    if (!canRedo()) {
+      throw new IllegalStateException("Nothing to redo");
+    }
+    String next = redoDeltas.removeLast().applyTo(current);
+    undoDeltas.addLast(TextDelta.between(next, current));
+    current = next;
+    return current;
+  }
+
+  /**
+   * Removes all states from the history.
+   */
+  void clear() {
+    current = null;
+    undoDeltas.clear();
+    redoDeltas.clear();
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import openblocks.codeblocks.Block;
+import openblocks.codeblocks.BlockLink;
+import openblocks.renderable.RenderableBlock;
+import openblocks.workspace.PageChangeListener;
+import openblocks.workspace.Workspace;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WorkspaceContext holds the state of one workspace: its blocks, renderable
+ * blocks and stubs, the compile errors found in its blocks, the YAIL
+ * generated for its blocks, the Workspace itself and its workspace
+ * controller.
+ *
+ * The language (block genuses, connector shapes and link rules) is not part
+ * of a context. It is loaded once and shared by all contexts.
+ *
+ * Code that used to keep this state in static fields looks it up with
+ * {@link #current}. Unless a thread has been given its own context with
+ * {@link #setCurrent}, it uses the default context, so the Blocks Editor,
+ * whose threads all work on the same workspace, has exactly one context.
+ * Headless code such as the YAIL generator gives each thread its own context,
+ * so that several workspaces can load and compile blocks at the same time.
+ *
+ * A context is not thread-safe. It must only be used by one thread at a
+ * time.
+ *
+ */
+public final class WorkspaceContext {
+  private static final WorkspaceContext DEFAULT_CONTEXT = new WorkspaceContext();
+
+  private static final ThreadLocal<WorkspaceContext> threadContext =
+      new ThreadLocal<WorkspaceContext>();
+
+  // Blocks
+  private final Map<Long, Block> blocks = new HashMap<Long, Block>();
+  private long nextBlockId = 1;
+  private final Map<Long, RenderableBlock> renderableBlocks =
+      new HashMap<Long, RenderableBlock>();
+  private BlockLink lastBlockLink;
+
+  // Stubs
+  private final HashMap<String, Set<Long>> parentNameToParentBlocks =
+      new HashMap<String, Set<Long>>();
+  private final HashMap<String, Set<Long>> parentNameToBlockStubs =
+      new HashMap<String, Set<Long>>();
+  private final Map<String, String> parentToPlugType = new HashMap<String, String>();
+
+  // Map from genusName+label -> counter, see BlockUtilities
+  private final Map<String, Integer> instanceCounter = new HashMap<String, Integer>();
+
+  // Complaints
+  private final List<String> compileErrors = new ArrayList<String>();
+  private Rectangle complaintRect;
+
+  // YAIL of the top-level blocks
+  private final YailCache yailCache = new YailCache();
+
+  // Workspace
+  private final Set<PageChangeListener> pageChangeListeners = new HashSet<PageChangeListener>();
+  private Workspace workspace;
+
+  // Workspace controller
+  private IWorkspaceController.Factory controllerFactory;
+  private volatile boolean headless;
+  private IWorkspaceController workspaceController;
+
+  /**
+   * Returns the context of the calling thread.
+   */
+  public static WorkspaceContext current() {
+    WorkspaceContext context = threadContext.get();
+    return (context != null) ? context : DEFAULT_CONTEXT;
+  }
+
+  /**
+   * Sets the context of the calling thread.
+   *
+   * @param context the context, or null to use the default context
+   */
+  public static void setCurrent(WorkspaceContext context) {
+    if (context == null) {
+      threadContext.remove();
+    } else {
+      threadContext.set(context);
+    }
+  }
+
+  public Map<Long, Block> getBlocks() {
+    return blocks;
+  }
+
+  /**
+   * Returns the ID that is to be assigned to the next new block.
+   */
+  public long getNextBlockId() {
+    return nextBlockId;
+  }
+
+  public void setNextBlockId(long nextBlockId) {
+    this.nextBlockId = nextBlockId;
+  }
+
+  public Map<Long, RenderableBlock> getRenderableBlocks() {
+    return renderableBlocks;
+  }
+
+  public BlockLink getLastBlockLink() {
+    return lastBlockLink;
+  }
+
+  public void setLastBlockLink(BlockLink lastBlockLink) {
+    this.lastBlockLink = lastBlockLink;
+  }
+
+  public HashMap<String, Set<Long>> getParentNameToParentBlocks() {
+    return parentNameToParentBlocks;
+  }
+
+  public HashMap<String, Set<Long>> getParentNameToBlockStubs() {
+    return parentNameToBlockStubs;
+  }
+
+  public Map<String, String> getParentToPlugType() {
+    return parentToPlugType;
+  }
+
+  public Map<String, Integer> getInstanceCounter() {
+    return instanceCounter;
+  }
+
+  public List<String> getCompileErrors() {
+    return compileErrors;
+  }
+
+  public Rectangle getComplaintRect() {
+    return complaintRect;
+  }
+
+  public void setComplaintRect(Rectangle complaintRect) {
+    this.complaintRect = complaintRect;
+  }
+
+  public YailCache getYailCache() {
+    return yailCache;
+  }
+
+  public Set<PageChangeListener> getPageChangeListeners() {
+    return pageChangeListeners;
+  }
+
+  /**
+   * Returns the Workspace of this context, or null if it hasn't been created
+   * yet. Use {@link Workspace#getInstance} to create it when necessary.
+   */
+  public Workspace getWorkspace() {
+    return workspace;
+  }
+
+  public void setWorkspace(Workspace workspace) {
+    this.workspace = workspace;
+  }
+
+  /**
+   * Sets the factory that will be used to create the workspace controller of
+   * this context. If the workspace controller has already been created, this
+   * method has no effect.
+   *
+   * @param factory the factory to create the workspace controller
+   * @param headless whether this is a headless environment
+   */
+  public synchronized void setControllerFactory(IWorkspaceController.Factory factory,
+      boolean headless) {
+    if (workspaceController == null) {
+      this.controllerFactory = factory;
+      this.headless = headless;
+    }
+  }
+
+  /**
+   * Returns true if this context is used in a headless environment.
+   */
+  public boolean isHeadless() {
+    return headless;
+  }
+
+  /**
+   * Returns the workspace controller of this context, creating it if
+   * necessary.
+   */
+  public synchronized IWorkspaceController getWorkspaceController() {
+    if (workspaceController == null) {
+      workspaceController = controllerFactory.create();
+    }
+    return workspaceController;
+  }
+}
@@ -569,8 +569,7 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
       // Download all the definitions to the phone
       try {
         String yail = getProjectDefinitionsForRepl(formProperties);
-        pcm.replControllerCreateAndSendAsync(yail, PhoneCommManager.REPL_PROJECT_LOADING,
-            new Long(0), true);
+        pcm.sendProjectDefinitionsAsync(yail);
       } catch (YailGenerationException e) {
         FeedbackReporter.showErrorMessage(e.getMessage());
       }
@@ -1001,7 +1000,8 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
       YABlockCompiler.generatePropertySetterYail(yailCode, componentName, componentType,
                                                  propertyName, propertyValue);
       System.out.println("Yail code for property is '" + yailCode + "'");
-      pcm.replControllerCreateAndSendAsync(yailCode.toString(), "Property sync", 0L, false);
+      pcm.replControllerQueueAsync(ReplSyncQueue.propertyKey(componentName, propertyName),
+          yailCode.toString(), "Property sync", 0L);
     }
     autoSaver.reset();  // can't undo/redo across a property sync
     return true;
@@ -1270,12 +1270,14 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
    */
 
   /**
-   * Handles workspace events that require sending stuff to the phone.
+   * Handles workspace events that require sending stuff to the phone, and
+   * drops the cached YAIL of the clumps they change.
    * Note(sharon): this code used to be in ComponentBlockManager and was in
    * a synchronized method. I've removed the synchronization here because
    * it causes deadlocks for WorkspaceController and seems unnecessary.
    */
   public void workspaceEventOccurred(WorkspaceEvent event)  {
+    WorkspaceContext.current().getYailCache().workspaceEventOccurred(event);
     if (isLoadingBlocks() || !pcm.connectedToPhone()) {
       return;
     }
@@ -1370,8 +1372,8 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
   private void executeNullDecl(Block block) {
     String blockCode = blockParser.genNullDecl(block);
     if (blockCode.length() != 0) {
-      pcm.replControllerCreateAndSendAsync(blockCode, REPL_DEFINE_IT, block.getBlockID(),
-          false);
+      pcm.replControllerQueueAsync(ReplSyncQueue.blockKey(block.getBlockID()), blockCode,
+          REPL_DEFINE_IT, block.getBlockID());
     }
   }
 
@@ -1391,7 +1393,12 @@ public class WorkspaceController implements IWorkspaceController, WorkspaceListe
       // Don't execute if there are serious errors.
       return;
     }
-    pcm.replControllerCreateAndSendAsync(blockCode, purpose, id, false);
+    if (purpose.equals(REPL_DEFINE_IT)) {
+      // Definitions are sent in batches, and only the latest definition of a block is sent.
+      pcm.replControllerQueueAsync(ReplSyncQueue.blockKey(id), blockCode, purpose, id);
+    } else {
+      pcm.replControllerCreateAndSendAsync(blockCode, purpose, id, false);
+    }
   }
 
   /*
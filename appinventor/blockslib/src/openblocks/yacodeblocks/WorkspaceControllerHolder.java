@@ -4,14 +4,11 @@ package openblocks.yacodeblocks;
 
 /**
  * WorkspaceControllerHolder is used to create and hold the workspace
- * controller.
+ * controller of the current {@link WorkspaceContext}.
  *
  * @author lizlooney@google.com (Liz Looney)
  */
 public class WorkspaceControllerHolder {
-  private static IWorkspaceController.Factory factory;
-  private static volatile boolean headless;
-  private static IWorkspaceController workspaceController;
 
   private WorkspaceControllerHolder() {} // not to be instantiated
 
@@ -23,28 +20,21 @@ public class WorkspaceControllerHolder {
    * @param factory the factory to create the workspace controller
    * @param headless whether this is a headless environment
    */
-  public static synchronized void setFactory(IWorkspaceController.Factory factory,
-      boolean headless) {
-    if (workspaceController == null) {
-      WorkspaceControllerHolder.factory = factory;
-      WorkspaceControllerHolder.headless = headless;
-    }
+  public static void setFactory(IWorkspaceController.Factory factory, boolean headless) {
+    WorkspaceContext.current().setControllerFactory(factory, headless);
   }
 
   /**
    * Returns true if this is a headless environment.
    */
   public static boolean isHeadless() {
-    return headless;
+    return WorkspaceContext.current().isHeadless();
   }
 
   /**
    * Returns the workspace controller, creating it if necessary.
    */
-  public static synchronized IWorkspaceController get() {
-    if (workspaceController == null) {
-      workspaceController = factory.create();
-    }
-    return workspaceController;
+  public static IWorkspaceController get() {
+    return WorkspaceContext.current().getWorkspaceController();
   }
 }
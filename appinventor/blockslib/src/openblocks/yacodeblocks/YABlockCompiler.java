@@ -5,6 +5,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import openblocks.codeblocks.Block;
 import openblocks.renderable.RenderableBlock;
 
 import java.util.ArrayList;
@@ -66,8 +67,6 @@ public class YABlockCompiler {
 
   // TODO(user): convert file to use StringBuilder
 
-  private static BlockParser blockParser;
-
   /**
    *
    * @param yailPath the place in permanent storage, just to stuff in file
@@ -105,11 +104,13 @@ public class YABlockCompiler {
       throw new YailGenerationException("Unable to determine form name");
     }
     StringBuilder code = new StringBuilder();
-    blockParser = new BlockParser(forRepl);
+    BlockParser blockParser = new BlockParser(forRepl);
+    YailCache yailCache = WorkspaceContext.current().getYailCache();
+    yailCache.setContext(getYailContext(formProperties, componentMap));
 
     // Add 'My Program' globals
     if (componentMap.containsKey(GLOBALS)) {
-      code.append(getYail(GLOBALS, componentMap.get(GLOBALS)));
+      code.append(getYail(blockParser, yailCache, componentMap.get(GLOBALS), forRepl));
     }
     // Walk the properties in a breadth-first manner to ensure that parent components
     // generate YAIL before their children.
@@ -120,8 +121,8 @@ public class YABlockCompiler {
       String sourceType = formProperties.getString("Source");
       formProperties = formProperties.getJSONObject("Properties");
       if (sourceType.equals("Form")) {
-        code.append(generateYailHelper(formName, formProperties, formProperties,
-            componentMap, forRepl));
+        code.append(generateYailHelper(blockParser, yailCache, formName, formProperties,
+            formProperties, componentMap, forRepl));
     } else {
         FeedbackReporter.showSystemErrorMessage("Source type " + sourceType + " is invalid.");
       }
@@ -182,9 +183,9 @@ public class YABlockCompiler {
 
 
   // Helper method for generating YAIL from a map of component name -> blocks
-  private static String generateYailHelper(String formName, final JSONObject formProperties,
-      JSONObject jsonToWalk, HashMap<String, ArrayList<RenderableBlock>> componentMap,
-      boolean forRepl)
+  private static String generateYailHelper(BlockParser blockParser, YailCache yailCache,
+      String formName, final JSONObject formProperties, JSONObject jsonToWalk,
+      HashMap<String, ArrayList<RenderableBlock>> componentMap, boolean forRepl)
       throws YailGenerationException {
     StringBuilder code = new StringBuilder();
     try {
@@ -195,13 +196,13 @@ public class YABlockCompiler {
       if (componentMap.containsKey(name)) {
         //TODO(halabelson): As far as I can see, this next append is not doing anything: the
         // getYail is always empty.  Is there are case I am missing?
-        code.append(getYail(name, componentMap.get(name)));
+        code.append(getYail(blockParser, yailCache, componentMap.get(name), forRepl));
       }
       if (jsonToWalk.has("$Components")) {
         JSONArray components = jsonToWalk.getJSONArray("$Components");
         for (int i = 0; i < components.length(); i++) {
-          code.append(generateYailHelper(formName, formProperties, components.getJSONObject(i),
-              componentMap, forRepl));
+          code.append(generateYailHelper(blockParser, yailCache, formName, formProperties,
+              components.getJSONObject(i), componentMap, forRepl));
         }
       }
     } catch (JSONException e) {
@@ -359,15 +360,64 @@ public class YABlockCompiler {
     return sortedKeySet;
   }
 
-  private static String getYail(String name, ArrayList<RenderableBlock> componentBlocks) {
+  // Uses the cached YAIL of each clump if there is any. A clump that posted
+  // a complaint is compiled again every time, so that the complaint is
+  // posted again after the complaints are cleared.
+  private static String getYail(BlockParser blockParser, YailCache yailCache,
+      ArrayList<RenderableBlock> componentBlocks, boolean forRepl) {
     StringBuilder code = new StringBuilder();
     for (int i = componentBlocks.size() - 1; i >= 0; --i) {
       RenderableBlock rb = componentBlocks.get(i);
-      code.append(blockParser.genYail(rb.getBlock()));
+      Block block = rb.getBlock();
+      String yail = yailCache.get(block, forRepl);
+      if (yail == null) {
+        yail = blockParser.genYail(block);
+        if (!rb.familyHasComplaint()) {
+          yailCache.put(block, forRepl, yail);
+        }
+      }
+      code.append(yail);
     }
     return code.toString();
   }
 
+  /*
+   * Describes what the YAIL of a clump depends on outside of the clump: the
+   * names and types of the components, and the declarations of the global
+   * variables, procedures and event handlers.
+   */
+  private static String getYailContext(JSONObject formProperties,
+      HashMap<String, ArrayList<RenderableBlock>> componentMap) {
+    SortedSet<String> context = new TreeSet<String>();
+    JSONObject properties = formProperties.optJSONObject("Properties");
+    if (properties != null) {
+      addComponentNamesAndTypes(properties, context);
+    }
+    for (ArrayList<RenderableBlock> blocks : componentMap.values()) {
+      for (RenderableBlock rb : blocks) {
+        Block block = rb.getBlock();
+        if (block.isDeclaration()) {
+          context.add(block.getGenusName() + YAIL_SPACER + block.getBlockLabel()
+              + YAIL_SPACER + block.getNumSockets());
+        }
+      }
+    }
+    return context.toString();
+  }
+
+  private static void addComponentNamesAndTypes(JSONObject jsonToWalk, Set<String> context) {
+    context.add(jsonToWalk.optString("$Name") + YAIL_SPACER + jsonToWalk.optString("$Type"));
+    JSONArray components = jsonToWalk.optJSONArray("$Components");
+    if (components != null) {
+      for (int i = 0; i < components.length(); i++) {
+        JSONObject component = components.optJSONObject(i);
+        if (component != null) {
+          addComponentNamesAndTypes(component, context);
+        }
+      }
+    }
+  }
+
   private static String getPropertyValueYail(String value, String type) {
     if (type.equals("'number")) {
       if (value.matches(INTEGER_REGEXP) || value.matches(FLONUM_REGEXP)) { // integer
@@ -457,12 +507,11 @@ public class YABlockCompiler {
 
   private static String getPropertyType(String componentGenus, String property) {
     // TODO(user): remove 'value' hack
-    HashMap<String, HashSet<String>> propertyRules =
-        BlockRules.genusToPropertyRules.get(componentGenus);
+    HashSet<String> propertyTypes = BlockRules.getPropertyTypes(componentGenus, property);
     String type = "";
     // TODO(user): If we don't have a type for this property, we assume it is of type 'text.'
     // There should be a better reporting mechanism back to the user that the type is missing.
-    if (propertyRules == null || propertyRules.get(property) == null) {
+    if (propertyTypes == null) {
       FeedbackReporter.logError("No type found for property " +
                          property + " in genus " + componentGenus);
       return YAIL_QUOTE + "text";
@@ -470,7 +519,7 @@ public class YABlockCompiler {
     // TODO(user): we currently only allow properties to have one type, yet they are
     // stored in a hashset. We should either store them as a pair, or create some mechanism
     // for a hierarchy of Codeblocks types.
-    for (String propType : propertyRules.get(property)) {
+    for (String propType : propertyTypes) {
       type = propType;
     }
     return YAIL_QUOTE + type;
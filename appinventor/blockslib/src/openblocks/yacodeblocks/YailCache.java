@@ -0,0 +1,150 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import openblocks.codeblocks.Block;
+import openblocks.workspace.WorkspaceEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the YAIL generated for each top-level block of a workspace, so that
+ * generating the YAIL for a project only compiles the clumps that changed
+ * since the last time.
+ *
+ * An entry is dropped when a workspace event changes a block in its clump.
+ * The YAIL of a clump also depends on things outside of it: the names of the
+ * global variables and procedures, and the names and types of the
+ * components. The compiler describes these in a context string, and all
+ * entries are dropped when the context changes.
+ *
+ * Entries remember the block they were generated for, so that an entry is
+ * never used for a different block that was given the same ID after the
+ * workspace was reloaded.
+ *
+ * Only clumps that compiled without any warnings or errors are cached, since
+ * compiling a clump is also what posts its complaints.
+ *
+ */
+public final class YailCache {
+  private static final class Entry {
+    private final Block block;
+    private final String yail;
+
+    Entry(Block block, String yail) {
+      this.block = block;
+      this.yail = yail;
+    }
+  }
+
+  // The context the entries were generated in.
+  private String context;
+
+  // Entries by block ID and purpose, see key.
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  private static String key(long blockID, boolean forRepl) {
+    return blockID + (forRepl ? ":repl" : ":build");
+  }
+
+  /**
+   * Sets the context that the following entries are generated in. If it
+   * differs from the previous context, all entries are dropped.
+   *
+   * @param context a description of everything outside of a clump that the
+   *        YAIL of the clump depends on
+   */
+  public synchronized void setContext(String context) {
+    if (!context.equals(this.context)) {
+      entries.clear();
+      this.context = context;
+    }
+  }
+
+  /**
+   * Returns the cached YAIL of the clump with the given top-level block, or
+   * null if there is none.
+   */
+  public synchronized String get(Block block, boolean forRepl) {
+    Entry entry = entries.get(key(block.getBlockID(), forRepl));
+    return (entry != null && entry.block == block) ? entry.yail : null;
+  }
+
+  /**
+   * Caches the YAIL of the clump with the given top-level block.
+   */
+  public synchronized void put(Block block, boolean forRepl, String yail) {
+    entries.put(key(block.getBlockID(), forRepl), new Entry(block, yail));
+  }
+
+  /**
+   * Drops the entries of the clump that contains the block with the given ID.
+   * Entries of blocks between the block and the top of its clump are dropped
+   * too, since they may be top-level blocks again after a disconnect.
+   */
+  public synchronized void invalidate(long blockID) {
+    Long id = blockID;
+    while (true) {
+      entries.remove(key(id, true));
+      entries.remove(key(id, false));
+      Block block = Block.getBlock(id);
+      if (block == null) {
+        return;
+      }
+      if (block.hasBeforeConnector() && Block.getBlock(block.getBeforeBlockID()) != null) {
+        id = block.getBeforeBlockID();
+      } else if (block.hasPlug() && Block.getBlock(block.getPlugBlockID()) != null) {
+        id = block.getPlugBlockID();
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Drops all entries.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    context = null;
+  }
+
+  /**
+   * Returns the number of entries.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Drops the entries that the given workspace event makes stale.
+   */
+  public void workspaceEventOccurred(WorkspaceEvent event) {
+    switch (event.getEventType()) {
+      case WorkspaceEvent.BLOCK_MOVED:
+      case WorkspaceEvent.BLOCK_NOTE_MOVED:
+      case WorkspaceEvent.BLOCK_NOTE_RESIZED:
+      case WorkspaceEvent.BLOCK_NOTE_VISIBILITY_CHANGE:
+      case WorkspaceEvent.BLOCK_COLLAPSE_CHANGE:
+      case WorkspaceEvent.BLOCK_DO_IT:
+      case WorkspaceEvent.BLOCK_DOUBLE_CLICKED:
+        // These don't change any code.
+        break;
+      case WorkspaceEvent.BLOCK_REPORT_CHANGE:
+        // The setters of a watched variable can be in any clump.
+        clear();
+        break;
+      case WorkspaceEvent.BLOCKS_CONNECTED:
+      case WorkspaceEvent.BLOCKS_DISCONNECTED:
+        invalidate(event.getSourceLink().getSocketBlockID());
+        invalidate(event.getSourceLink().getPlugBlockID());
+        break;
+      default:
+        if (event.getSourceBlockID() != null) {
+          invalidate(event.getSourceBlockID());
+        }
+        break;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests ReplSyncQueue class.
+ *
+ */
+public class ReplSyncQueueTest extends TestCase {
+  // Long enough that the queue is never sent on its own during a test.
+  private static final long NEVER = 60 * 60 * 1000;
+
+  private final List<List<ReplSyncQueue.Item>> batches = new ArrayList<List<ReplSyncQueue.Item>>();
+
+  private final ReplSyncQueue.Sender sender = new ReplSyncQueue.Sender() {
+    @Override
+    public void sendBatch(List<ReplSyncQueue.Item> items) {
+      batches.add(items);
+    }
+  };
+
+  private static ReplSyncQueue.Item blockItem(long blockID, String data) {
+    return new ReplSyncQueue.Item(ReplSyncQueue.blockKey(blockID), data,
+        WorkspaceController.REPL_DEFINE_IT, blockID);
+  }
+
+  private static ReplSyncQueue.Item propertyItem(String componentName, String data) {
+    return new ReplSyncQueue.Item(ReplSyncQueue.propertyKey(componentName, "Text"), data,
+        "Property sync", 0);
+  }
+
+  public void testFlushSendsOneBatch() {
+    ReplSyncQueue queue = new ReplSyncQueue(sender, NEVER);
+    queue.add(blockItem(1, "(def a 1)"));
+    queue.add(blockItem(2, "(def b 2)"));
+    queue.add(propertyItem("Button1", "(set-property Button1 Text \"x\")"));
+    assertTrue(batches.isEmpty());
+
+    queue.flush();
+    assertEquals(1, batches.size());
+    List<ReplSyncQueue.Item> batch = batches.get(0);
+    assertEquals(3, batch.size());
+    assertEquals("(def a 1)", batch.get(0).getData());
+    assertEquals("(def b 2)", batch.get(1).getData());
+    assertEquals(0, queue.size());
+
+    // Nothing is sent when the queue is empty.
+    queue.flush();
+    assertEquals(1, batches.size());
+  }
+
+  public void testLaterItemReplacesQueuedItemWithSameKey() {
+    ReplSyncQueue queue = new ReplSyncQueue(sender, NEVER);
+    queue.add(blockItem(1, "(def a 1)"));
+    queue.add(blockItem(2, "(def b 2)"));
+    queue.add(blockItem(1, "(def a 3)"));
+    assertEquals(2, queue.size());
+
+    queue.flush();
+    List<ReplSyncQueue.Item> batch = batches.get(0);
+    assertEquals(2, batch.size());
+    assertEquals("(def b 2)", batch.get(0).getData());
+    assertEquals("(def a 3)", batch.get(1).getData());
+    assertEquals(1, batch.get(1).getBlockID());
+  }
+
+  public void testDiscardBlockDefinitions() {
+    ReplSyncQueue queue = new ReplSyncQueue(sender, NEVER);
+    queue.add(blockItem(1, "(def a 1)"));
+    queue.add(propertyItem("Button1", "(set-property Button1 Text \"x\")"));
+    queue.discardBlockDefinitions();
+    assertEquals(1, queue.size());
+
+    queue.flush();
+    assertEquals("Property sync", batches.get(0).get(0).getPurpose());
+  }
+
+  public void testBatchIsSentAfterDelay() throws Exception {
+    final CountDownLatch sent = new CountDownLatch(1);
+    ReplSyncQueue queue = new ReplSyncQueue(new ReplSyncQueue.Sender() {
+      @Override
+      public void sendBatch(List<ReplSyncQueue.Item> items) {
+        batches.add(items);
+        sent.countDown();
+      }
+    }, 10);
+    queue.add(blockItem(1, "(def a 1)"));
+    queue.add(blockItem(2, "(def b 2)"));
+    assertTrue(sent.await(10, TimeUnit.SECONDS));
+    assertEquals(1, batches.size());
+    assertEquals(2, batches.get(0).size());
+  }
+}
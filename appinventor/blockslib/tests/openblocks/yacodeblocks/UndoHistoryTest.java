@@ -0,0 +1,100 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests UndoHistory class.
+ *
+ */
+public class UndoHistoryTest extends TestCase {
+  private static final String STATE1 = "<Blocks><Block id=\"1\"/></Blocks>";
+  private static final String STATE2 = "<Blocks><Block id=\"1\"/><Block id=\"2\"/></Blocks>";
+  private static final String STATE3 = "<Blocks><Block id=\"2\"/></Blocks>";
+
+  public void testEmptyHistory() {
+    UndoHistory history = new UndoHistory(10);
+    assertTrue(history.isEmpty());
+    assertEquals(0, history.size());
+    assertNull(history.getCurrent());
+    assertFalse(history.canUndo());
+    assertFalse(history.canRedo());
+  }
+
+  public void testUndoAndRedo() {
+    UndoHistory history = new UndoHistory(10);
+    assertTrue(history.add(STATE1));
+    assertTrue(history.add(STATE2));
+    assertTrue(history.add(STATE3));
+    assertEquals(3, history.size());
+    assertFalse(history.canRedo());
+
+    assertEquals(STATE2, history.undo());
+    assertEquals(STATE1, history.undo());
+    assertFalse(history.canUndo());
+    assertEquals(STATE2, history.redo());
+    assertEquals(STATE3, history.redo());
+    assertFalse(history.canRedo());
+    assertEquals(STATE3, history.getCurrent());
+    assertEquals(3, history.size());
+  }
+
+  public void testAddSameStateIsIgnored() {
+    UndoHistory history = new UndoHistory(10);
+    assertTrue(history.add(STATE1));
+    assertFalse(history.add(new String(STATE1)));
+    assertEquals(1, history.size());
+    assertFalse(history.canUndo());
+  }
+
+  public void testAddAfterUndoDiscardsRedo() {
+    UndoHistory history = new UndoHistory(10);
+    history.add(STATE1);
+    history.add(STATE2);
+    history.undo();
+    assertTrue(history.canRedo());
+
+    history.add(STATE3);
+    assertFalse(history.canRedo());
+    assertEquals(2, history.size());
+    assertEquals(STATE1, history.undo());
+  }
+
+  public void testOldestStatesAreDiscarded() {
+    UndoHistory history = new UndoHistory(3);
+    for (int i = 0; i < 5; i++) {
+      history.add("state " + i);
+    }
+    assertEquals(3, history.size());
+    assertEquals("state 3", history.undo());
+    assertEquals("state 2", history.undo());
+    assertFalse(history.canUndo());
+  }
+
+  public void testClear() {
+    UndoHistory history = new UndoHistory(10);
+    history.add(STATE1);
+    history.add(STATE2);
+    history.clear();
+    assertTrue(history.isEmpty());
+    assertFalse(history.canUndo());
+    assertTrue(history.add(STATE2));
+    assertFalse(history.canUndo());
+  }
+
+  public void testUndoWithoutPreviousState() {
+    UndoHistory history = new UndoHistory(10);
+    history.add(STATE1);
+    try {
+      history.undo();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      history.redo();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
@@ -0,0 +1,61 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import openblocks.codeblocks.Block;
+import openblocks.codeblocks.ComplaintDepartment;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests WorkspaceContext class.
+ *
+ */
+public class WorkspaceContextTest extends TestCase {
+
+  @Override
+  protected void tearDown() throws Exception {
+    WorkspaceContext.setCurrent(null);
+    super.tearDown();
+  }
+
+  public void testThreadsUseDefaultContext() throws Exception {
+    final WorkspaceContext defaultContext = WorkspaceContext.current();
+    final WorkspaceContext[] otherThreadContext = new WorkspaceContext[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        otherThreadContext[0] = WorkspaceContext.current();
+      }
+    };
+    thread.start();
+    thread.join();
+    assertSame(defaultContext, otherThreadContext[0]);
+  }
+
+  public void testSetCurrent() {
+    WorkspaceContext defaultContext = WorkspaceContext.current();
+    WorkspaceContext context = new WorkspaceContext();
+    WorkspaceContext.setCurrent(context);
+    assertSame(context, WorkspaceContext.current());
+    WorkspaceContext.setCurrent(null);
+    assertSame(defaultContext, WorkspaceContext.current());
+  }
+
+  public void testBlockStateIsPerContext() {
+    WorkspaceContext context1 = new WorkspaceContext();
+    WorkspaceContext context2 = new WorkspaceContext();
+
+    WorkspaceContext.setCurrent(context1);
+    context1.setNextBlockId(10);
+    context1.getCompileErrors().add("error");
+    assertEquals(1, ComplaintDepartment.getCompileErrors().length);
+
+    WorkspaceContext.setCurrent(context2);
+    assertEquals(0, ComplaintDepartment.getCompileErrors().length);
+    assertFalse(Block.getAllBlocks().iterator().hasNext());
+    Block.reset();
+    assertEquals(1, context2.getNextBlockId());
+    assertEquals(10, context1.getNextBlockId());
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package openblocks.yacodeblocks;
+
+import openblocks.codeblocks.Block;
+import openblocks.workspace.WorkspaceEvent;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests YailCache class.
+ *
+ */
+public class YailCacheTest extends TestCase {
+  private static final String GENUSES =
+      "<BlockGenus name=\"statement\" kind=\"command\" initlabel=\"statement\" color=\"\">" +
+      "<BlockConnectors>" +
+      "<BlockConnector connector-kind=\"socket\" connector-type=\"poly\" label=\"value\" />" +
+      "</BlockConnectors>" +
+      "</BlockGenus>" +
+      "<BlockGenus name=\"value\" kind=\"data\" initlabel=\"value\" color=\"\">" +
+      "<BlockConnectors>" +
+      "<BlockConnector connector-kind=\"plug\" connector-type=\"poly\" />" +
+      "</BlockConnectors>" +
+      "</BlockGenus>";
+
+  private YailCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    TestUtils.setupWorkspace(GENUSES, null);
+    cache = WorkspaceContext.current().getYailCache();
+    cache.setContext("");
+  }
+
+  public void testGetReturnsEntryOfSameBlockOnly() {
+    Block block = new Block("statement");
+    cache.put(block, true, "(repl)");
+    assertEquals("(repl)", cache.get(block, true));
+    assertNull(cache.get(block, false));
+
+    // After a reset, a new block gets the same ID as the old one.
+    Block.reset();
+    assertEquals(0, cache.size());
+    cache.put(block, true, "(repl)");
+    Block newBlock = new Block("statement");
+    assertEquals(block.getBlockID(), newBlock.getBlockID());
+    assertNull(cache.get(newBlock, true));
+  }
+
+  public void testContextChangeDropsEntries() {
+    Block block = new Block("statement");
+    cache.setContext("[Button1 Button]");
+    cache.put(block, false, "(build)");
+    cache.setContext("[Button1 Button]");
+    assertEquals("(build)", cache.get(block, false));
+    cache.setContext("[Button1 Label]");
+    assertNull(cache.get(block, false));
+  }
+
+  public void testInvalidateDropsEntriesUpToTopOfClump() {
+    Block first = new Block("statement");
+    Block second = new Block("statement");
+    Block value = new Block("value");
+    Block other = new Block("statement");
+    first.getAfterConnector().setConnectorBlockID(second.getBlockID());
+    second.getBeforeConnector().setConnectorBlockID(first.getBlockID());
+    second.getSocketAt(0).setConnectorBlockID(value.getBlockID());
+    value.getPlug().setConnectorBlockID(second.getBlockID());
+
+    cache.put(first, true, "(first)");
+    cache.put(second, true, "(second)");
+    cache.put(value, true, "(value)");
+    cache.put(other, true, "(other)");
+    cache.invalidate(value.getBlockID());
+    assertNull(cache.get(first, true));
+    assertNull(cache.get(second, true));
+    assertNull(cache.get(value, true));
+    assertEquals("(other)", cache.get(other, true));
+  }
+
+  public void testWorkspaceEvents() {
+    Block block = new Block("statement");
+    cache.put(block, true, "(repl)");
+    cache.workspaceEventOccurred(
+        new WorkspaceEvent(null, block.getBlockID(), WorkspaceEvent.BLOCK_MOVED));
+    assertEquals("(repl)", cache.get(block, true));
+    cache.workspaceEventOccurred(
+        new WorkspaceEvent(null, block.getBlockID(), WorkspaceEvent.BLOCK_RENAMED));
+    assertNull(cache.get(block, true));
+
+    cache.put(block, true, "(repl)");
+    cache.workspaceEventOccurred(new WorkspaceEvent(WorkspaceEvent.WORKSPACE_FINISHED_LOADING));
+    assertEquals("(repl)", cache.get(block, true));
+    cache.workspaceEventOccurred(new WorkspaceEvent(WorkspaceEvent.BLOCK_REPORT_CHANGE));
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,304 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * Runs build tasks, each in its own thread, allowing only a certain number of simultaneous tasks.
+ *
+ * <p>Unlike {@link NonQueuingExecutor}, additional tasks are queued, up to a maximum queue length.
+ * Only when the queue is full is a task rejected.</p>
+ *
+ * <p>When a task finishes, the next task to run is chosen as follows. Each user's tasks run in
+ * the order they were submitted. Among the users with queued tasks, the task that has waited the
+ * longest is chosen, except that a user's task is treated as if it had been submitted
+ * {@link #FAIRNESS_PENALTY_MILLIS} later for each task of that user that is already running. That
+ * way, a user who submits many builds at once can't keep everyone else waiting, but their builds
+ * still get to run as they age.</p>
+ *
+ * <p>A task that has been queued longer than the maximum queue wait time is not run. Instead, its
+ * shed task is run, so that the requester can be told that the build server is too busy. This
+ * happens as soon as the task's deadline passes, even if no other task starts or finishes.</p>
+ */
+final class BuildScheduler {
+  // How much later than its submission time a queued task is treated, for each task of the same
+  // user that is running.
+  static final long FAIRNESS_PENALTY_MILLIS = 30 * 1000;
+
+  // The number of recent queue wait times used to compute percentiles.
+  private static final int WAIT_TIME_SAMPLES = 1000;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildScheduler.class.getName());
+
+  // The maximum number of active tasks. 0 means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of queued tasks. 0 means that tasks are never queued.
+  private final int maxQueuedTasks;
+
+  // The maximum time that a task can wait in the queue, in milliseconds. 0 means unlimited.
+  private final long maxQueueWaitMillis;
+
+  // Runs the tasks and the shed tasks.
+  private final Executor executor;
+
+  // Sheds queued tasks when their deadlines pass. null if maxQueueWaitMillis is 0.
+  private final Timer deadlineTimer;
+
+  // All of the following fields are guarded by this.
+
+  // Queued tasks, by user.
+  private final Map<String, LinkedList<QueuedTask>> queuedTasksByUser =
+      new HashMap<String, LinkedList<QueuedTask>>();
+
+  // The number of active tasks, by user. Users without active tasks are not in the map.
+  private final Map<String, Integer> activeTaskCountByUser = new HashMap<String, Integer>();
+
+  private int queuedTaskCount;
+  private int activeTaskCount;
+  private int completedTaskCount;
+  private int shedTaskCount;
+
+  // The most recent queue wait times, in milliseconds, used as a circular buffer.
+  private final long[] waitTimes = new long[WAIT_TIME_SAMPLES];
+  private int waitTimeCount;
+  private int nextWaitTimeIndex;
+
+  /**
+   * Creates a BuildScheduler.
+   *
+   * @param maxActiveTasks the maximum number of active tasks. 0 means unlimited.
+   * @param maxQueuedTasks the maximum number of queued tasks. 0 means that tasks are never queued.
+   * @param maxQueueWaitMillis the maximum time that a task can wait in the queue, in
+   *     milliseconds. 0 means unlimited.
+   */
+  BuildScheduler(int maxActiveTasks, int maxQueuedTasks, long maxQueueWaitMillis) {
+    this(maxActiveTasks, maxQueuedTasks, maxQueueWaitMillis, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        new Thread(command).start();
+      }
+    });
+  }
+
+  /**
+   * Creates a BuildScheduler that runs its tasks with the given executor. The executor must run
+   * each task, for example in a new thread, without waiting for other tasks to finish.
+   */
+  BuildScheduler(int maxActiveTasks, int maxQueuedTasks, long maxQueueWaitMillis,
+      Executor executor) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.maxQueueWaitMillis = maxQueueWaitMillis;
+    this.executor = executor;
+    this.deadlineTimer = (maxQueueWaitMillis == 0) ? null : new Timer("BuildScheduler", true);
+  }
+
+  /**
+   * Runs the given task now if there is capacity, or queues it otherwise.
+   *
+   * @param userName the user who requested the task
+   * @param task the task
+   * @param shedTask the task to run instead of {@code task} if it waits too long in the queue
+   * @throws RejectedExecutionException if the task can't run now and the queue is full
+   */
+  synchronized void execute(String userName, Runnable task, Runnable shedTask) {
+    long now = System.currentTimeMillis();
+    String user = (userName == null) ? "" : userName;
+    if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+      recordWaitTime(0);
+      start(user, task);
+      return;
+    }
+
+    shedExpiredTasks(now);
+    if (queuedTaskCount >= maxQueuedTasks) {
+      throw new RejectedExecutionException();
+    }
+    LinkedList<QueuedTask> userQueue = queuedTasksByUser.get(user);
+    if (userQueue == null) {
+      userQueue = new LinkedList<QueuedTask>();
+      queuedTasksByUser.put(user, userQueue);
+    }
+    userQueue.add(new QueuedTask(task, shedTask, now));
+    queuedTaskCount++;
+    if (deadlineTimer != null) {
+      // A task expires once it has waited more than maxQueueWaitMillis.
+      deadlineTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          shedExpiredTasks();
+        }
+      }, maxQueueWaitMillis + 1);
+    }
+  }
+
+  int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  synchronized int getQueuedTaskCount() {
+    return queuedTaskCount;
+  }
+
+  synchronized int getCompletedTaskCount() {
+    return completedTaskCount;
+  }
+
+  synchronized int getShedTaskCount() {
+    return shedTaskCount;
+  }
+
+  /**
+   * Returns the given percentile of the queue wait times of recently started tasks, in
+   * milliseconds. Tasks that started without waiting count as 0.
+   *
+   * @param percentile a number between 0 and 100
+   */
+  synchronized long getQueueWaitTimePercentile(int percentile) {
+    int sampleCount = waitTimeCount;
+    if (sampleCount == 0) {
+      return 0;
+    }
+    long[] samples = Arrays.copyOf(waitTimes, sampleCount);
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+    return samples[Math.max(0, Math.min(index, sampleCount - 1))];
+  }
+
+  /*
+   * Starts the given task with the executor. Must be called while holding the lock.
+   */
+  private void start(final String user, final Runnable task) {
+    activeTaskCount++;
+    Integer userActiveTaskCount = activeTaskCountByUser.get(user);
+    activeTaskCountByUser.put(user, (userActiveTaskCount == null) ? 1 : userActiveTaskCount + 1);
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          finished(user);
+        }
+      }
+    });
+  }
+
+  private synchronized void finished(String user) {
+    activeTaskCount--;
+    completedTaskCount++;
+    int userActiveTaskCount = activeTaskCountByUser.get(user) - 1;
+    if (userActiveTaskCount == 0) {
+      activeTaskCountByUser.remove(user);
+    } else {
+      activeTaskCountByUser.put(user, userActiveTaskCount);
+    }
+
+    long now = System.currentTimeMillis();
+    shedExpiredTasks(now);
+    while (queuedTaskCount > 0 && (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks)) {
+      String nextUser = chooseNextUser();
+      LinkedList<QueuedTask> userQueue = queuedTasksByUser.get(nextUser);
+      QueuedTask next = userQueue.removeFirst();
+      if (userQueue.isEmpty()) {
+        queuedTasksByUser.remove(nextUser);
+      }
+      queuedTaskCount--;
+      recordWaitTime(now - next.submitTimeMillis);
+      start(nextUser, next.task);
+    }
+  }
+
+  /*
+   * Returns the user whose first queued task should run next. Must be called while holding the
+   * lock, when at least one task is queued.
+   */
+  private String chooseNextUser() {
+    String nextUser = null;
+    long nextPriority = Long.MAX_VALUE;
+    for (Map.Entry<String, LinkedList<QueuedTask>> entry : queuedTasksByUser.entrySet()) {
+      Integer userActiveTaskCount = activeTaskCountByUser.get(entry.getKey());
+      long priority = entry.getValue().getFirst().submitTimeMillis;
+      if (userActiveTaskCount != null) {
+        priority += userActiveTaskCount * FAIRNESS_PENALTY_MILLIS;
+      }
+      if (priority < nextPriority) {
+        nextPriority = priority;
+        nextUser = entry.getKey();
+      }
+    }
+    return nextUser;
+  }
+
+  private synchronized void shedExpiredTasks() {
+    shedExpiredTasks(System.currentTimeMillis());
+  }
+
+  /*
+   * Removes the tasks that have waited too long from the queue and runs their shed tasks. Must be
+   * called while holding the lock.
+   */
+  private void shedExpiredTasks(long now) {
+    if (maxQueueWaitMillis == 0 || queuedTaskCount == 0) {
+      return;
+    }
+    Iterator<LinkedList<QueuedTask>> iterator = queuedTasksByUser.values().iterator();
+    while (iterator.hasNext()) {
+      LinkedList<QueuedTask> userQueue = iterator.next();
+      // Each user's queue is in submission order, so expired tasks are at the front.
+      while (!userQueue.isEmpty()
+          && now - userQueue.getFirst().submitTimeMillis > maxQueueWaitMillis) {
+        QueuedTask expired = userQueue.removeFirst();
+        queuedTaskCount--;
+        shedTaskCount++;
+        LOG.info("Build task waited more than " + maxQueueWaitMillis + " ms in the queue. " +
+            "Shedding it.");
+        if (expired.shedTask != null) {
+          executor.execute(expired.shedTask);
+        }
+      }
+      if (userQueue.isEmpty()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private void recordWaitTime(long waitTimeMillis) {
+    waitTimes[nextWaitTimeIndex] = waitTimeMillis;
+    nextWaitTimeIndex = (nextWaitTimeIndex + 1) % WAIT_TIME_SAMPLES;
+    waitTimeCount = Math.min(waitTimeCount + 1, WAIT_TIME_SAMPLES);
+  }
+
+  private static class QueuedTask {
+    final Runnable task;
+    final Runnable shedTask;
+    final long submitTimeMillis;
+
+    QueuedTask(Runnable task, Runnable shedTask, long submitTimeMillis) {
+      this.task = task;
+      this.shedTask = shedTask;
+      this.submitTimeMillis = submitTimeMillis;
+    }
+  }
+}
@@ -69,6 +69,38 @@ public class BuildServer {
             usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+            usage = "Maximum number of builds that can wait for another build to finish. " +
+            "Additional builds are rejected. 0 means that builds are never queued.")
+    int maxQueuedBuilds = 20;
+
+    @Option(name = "--maxBuildQueueWaitSeconds",
+            usage = "Maximum number of seconds that a build can wait in the queue. A build that " +
+            "waits longer is not run and the requester is told that the server is too busy. " +
+            "0 means unlimited.")
+    int maxBuildQueueWaitSeconds = 600;
+
+    @Option(name = "--kawaCompilers",
+            usage = "Number of long-lived Kawa compiler processes. Builds compile in parallel, up " +
+            "to this number. 0 means that a new Kawa process is started for every build and " +
+            "only one build compiles at a time.")
+    int kawaCompilers = 1;
+
+    @Option(name = "--yailGenerators",
+            usage = "Number of long-lived YailGenerator processes. 0 means that a new " +
+            "YailGenerator process is started for every form that needs YAIL.")
+    int yailGenerators = 1;
+
+    @Option(name = "--buildCacheMb",
+            usage = "Maximum size of the cache of signed APKs, in MB. A project that is rebuilt " +
+            "without changes is returned from the cache. 0 disables the cache.")
+    int buildCacheMb = 512;
+
+    @Option(name = "--keyStorePoolSize",
+            usage = "Number of RSA key pairs generated ahead of time for projects that don't " +
+            "have a keystore yet. When none is ready, the build generates one.")
+    int keyStorePoolSize = 50;
+
     @Option(name = "--port",
             usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -96,6 +128,9 @@ public class BuildServer {
   private static final MediaType ZIP_MEDIA_TYPE =
       new MediaType("application", "zip", ImmutableMap.of("charset", "utf-8"));
 
+  // The latency percentiles shown on the /vars page
+  private static final int[] LATENCY_PERCENTILES = { 50, 95, 99 };
+
   private static final AtomicInteger buildCount = new AtomicInteger(0);
 
   // The number of build requests for this server run
@@ -113,11 +148,11 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
-  // The build executor used to limit the number of simultaneous builds.
+  // The build executor used to limit the number of simultaneous builds and to queue the rest.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildScheduler buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -134,6 +169,9 @@ public class BuildServer {
   // The zip file where we put all the build results for this request.
   private File outputZip;
 
+  // The trace that records how long each stage of this build request takes.
+  private final BuildTrace trace = new BuildTrace();
+
   @GET
   @Path("health")
   @Produces(MediaType.TEXT_PLAIN)
@@ -195,6 +233,56 @@ public class BuildServer {
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
 
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("shed-build-tasks", buildExecutor.getShedTaskCount() + "");
+    variables.put("build-queue-wait-ms-p50", buildExecutor.getQueueWaitTimePercentile(50) + "");
+    variables.put("build-queue-wait-ms-p90", buildExecutor.getQueueWaitTimePercentile(90) + "");
+    variables.put("build-queue-wait-ms-p99", buildExecutor.getQueueWaitTimePercentile(99) + "");
+
+    // Kawa compilers
+    variables.put("kawa-compilers-allowed", Compiler.getKawaCompilerPoolSize() + "");
+    variables.put("idle-kawa-compilers", Compiler.getIdleKawaCompilerCount() + "");
+    variables.put("started-kawa-compilers", Compiler.getStartedKawaCompilerCount() + "");
+    variables.put("active-kawa-compiles", Compiler.getActiveKawaCompileCount() + "");
+
+    // YAIL generators
+    variables.put("yail-generators-allowed", ProjectBuilder.getYailGeneratorPoolSize() + "");
+    variables.put("busy-yail-generators", ProjectBuilder.getBusyYailGeneratorCount() + "");
+    variables.put("started-yail-generators", ProjectBuilder.getStartedYailGeneratorCount() + "");
+
+    // Keystores
+    variables.put("keystore-key-pairs-allowed", ProjectBuilder.getKeyStorePoolSize() + "");
+    variables.put("ready-keystore-key-pairs", ProjectBuilder.getReadyKeyPairCount() + "");
+    variables.put("keystore-pool-hits", ProjectBuilder.getKeyStorePoolHitCount() + "");
+    variables.put("keystore-pool-misses", ProjectBuilder.getKeyStorePoolMissCount() + "");
+
+    // Build cache
+    variables.put("build-cache-bytes", ProjectBuilder.getBuildCacheBytes() + "");
+    variables.put("build-cache-hits", ProjectBuilder.getBuildCacheHitCount() + "");
+    variables.put("build-cache-misses", ProjectBuilder.getBuildCacheMissCount() + "");
+
+    // Dex cache
+    variables.put("cached-dex-files", Compiler.getCachedDexFileCount() + "");
+    variables.put("dex-cache-hits", Compiler.getDexCacheHitCount() + "");
+    variables.put("dex-cache-misses", Compiler.getDexCacheMissCount() + "");
+
+    // Build stage latencies, since the server started and in the last 10 minutes
+    for (Map.Entry<String, LatencyHistogram> entry : BuildTrace.getHistograms().entrySet()) {
+      String stage = entry.getKey();
+      LatencyHistogram histogram = entry.getValue();
+      variables.put(stage + "-count", histogram.getCount() + "");
+      for (int percentile : LATENCY_PERCENTILES) {
+        variables.put(stage + "-ms-p" + percentile, histogram.getPercentile(percentile) + "");
+      }
+      variables.put(stage + "-count-10min", histogram.getWindowCount() + "");
+      for (int percentile : LATENCY_PERCENTILES) {
+        variables.put(stage + "-ms-p" + percentile + "-10min",
+            histogram.getWindowPercentile(percentile) + "");
+      }
+    }
+
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
     for (Map.Entry<String, String> variable : variables.entrySet()) {
@@ -303,6 +391,10 @@ public class BuildServer {
    * the same version of the code that loads the .blk and .scm files, the same version of
    * runtime.scm, and the same version of the App Inventor component classes.
    *
+   * If the maximum number of builds are already running, the build is queued. If the queue is
+   * full, we return SERVICE_UNAVAILABLE. If the build waits in the queue for too long, we don't
+   * build the app and instead post back a build.out file saying that the build server is busy.
+   *
    * The status code returned here will be seen by the server in YoungAndroidProjectService.build
    * as connection.getResponseCode().
    *
@@ -369,59 +461,50 @@ public class BuildServer {
       }
     }
 
+    final long submitTime = System.currentTimeMillis();
     Runnable buildTask = new Runnable() {
       @Override
       public void run() {
+        trace.recordStage(BuildTrace.QUEUE_WAIT, System.currentTimeMillis() - submitTime);
         int count = buildCount.incrementAndGet();
         try {
-          LOG.info("START NEW BUILD " + count);
+          LOG.info("START NEW BUILD " + count + " trace " + trace.getTraceId());
           checkMemory();
           buildAndCreateZip(userName, inputZipFile);
           // Send zip back to the callbackUrl
-          LOG.info("CallbackURL: " + callbackUrlStr);
-          URL callbackUrl = new URL(callbackUrlStr);
-          HttpURLConnection connection = (HttpURLConnection) callbackUrl.openConnection();
-          connection.setDoOutput(true);
-          connection.setRequestMethod("POST");
-          // Make sure we aren't misinterpreted as form-url-encoded
-          connection.addRequestProperty("Content-Type", "application/zip; charset=utf-8");
-          connection.setConnectTimeout(60000);
-          connection.setReadTimeout(60000);
-          BufferedOutputStream bufferedOutputStream =
-              new BufferedOutputStream(connection.getOutputStream());
-          try {
-            BufferedInputStream bufferedInputStream =
-                new BufferedInputStream(new FileInputStream(outputZip));
-            try {
-              ByteStreams.copy(bufferedInputStream, bufferedOutputStream);
-              checkMemory();
-              bufferedOutputStream.flush();
-            } finally {
-              bufferedInputStream.close();
-            }
-          } finally {
-            bufferedOutputStream.close();
-          }
-
-          if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            LOG.severe("Bad Response Code!: " + connection.getResponseCode());
-            // TODO(user) Maybe do some retries
-          }
-
+          sendOutputZip(callbackUrlStr);
         } catch (Exception e) {
           // TODO(user): Maybe send a failure callback
           LOG.severe("Exception: " + e.getMessage());
         } finally {
           cleanUp();
           checkMemory();
-          LOG.info("BUILD " + count + " FINISHED");
+          LOG.info("BUILD " + count + " FINISHED trace " + trace.getTraceId() + " stage times " +
+              trace.getStageMillis());
+        }
+      }
+    };
+    Runnable shedTask = new Runnable() {
+      @Override
+      public void run() {
+        // The build waited too long in the queue. Tell the requester that we are too busy, rather
+        // than leaving them waiting for a build that may not finish before they give up.
+        try {
+          createOutputZip(inputZipFile, new Result(Result.GENERAL_FAILURE, "",
+              "The build server is currently at maximum capacity."));
+          sendOutputZip(callbackUrlStr);
+        } catch (Exception e) {
+          LOG.severe("Exception: " + e.getMessage());
+        } finally {
+          cleanUp();
         }
       }
     };
     try {
-      buildExecutor.execute(buildTask);
+      buildExecutor.execute(userName, buildTask, shedTask);
     } catch (RejectedExecutionException e) {
-      // This request was rejected because all threads in the build executor are busy.
+      // This request was rejected because all threads in the build executor are busy and the
+      // build queue is full.
       rejectedAsyncBuildRequests.incrementAndGet();
       cleanUp();
       // Here, we use SERVICE_UNAVAILABLE (response code 503), which means (according to rfc2616,
@@ -437,23 +520,29 @@ public class BuildServer {
   private void buildAndCreateZip(String userName, File inputZipFile)
       throws IOException, JSONException {
     Result buildResult = build(userName, inputZipFile);
-    boolean buildSucceeded = buildResult.succeeded();
+    if (buildResult.succeeded()) {
+      successfulBuildRequests.getAndIncrement();
+    } else {
+      LOG.severe("Build " + buildCount.get() + " Failed: " + buildResult.getResult() + 
+          " " + buildResult.getError());
+      failedBuildRequests.getAndIncrement();
+    }
+    createOutputZip(inputZipFile, buildResult);
+  }
+
+  private void createOutputZip(File inputZipFile, Result buildResult)
+      throws IOException, JSONException {
     outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
         new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
-    if (buildSucceeded) {
+    if (buildResult.succeeded()) {
       if (outputKeystore != null) {
         zipOutputStream.putNextEntry(new ZipEntry(outputKeystore.getName()));
         Files.copy(outputKeystore, zipOutputStream);
       }
       zipOutputStream.putNextEntry(new ZipEntry(outputApk.getName()));
       Files.copy(outputApk, zipOutputStream);
-      successfulBuildRequests.getAndIncrement();
-    } else {
-      LOG.severe("Build " + buildCount.get() + " Failed: " + buildResult.getResult() + 
-          " " + buildResult.getError());
-      failedBuildRequests.getAndIncrement();
     }
     zipOutputStream.putNextEntry(new ZipEntry("build.out"));
     String buildOutputJson = genBuildOutput(buildResult);
@@ -464,6 +553,53 @@ public class BuildServer {
     zipOutputStream.close();
   }
 
+  /*
+   * Posts the outputZip file to the given callback URL.
+   */
+  private void sendOutputZip(String callbackUrlStr) throws IOException {
+    trace.startStage(BuildTrace.RESULT_UPLOAD);
+    try {
+      postOutputZip(callbackUrlStr);
+    } finally {
+      trace.endStage();
+    }
+  }
+
+  private void postOutputZip(String callbackUrlStr) throws IOException {
+    LOG.info("CallbackURL: " + callbackUrlStr);
+    URL callbackUrl = new URL(callbackUrlStr);
+    HttpURLConnection connection = (HttpURLConnection) callbackUrl.openConnection();
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    // Make sure we aren't misinterpreted as form-url-encoded
+    connection.addRequestProperty("Content-Type", "application/zip; charset=utf-8");
+    // Stream the zip file instead of letting HttpURLConnection buffer all of it in memory to
+    // compute the Content-Length.
+    connection.setFixedLengthStreamingMode((int) outputZip.length());
+    connection.setConnectTimeout(60000);
+    connection.setReadTimeout(60000);
+    BufferedOutputStream bufferedOutputStream =
+        new BufferedOutputStream(connection.getOutputStream());
+    try {
+      BufferedInputStream bufferedInputStream =
+          new BufferedInputStream(new FileInputStream(outputZip));
+      try {
+        ByteStreams.copy(bufferedInputStream, bufferedOutputStream);
+        checkMemory();
+        bufferedOutputStream.flush();
+      } finally {
+        bufferedInputStream.close();
+      }
+    } finally {
+      bufferedOutputStream.close();
+    }
+
+    if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+      LOG.severe("Bad Response Code!: " + connection.getResponseCode());
+      // TODO(user) Maybe do some retries
+    }
+  }
+
   private String genBuildOutput(Result buildResult) throws JSONException {
     JSONObject buildOutputJsonObj = new JSONObject();
     buildOutputJsonObj.put("result", buildResult.getResult());
@@ -472,6 +608,12 @@ public class BuildServer {
     if (buildResult.getFormName() != null) {
       buildOutputJsonObj.put("formName", buildResult.getFormName());
     }
+    buildOutputJsonObj.put("traceId", trace.getTraceId());
+    JSONObject stageTimesJsonObj = new JSONObject();
+    for (Map.Entry<String, Long> stage : trace.getStageMillis().entrySet()) {
+      stageTimesJsonObj.put(stage.getKey(), stage.getValue());
+    }
+    buildOutputJsonObj.put("stageTimes", stageTimesJsonObj);
     return buildOutputJsonObj.toString();
   }
 
@@ -484,7 +626,7 @@ public class BuildServer {
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
     Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
-                                              commandLineOptions.childProcessRamMb);
+                                              commandLineOptions.childProcessRamMb, trace);
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -540,7 +682,17 @@ public class BuildServer {
     }
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new BuildScheduler(commandLineOptions.maxSimultaneousBuilds,
+                                       commandLineOptions.maxQueuedBuilds,
+                                       commandLineOptions.maxBuildQueueWaitSeconds * 1000L);
+
+    // Extract the runtime files and compute their fingerprint before we accept any builds.
+    Compiler.prepareRuntime();
+    Compiler.startKawaCompilerPool(commandLineOptions.kawaCompilers,
+                                   commandLineOptions.childProcessRamMb);
+    ProjectBuilder.startYailGeneratorPool(commandLineOptions.yailGenerators);
+    ProjectBuilder.createBuildCache(commandLineOptions.buildCacheMb * 1024L * 1024L);
+    ProjectBuilder.startKeyStorePool(commandLineOptions.keyStorePoolSize);
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -553,6 +705,10 @@ public class BuildServer {
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
     }
+    LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
+    LOG.info("Kawa compiler processes = " + commandLineOptions.kawaCompilers);
+    LOG.info("YailGenerator processes = " + commandLineOptions.yailGenerators);
+    LOG.info("Ready keystore key pairs = " + commandLineOptions.keyStorePoolSize);
     LOG.info("Visit: http://" + hostAddress + ":" + port +
         "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
@@ -0,0 +1,118 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Records how long each stage of one build takes.
+ *
+ * <p>Each build gets a trace id, which is logged and sent back with the build result, so that a
+ * slow build reported by App Inventor can be found in the build server log. Every stage duration
+ * is also recorded in a {@link LatencyHistogram} for that stage, shared by all builds, which the
+ * build server exports on its /vars page.
+ */
+final class BuildTrace {
+  // The stages of a build, in the order in which they run.
+  static final String QUEUE_WAIT = "queue-wait";
+  static final String BUILD_CACHE_LOOKUP = "build-cache-lookup";
+  static final String ZIP_EXTRACTION = "zip-extraction";
+  static final String YAIL_GENERATION = "yail-generation";
+  static final String KEYSTORE_GENERATION = "keystore-generation";
+  static final String ICON = "icon";
+  static final String PERMISSIONS = "permissions";
+  static final String MANIFEST = "manifest";
+  static final String KAWA = "kawa";
+  static final String DX = "dx";
+  static final String AAPT = "aapt";
+  static final String APK_BUILDER = "apkbuilder";
+  static final String JARSIGNER = "jarsigner";
+  static final String RESULT_UPLOAD = "result-upload";
+
+  // The whole build, from the build cache lookup to signing.
+  static final String TOTAL = "total";
+
+  private static final String[] STAGES = {
+    QUEUE_WAIT, BUILD_CACHE_LOOKUP, ZIP_EXTRACTION, YAIL_GENERATION, KEYSTORE_GENERATION, ICON,
+    PERMISSIONS, MANIFEST, KAWA, DX, AAPT, APK_BUILDER, JARSIGNER, RESULT_UPLOAD, TOTAL
+  };
+
+  // The length of the rolling window of the stage histograms.
+  private static final long WINDOW_MILLIS = 10 * 60 * 1000;
+
+  private static final Map<String, LatencyHistogram> histograms;
+  static {
+    Map<String, LatencyHistogram> map = new LinkedHashMap<String, LatencyHistogram>();
+    for (String stage : STAGES) {
+      map.put(stage, new LatencyHistogram(WINDOW_MILLIS));
+    }
+    histograms = Collections.unmodifiableMap(map);
+  }
+
+  private final String traceId;
+
+  // All of the following fields are guarded by this.
+
+  // The durations of the stages that have finished, in milliseconds.
+  private final Map<String, Long> stageMillis = new LinkedHashMap<String, Long>();
+
+  private String currentStage;
+  private long currentStageStart;
+
+  BuildTrace() {
+    traceId = UUID.randomUUID().toString();
+  }
+
+  String getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * Starts timing the given stage, ending the current stage, if any.
+   */
+  synchronized void startStage(String stage) {
+    endStage();
+    currentStage = stage;
+    currentStageStart = System.currentTimeMillis();
+  }
+
+  /**
+   * Ends the current stage, if any, and records its duration.
+   */
+  synchronized void endStage() {
+    if (currentStage != null) {
+      recordStage(currentStage, System.currentTimeMillis() - currentStageStart);
+      currentStage = null;
+    }
+  }
+
+  /**
+   * Records the duration of a stage that was timed by the caller.
+   *
+   * @param stage one of the stage constants
+   * @param millis the duration, in milliseconds
+   */
+  synchronized void recordStage(String stage, long millis) {
+    Long previous = stageMillis.get(stage);
+    stageMillis.put(stage, (previous == null) ? millis : previous + millis);
+    histograms.get(stage).record(millis);
+  }
+
+  /**
+   * Returns the durations of the stages that have finished, in milliseconds, in the order in
+   * which they finished.
+   */
+  synchronized Map<String, Long> getStageMillis() {
+    return new LinkedHashMap<String, Long>(stageMillis);
+  }
+
+  /**
+   * Returns the histograms of all the stages, shared by all builds, in stage order.
+   */
+  static Map<String, LatencyHistogram> getHistograms() {
+    return histograms;
+  }
+}
@@ -3,7 +3,6 @@
 package com.google.appinventor.buildserver;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -12,9 +11,7 @@ import com.google.common.io.Resources;
 
 import com.android.sdklib.build.ApkBuilder;
 
-import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
@@ -25,7 +22,9 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.net.URISyntaxException;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -45,8 +44,13 @@ import javax.imageio.ImageIO;
  */
 public final class Compiler {
   // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
+  // Builds that use the Kawa compiler pool don't need this lock; the size of the pool limits the
+  // number of Kawa processes.
   private static final Object SYNC_KAWA_OR_DX = new Object();
 
+  // The number of compiles after which a Kawa compiler worker is replaced.
+  private static final int MAX_COMPILES_PER_KAWA_WORKER = 100;
+
   // TODO(sharon): temporary until we add support for new activities
   private static final String LIST_ACTIVITY_CLASS =
       "com.google.appinventor.components.runtime.ListPickerActivity";
@@ -62,9 +66,6 @@ public final class Compiler {
   private static final String DEFAULT_VERSION_CODE = "1";
   private static final String DEFAULT_VERSION_NAME = "1.0";
 
-  private static final String COMPONENT_PERMISSIONS =
-      RUNTIME_FILES_DIR + "simple_components_permissions.json";
-
   /*
    * Resource paths to yail runtime, runtime library files and sdk tools.
    * To get the real file paths, call getResource() with one of these constants.
@@ -92,8 +93,17 @@ public final class Compiler {
   // Logging support
   private static final Logger LOG = Logger.getLogger(Compiler.class.getName());
 
-  private static final ConcurrentMap<String, Set<String>> componentPermissions =
-      new ConcurrentHashMap<String, Set<String>>();
+  // The maximum total size of the classes.dex files to keep in the dex cache.
+  private static final long MAX_DEX_CACHE_BYTES = 100L * 1024 * 1024;
+
+  private static final FileCache dexCache = new FileCache(MAX_DEX_CACHE_BYTES);
+
+  // The pool of Kawa compiler processes, or null if we fork a new Kawa process for every build.
+  private static KawaCompilerPool kawaCompilerPool;
+
+  // The hash of the content of the runtime files that are compiled or dexed along with the
+  // user's code. Don't use this field directly. Call getRuntimeFingerprint().
+  private static String runtimeFingerprint;
 
   /**
    * Map used to hold the names and paths of resources that we've written out
@@ -130,9 +140,9 @@ public final class Compiler {
    */
   @VisibleForTesting
   Set<String> generatePermissions() {
-    // Before we can use componentPermissions, we have to call loadComponentPermissions().
+    ComponentIndex componentIndex;
     try {
-      loadComponentPermissions();
+      componentIndex = ComponentIndex.get();
     } catch (IOException e) {
       // This is fatal.
       e.printStackTrace();
@@ -147,7 +157,13 @@ public final class Compiler {
 
     Set<String> permissions = Sets.newHashSet();
     for (String componentType : componentTypes) {
-      permissions.addAll(componentPermissions.get(componentType));
+      Set<String> permissionsForThisComponent = componentIndex.getPermissions(componentType);
+      if (permissionsForThisComponent == null) {
+        LOG.warning("YAIL compiler - unknown component type " + componentType);
+        userErrors.print(String.format(ERROR_IN_STAGE, "Permissions"));
+        return null;
+      }
+      permissions.addAll(permissionsForThisComponent);
     }
     return permissions;
   }
@@ -275,11 +291,14 @@ public final class Compiler {
    * @param isForRepl {@code true}, if this compilation is for the special REPL app
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param trace  the trace in which the duration of each stage is recorded. If the compilation
+   *     fails, the caller must end the last stage.
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    */
   public static boolean compile(Project project, Set<String> componentTypes,
                                 PrintStream out, PrintStream err, PrintStream userErrors,
-                                boolean isForRepl, String keystoreFilePath, int childProcessRam) {
+                                boolean isForRepl, String keystoreFilePath, int childProcessRam,
+                                BuildTrace trace) {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
@@ -291,6 +310,7 @@ public final class Compiler {
 
     // Prepare application icon.
     out.println("________Preparing application icon");
+    trace.startStage(BuildTrace.ICON);
     File resDir = createDirectory(buildDir, "res");
     File drawableDir = createDirectory(resDir, "drawable");
     if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
@@ -299,6 +319,7 @@ public final class Compiler {
 
     // Determine android permissions.
     out.println("________Determining permissions");
+    trace.startStage(BuildTrace.PERMISSIONS);
     Set<String> permissionsNeeded = compiler.generatePermissions();
     if (permissionsNeeded == null) {
       return false;
@@ -306,6 +327,7 @@ public final class Compiler {
 
     // Generate AndroidManifest.xml
     out.println("________Generating manifest file");
+    trace.startStage(BuildTrace.MANIFEST);
     File manifestFile = new File(buildDir, "AndroidManifest.xml");
     if (!compiler.writeAndroidManifest(manifestFile, permissionsNeeded)) {
       return false;
@@ -313,6 +335,7 @@ public final class Compiler {
 
     // Create class files.
     out.println("________Compiling source files");
+    trace.startStage(BuildTrace.KAWA);
     File classesDir = createDirectory(buildDir, "classes");
     if (!compiler.generateClasses(classesDir)) {
       return false;
@@ -320,6 +343,7 @@ public final class Compiler {
 
     // Invoke dx on class files
     out.println("________Invoking DX");
+    trace.startStage(BuildTrace.DX);
     // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
     // overhead for subsequent runs).  I think it's because of the need to dx the entire
     // kawa runtime every time.  We should probably only do that once and then copy all the
@@ -329,14 +353,26 @@ public final class Compiler {
     // Android guy suggested an alternate approach of shipping the kawa runtime .dex file as
     // data with the application and then creating a new DexClassLoader using that .dex file
     // and with the original app class loader as the parent of the new one.
+    // In the meantime, we reuse the classes.dex from an earlier build if the DX inputs are the
+    // same. See FileCache.
     File tmpDir = createDirectory(buildDir, "tmp");
     String dexedClasses = tmpDir.getAbsolutePath() + File.separator + "classes.dex";
-    if (!compiler.runDx(classesDir, dexedClasses)) {
-      return false;
+    String dexCacheKey = compiler.computeDexCacheKey();
+    if (dexCacheKey != null && dexCache.copyTo(dexCacheKey, new File(dexedClasses))) {
+      out.println("Using cached DX output");
+      LOG.info("YAIL compiler - using cached DX output " + dexCacheKey);
+    } else {
+      if (!compiler.runDx(classesDir, dexedClasses)) {
+        return false;
+      }
+      if (dexCacheKey != null) {
+        dexCache.put(dexCacheKey, new File(dexedClasses));
+      }
     }
 
     // Invoke aapt to package everything up
     out.println("________Invoking AAPT");
+    trace.startStage(BuildTrace.AAPT);
     File deployDir = createDirectory(buildDir, "deploy");
     String tmpPackageName = deployDir.getAbsolutePath() + File.separatorChar +
         project.getProjectName() + ".ap_";
@@ -346,6 +382,7 @@ public final class Compiler {
 
     // Seal the apk with ApkBuilder
     out.println("________Invoking ApkBuilder");
+    trace.startStage(BuildTrace.APK_BUILDER);
     String apkAbsolutePath = deployDir.getAbsolutePath() + File.separatorChar +
         project.getProjectName() + ".apk";
     if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClasses)) {
@@ -354,9 +391,11 @@ public final class Compiler {
 
     // Sign the apk file
     out.println("________Signing the apk file");
+    trace.startStage(BuildTrace.JARSIGNER);
     if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
       return false;
     }
+    trace.endStage();
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -455,31 +494,8 @@ public final class Compiler {
         return false;
       }
 
-      String classpath =
-          getResource(KAWA_RUNTIME) + File.pathSeparator +
-          getResource(SIMPLE_ANDROID_RUNTIME_JAR) + File.pathSeparator +
-          getResource(TWITTER_RUNTIME) + File.pathSeparator +
-          getResource(ANDROID_RUNTIME);
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-mx" + mx + "M",
-          "-cp", classpath,
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
-          "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+      String packagePrefix = Signatures.getPackageName(project.getMainClass()) + ".";
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
@@ -487,9 +503,34 @@ public final class Compiler {
       // YoungAndroidProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      KawaCompilerPool pool = getKawaCompilerPool();
+      if (pool != null) {
+        kawaSuccess = pool.compile(classesDir, packagePrefix, sourceFileNames,
+            new PrintStream(kawaOutputStream));
+      } else {
+        List<String> kawaCommandArgs = Lists.newArrayList();
+        int mx = childProcessRamMb - 200;
+        Collections.addAll(kawaCommandArgs,
+            System.getProperty("java.home") + "/bin/java",
+            "-mx" + mx + "M",
+            "-cp", getKawaClasspath(),
+            "kawa.repl",
+            "-f", yailRuntime,
+            "-d", classesDir.getAbsolutePath(),
+            "-P", packagePrefix,
+            "-C");
+        // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+        // source file names. The resulting .class files contain references to the source file
+        // names, including the name of the tmp directory that contains them. We may be able to
+        // avoid that by using source file names that are relative to the project root and using
+        // the project root as the working directory for the Kawa compiler process.
+        kawaCommandArgs.addAll(sourceFileNames);
+        kawaCommandArgs.add(yailRuntime);
+        String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+        synchronized (SYNC_KAWA_OR_DX) {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        }
       }
       String kawaOutput = kawaOutputStream.toString();
       out.print(kawaOutput);
@@ -514,6 +555,10 @@ public final class Compiler {
       e.printStackTrace();
       userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
       return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      userErrors.print(String.format(ERROR_IN_STAGE, "compile"));
+      return false;
     }
 
     return true;
@@ -594,6 +639,151 @@ public final class Compiler {
     return true;
   }
 
+  /**
+   * Starts a pool of long-lived Kawa compiler processes. Until this is called, every build forks
+   * a new Kawa process.
+   *
+   * @param size the number of Kawa compiler processes. 0 means no pool.
+   * @param childProcessRamMb maximum ram that can be used by a Kawa compiler process, in MB
+   */
+  public static synchronized void startKawaCompilerPool(int size, int childProcessRamMb) {
+    if (size == 0 || kawaCompilerPool != null) {
+      return;
+    }
+    // The worker's main class is in the build server jar.
+    String workerClasspath;
+    try {
+      workerClasspath = getKawaClasspath() + File.pathSeparator + new File(
+          KawaCompilerWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+          .getAbsolutePath();
+    } catch (URISyntaxException e) {
+      throw new RuntimeException(e);
+    }
+    kawaCompilerPool = new KawaCompilerPool(size, MAX_COMPILES_PER_KAWA_WORKER, workerClasspath,
+        getResource(YAIL_RUNTIME), childProcessRamMb);
+    kawaCompilerPool.prestartWorkers();
+  }
+
+  private static synchronized KawaCompilerPool getKawaCompilerPool() {
+    return kawaCompilerPool;
+  }
+
+  /**
+   * Returns the number of Kawa compiler processes allowed in the pool, or 0 if there is no pool.
+   */
+  public static int getKawaCompilerPoolSize() {
+    KawaCompilerPool pool = getKawaCompilerPool();
+    return (pool == null) ? 0 : pool.getSize();
+  }
+
+  /**
+   * Returns the number of idle Kawa compiler processes.
+   */
+  public static int getIdleKawaCompilerCount() {
+    KawaCompilerPool pool = getKawaCompilerPool();
+    return (pool == null) ? 0 : pool.getIdleWorkerCount();
+  }
+
+  /**
+   * Returns the number of Kawa compiler processes started since the build server started.
+   */
+  public static int getStartedKawaCompilerCount() {
+    KawaCompilerPool pool = getKawaCompilerPool();
+    return (pool == null) ? 0 : pool.getStartedWorkerCount();
+  }
+
+  /**
+   * Returns the number of projects currently being compiled by the Kawa compiler pool.
+   */
+  public static int getActiveKawaCompileCount() {
+    KawaCompilerPool pool = getKawaCompilerPool();
+    return (pool == null) ? 0 : pool.getActiveCompileCount();
+  }
+
+  private static String getKawaClasspath() {
+    return getResource(KAWA_RUNTIME) + File.pathSeparator +
+        getResource(SIMPLE_ANDROID_RUNTIME_JAR) + File.pathSeparator +
+        getResource(TWITTER_RUNTIME) + File.pathSeparator +
+        getResource(ANDROID_RUNTIME);
+  }
+
+  /*
+   * Computes the dex cache key for this project. The classes that Kawa generates contain the
+   * absolute path of the temp source files, so we use the YAIL sources, rather than the classes,
+   * to identify the user's code. Returns null if the key cannot be computed.
+   */
+  private String computeDexCacheKey() {
+    try {
+      List<Project.SourceDescriptor> sources = Lists.newArrayList(project.getSources());
+      Collections.sort(sources, new Comparator<Project.SourceDescriptor>() {
+        @Override
+        public int compare(Project.SourceDescriptor source1, Project.SourceDescriptor source2) {
+          return source1.getQualifiedName().compareTo(source2.getQualifiedName());
+        }
+      });
+      FileCache.KeyBuilder keyBuilder = new FileCache.KeyBuilder()
+          .addString(getRuntimeFingerprint())
+          .addString(project.getMainClass());
+      for (Project.SourceDescriptor source : sources) {
+        keyBuilder.addString(source.getQualifiedName()).addFile(source.getFile());
+      }
+      return keyBuilder.build();
+    } catch (IOException e) {
+      // We can still build without the dex cache.
+      LOG.log(Level.WARNING, "YAIL compiler - unable to compute dex cache key.", e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the hash of the content of the runtime files that are compiled or dexed along with
+   * the user's code: the YAIL runtime, the Kawa runtime, the App Inventor component runtime and
+   * the Twitter library.
+   */
+  static synchronized String getRuntimeFingerprint() throws IOException {
+    if (runtimeFingerprint == null) {
+      runtimeFingerprint = new FileCache.KeyBuilder()
+          .addString(FileCache.hashFile(new File(getResource(YAIL_RUNTIME))))
+          .addString(FileCache.hashFile(new File(getResource(SIMPLE_ANDROID_RUNTIME_JAR))))
+          .addString(FileCache.hashFile(new File(getResource(KAWA_RUNTIME))))
+          .addString(FileCache.hashFile(new File(getResource(TWITTER_RUNTIME))))
+          .build();
+      LOG.info("YAIL compiler - runtime fingerprint: " + runtimeFingerprint);
+    }
+    return runtimeFingerprint;
+  }
+
+  /**
+   * Extracts the runtime files and computes their fingerprint so that the first build doesn't
+   * have to. The build server calls this at startup.
+   */
+  public static void prepareRuntime() throws IOException {
+    getRuntimeFingerprint();
+    getResource(DX_JAR);
+    getResource(ANDROID_RUNTIME);
+  }
+
+  /**
+   * Returns the number of cached classes.dex files.
+   */
+  public static int getCachedDexFileCount() {
+    return dexCache.getEntryCount();
+  }
+
+  /**
+   * Returns the number of builds that reused a cached classes.dex file.
+   */
+  public static int getDexCacheHitCount() {
+    return dexCache.getHitCount();
+  }
+
+  /**
+   * Returns the number of builds that had to run DX.
+   */
+  public static int getDexCacheMissCount() {
+    return dexCache.getMissCount();
+  }
+
   private boolean runDx(File classesDir, String dexedClasses) {
     int mx = childProcessRamMb - 200;
     String[] dxCommandLine = {
@@ -713,33 +903,6 @@ public final class Compiler {
     }
   }
 
-  private static void loadComponentPermissions() throws IOException, JSONException {
-    synchronized (componentPermissions) {
-      if (componentPermissions.isEmpty()) {
-        String permissionsJson = Resources.toString(
-            Compiler.class.getResource(COMPONENT_PERMISSIONS), Charsets.UTF_8);
-
-        JSONArray componentsArray = new JSONArray(permissionsJson);
-        int componentslength = componentsArray.length();
-        for (int componentsIndex = 0; componentsIndex < componentslength; componentsIndex++) {
-          JSONObject componentObject = componentsArray.getJSONObject(componentsIndex);
-          String name = componentObject.getString("name");
-
-          Set<String> permissionsForThisComponent = Sets.newHashSet();
-
-          JSONArray permissionsArray = componentObject.getJSONArray("permissions");
-          int permissionsLength = permissionsArray.length();
-          for (int permissionsIndex = 0; permissionsIndex < permissionsLength; permissionsIndex++) {
-            String permission = permissionsArray.getString(permissionsIndex);
-            permissionsForThisComponent.add(permission);
-          }
-
-          componentPermissions.put(name, permissionsForThisComponent);
-        }
-      }
-    }
-  }
-
   /**
    * Creates a new directory (if it doesn't exist already).
    *
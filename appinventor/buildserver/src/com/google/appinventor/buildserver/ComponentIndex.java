@@ -0,0 +1,197 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * An immutable index of the metadata of the App Inventor components: the names of all the
+ * component types and the Android permissions that each one needs.
+ *
+ * <p>The index is loaded once per build server process, from simple_components.txt and
+ * simple_components_permissions.json, and then shared by all builds without locking. Its version
+ * is a hash of those two files, so that build outputs that depend on the metadata can be keyed
+ * by it.
+ */
+final class ComponentIndex {
+  private static final String ALL_COMPONENT_TYPES =
+      Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
+  private static final String COMPONENT_PERMISSIONS =
+      Compiler.RUNTIME_FILES_DIR + "simple_components_permissions.json";
+
+  // The key of the component type in the JSON of a component, with its quotes.
+  private static final String TYPE_KEY = "\"$Type\"";
+
+  // The index, or null until it has been loaded. Don't use this field directly. Call get().
+  private static volatile ComponentIndex instance;
+
+  private final String version;
+  private final ImmutableSet<String> componentTypes;
+  private final ImmutableMap<String, ImmutableSet<String>> componentPermissions;
+
+  private ComponentIndex(String version, ImmutableSet<String> componentTypes,
+      ImmutableMap<String, ImmutableSet<String>> componentPermissions) {
+    this.version = version;
+    this.componentTypes = componentTypes;
+    this.componentPermissions = componentPermissions;
+  }
+
+  /**
+   * Returns the component index, loading it if this is the first call.
+   */
+  static ComponentIndex get() throws IOException, JSONException {
+    ComponentIndex index = instance;
+    if (index == null) {
+      synchronized (ComponentIndex.class) {
+        index = instance;
+        if (index == null) {
+          index = load(
+              Resources.toString(Compiler.class.getResource(ALL_COMPONENT_TYPES), Charsets.UTF_8),
+              Resources.toString(Compiler.class.getResource(COMPONENT_PERMISSIONS),
+                  Charsets.UTF_8));
+          instance = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Creates a component index from the contents of simple_components.txt and
+   * simple_components_permissions.json.
+   */
+  static ComponentIndex load(String componentTypesText, String permissionsJson)
+      throws JSONException {
+    ImmutableSet.Builder<String> componentTypes = ImmutableSet.builder();
+    for (String componentType : componentTypesText.split("\n")) {
+      componentType = componentType.trim();
+      if (!componentType.isEmpty()) {
+        componentTypes.add(componentType);
+      }
+    }
+
+    ImmutableMap.Builder<String, ImmutableSet<String>> componentPermissions =
+        ImmutableMap.builder();
+    JSONArray componentsArray = new JSONArray(permissionsJson);
+    int componentsLength = componentsArray.length();
+    for (int componentsIndex = 0; componentsIndex < componentsLength; componentsIndex++) {
+      JSONObject componentObject = componentsArray.getJSONObject(componentsIndex);
+      String name = componentObject.getString("name");
+
+      ImmutableSet.Builder<String> permissionsForThisComponent = ImmutableSet.builder();
+      JSONArray permissionsArray = componentObject.getJSONArray("permissions");
+      int permissionsLength = permissionsArray.length();
+      for (int permissionsIndex = 0; permissionsIndex < permissionsLength; permissionsIndex++) {
+        permissionsForThisComponent.add(permissionsArray.getString(permissionsIndex));
+      }
+      componentPermissions.put(name, permissionsForThisComponent.build());
+    }
+
+    String version = new FileCache.KeyBuilder()
+        .addString(componentTypesText)
+        .addString(permissionsJson)
+        .build();
+    return new ComponentIndex(version, componentTypes.build(), componentPermissions.build());
+  }
+
+  /**
+   * Returns the hash of the files that the index was loaded from.
+   */
+  String getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the names of all the component types.
+   */
+  ImmutableSet<String> getComponentTypes() {
+    return componentTypes;
+  }
+
+  /**
+   * Returns the Android permissions needed by the given component type, or null if the
+   * component type is unknown.
+   */
+  ImmutableSet<String> getPermissions(String componentType) {
+    return componentPermissions.get(componentType);
+  }
+
+  /**
+   * Returns the component types used in the given form properties file, without parsing its
+   * JSON into objects.
+   *
+   * <p>The scanner walks the $JSON section of the file, keeping track of strings, and collects
+   * the value of every "$Type" key. It is equivalent to
+   * {@link FormPropertiesAnalyzer#getComponentTypesFromFormFile} for well-formed files.
+   *
+   * @throws IllegalArgumentException if the file has no $JSON section or if a "$Type" key has no
+   *     string value
+   */
+  static Set<String> scanComponentTypes(String source) {
+    int start = source.lastIndexOf(FormPropertiesAnalyzer.FORM_PROPERTIES_PREFIX + "$JSON\n");
+    int end = source.lastIndexOf(FormPropertiesAnalyzer.FORM_PROPERTIES_SUFFIX);
+    if (start == -1 || end == -1 || end < start) {
+      throw new IllegalArgumentException("Unable to parse file - cannot locate $JSON section");
+    }
+
+    ImmutableSet.Builder<String> componentTypes = ImmutableSet.builder();
+    int i = start;
+    while (i < end) {
+      if (source.charAt(i) != '"') {
+        i++;
+        continue;
+      }
+      int keyEnd = skipString(source, i, end);
+      int next = skipWhitespace(source, keyEnd, end);
+      if (next < end && source.charAt(next) == ':' && keyEnd - i == TYPE_KEY.length() &&
+          source.startsWith(TYPE_KEY, i)) {
+        int valueStart = skipWhitespace(source, next + 1, end);
+        if (valueStart >= end || source.charAt(valueStart) != '"') {
+          throw new IllegalArgumentException("Unable to parse file - invalid $Type");
+        }
+        int valueEnd = skipString(source, valueStart, end);
+        // Component type names are identifiers, so they never contain escape sequences.
+        componentTypes.add(source.substring(valueStart + 1, valueEnd - 1));
+        i = valueEnd;
+      } else {
+        i = keyEnd;
+      }
+    }
+    return componentTypes.build();
+  }
+
+  /*
+   * Returns the index just after the string that starts with the quote at the given index.
+   */
+  private static int skipString(String source, int quote, int end) {
+    int i = quote + 1;
+    while (i < end) {
+      char c = source.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == '"') {
+        return i + 1;
+      } else {
+        i++;
+      }
+    }
+    return end;
+  }
+
+  private static int skipWhitespace(String source, int i, int end) {
+    while (i < end && Character.isWhitespace(source.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+}
@@ -0,0 +1,233 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An on-disk cache of build outputs, keyed by a hash of the content of the inputs that produced
+ * them.
+ *
+ * <p>The build server uses it to reuse the classes.dex produced by DX when the inputs to DX are
+ * exactly the same as for an earlier build (the runtime jars, identified by their content hash,
+ * and the compiled YAIL sources), and to reuse the whole signed APK when a project is rebuilt
+ * without changes.
+ *
+ * <p>The total size of the cached files is capped. When the cap is exceeded, the least recently
+ * used entries are evicted.
+ */
+final class FileCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(FileCache.class.getName());
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // The maximum total size of the cached files, in bytes. 0 means that caching is disabled.
+  private final long maxBytes;
+
+  // The directory where the cached files are stored. Created lazily.
+  private File cacheDir;
+
+  // Maps cache keys to the cached files, in least recently used order.
+  private final LinkedHashMap<String, File> entries;
+
+  // The total size of the cached files, in bytes.
+  private long totalBytes;
+
+  private int hitCount;
+  private int missCount;
+
+  /**
+   * Creates a new file cache.
+   *
+   * @param maxBytes the maximum total size of the cached files, in bytes. 0 disables caching.
+   */
+  FileCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.entries = new LinkedHashMap<String, File>(16, 0.75f, true);
+  }
+
+  /**
+   * Copies the cached file for the given key to {@code file}.
+   *
+   * @param key the cache key, as returned by a {@link KeyBuilder}
+   * @param file the destination file
+   * @return {@code true} if the key was found and the file copied, {@code false} otherwise
+   */
+  boolean copyTo(String key, File file) {
+    File cachedFile;
+    synchronized (entries) {
+      cachedFile = entries.get(key);
+      if (cachedFile == null) {
+        missCount++;
+        return false;
+      }
+      hitCount++;
+    }
+    try {
+      Files.copy(cachedFile, file);
+      return true;
+    } catch (IOException e) {
+      // The cached file may have been removed from the temp directory. Forget about it.
+      LOG.log(Level.WARNING, "Unable to copy cached file " + cachedFile, e);
+      synchronized (entries) {
+        if (entries.remove(key) != null) {
+          totalBytes -= cachedFile.length();
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Adds a copy of the given file to the cache.
+   *
+   * @param key the cache key, as returned by a {@link KeyBuilder}
+   * @param file the file to cache
+   */
+  void put(String key, File file) {
+    if (maxBytes == 0) {
+      return;
+    }
+    try {
+      File cachedFile;
+      synchronized (entries) {
+        if (entries.containsKey(key)) {
+          return;
+        }
+        if (cacheDir == null) {
+          cacheDir = Files.createTempDir();
+          cacheDir.deleteOnExit();
+        }
+        cachedFile = new File(cacheDir, key);
+      }
+      // Copy to a temp file first so that a concurrent lookup never sees a partial file.
+      File tmpFile = File.createTempFile(key, ".tmp", cachedFile.getParentFile());
+      Files.copy(file, tmpFile);
+      if (!tmpFile.renameTo(cachedFile)) {
+        tmpFile.delete();
+        return;
+      }
+      cachedFile.deleteOnExit();
+      synchronized (entries) {
+        entries.put(key, cachedFile);
+        totalBytes += cachedFile.length();
+        Iterator<Map.Entry<String, File>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+          File evictedFile = iterator.next().getValue();
+          iterator.remove();
+          totalBytes -= evictedFile.length();
+          evictedFile.delete();
+        }
+      }
+    } catch (IOException e) {
+      // Failing to cache is not fatal.
+      LOG.log(Level.WARNING, "Unable to cache file " + file, e);
+    }
+  }
+
+  int getEntryCount() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  long getTotalBytes() {
+    synchronized (entries) {
+      return totalBytes;
+    }
+  }
+
+  int getHitCount() {
+    synchronized (entries) {
+      return hitCount;
+    }
+  }
+
+  int getMissCount() {
+    synchronized (entries) {
+      return missCount;
+    }
+  }
+
+  /**
+   * Builds a cache key from the content of the inputs to a build step.
+   */
+  static final class KeyBuilder {
+    private final MessageDigest digest;
+
+    KeyBuilder() {
+      digest = newDigest();
+    }
+
+    KeyBuilder addString(String s) {
+      byte[] bytes = s.getBytes(Charsets.UTF_8);
+      addInt(bytes.length);
+      digest.update(bytes);
+      return this;
+    }
+
+    KeyBuilder addFile(File file) throws IOException {
+      addInt((int) file.length());
+      digest.update(Files.toByteArray(file));
+      return this;
+    }
+
+    String build() {
+      return toHex(digest.digest());
+    }
+
+    private void addInt(int i) {
+      digest.update((byte) (i >>> 24));
+      digest.update((byte) (i >>> 16));
+      digest.update((byte) (i >>> 8));
+      digest.update((byte) i);
+    }
+  }
+
+  /**
+   * Returns the hex encoded SHA-1 hash of the content of the given file.
+   */
+  static String hashFile(File file) throws IOException {
+    return toHex(Files.getDigest(file, newDigest()));
+  }
+
+  /**
+   * Returns the hex encoded SHA-1 hash of the content of the given input stream.
+   */
+  static String hash(InputSupplier<? extends InputStream> supplier) throws IOException {
+    return toHex(ByteStreams.getDigest(supplier, newDigest()));
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java implementation is required to support SHA-1.
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+}
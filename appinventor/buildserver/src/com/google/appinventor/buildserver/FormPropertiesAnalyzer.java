@@ -17,8 +17,8 @@ import java.util.logging.Logger;
  */
 public class FormPropertiesAnalyzer {
 
-  private static final String FORM_PROPERTIES_PREFIX = "#|\n";
-  private static final String FORM_PROPERTIES_SUFFIX = "\n|#";
+  static final String FORM_PROPERTIES_PREFIX = "#|\n";
+  static final String FORM_PROPERTIES_SUFFIX = "\n|#";
   
   // Logging support
   private static final Logger LOG = Logger.getLogger(FormPropertiesAnalyzer.class.getName());
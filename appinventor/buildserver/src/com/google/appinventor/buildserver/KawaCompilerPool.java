@@ -0,0 +1,139 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of long-lived Kawa compiler processes.
+ *
+ * <p>Forking a Kawa process for each build means paying for JVM startup and for loading
+ * runtime.scm on every build. The processes in this pool load runtime.scm once and then compile
+ * one project at a time, so up to {@code size} projects can be compiled in parallel. See
+ * {@link KawaCompilerWorker} for the protocol.
+ *
+ * <p>The compilers run in separate processes, rather than in the build server itself, because
+ * Kawa keeps global compiler state and calls System.exit when a source file has errors.
+ */
+final class KawaCompilerPool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  private final WorkerProcessPool workers;
+
+  private final AtomicInteger completedCompileCount = new AtomicInteger(0);
+
+  /**
+   * Creates a Kawa compiler pool. No workers are started until {@link #prestartWorkers} or
+   * {@link #compile} is called.
+   *
+   * @param size the maximum number of workers
+   * @param maxCompilesPerWorker the number of compiles after which a worker is replaced
+   * @param classpath the classpath of the worker processes
+   * @param yailRuntime the path of runtime.scm
+   * @param childProcessRamMb the maximum ram that can be used by a worker process, in MB
+   */
+  KawaCompilerPool(int size, int maxCompilesPerWorker, String classpath, String yailRuntime,
+      int childProcessRamMb) {
+    String[] workerCommandLine = {
+        System.getProperty("java.home") + "/bin/java",
+        "-mx" + (childProcessRamMb - 200) + "M",
+        "-cp", classpath,
+        KawaCompilerWorker.class.getName(),
+        yailRuntime
+    };
+    workers = new WorkerProcessPool("Kawa compiler", size, maxCompilesPerWorker,
+        workerCommandLine);
+  }
+
+  /**
+   * Starts all the workers in the background, so that the first builds don't have to wait for
+   * runtime.scm to be loaded.
+   */
+  void prestartWorkers() {
+    workers.prestartWorkers();
+  }
+
+  /**
+   * Compiles the given YAIL source files, together with runtime.scm, into classesDir.
+   *
+   * <p>Blocks until a worker is available.
+   *
+   * @param classesDir the directory where the class files are written
+   * @param packagePrefix the package prefix, including the trailing dot
+   * @param sourceFileNames the absolute paths of the YAIL source files
+   * @param kawaMessages the stream where Kawa warnings and errors are written
+   * @return {@code true} if the worker reported that the sources compiled, {@code false} if
+   *     they didn't or if no worker could be started
+   */
+  boolean compile(File classesDir, String packagePrefix, List<String> sourceFileNames,
+      PrintStream kawaMessages) throws InterruptedException {
+    WorkerProcessPool.Worker worker;
+    try {
+      worker = workers.borrowWorker();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to start Kawa compiler worker", e);
+      return false;
+    }
+
+    File messagesFile = null;
+    try {
+      messagesFile = File.createTempFile("kawa", ".out");
+      List<String> fields = Lists.newArrayList();
+      fields.add(messagesFile.getAbsolutePath());
+      fields.add(classesDir.getAbsolutePath());
+      fields.add(packagePrefix);
+      fields.addAll(sourceFileNames);
+      // If Kawa finds errors, the worker exits without responding. The messages file still has
+      // the errors.
+      String response = worker.process(Joiner.on(KawaCompilerWorker.FIELD_SEPARATOR).join(fields));
+      kawaMessages.print(Files.toString(messagesFile, Charsets.UTF_8));
+      if (KawaCompilerWorker.SUCCESS.equals(response)) {
+        return true;
+      }
+      // Kawa may have been left with half-defined state. Don't reuse the worker.
+      worker.discard();
+      return false;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Kawa compiler worker failed", e);
+      return false;
+    } finally {
+      completedCompileCount.incrementAndGet();
+      if (messagesFile != null) {
+        messagesFile.delete();
+      }
+      workers.returnWorker(worker);
+    }
+  }
+
+  int getSize() {
+    return workers.getSize();
+  }
+
+  int getIdleWorkerCount() {
+    return workers.getIdleWorkerCount();
+  }
+
+  int getStartedWorkerCount() {
+    return workers.getStartedWorkerCount();
+  }
+
+  int getActiveCompileCount() {
+    return workers.getBusyWorkerCount();
+  }
+
+  int getCompletedCompileCount() {
+    return completedCompileCount.get();
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * Main class of a long-lived Kawa compiler process, managed by {@link KawaCompilerPool}.
+ *
+ * <p>The worker loads the YAIL runtime once, when it starts, and then compiles projects on request.
+ * Requests are read from standard input, one per line. Each request is a tab separated list of:
+ * the file where Kawa messages should be written, the classes directory, the package prefix and
+ * the source files to compile. After each request, the worker writes {@link #SUCCESS} or
+ * {@link #FAILURE} to standard output. See {@link WorkerProcessPool}.
+ *
+ * <p>Kawa calls System.exit if a source file has errors. In that case the worker process exits
+ * after writing the Kawa messages, and the pool starts a new worker.
+ *
+ * <p>This class runs in the worker process, so it must only depend on Kawa and the JDK.
+ */
+public final class KawaCompilerWorker {
+  /**
+   * Written to standard output after a request that Kawa compiled without throwing.
+   */
+  static final String SUCCESS = "0";
+
+  /**
+   * Written to standard output after a request that Kawa failed to compile.
+   */
+  static final String FAILURE = "1";
+
+  static final String FIELD_SEPARATOR = "\t";
+
+  private KawaCompilerWorker() {
+  }
+
+  /**
+   * Runs the worker.
+   *
+   * @param args the path of the YAIL runtime (runtime.scm)
+   */
+  public static void main(String[] args) throws IOException {
+    String yailRuntime = args[0];
+
+    // Standard output is reserved for talking to the pool. Anything else that would be written to
+    // standard output goes to standard error instead.
+    PrintStream protocolOut = System.out;
+    final PrintStream processErr = System.err;
+    System.setOut(processErr);
+
+    // Flush the Kawa messages if Kawa calls System.exit.
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        System.err.flush();
+      }
+    });
+
+    kawa.repl.processArgs(new String[] { "-f", yailRuntime }, 0, 2);
+    protocolOut.println(WorkerProcessPool.READY);
+    protocolOut.flush();
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] fields = line.split(FIELD_SEPARATOR);
+      PrintStream kawaMessages = new PrintStream(new FileOutputStream(fields[0]), true, "UTF-8");
+      System.setErr(kawaMessages);
+      String status = SUCCESS;
+      try {
+        String[] kawaArgs = new String[fields.length + 3];
+        kawaArgs[0] = "-d";
+        kawaArgs[1] = fields[1];
+        kawaArgs[2] = "-P";
+        kawaArgs[3] = fields[2];
+        kawaArgs[4] = "-C";
+        System.arraycopy(fields, 3, kawaArgs, 5, fields.length - 3);
+        kawaArgs[kawaArgs.length - 1] = yailRuntime;
+        kawa.repl.processArgs(kawaArgs, 0, kawaArgs.length);
+      } catch (Throwable e) {
+        e.printStackTrace();
+        status = FAILURE;
+      } finally {
+        System.setErr(processErr);
+        kawaMessages.close();
+      }
+      protocolOut.println(status);
+      protocolOut.flush();
+    }
+  }
+}
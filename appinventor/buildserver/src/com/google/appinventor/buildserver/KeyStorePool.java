@@ -0,0 +1,274 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Creates the android.keystore files of projects that don't have one yet.
+ *
+ * <p>Generating the RSA key pair is the slow part of creating a keystore. A background thread
+ * keeps a number of key pairs ready, so that a first build only has to create the self-signed
+ * certificate, whose distinguished name contains the user name, and write the keystore. The
+ * result is the same as what {@code keytool -genkey} produces in
+ * {@link ProjectBuilder#createKeyStore}, without forking a process.
+ *
+ * <p>When no key pair is ready, one is generated while the build waits.
+ */
+final class KeyStorePool {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KeyStorePool.class.getName());
+
+  // These must match the keytool command line in ProjectBuilder.createKeyStore and the jarsigner
+  // command line in Compiler.
+  private static final String KEY_ALIAS = "AndroidKey";
+  private static final char[] PASSWORD = "android".toCharArray();
+  private static final int KEY_SIZE = ProjectBuilder.KEYSTORE_KEY_SIZE;
+  private static final int VALIDITY_DAYS = 10000;
+
+  // The algorithm of the certificate's self-signature, which is what keytool uses by default for
+  // RSA keys since Java 7. Neither jarsigner nor Android checks the self-signature of the
+  // certificate; the APK itself is signed with the algorithms that Compiler passes to jarsigner.
+  static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+  // DER encoded object identifier of SIGNATURE_ALGORITHM.
+  private static final byte[] SHA256_WITH_RSA_OID =
+      { 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x0b };
+
+  // DER tags.
+  private static final int INTEGER = 0x02;
+  private static final int BIT_STRING = 0x03;
+  private static final int NULL = 0x05;
+  private static final int OBJECT_IDENTIFIER = 0x06;
+  private static final int UTC_TIME = 0x17;
+  private static final int GENERALIZED_TIME = 0x18;
+  private static final int SEQUENCE = 0x30;
+
+  private final int size;
+  // Null if size is 0.
+  private final BlockingQueue<KeyPair> readyKeyPairs;
+  private final SecureRandom random = new SecureRandom();
+
+  private final AtomicInteger hitCount = new AtomicInteger(0);
+  private final AtomicInteger missCount = new AtomicInteger(0);
+
+  /**
+   * Creates a KeyStorePool.
+   *
+   * @param size the number of key pairs to keep ready. 0 means that every key pair is generated
+   *     while the build waits.
+   */
+  KeyStorePool(int size) {
+    this.size = size;
+    readyKeyPairs = (size > 0) ? new LinkedBlockingQueue<KeyPair>(size) : null;
+  }
+
+  /**
+   * Starts the background thread that fills the pool, and refills it as key pairs are used. No
+   * thread is started if the size of the pool is 0.
+   */
+  void start() {
+    if (readyKeyPairs == null) {
+      return;
+    }
+    Thread refiller = new Thread("KeyStorePool refiller") {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            readyKeyPairs.put(generateKeyPair());
+          }
+        } catch (InterruptedException e) {
+          // The build server is shutting down.
+        } catch (GeneralSecurityException e) {
+          LOG.log(Level.SEVERE, "Unable to generate key pairs", e);
+        }
+      }
+    };
+    // Builds take precedence over refilling the pool.
+    refiller.setPriority(Thread.MIN_PRIORITY);
+    refiller.setDaemon(true);
+    refiller.start();
+  }
+
+  /**
+   * Writes a new keystore for the given user.
+   *
+   * @param userName the user name, which becomes the common name of the certificate
+   * @param keyStoreFile the keystore file to write
+   * @return the absolute path of the keystore file, or null if it could not be created
+   */
+  String createKeyStore(String userName, File keyStoreFile) {
+    try {
+      KeyPair keyPair = (readyKeyPairs != null) ? readyKeyPairs.poll() : null;
+      if (keyPair != null) {
+        hitCount.incrementAndGet();
+      } else {
+        missCount.incrementAndGet();
+        keyPair = generateKeyPair();
+      }
+      writeKeyStore(keyPair, userName, new Date(), keyStoreFile);
+      return keyStoreFile.getAbsolutePath();
+    } catch (GeneralSecurityException e) {
+      LOG.log(Level.SEVERE, "Unable to create keystore", e);
+    } catch (IOException e) {
+      LOG.log(Level.SEVERE, "Unable to create keystore", e);
+    }
+    return null;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns the number of key pairs that are ready to be used.
+   */
+  int getReadyCount() {
+    return (readyKeyPairs != null) ? readyKeyPairs.size() : 0;
+  }
+
+  /**
+   * Returns the number of keystores created with a key pair that was ready.
+   */
+  int getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of keystores whose key pair was generated while the build waited.
+   */
+  int getMissCount() {
+    return missCount.get();
+  }
+
+  private KeyPair generateKeyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(KEY_SIZE, random);
+    return generator.generateKeyPair();
+  }
+
+  /**
+   * Writes a JKS keystore holding the given key pair and a self-signed certificate for the given
+   * user, valid from the given date.
+   */
+  void writeKeyStore(KeyPair keyPair, String userName, Date notBefore, File keyStoreFile)
+      throws GeneralSecurityException, IOException {
+    Certificate certificate = CertificateFactory.getInstance("X.509").generateCertificate(
+        new ByteArrayInputStream(createCertificate(keyPair, userName, notBefore)));
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    keyStore.load(null, PASSWORD);
+    keyStore.setKeyEntry(KEY_ALIAS, keyPair.getPrivate(), PASSWORD,
+        new Certificate[] { certificate });
+    OutputStream out = new FileOutputStream(keyStoreFile);
+    try {
+      keyStore.store(out, PASSWORD);
+    } finally {
+      out.close();
+    }
+  }
+
+  /*
+   * Returns the DER encoding of an X.509 v1 certificate for the public key of the given key pair,
+   * signed with its private key.
+   */
+  private byte[] createCertificate(KeyPair keyPair, String userName, Date notBefore)
+      throws GeneralSecurityException, IOException {
+    Calendar notAfter = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    notAfter.setTime(notBefore);
+    notAfter.add(Calendar.DAY_OF_YEAR, VALIDITY_DAYS);
+
+    // The issuer and the subject are the same. The distinguished name is parsed the same way
+    // keytool parses its -dname argument.
+    byte[] name = new X500Principal(ProjectBuilder.distinguishedName(userName)).getEncoded();
+    byte[] signatureAlgorithm = der(SEQUENCE,
+        der(OBJECT_IDENTIFIER, SHA256_WITH_RSA_OID),
+        der(NULL));
+    byte[] tbsCertificate = der(SEQUENCE,
+        der(INTEGER, new BigInteger(63, random).add(BigInteger.ONE).toByteArray()),
+        signatureAlgorithm,
+        name,
+        der(SEQUENCE, derTime(notBefore), derTime(notAfter.getTime())),
+        name,
+        // The X.509 encoding of a public key is a DER SubjectPublicKeyInfo.
+        keyPair.getPublic().getEncoded());
+
+    Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+    signature.initSign(keyPair.getPrivate());
+    signature.update(tbsCertificate);
+    byte[] signatureBytes = signature.sign();
+    // A bit string starts with the number of unused bits in its last byte.
+    byte[] bitString = new byte[signatureBytes.length + 1];
+    System.arraycopy(signatureBytes, 0, bitString, 1, signatureBytes.length);
+
+    return der(SEQUENCE, tbsCertificate, signatureAlgorithm, der(BIT_STRING, bitString));
+  }
+
+  /*
+   * Returns the DER encoding of the given time. RFC 5280 requires UTCTime until 2049 and
+   * GeneralizedTime from 2050 on.
+   */
+  private static byte[] derTime(Date date) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.setTime(date);
+    boolean utcTime = calendar.get(Calendar.YEAR) < 2050;
+    SimpleDateFormat format =
+        new SimpleDateFormat(utcTime ? "yyMMddHHmmss'Z'" : "yyyyMMddHHmmss'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return der(utcTime ? UTC_TIME : GENERALIZED_TIME,
+        format.format(date).getBytes(Charsets.US_ASCII));
+  }
+
+  /*
+   * Returns the DER encoding of a value with the given tag, whose content is the concatenation of
+   * the given byte arrays.
+   */
+  private static byte[] der(int tag, byte[]... contents) {
+    int length = 0;
+    for (byte[] content : contents) {
+      length += content.length;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+    out.write(tag);
+    if (length < 0x80) {
+      out.write(length);
+    } else {
+      int lengthBytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+      out.write(0x80 | lengthBytes);
+      for (int i = lengthBytes - 1; i >= 0; i--) {
+        out.write(length >>> (8 * i));
+      }
+    }
+    for (byte[] content : contents) {
+      out.write(content, 0, content.length);
+    }
+    return out.toByteArray();
+  }
+}
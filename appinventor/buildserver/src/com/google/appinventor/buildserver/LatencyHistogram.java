@@ -0,0 +1,173 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import java.util.Arrays;
+
+/**
+ * Records durations, in milliseconds, and reports their percentiles.
+ *
+ * <p>Percentiles are available both since the build server started and over a rolling window of
+ * recent samples. Since the server started, durations are counted in log-linear buckets: each
+ * range from one power of two to the next is split into {@link #SUB_BUCKETS} buckets of equal
+ * width. Those percentiles are the upper bound of the bucket that holds the percentile, capped at
+ * the longest duration recorded, so they are at most 1/{@value #SUB_BUCKETS} too high. For
+ * example, a 20000 ms duration is reported as at most 20479 ms. The window keeps the actual
+ * durations of at most
+ * {@link #WINDOW_SAMPLES} samples recorded in the last {@code windowMillis} milliseconds, so its
+ * percentiles are exact.
+ */
+final class LatencyHistogram {
+  // The maximum number of samples in the rolling window.
+  static final int WINDOW_SAMPLES = 1000;
+
+  // The number of buckets between two consecutive powers of two.
+  static final int SUB_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 4;
+
+  // Durations below SUB_BUCKETS ms each have their own bucket. Above that, the durations from
+  // 2^e to 2^(e+1) - 1 ms are split into SUB_BUCKETS buckets, for e up to MAX_EXPONENT. The last
+  // bucket also counts all longer durations.
+  private static final int MAX_EXPONENT = 31;
+  private static final int BUCKET_COUNT =
+      SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final long windowMillis;
+
+  // All of the following fields are guarded by this.
+
+  private final long[] bucketCounts = new long[BUCKET_COUNT];
+  private long count;
+  private long max;
+
+  // The samples in the rolling window, used as circular buffers.
+  private final long[] sampleTimes = new long[WINDOW_SAMPLES];
+  private final long[] sampleDurations = new long[WINDOW_SAMPLES];
+  private int sampleCount;
+  private int nextSampleIndex;
+
+  /**
+   * Creates a LatencyHistogram.
+   *
+   * @param windowMillis the length of the rolling window, in milliseconds
+   */
+  LatencyHistogram(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param millis the duration, in milliseconds
+   */
+  synchronized void record(long millis) {
+    millis = Math.max(0, millis);
+    bucketCounts[bucketOf(millis)]++;
+    count++;
+    max = Math.max(max, millis);
+
+    sampleTimes[nextSampleIndex] = System.currentTimeMillis();
+    sampleDurations[nextSampleIndex] = millis;
+    nextSampleIndex = (nextSampleIndex + 1) % WINDOW_SAMPLES;
+    sampleCount = Math.min(sampleCount + 1, WINDOW_SAMPLES);
+  }
+
+  /**
+   * Returns the number of durations recorded since the build server started.
+   */
+  synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the approximate given percentile of the durations recorded since the build server
+   * started, in milliseconds, or 0 if nothing was recorded.
+   *
+   * @param percentile a number between 0 and 100
+   */
+  synchronized long getPercentile(int percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = rank(percentile, count);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += bucketCounts[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Returns the number of durations recorded in the rolling window.
+   */
+  synchronized int getWindowCount() {
+    return getWindowSamples().length;
+  }
+
+  /**
+   * Returns the given percentile of the durations recorded in the rolling window, in
+   * milliseconds, or 0 if nothing was recorded in the window.
+   *
+   * @param percentile a number between 0 and 100
+   */
+  synchronized long getWindowPercentile(int percentile) {
+    long[] samples = getWindowSamples();
+    if (samples.length == 0) {
+      return 0;
+    }
+    Arrays.sort(samples);
+    return samples[(int) rank(percentile, samples.length) - 1];
+  }
+
+  /*
+   * Returns the durations of the samples that are still in the rolling window. Must be called
+   * while holding the lock.
+   */
+  private long[] getWindowSamples() {
+    long oldest = System.currentTimeMillis() - windowMillis;
+    long[] samples = new long[sampleCount];
+    int n = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      if (sampleTimes[i] >= oldest) {
+        samples[n++] = sampleDurations[i];
+      }
+    }
+    return Arrays.copyOf(samples, n);
+  }
+
+  /*
+   * Returns the 1-based rank of the given percentile among count values.
+   */
+  private static long rank(int percentile, long count) {
+    long rank = (long) Math.ceil(percentile / 100.0 * count);
+    return Math.max(1, Math.min(rank, count));
+  }
+
+  static int bucketOf(long millis) {
+    if (millis < SUB_BUCKETS) {
+      return (int) millis;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(millis);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (millis >> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  /*
+   * Returns the longest duration, in milliseconds, counted in the given bucket.
+   */
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+}
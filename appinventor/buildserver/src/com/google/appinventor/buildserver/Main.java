@@ -76,7 +76,8 @@ public final class Main {
                                          zip,
                                          commandLineOptions.outputDir,
                                          commandLineOptions.isForStemCellApp,
-                                         commandLineOptions.childProcessRamMb);
+                                         commandLineOptions.childProcessRamMb,
+                                         new BuildTrace());
     System.exit(result.getResult());
   }
 
@@ -12,7 +12,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
-import com.google.common.io.Resources;
+
+import org.codehaus.jettison.json.JSONException;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -22,9 +23,14 @@ import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -56,6 +62,9 @@ public final class ProjectBuilder {
                                                             "project.properties";
   private static final String KEYSTORE_FILE_NAME = YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION;
 
+  // The size of the RSA keys of new keystores.
+  static final int KEYSTORE_KEY_SIZE = 2048;
+
   private static final String FORM_PROPERTIES_EXTENSION =
       YoungAndroidConstants.FORM_PROPERTIES_EXTENSION;
   private static final String YAIL_EXTENSION = YoungAndroidConstants.YAIL_EXTENSION;
@@ -63,8 +72,28 @@ public final class ProjectBuilder {
   private static final String CODEBLOCKS_SOURCE_EXTENSION =
       YoungAndroidConstants.CODEBLOCKS_SOURCE_EXTENSION;
 
-  private static final String ALL_COMPONENT_TYPES =
-      Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
+  private static final String YAIL_GENERATOR_JAR =
+      Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar";
+
+  // The number of forms after which a YailGenerator process is replaced.
+  private static final int MAX_FORMS_PER_YAIL_GENERATOR = 200;
+
+  // The pool of YailGenerator processes, or null if we start a new YailGenerator process for
+  // every form.
+  private static WorkerProcessPool yailGeneratorPool;
+
+  // Appended to a build cache key to get the key of the compiler messages for that build.
+  private static final String MESSAGES_KEY_SUFFIX = "-messages";
+
+  // The cache of signed APKs and compiler messages from earlier builds, or null if builds are not
+  // cached.
+  private static FileCache buildCache;
+
+  private static final AtomicInteger buildCacheHits = new AtomicInteger(0);
+  private static final AtomicInteger buildCacheMisses = new AtomicInteger(0);
+
+  // The pool of key pairs for new keystores, or null if we run keytool for every new keystore.
+  private static KeyStorePool keyStorePool;
 
   public File getOutputApk() {
     return outputApk;
@@ -107,12 +136,31 @@ public final class ProjectBuilder {
   }
 
   Result build(String userName, ZipFile inputZip, File outputDir, boolean isForRepl,
-               int childProcessRam) {
+               int childProcessRam, BuildTrace trace) {
+    long start = System.currentTimeMillis();
     try {
       // Download project files into a temporary directory
       File projectRoot = createNewTempDir();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
       try {
+        // If an identical project was built before, reuse the result without extracting the
+        // project files.
+        trace.startStage(BuildTrace.BUILD_CACHE_LOOKUP);
+        FileCache cache = getBuildCache();
+        String buildCacheKey = (cache == null)
+            ? null
+            : computeBuildCacheKey(inputZip, isForRepl);
+        if (buildCacheKey != null) {
+          Result cachedResult = getCachedResult(cache, buildCacheKey, inputZip, projectRoot,
+                                                outputDir);
+          if (cachedResult != null) {
+            buildCacheHits.incrementAndGet();
+            return cachedResult;
+          }
+          buildCacheMisses.incrementAndGet();
+        }
+
+        trace.startStage(BuildTrace.ZIP_EXTRACTION);
         List<String> sourceFiles;
         try {
           sourceFiles = extractProjectFiles(inputZip, projectRoot);
@@ -121,6 +169,7 @@ public final class ProjectBuilder {
           return Result.createFailingResult("", "Problems processing zip file.");
         }
 
+        trace.startStage(BuildTrace.YAIL_GENERATION);
         try {
           genYailFilesIfNecessary(sourceFiles);
         } catch (YailGenerationException e) {
@@ -135,9 +184,14 @@ public final class ProjectBuilder {
         File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
         String keyStorePath = keyStoreFile.getPath();
         if (!keyStoreFile.exists()) {
-          keyStorePath = createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME);
+          trace.startStage(BuildTrace.KEYSTORE_GENERATION);
+          KeyStorePool pool = getKeyStorePool();
+          keyStorePath = (pool == null)
+              ? createKeyStore(userName, projectRoot, KEYSTORE_FILE_NAME)
+              : pool.createKeyStore(userName, keyStoreFile);
           saveKeystore = true;
         }
+        trace.endStage();
 
         // Create project object from project properties file.
         Project project = getProjectProperties(projectRoot);
@@ -157,7 +211,7 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForRepl,
-                             keyStorePath, childProcessRam);
+                             keyStorePath, childProcessRam, trace);
         console.close();
         userErrors.close();
 
@@ -173,8 +227,16 @@ public final class ProjectBuilder {
           if (!outputFile.exists()) {
             LOG.warning("Young Android build - " + outputFile + " does not exist");
           } else {
+            if (buildCacheKey != null) {
+              File messagesFile = new File(buildTmpDir, "messages.txt");
+              Files.write(messages, messagesFile, Charsets.UTF_8);
+              cache.put(buildCacheKey, outputFile);
+              cache.put(buildCacheKey + MESSAGES_KEY_SUFFIX, messagesFile);
+            }
+            // The project root is deleted below, so move the APK rather than copy it. Both are in
+            // the temp directory, so this is usually just a rename.
             outputApk = new File(outputDir, outputFile.getName());
-            Files.copy(outputFile, outputApk);
+            Files.move(outputFile, outputApk);
             if (saveKeystore) {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
               Files.copy(keyStoreFile, outputKeystore);
@@ -183,6 +245,8 @@ public final class ProjectBuilder {
         }
         return new Result(success, messages, errors.toString(PathUtil.DEFAULT_CHARSET));
       } finally {
+        trace.endStage();
+        trace.recordStage(BuildTrace.TOTAL, System.currentTimeMillis() - start);
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
         Files.deleteRecursively(new File(projectRoot.getCanonicalPath()));
@@ -193,6 +257,128 @@ public final class ProjectBuilder {
     }
   }
 
+  /*
+   * Computes the build cache key for the project in the input zip, without extracting it. The key
+   * covers the content of every file in the project: the blocks, the form properties and YAIL,
+   * the assets, project.properties and the keystore. The set of components is derived from the
+   * form properties, so it is covered too, and the version of the component index covers the
+   * permissions of those components. Returns null if the project must not be cached.
+   */
+  private static String computeBuildCacheKey(final ZipFile inputZip, boolean isForRepl) {
+    // If the project has no keystore, the build generates a new one, so the signed APK will be
+    // different every time.
+    if (inputZip.getEntry(KEYSTORE_FILE_NAME) == null) {
+      return null;
+    }
+    try {
+      List<ZipEntry> entries = Lists.newArrayList();
+      Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
+      while (inputZipEnumeration.hasMoreElements()) {
+        ZipEntry zipEntry = inputZipEnumeration.nextElement();
+        if (!zipEntry.isDirectory()) {
+          entries.add(zipEntry);
+        }
+      }
+      Collections.sort(entries, new Comparator<ZipEntry>() {
+        @Override
+        public int compare(ZipEntry entry1, ZipEntry entry2) {
+          return entry1.getName().compareTo(entry2.getName());
+        }
+      });
+      FileCache.KeyBuilder keyBuilder = new FileCache.KeyBuilder()
+          .addString(Compiler.getRuntimeFingerprint())
+          .addString(ComponentIndex.get().getVersion())
+          .addString(String.valueOf(isForRepl));
+      for (final ZipEntry zipEntry : entries) {
+        keyBuilder.addString(zipEntry.getName()).addString(FileCache.hash(
+            new InputSupplier<InputStream>() {
+              public InputStream getInput() throws IOException {
+                return inputZip.getInputStream(zipEntry);
+              }
+            }));
+      }
+      return keyBuilder.build();
+    } catch (IOException e) {
+      // We can still build without the build cache.
+      LOG.log(Level.WARNING, "Unable to compute build cache key.", e);
+      return null;
+    } catch (JSONException e) {
+      LOG.log(Level.WARNING, "Unable to compute build cache key.", e);
+      return null;
+    }
+  }
+
+  /*
+   * Returns the cached result for the given build cache key, copying the cached APK to outputDir,
+   * or null if there is no cached result.
+   */
+  private Result getCachedResult(FileCache cache, String buildCacheKey, ZipFile inputZip,
+      File projectRoot, File outputDir) throws IOException {
+    ZipEntry propertiesEntry = inputZip.getEntry(PROJECT_PROPERTIES_FILE_NAME);
+    if (propertiesEntry == null) {
+      return null;
+    }
+    Properties properties = new Properties();
+    InputStream in = inputZip.getInputStream(propertiesEntry);
+    try {
+      properties.load(in);
+    } finally {
+      in.close();
+    }
+    // The APK is named after the project. See Project.getProjectName().
+    File cachedApk = new File(outputDir, properties.getProperty("name") + ".apk");
+    File messagesFile = File.createTempFile("messages", ".txt", projectRoot);
+    if (!cache.copyTo(buildCacheKey, cachedApk)) {
+      return null;
+    }
+    if (!cache.copyTo(buildCacheKey + MESSAGES_KEY_SUFFIX, messagesFile)) {
+      cachedApk.delete();
+      return null;
+    }
+    LOG.info("Using cached build " + buildCacheKey);
+    outputApk = cachedApk;
+    return new Result(true, Files.toString(messagesFile, Charsets.UTF_8), "");
+  }
+
+  /**
+   * Creates the cache of signed APKs that lets an unchanged project be rebuilt without running
+   * the compiler. Until this is called, builds are not cached.
+   *
+   * @param maxBytes the maximum total size of the cached files, in bytes. 0 means no cache.
+   */
+  public static synchronized void createBuildCache(long maxBytes) {
+    if (maxBytes == 0 || buildCache != null) {
+      return;
+    }
+    buildCache = new FileCache(maxBytes);
+  }
+
+  private static synchronized FileCache getBuildCache() {
+    return buildCache;
+  }
+
+  /**
+   * Returns the total size of the files in the build cache, in bytes.
+   */
+  public static long getBuildCacheBytes() {
+    FileCache cache = getBuildCache();
+    return (cache == null) ? 0 : cache.getTotalBytes();
+  }
+
+  /**
+   * Returns the number of builds that reused a cached APK.
+   */
+  public static int getBuildCacheHitCount() {
+    return buildCacheHits.get();
+  }
+
+  /**
+   * Returns the number of cacheable builds that had to run the compiler.
+   */
+  public static int getBuildCacheMissCount() {
+    return buildCacheMisses.get();
+  }
+
   private void genYailFilesIfNecessary(List<String> sourceFiles)
       throws IOException, YailGenerationException {
     // Filter out the files that aren't really source files (i.e. that don't end in .scm or .yail)
@@ -204,6 +390,7 @@ public final class ProjectBuilder {
             return input.endsWith(FORM_PROPERTIES_EXTENSION) || input.endsWith(YAIL_EXTENSION);
           }
         });
+    List<String> rootPaths = Lists.newArrayList();
     for (String sourceFile : formAndYailSourceFiles) {
       if (sourceFile.endsWith(FORM_PROPERTIES_EXTENSION)) {
         String rootPath = sourceFile.substring(0, sourceFile.length()
@@ -212,20 +399,126 @@ public final class ProjectBuilder {
         // Note: Famous last words: The following contains() makes this method O(n**2) but n should
         // be pretty small.
         if (!sourceFiles.contains(yailFilePath)) {
-          generateYail(rootPath);
+          rootPaths.add(rootPath);
         }
       }
     }
+    if (rootPaths.isEmpty()) {
+      return;
+    }
+
+    WorkerProcessPool pool = getYailGeneratorPool();
+    if (pool != null) {
+      generateYailWithPool(pool, rootPaths);
+    } else {
+      for (String rootPath : rootPaths) {
+        generateYail(rootPath);
+      }
+    }
   }
 
-  private static Set<String> getAllComponentTypes() throws IOException {
-    Set<String> compSet = Sets.newHashSet();
-    String[] components = Resources.toString(
-        ProjectBuilder.class.getResource(ALL_COMPONENT_TYPES), Charsets.UTF_8).split("\n");
-    for (String component : components) {
-      compSet.add(component);
+  /**
+   * Starts a pool of long-lived YailGenerator processes. Until this is called, a new
+   * YailGenerator process is started for every form that needs YAIL.
+   *
+   * @param size the number of YailGenerator processes. 0 means no pool.
+   */
+  public static synchronized void startYailGeneratorPool(int size) {
+    if (size == 0 || yailGeneratorPool != null) {
+      return;
     }
-    return compSet;
+    String[] commandLine = {
+      System.getProperty("java.home") + "/bin/java",
+      "-mx1024M",
+      "-jar",
+      Compiler.getResource(YAIL_GENERATOR_JAR),
+      "--server"
+    };
+    yailGeneratorPool = new WorkerProcessPool("YailGenerator", size,
+        MAX_FORMS_PER_YAIL_GENERATOR, commandLine);
+    yailGeneratorPool.prestartWorkers();
+  }
+
+  private static synchronized WorkerProcessPool getYailGeneratorPool() {
+    return yailGeneratorPool;
+  }
+
+  /**
+   * Returns the number of YailGenerator processes allowed in the pool, or 0 if there is no pool.
+   */
+  public static int getYailGeneratorPoolSize() {
+    WorkerProcessPool pool = getYailGeneratorPool();
+    return (pool == null) ? 0 : pool.getSize();
+  }
+
+  /**
+   * Returns the number of YailGenerator processes that are generating YAIL.
+   */
+  public static int getBusyYailGeneratorCount() {
+    WorkerProcessPool pool = getYailGeneratorPool();
+    return (pool == null) ? 0 : pool.getBusyWorkerCount();
+  }
+
+  /**
+   * Returns the number of YailGenerator processes started since the build server started.
+   */
+  public static int getStartedYailGeneratorCount() {
+    WorkerProcessPool pool = getYailGeneratorPool();
+    return (pool == null) ? 0 : pool.getStartedWorkerCount();
+  }
+
+  /**
+   * Starts generating the key pairs of new keystores in the background. Until this is called,
+   * keytool is run for every project that has no keystore.
+   *
+   * @param size the number of key pairs to keep ready
+   */
+  public static synchronized void startKeyStorePool(int size) {
+    if (keyStorePool != null) {
+      return;
+    }
+    keyStorePool = new KeyStorePool(size);
+    keyStorePool.start();
+  }
+
+  private static synchronized KeyStorePool getKeyStorePool() {
+    return keyStorePool;
+  }
+
+  /**
+   * Returns the number of key pairs kept ready for new keystores, or 0 if there is no pool.
+   */
+  public static int getKeyStorePoolSize() {
+    KeyStorePool pool = getKeyStorePool();
+    return (pool == null) ? 0 : pool.getSize();
+  }
+
+  /**
+   * Returns the number of key pairs that are ready for new keystores.
+   */
+  public static int getReadyKeyPairCount() {
+    KeyStorePool pool = getKeyStorePool();
+    return (pool == null) ? 0 : pool.getReadyCount();
+  }
+
+  /**
+   * Returns the number of new keystores whose key pair was ready.
+   */
+  public static int getKeyStorePoolHitCount() {
+    KeyStorePool pool = getKeyStorePool();
+    return (pool == null) ? 0 : pool.getHitCount();
+  }
+
+  /**
+   * Returns the number of new keystores whose key pair was generated while the build waited.
+   */
+  public static int getKeyStorePoolMissCount() {
+    KeyStorePool pool = getKeyStorePool();
+    return (pool == null) ? 0 : pool.getMissCount();
+  }
+
+  private static Set<String> getAllComponentTypes() throws IOException, JSONException {
+    return ComponentIndex.get().getComponentTypes();
   }
 
   private ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
@@ -279,7 +572,8 @@ public final class ProjectBuilder {
         "-keystore", keyStoreFile.getAbsolutePath(),
         "-alias", "AndroidKey",
         "-keyalg", "RSA",
-        "-dname", "CN=" + quotifyUserName(userName) + ", O=AppInventor for Android, C=US",
+        "-keysize", Integer.toString(KEYSTORE_KEY_SIZE),
+        "-dname", distinguishedName(userName),
         "-validity", "10000",
         "-storepass", "android",
         "-keypass", "android"
@@ -295,7 +589,7 @@ public final class ProjectBuilder {
 
   @VisibleForTesting
   static Set<String> getTypesFromScm(String scm) {
-    return FormPropertiesAnalyzer.getComponentTypesFromFormFile(scm);
+    return ComponentIndex.scanComponentTypes(scm);
   }
 
   @VisibleForTesting
@@ -377,6 +671,13 @@ public final class ProjectBuilder {
     return messages;
   }
 
+  /*
+   * Returns the distinguished name of the keystore certificate of the given user.
+   */
+  static String distinguishedName(String userName) {
+    return "CN=" + quotifyUserName(userName) + ", O=AppInventor for Android, C=US";
+  }
+
   /*
    * Adds quotes around the given userName and encodes embedded quotes as \".
    */
@@ -413,7 +714,7 @@ public final class ProjectBuilder {
       System.getProperty("java.home") + "/bin/java",
       "-mx1024M",
       "-jar",
-      Compiler.getResource(Compiler.RUNTIME_FILES_DIR + "YailGenerator.jar"),
+      Compiler.getResource(YAIL_GENERATOR_JAR),
       new File(formPropertiesPath).getAbsolutePath(),
       new File(codeblocksSourcePath).getAbsolutePath(),
       yailPath
@@ -444,6 +745,57 @@ public final class ProjectBuilder {
     }
   }
 
+  /*
+   * Generates YAIL for all the given forms, using one of the YailGenerator processes in the pool.
+   */
+  private void generateYailWithPool(WorkerProcessPool pool, List<String> rootNames)
+      throws IOException, YailGenerationException {
+    WorkerProcessPool.Worker worker;
+    try {
+      worker = pool.borrowWorker();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for YailGenerator");
+    }
+    File messagesFile = File.createTempFile("yail", ".out");
+    try {
+      for (String rootName : rootNames) {
+        String formPropertiesPath = rootName + FORM_PROPERTIES_EXTENSION;
+        String codeblocksSourcePath = rootName + CODEBLOCKS_SOURCE_EXTENSION;
+        String yailPath = rootName + YAIL_EXTENSION;
+        String formName = PathUtil.trimOffExtension(PathUtil.basename(formPropertiesPath));
+
+        String request = new File(formPropertiesPath).getAbsolutePath() + "\t" +
+            new File(codeblocksSourcePath).getAbsolutePath() + "\t" +
+            yailPath + "\t" +
+            messagesFile.getAbsolutePath();
+        String response = worker.process(request);
+        if ("0".equals(response)) {
+          continue;
+        }
+        // Don't reuse a YailGenerator that failed, since its workspace may have been left half
+        // loaded and would leak into the next project.
+        worker.discard();
+        String err = messagesFile.exists()
+            ? Files.toString(messagesFile, Charsets.UTF_8)
+            : "";
+        if ("1".equals(response)) {
+          // Failed to generate yail for legitimate reasons, such as empty sockets.
+          throw new YailGenerationException("Unable to generate code for " + formName + "."
+              + "\n -- err is " + err,
+              formName);
+        }
+        // Any other response is unexpected.
+        throw new RuntimeException("YailGenerator for form " + formName
+            + ((response == null) ? " exited" : " failed with code " + response)
+            + "\n -- err is " + err);
+      }
+    } finally {
+      messagesFile.delete();
+      pool.returnWorker(worker);
+    }
+  }
+
   private static class YailGenerationException extends Exception {
     // The name of the form being built when an error occurred
     private final String formName;
@@ -0,0 +1,265 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.yailgenerator.YailGenerator;
+import com.google.common.base.Charsets;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of long-lived worker processes.
+ *
+ * <p>A worker process reads requests from its standard input, one per line, and writes exactly one
+ * response line to its standard output for each request. When it starts, and before it reads its
+ * first request, it writes {@link #READY} to its standard output. Anything the worker writes to
+ * its standard error is copied to the build server's standard output.
+ *
+ * <p>Running the workers in separate processes isolates the build server from crashes and from
+ * global state in the tools that they run. A worker that exits is replaced by a new one. A worker
+ * is also replaced after it has processed {@code maxRequestsPerWorker} requests, so that memory
+ * held by the tool doesn't grow without bound.
+ */
+final class WorkerProcessPool {
+  /**
+   * Written to standard output by a worker process once it is ready to process requests. This is
+   * the handshake that YailGenerator's server mode already uses.
+   */
+  static final String READY = YailGenerator.SERVER_READY;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(WorkerProcessPool.class.getName());
+
+  private final String name;
+  private final int size;
+  private final int maxRequestsPerWorker;
+  private final String[] workerCommandLine;
+
+  // Workers that are ready to process a request.
+  private final BlockingQueue<Worker> idleWorkers;
+
+  // The number of workers that are alive or starting, whether idle or busy.
+  private final AtomicInteger workerCount = new AtomicInteger(0);
+
+  private final AtomicInteger startedWorkerCount = new AtomicInteger(0);
+  private final AtomicInteger busyWorkerCount = new AtomicInteger(0);
+
+  /**
+   * Creates a worker process pool. No workers are started until {@link #prestartWorkers} or
+   * {@link #borrowWorker} is called.
+   *
+   * @param name the name of the pool, used in log messages
+   * @param size the maximum number of workers
+   * @param maxRequestsPerWorker the number of requests after which a worker is replaced
+   * @param workerCommandLine the command that starts a worker process
+   */
+  WorkerProcessPool(String name, int size, int maxRequestsPerWorker, String[] workerCommandLine) {
+    this.name = name;
+    this.size = size;
+    this.maxRequestsPerWorker = maxRequestsPerWorker;
+    this.workerCommandLine = workerCommandLine;
+    this.idleWorkers = new LinkedBlockingQueue<Worker>();
+  }
+
+  /**
+   * Starts all the workers in the background, so that the first requests don't have to wait for
+   * workers to start.
+   */
+  void prestartWorkers() {
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (reserveWorker()) {
+          try {
+            idleWorkers.add(startWorker());
+          } catch (IOException e) {
+            workerCount.decrementAndGet();
+            LOG.log(Level.WARNING, "Unable to start " + name + " worker", e);
+            return;
+          }
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns an idle worker, starting a new one if the pool isn't full. Blocks until a worker is
+   * available. The caller must give the worker back with {@link #returnWorker}.
+   *
+   * @throws IOException if a new worker could not be started
+   */
+  Worker borrowWorker() throws IOException, InterruptedException {
+    Worker worker;
+    while (true) {
+      worker = idleWorkers.poll();
+      if (worker != null) {
+        break;
+      }
+      if (reserveWorker()) {
+        try {
+          worker = startWorker();
+          break;
+        } catch (IOException e) {
+          workerCount.decrementAndGet();
+          throw e;
+        }
+      }
+      // All workers are busy or starting. If a worker fails to start, we'll start another one.
+      worker = idleWorkers.poll(1, TimeUnit.SECONDS);
+      if (worker != null) {
+        break;
+      }
+    }
+    busyWorkerCount.incrementAndGet();
+    return worker;
+  }
+
+  /**
+   * Gives back a worker obtained from {@link #borrowWorker}. If the worker has exited or has
+   * processed too many requests, it is replaced.
+   */
+  void returnWorker(Worker worker) {
+    busyWorkerCount.decrementAndGet();
+    if (worker.alive && worker.requestCount < maxRequestsPerWorker) {
+      idleWorkers.add(worker);
+    } else {
+      if (!worker.alive) {
+        LOG.info(name + " worker exited or was discarded");
+      }
+      worker.destroy();
+      workerCount.decrementAndGet();
+      // Replace the worker now, rather than making the next request wait for it.
+      prestartWorkers();
+    }
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+  int getBusyWorkerCount() {
+    return busyWorkerCount.get();
+  }
+
+  int getStartedWorkerCount() {
+    return startedWorkerCount.get();
+  }
+
+  /*
+   * Reserves room for a new worker. Returns false if the pool is full.
+   */
+  private boolean reserveWorker() {
+    while (true) {
+      int count = workerCount.get();
+      if (count >= size) {
+        return false;
+      }
+      if (workerCount.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private Worker startWorker() throws IOException {
+    long start = System.currentTimeMillis();
+    Worker worker = new Worker(Runtime.getRuntime().exec(workerCommandLine));
+    if (!READY.equals(worker.responses.readLine())) {
+      worker.destroy();
+      throw new IOException(name + " worker exited before it was ready");
+    }
+    startedWorkerCount.incrementAndGet();
+    LOG.info("Started " + name + " worker in " +
+        ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
+    return worker;
+  }
+
+  /**
+   * A worker process.
+   */
+  static final class Worker {
+    private final Process process;
+    private final Writer requests;
+    private final BufferedReader responses;
+    private int requestCount;
+    private boolean alive = true;
+
+    private Worker(Process process) {
+      this.process = process;
+      this.requests = new BufferedWriter(
+          new OutputStreamWriter(process.getOutputStream(), Charsets.UTF_8));
+      this.responses = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), Charsets.UTF_8));
+      // The worker's standard error only contains diagnostics. Log it with the build server's.
+      final BufferedReader errors = new BufferedReader(
+          new InputStreamReader(process.getErrorStream(), Charsets.UTF_8));
+      Thread errorThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            String line;
+            while ((line = errors.readLine()) != null) {
+              System.out.println(line);
+            }
+          } catch (IOException e) {
+            // OK to ignore...
+          }
+        }
+      });
+      errorThread.setDaemon(true);
+      errorThread.start();
+    }
+
+    /**
+     * Sends a request to the worker and waits for the response.
+     *
+     * @param request the request, which must not contain a line break
+     * @return the response, or {@code null} if the worker exited before responding
+     */
+    String process(String request) {
+      requestCount++;
+      String response;
+      try {
+        requests.write(request);
+        requests.write('\n');
+        requests.flush();
+        response = responses.readLine();
+      } catch (IOException e) {
+        // The worker has exited.
+        response = null;
+      }
+      if (response == null) {
+        alive = false;
+      }
+      return response;
+    }
+
+    /**
+     * Marks the worker so that it is replaced, rather than reused, when it is returned to the
+     * pool. Use this if the worker may have been left in a bad state.
+     */
+    void discard() {
+      alive = false;
+    }
+
+    private void destroy() {
+      process.destroy();
+    }
+  }
+}
@@ -2,8 +2,10 @@
 
 package com.google.appinventor.yailgenerator;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.io.Files;
+import com.google.common.io.NullOutputStream;
 
 import openblocks.codeblocks.Block;
 import openblocks.codeblocks.ComplaintDepartment;
@@ -20,6 +22,7 @@ import openblocks.yacodeblocks.NoProjectException;
 import openblocks.yacodeblocks.WorkspaceControllerHolder;
 import openblocks.yacodeblocks.WorkspaceUtils;
 import openblocks.yacodeblocks.YABlockCompiler;
+import openblocks.yacodeblocks.WorkspaceContext;
 import openblocks.yacodeblocks.YailGenerationException;
 
 import org.json.JSONException;
@@ -27,10 +30,14 @@ import org.json.JSONObject;
 import org.w3c.dom.Element;
 
 import java.awt.event.MouseEvent;
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -46,7 +53,40 @@ public class YailGenerator implements IWorkspaceController {
   // Default character encoding
   private static final String DEFAULT_CHARSET = "Cp1252";
 
-  private static final Object generateYailLock = new Object();
+  // The language (block genuses, connector shapes and link rules) is shared by all threads. It is
+  // loaded the first time YAIL is generated.
+  private static final Object languageLock = new Object();
+  private static boolean languageLoaded; // guarded by languageLock
+
+  // Each thread that generates YAIL has its own workspace context, so that several forms can be
+  // loaded and compiled at the same time. A thread keeps its YailGenerator for later requests, so
+  // that the workspace of the thread is only created once.
+  private static final ThreadLocal<YailGenerator> yailGenerators =
+      new ThreadLocal<YailGenerator>() {
+        @Override
+        protected YailGenerator initialValue() {
+          WorkspaceContext.setCurrent(new WorkspaceContext());
+          // Give the WorkspaceControllerHolder a factory that will create a YailGenerator.
+          // This ensures that only one workspace controller will be created for the context and
+          // that it will be the appropriate implementation: YailGenerator.
+          IWorkspaceController.Factory factory = new IWorkspaceController.Factory() {
+            @Override
+            public IWorkspaceController create() {
+              return new YailGenerator();
+            }
+          };
+          WorkspaceControllerHolder.setFactory(factory, true);  // headless
+          return (YailGenerator) WorkspaceControllerHolder.get();
+        }
+      };
+
+  private static final String SERVER_OPTION = "--server";
+
+  /**
+   * Written to stdout when the server is ready for requests. The build server's worker process
+   * pool waits for this line.
+   */
+  public static final String SERVER_READY = "READY";
 
   private final Workspace workspace;
   private final ComponentBlockManager cbm;
@@ -67,17 +107,34 @@ public class YailGenerator implements IWorkspaceController {
    * </ol>
    *
    * <p>The generated YAIL is printed to stdout.</p>
+   *
+   * <p>Alternatively, if the only command-line argument is {@code --server}, YailGenerator keeps
+   * running and generates YAIL for each request read from stdin. See {@link #runServer}.</p>
    */
   public static void main(String[] args) {
-    if (args.length != 3) {
+    boolean server = (args.length == 1 && args[0].equals(SERVER_OPTION));
+    if (args.length != 3 && !server) {
       System.err.println("YailGenerator error - expected exactly 3 command line arguments");
       System.exit(-1);
     }
 
     // Save the original System.out and System.err and redirect output from codeblocks.
     PrintStream saveSystemOut = System.out;
-    System.setOut(new PrintStream(new ByteArrayOutputStream()));
     PrintStream saveSystemErr = System.err;
+    if (server) {
+      // Don't accumulate the output from codeblocks in a long-lived process.
+      System.setOut(new PrintStream(new NullOutputStream()));
+      System.setErr(new PrintStream(new NullOutputStream()));
+      try {
+        runServer(saveSystemOut);
+        System.exit(0);
+      } catch (Throwable e) {
+        e.printStackTrace(saveSystemErr);
+        System.exit(-1);
+      }
+    }
+
+    System.setOut(new PrintStream(new ByteArrayOutputStream()));
     System.setErr(new PrintStream(new ByteArrayOutputStream()));
 
     try {
@@ -103,29 +160,80 @@ public class YailGenerator implements IWorkspaceController {
     }
   }
 
+  /**
+   * Generates YAIL for each request read from stdin, so that the language definition is loaded
+   * only once for many forms. This is used by the build server.
+   *
+   * <p>First, {@code READY} is written to stdout. Then each line read from stdin is a tab
+   * separated list of: the path of the form properties file, the path of the codeblocks file, the
+   * yail path and the path of a file where error messages are written. The generated YAIL is
+   * written to the yail path, using UTF-8. For each request, one line is written to stdout: the
+   * exit code that the YailGenerator binary would have returned for that form.</p>
+   */
+  private static void runServer(PrintStream protocolOut) throws IOException {
+    protocolOut.println(SERVER_READY);
+    protocolOut.flush();
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    String line;
+    while ((line = in.readLine()) != null) {
+      String[] fields = line.split("\t");
+      String yailPath = fields[2];
+      File messagesFile = new File(fields[3]);
+      int exitCode;
+      try {
+        String formPropertiesSource = Files.toString(new File(fields[0]),
+            Charset.forName(DEFAULT_CHARSET));
+        String codeblocksSource = Files.toString(new File(fields[1]),
+            Charset.forName(DEFAULT_CHARSET));
+        try {
+          String yail = generateYail(formPropertiesSource, codeblocksSource, yailPath);
+          Files.write(yail, new File(yailPath), Charsets.UTF_8);
+          exitCode = 0;
+        } catch (YailGenerationException e) {
+          Files.write(e.getMessage(), messagesFile, Charsets.UTF_8);
+          exitCode = 1;
+        }
+      } catch (Throwable e) {
+        StringWriter stackTrace = new StringWriter();
+        e.printStackTrace(new PrintWriter(stackTrace));
+        Files.write(stackTrace.toString(), messagesFile, Charsets.UTF_8);
+        exitCode = -1;
+      }
+      protocolOut.println(exitCode);
+      protocolOut.flush();
+    }
+  }
+
   public static String generateYail(
       String formPropertiesSource, String codeblocksSource, String yailPath)
       throws YailGenerationException {
-    // Currently when YailGenerator is executed as a separate process, this method is called only
-    // once. However, in tests (see YailGeneratorTest.java), it may called multiple times in
-    // parallel.
-
-    // Give the WorkspaceControllerHolder a factory that will create a YailGenerator.
-    // This ensures that only one workspace controller will be created and that it will be the
-    // appropriate implementation: YailGenerator.
-    IWorkspaceController.Factory factory = new IWorkspaceController.Factory() {
-      @Override
-      public IWorkspaceController create() {
-        return new YailGenerator();
-      }
-    };
-    WorkspaceControllerHolder.setFactory(factory, true);  // headless
-    YailGenerator yailGenerator = (YailGenerator) WorkspaceControllerHolder.get();
+    // This method may be called by several threads at the same time, for example by the build
+    // server or in tests (see YailGeneratorTest.java). Each thread uses its own YailGenerator and
+    // workspace.
+    YailGenerator yailGenerator = yailGenerators.get();
+    loadLanguage();
 
     return yailGenerator.loadBlocksAndGenerateYail(formPropertiesSource, codeblocksSource,
         yailPath);
   }
 
+  private static void loadLanguage() {
+    synchronized (languageLock) {
+      if (!languageLoaded) {
+        Element langDefRoot;
+        try {
+          langDefRoot = WorkspaceUtils.loadLangDef();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+        WorkspaceUtils.resetLanguage();
+        WorkspaceUtils.loadLanguage(langDefRoot);
+        languageLoaded = true;
+      }
+    }
+  }
+
   private YailGenerator() {
     workspace = Workspace.getInstance();
     cbm = new ComponentBlockManager(workspace, this);
@@ -134,89 +242,86 @@ public class YailGenerator implements IWorkspaceController {
 
   private String loadBlocksAndGenerateYail(String formPropertiesSource, String codeblocksSource,
       String yailPath) throws YailGenerationException {
-    // Currently when YailGenerator is executed as a separate process, this method is called only
-    // once. However, in tests (see YailGeneratorTest.java), it may called multiple times in
-    // parallel. We use synchronized here to handle (prevent) concurreny.
-    synchronized (generateYailLock) {
-      try {
-
-        // The first time this method is called, langDefRoot will be null.
-        if (langDefRoot == null) {
-          try {
-            langDefRoot = WorkspaceUtils.loadLangDef();
-          } catch (Exception e) {
-            throw new RuntimeException(e);
-          }
-          WorkspaceUtils.resetLanguage();
-          WorkspaceUtils.loadLanguage(langDefRoot);
-          // The following is required to load the "My Definitions" page/drawer.
-          loadBlocks(null);
-        }
-
-        JSONObject formProperties = WorkspaceUtils.parseFormProperties(formPropertiesSource);
-        if (formProperties == null) {
-          throw new YailGenerationException("Unable to generate code.");
-        }
+    // This method is only called by the thread that owns this YailGenerator, so the blocks and
+    // workspace that it uses are not shared with other threads.
+    try {
 
-        String formName;
+      // The first time this method is called, langDefRoot will be null.
+      // Each YailGenerator parses its own copy of the language definition because DOM trees
+      // are not safe to read from several threads.
+      if (langDefRoot == null) {
         try {
-          formName = formProperties.getJSONObject("Properties").getString("$Name");
-        } catch (JSONException e) {
-          throw new YailGenerationException("Unable to generate code.");
+          langDefRoot = WorkspaceUtils.loadLangDef();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
         }
+        // The following is required to load the "My Definitions" page/drawer.
+        loadBlocks(null);
+      }
 
-        workspace.reset();
+      JSONObject formProperties = WorkspaceUtils.parseFormProperties(formPropertiesSource);
+      if (formProperties == null) {
+        throw new YailGenerationException("Unable to generate code.");
+      }
 
-        if (!codeblocksSource.isEmpty()) {
-          BlockSaveFile blockSaveFile = new BlockSaveFile(langDefRoot, codeblocksSource);
-          loadBlocks(blockSaveFile.getRoot());
-          if (!cbm.loadComponents(blockSaveFile)) {
-            throw new YailGenerationException("Unable to generate code for " + formName + ".");
-          }
-        }
+      String formName;
+      try {
+        formName = formProperties.getJSONObject("Properties").getString("$Name");
+      } catch (JSONException e) {
+        throw new YailGenerationException("Unable to generate code.");
+      }
+
+      workspace.reset();
 
-        if (!cbm.syncFromJson(formProperties)) {
+      if (!codeblocksSource.isEmpty()) {
+        BlockSaveFile blockSaveFile = new BlockSaveFile(langDefRoot, codeblocksSource);
+        loadBlocks(blockSaveFile.getRoot());
+        if (!cbm.loadComponents(blockSaveFile)) {
           throw new YailGenerationException("Unable to generate code for " + formName + ".");
         }
+      }
 
-        projectLoaded = true;
-
-        if (containsBadBlocks()) {
-          throw new YailGenerationException("There are bad blocks in " + formName + ".");
-        }
+      if (!cbm.syncFromJson(formProperties)) {
+        throw new YailGenerationException("Unable to generate code for " + formName + ".");
+      }
 
-        ComplaintDepartment.clearComplaints();
-
-        HashMap<String, ArrayList<RenderableBlock>> componentMap =
-            new HashMap<String, ArrayList<RenderableBlock>>();
-        Map<Block, String> warnings = new HashMap<Block, String>();
-        List<String> errors = new ArrayList<String>();
-        WorkspaceUtils.populateComponentMap(componentMap, warnings, errors,
-            false, // not for REPL
-            false, // don't compile unattached blocks
-            cbm);
-
-        String code = YABlockCompiler.generateYailForProject(formProperties, componentMap,
-            false); // not for REPL
-        String[] compileErrors = ComplaintDepartment.getCompileErrors();
-        if (compileErrors.length > 0) {
-          String errorMessages = Joiner.on("\n").join(compileErrors);
-          throw new YailGenerationException(
-              "There are errors that must be fixed in " + formName + ".\n" +
-              errorMessages);
-        }
+      projectLoaded = true;
 
-        StringBuilder yail = new StringBuilder();
-        yail.append(YABlockCompiler.getYailPrelude(yailPath, formName));
-        yail.append(code).append("\n");
-        return yail.toString();
+      if (containsBadBlocks()) {
+        throw new YailGenerationException("There are bad blocks in " + formName + ".");
+      }
 
-      } finally {
-        projectLoaded = false;
-        workspace.reset();
-        cbm.reset();
-        pbm.reset();
+      ComplaintDepartment.clearComplaints();
+
+      HashMap<String, ArrayList<RenderableBlock>> componentMap =
+          new HashMap<String, ArrayList<RenderableBlock>>();
+      Map<Block, String> warnings = new HashMap<Block, String>();
+      List<String> errors = new ArrayList<String>();
+      WorkspaceUtils.populateComponentMap(componentMap, warnings, errors,
+          false, // not for REPL
+          false, // don't compile unattached blocks
+          cbm);
+
+      String code = YABlockCompiler.generateYailForProject(formProperties, componentMap,
+          false); // not for REPL
+      String[] compileErrors = ComplaintDepartment.getCompileErrors();
+      if (compileErrors.length > 0) {
+        String errorMessages = Joiner.on("\n").join(compileErrors);
+        throw new YailGenerationException(
+            "There are errors that must be fixed in " + formName + ".\n" +
+            errorMessages);
       }
+
+      StringBuilder yail = new StringBuilder();
+      yail.append(YABlockCompiler.getYailPrelude(yailPath, formName));
+      yail.append(code).append("\n");
+      return yail.toString();
+
+    } finally {
+      projectLoaded = false;
+      workspace.reset();
+      cbm.reset();
+      pbm.reset();
     }
   }
 
@@ -0,0 +1,119 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildScheduler class.
+ *
+ */
+public class BuildSchedulerTest extends TestCase {
+  private final List<String> order = new ArrayList<String>();
+
+  // Collects the tasks that the scheduler starts, so that the test decides when each one runs.
+  private final BlockingQueue<Runnable> startedTasks = new LinkedBlockingQueue<Runnable>();
+  private final Executor executor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      startedTasks.add(command);
+    }
+  };
+
+  /*
+   * Runs the next task that the scheduler started, in the test thread.
+   */
+  private void runNextStartedTask() throws InterruptedException {
+    Runnable task = startedTasks.poll(10, TimeUnit.SECONDS);
+    assertNotNull("No task was started", task);
+    task.run();
+  }
+
+  public void testAdditionalTaskIsQueuedAndRunsLater() throws Exception {
+    BuildScheduler scheduler = new BuildScheduler(1, 1, 0, executor);
+    scheduler.execute("alice", new NamedTask("a1"), null);
+    scheduler.execute("bob", new NamedTask("b1"), null);
+    assertEquals(1, scheduler.getActiveTaskCount());
+    assertEquals(1, scheduler.getQueuedTaskCount());
+    assertEquals(1, startedTasks.size());
+
+    runNextStartedTask();
+    assertEquals(0, scheduler.getQueuedTaskCount());
+    assertEquals(1, scheduler.getActiveTaskCount());
+    runNextStartedTask();
+    assertEquals(0, scheduler.getActiveTaskCount());
+    assertEquals(2, scheduler.getCompletedTaskCount());
+    assertEquals("[a1, b1]", order.toString());
+  }
+
+  public void testTaskIsRejectedWhenQueueIsFull() throws Exception {
+    BuildScheduler scheduler = new BuildScheduler(1, 1, 0, executor);
+    scheduler.execute("alice", new NamedTask("a1"), null);
+    scheduler.execute("alice", new NamedTask("a2"), null);
+    try {
+      scheduler.execute("bob", new NamedTask("b1"), null);
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+  }
+
+  public void testUserWithRunningTaskWaitsForOtherUsers() throws Exception {
+    BuildScheduler scheduler = new BuildScheduler(2, 10, 0, executor);
+    scheduler.execute("alice", new NamedTask("a1"), null);
+    scheduler.execute("carol", new NamedTask("c1"), null);
+    Runnable alicesFirstTask = startedTasks.take();
+    // alice submits her second build before bob, but alice's first build is still running.
+    scheduler.execute("alice", new NamedTask("a2"), null);
+    scheduler.execute("bob", new NamedTask("b1"), null);
+    assertEquals(2, scheduler.getQueuedTaskCount());
+
+    // carol's build finishes, so bob's build starts before alice's second build.
+    runNextStartedTask();
+    assertEquals(1, scheduler.getQueuedTaskCount());
+    runNextStartedTask();
+    assertEquals("[c1, b1]", order.toString());
+
+    alicesFirstTask.run();
+    runNextStartedTask();
+    assertEquals("[c1, b1, a1, a2]", order.toString());
+  }
+
+  public void testExpiredTaskIsShedWhileQueueIsIdle() throws Exception {
+    BuildScheduler scheduler = new BuildScheduler(1, 10, 1, executor);
+    scheduler.execute("alice", new NamedTask("a1"), null);
+    Runnable alicesTask = startedTasks.take();
+    scheduler.execute("bob", new NamedTask("b1"), new NamedTask("b1 shed"));
+
+    // No task starts or finishes, but bob's task is shed once its deadline passes.
+    runNextStartedTask();
+    assertEquals("[b1 shed]", order.toString());
+    assertEquals(1, scheduler.getShedTaskCount());
+    assertEquals(0, scheduler.getQueuedTaskCount());
+
+    alicesTask.run();
+    assertTrue(startedTasks.isEmpty());
+    assertEquals("[b1 shed, a1]", order.toString());
+  }
+
+  private class NamedTask implements Runnable {
+    private final String name;
+
+    NamedTask(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+    }
+  }
+}
@@ -0,0 +1,431 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Measures the throughput of a running build server.
+ *
+ * <p>The benchmark generates a {@link SyntheticProject} of the given size and sends it to the
+ * build server's build-all-from-zip-async resource, with a callback URL that points to a stub
+ * HTTP server started by the benchmark. At each concurrency level, that many clients each send a
+ * build and wait for its result before sending the next one. For each level, the benchmark
+ * reports builds per minute, the percentiles of the time from sending a build to receiving its
+ * result, and the peak resident memory of the build server and its child processes.
+ *
+ * <p>Unless --repeatProject is given, every build is a different project, so that the build
+ * server can't return a cached APK.
+ *
+ * <p>The builds are sent on behalf of a small set of users, given with --users, in turn. When
+ * there are more simultaneous builds than users, some users have several builds running or queued
+ * at once, so the build server's per-user fairness is part of what is measured.
+ *
+ * <p>Use a command like the following:
+ * <pre>
+ * ant RunBenchmark -Dbenchmark.args="--concurrency 1,2,4 --screens 4 --buildServerPid 1234"
+ * </pre>
+ */
+public final class BuildServerBenchmark {
+  static class CommandLineOptions {
+    @Option(name = "--buildServerUrl",
+            usage = "The URL of the build server.")
+    String buildServerUrl = "http://localhost:9990/buildserver";
+
+    @Option(name = "--callbackPort",
+            usage = "The port on which the benchmark receives build results.")
+    int callbackPort = 9991;
+
+    @Option(name = "--screens",
+            usage = "The number of screens in the project.")
+    int screens = 1;
+
+    @Option(name = "--componentsPerScreen",
+            usage = "The number of components on each screen.")
+    int componentsPerScreen = 10;
+
+    @Option(name = "--blocksPerScreen",
+            usage = "The number of blocks on each screen.")
+    int blocksPerScreen = 50;
+
+    @Option(name = "--assetBytes",
+            usage = "The total size of the project's assets, in bytes.")
+    int assetBytes = 0;
+
+    @Option(name = "--concurrency",
+            usage = "A comma separated list of the numbers of simultaneous builds to measure.")
+    String concurrency = "1,2,4,8";
+
+    @Option(name = "--buildsPerLevel",
+            usage = "The number of builds to run at each concurrency level.")
+    int buildsPerLevel = 20;
+
+    @Option(name = "--buildTimeoutSeconds",
+            usage = "How long to wait for the result of a build before counting it as failed.")
+    int buildTimeoutSeconds = 600;
+
+    @Option(name = "--repeatProject",
+            usage = "Send the same project every time, so that the build cache is used.")
+    boolean repeatProject = false;
+
+    @Option(name = "--users",
+            usage = "The number of users on whose behalf the builds are sent, in turn.")
+    int users = 4;
+
+    @Option(name = "--buildServerPid",
+            usage = "The process id of the build server, to measure its peak memory use.")
+    int buildServerPid = 0;
+  }
+
+  // How often the memory use of the build server is sampled, in milliseconds.
+  private static final long RSS_SAMPLE_INTERVAL_MILLIS = 500;
+
+  private static final int[] PERCENTILES = { 50, 95, 99 };
+
+  private final CommandLineOptions options;
+  private final SyntheticProject project;
+
+  // The builds that are waiting for their results, keyed by build id.
+  private final Map<String, CountDownLatch> pendingBuilds =
+      new ConcurrentHashMap<String, CountDownLatch>();
+
+  // The result field of each received build.out, keyed by build id.
+  private final Map<String, Integer> buildResults = new ConcurrentHashMap<String, Integer>();
+
+  private final AtomicInteger nextBuildId = new AtomicInteger();
+
+  // The keystore returned by the first build. Later builds send it, as App Inventor does.
+  private volatile byte[] keystore;
+
+  private BuildServerBenchmark(CommandLineOptions options) {
+    this.options = options;
+    project = new SyntheticProject(options.screens, options.componentsPerScreen,
+        options.blocksPerScreen, options.assetBytes);
+  }
+
+  /*
+   * The results of one concurrency level.
+   */
+  private static class LevelResult {
+    final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+    final AtomicInteger succeeded = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final AtomicInteger rejected = new AtomicInteger();
+    final AtomicLong peakRssKb = new AtomicLong();
+    long elapsedMillis;
+  }
+
+  private void run() throws Exception {
+    HttpServer callbackServer =
+        HttpServer.create(new InetSocketAddress(options.callbackPort), 0);
+    callbackServer.createContext("/callback", new CallbackHandler());
+    callbackServer.setExecutor(Executors.newCachedThreadPool());
+    callbackServer.start();
+    try {
+      // Warm up the build server and get a keystore, so that later builds don't generate one.
+      LevelResult warmUp = new LevelResult();
+      runBuild(warmUp);
+      if (warmUp.succeeded.get() == 0) {
+        System.err.println("The warm-up build failed. Is the build server running at " +
+            options.buildServerUrl + "?");
+        return;
+      }
+
+      System.out.println("concurrency  builds/min  p50 ms  p95 ms  p99 ms  " +
+          "succeeded  failed  rejected  peak RSS MB");
+      for (String level : options.concurrency.split(",")) {
+        LevelResult result = runLevel(Integer.parseInt(level.trim()));
+        printResult(Integer.parseInt(level.trim()), result);
+      }
+    } finally {
+      callbackServer.stop(0);
+      ((ExecutorService) callbackServer.getExecutor()).shutdownNow();
+    }
+  }
+
+  private LevelResult runLevel(int concurrency) throws InterruptedException {
+    final LevelResult result = new LevelResult();
+    final AtomicInteger remainingBuilds = new AtomicInteger(options.buildsPerLevel);
+    ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+    RssSampler rssSampler = new RssSampler(result);
+    rssSampler.start();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < concurrency; i++) {
+      clients.execute(new Runnable() {
+        @Override
+        public void run() {
+          while (remainingBuilds.getAndDecrement() > 0) {
+            runBuild(result);
+          }
+        }
+      });
+    }
+    clients.shutdown();
+    clients.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    result.elapsedMillis = System.currentTimeMillis() - start;
+    rssSampler.interrupt();
+    rssSampler.join();
+    return result;
+  }
+
+  /*
+   * Sends one build to the build server and waits for its result.
+   */
+  private void runBuild(LevelResult result) {
+    int buildNumber = nextBuildId.incrementAndGet();
+    String buildId = Integer.toString(buildNumber);
+    String userName = "benchmark" + (buildNumber % Math.max(1, options.users));
+    CountDownLatch done = new CountDownLatch(1);
+    pendingBuilds.put(buildId, done);
+    try {
+      byte[] zip = project.toZip(options.repeatProject ? "" : buildId, keystore);
+      long start = System.currentTimeMillis();
+      int responseCode = postBuild(buildId, userName, zip);
+      if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+        result.rejected.incrementAndGet();
+        return;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK ||
+          !done.await(options.buildTimeoutSeconds, TimeUnit.SECONDS)) {
+        result.failed.incrementAndGet();
+        return;
+      }
+      result.latencies.add(System.currentTimeMillis() - start);
+      Integer buildResult = buildResults.remove(buildId);
+      if (buildResult != null && buildResult == Result.SUCCESS) {
+        result.succeeded.incrementAndGet();
+      } else {
+        result.failed.incrementAndGet();
+      }
+    } catch (IOException e) {
+      System.err.println("Build " + buildId + " failed: " + e);
+      result.failed.incrementAndGet();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pendingBuilds.remove(buildId);
+    }
+  }
+
+  private int postBuild(String buildId, String userName, byte[] zip) throws IOException {
+    String callbackUrl = "http://localhost:" + options.callbackPort + "/callback?id=" + buildId;
+    URL url = new URL(options.buildServerUrl + "/build-all-from-zip-async" +
+        "?uname=" + URLEncoder.encode(userName, "UTF-8") +
+        "&callback=" + URLEncoder.encode(callbackUrl, "UTF-8"));
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.addRequestProperty("Content-Type", "application/zip; charset=utf-8");
+    connection.setFixedLengthStreamingMode(zip.length);
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write(zip);
+    } finally {
+      out.close();
+    }
+    int responseCode = connection.getResponseCode();
+    InputStream in = (responseCode < 400) ? connection.getInputStream()
+        : connection.getErrorStream();
+    if (in != null) {
+      in.close();
+    }
+    return responseCode;
+  }
+
+  /*
+   * Receives the output zips posted by the build server.
+   */
+  private class CallbackHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String query = exchange.getRequestURI().getQuery();
+      String buildId = (query != null && query.startsWith("id=")) ? query.substring(3) : null;
+      byte[] outputZip = ByteStreams.toByteArray(exchange.getRequestBody());
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, -1);
+      exchange.close();
+      if (buildId == null) {
+        return;
+      }
+      try {
+        readOutputZip(buildId, outputZip);
+      } catch (Exception e) {
+        System.err.println("Unable to read the result of build " + buildId + ": " + e);
+      } finally {
+        CountDownLatch done = pendingBuilds.get(buildId);
+        if (done != null) {
+          done.countDown();
+        }
+      }
+    }
+  }
+
+  private void readOutputZip(String buildId, byte[] outputZip)
+      throws IOException, JSONException {
+    ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(outputZip));
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.getName().equals("build.out")) {
+          JSONObject buildOutput = new JSONObject(new String(ByteStreams.toByteArray(zip),
+              Charsets.UTF_8));
+          buildResults.put(buildId, buildOutput.getInt("result"));
+        } else if (entry.getName().equals(
+            new File(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION).getName())) {
+          keystore = ByteStreams.toByteArray(zip);
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /*
+   * Samples the resident memory of the build server and its descendants until interrupted.
+   */
+  private class RssSampler extends Thread {
+    private final LevelResult result;
+
+    RssSampler(LevelResult result) {
+      this.result = result;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      if (options.buildServerPid == 0) {
+        return;
+      }
+      try {
+        while (!isInterrupted()) {
+          long rssKb = getRssKb(options.buildServerPid);
+          if (rssKb > result.peakRssKb.get()) {
+            result.peakRssKb.set(rssKb);
+          }
+          Thread.sleep(RSS_SAMPLE_INTERVAL_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        // Done sampling.
+      }
+    }
+  }
+
+  /*
+   * Returns the total resident memory of the given process and its descendants, in kilobytes, as
+   * reported by /proc. Returns 0 where /proc is not available.
+   */
+  private static long getRssKb(int pid) {
+    long rssKb = 0;
+    File[] processDirs = new File("/proc").listFiles();
+    if (processDirs == null) {
+      return 0;
+    }
+    // Map every process to its parent, then add up the processes whose ancestors include pid.
+    Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+    Map<Integer, Long> rss = new HashMap<Integer, Long>();
+    for (File processDir : processDirs) {
+      int processId;
+      try {
+        processId = Integer.parseInt(processDir.getName());
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      try {
+        for (String line : Files.readLines(new File(processDir, "status"), Charsets.UTF_8)) {
+          if (line.startsWith("PPid:")) {
+            parents.put(processId, Integer.parseInt(line.substring(5).trim()));
+          } else if (line.startsWith("VmRSS:")) {
+            rss.put(processId, Long.parseLong(line.substring(6).trim().split("\\s+")[0]));
+          }
+        }
+      } catch (IOException e) {
+        // The process exited.
+      }
+    }
+    for (Map.Entry<Integer, Long> process : rss.entrySet()) {
+      Integer ancestor = process.getKey();
+      while (ancestor != null && ancestor != 0) {
+        if (ancestor == pid) {
+          rssKb += process.getValue();
+          break;
+        }
+        ancestor = parents.get(ancestor);
+      }
+    }
+    return rssKb;
+  }
+
+  private static void printResult(int concurrency, LevelResult result) {
+    Long[] latencies = result.latencies.toArray(new Long[0]);
+    Arrays.sort(latencies);
+    int completed = result.succeeded.get() + result.failed.get();
+    double buildsPerMinute = (result.elapsedMillis == 0) ? 0
+        : completed * 60000.0 / result.elapsedMillis;
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%11d  %10.1f", concurrency, buildsPerMinute));
+    for (int percentile : PERCENTILES) {
+      sb.append(String.format("  %6d", percentile(latencies, percentile)));
+    }
+    sb.append(String.format("  %9d  %6d  %8d  %11d", result.succeeded.get(),
+        result.failed.get(), result.rejected.get(), result.peakRssKb.get() / 1024));
+    System.out.println(sb);
+  }
+
+  private static long percentile(Long[] sortedValues, int percentile) {
+    if (sortedValues.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+    return sortedValues[Math.max(1, Math.min(rank, sortedValues.length)) - 1];
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions options = new CommandLineOptions();
+    CmdLineParser cmdLineParser = new CmdLineParser(options);
+    try {
+      cmdLineParser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      cmdLineParser.printUsage(System.err);
+      System.exit(1);
+    }
+    new BuildServerBenchmark(options).run();
+    System.exit(0);
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.collect.ImmutableSet;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ComponentIndex class.
+ *
+ */
+public class ComponentIndexTest extends TestCase {
+  private static final String FORM =
+      "#|\n$JSON\n" +
+      "{\"YaVersion\":\"41\",\"Source\":\"Form\",\"Properties\":{\"$Name\":\"Screen1\"," +
+      "\"$Type\":\"Form\",\"$Version\":\"6\",\"Uuid\":\"0\",\"Title\":\"Screen1\"," +
+      "\"$Components\":[" +
+      "{\"$Name\":\"Arrangement1\",\"$Type\" : \"HorizontalArrangement\",\"$Version\":\"1\"," +
+      "\"Uuid\":\"1\",\"$Components\":[" +
+      "{\"$Name\":\"Button1\",\"$Type\":\"Button\",\"$Version\":\"3\",\"Uuid\":\"2\"," +
+      "\"Text\":\"\\\"$Type\\\":\\\"Canvas\\\"\"}]}," +
+      "{\"$Name\":\"Label1\",\"$Type\":\"Label\",\"$Version\":\"1\",\"Uuid\":\"3\"," +
+      "\"Text\":\"$Type\"}]}}\n|#\n";
+
+  public void testScanComponentTypesMatchesJsonParse() throws Exception {
+    assertEquals(ImmutableSet.of("Form", "HorizontalArrangement", "Button", "Label"),
+        ComponentIndex.scanComponentTypes(FORM));
+    assertEquals(FormPropertiesAnalyzer.getComponentTypesFromFormFile(FORM),
+        ComponentIndex.scanComponentTypes(FORM));
+  }
+
+  public void testScanComponentTypesWithoutJsonSection() throws Exception {
+    try {
+      ComponentIndex.scanComponentTypes("#|\n$Properties\n|#\n");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testLoad() throws Exception {
+    ComponentIndex index = ComponentIndex.load("Button\nLocationSensor\n",
+        "[{\"name\": \"Button\", \"permissions\": []}, " +
+        "{\"name\": \"LocationSensor\", \"permissions\": " +
+        "[\"android.permission.ACCESS_FINE_LOCATION\"]}]");
+    assertEquals(ImmutableSet.of("Button", "LocationSensor"), index.getComponentTypes());
+    assertTrue(index.getPermissions("Button").isEmpty());
+    assertEquals(ImmutableSet.of("android.permission.ACCESS_FINE_LOCATION"),
+        index.getPermissions("LocationSensor"));
+    assertNull(index.getPermissions("Canvas"));
+
+    // The version changes when the permissions change.
+    assertFalse(index.getVersion().equals(
+        ComponentIndex.load("Button\nLocationSensor\n", "[]").getVersion()));
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Tests FileCache class.
+ *
+ */
+public class FileCacheTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Files.deleteRecursively(new File(tmpDir.getCanonicalPath()));
+  }
+
+  public void testCopyToReturnsCachedFile() throws Exception {
+    FileCache cache = new FileCache(100);
+    File dexFile = writeFile("classes.dex", "dex1");
+    cache.put("key1", dexFile);
+
+    File copy = new File(tmpDir, "copy.dex");
+    assertTrue(cache.copyTo("key1", copy));
+    assertEquals("dex1", Files.toString(copy, Charsets.UTF_8));
+    assertFalse(cache.copyTo("key2", copy));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    // Each file is 4 bytes, so the cache can hold two.
+    FileCache cache = new FileCache(8);
+    cache.put("key1", writeFile("1.dex", "dex1"));
+    cache.put("key2", writeFile("2.dex", "dex2"));
+
+    // Use key1, so that key2 becomes the least recently used entry.
+    File copy = new File(tmpDir, "copy.dex");
+    assertTrue(cache.copyTo("key1", copy));
+
+    cache.put("key3", writeFile("3.dex", "dex3"));
+    assertEquals(2, cache.getEntryCount());
+    assertEquals(8, cache.getTotalBytes());
+    assertTrue(cache.copyTo("key1", copy));
+    assertFalse(cache.copyTo("key2", copy));
+    assertTrue(cache.copyTo("key3", copy));
+    assertEquals("dex3", Files.toString(copy, Charsets.UTF_8));
+  }
+
+  public void testZeroBytesDisablesCache() throws Exception {
+    FileCache cache = new FileCache(0);
+    cache.put("key1", writeFile("1.dex", "dex1"));
+    assertEquals(0, cache.getEntryCount());
+    assertFalse(cache.copyTo("key1", new File(tmpDir, "copy.dex")));
+  }
+
+  public void testKeyDependsOnContent() throws Exception {
+    File file1 = writeFile("Screen1.yail", "(define-form Screen1)");
+    File file2 = writeFile("Screen2.yail", "(define-form Screen1)");
+    File file3 = writeFile("Screen3.yail", "(define-form Screen3)");
+    String key1 = new FileCache.KeyBuilder().addString("Screen1").addFile(file1).build();
+    String key2 = new FileCache.KeyBuilder().addString("Screen1").addFile(file2).build();
+    String key3 = new FileCache.KeyBuilder().addString("Screen1").addFile(file3).build();
+    assertEquals(key1, key2);
+    assertFalse(key1.equals(key3));
+    assertEquals(FileCache.hashFile(file1), FileCache.hashFile(file2));
+  }
+
+  private File writeFile(String name, String content) throws Exception {
+    File file = new File(tmpDir, name);
+    Files.write(content, file, Charsets.UTF_8);
+    return file;
+  }
+}
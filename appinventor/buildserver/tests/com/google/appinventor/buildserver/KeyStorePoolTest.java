@@ -0,0 +1,152 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.Key;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Tests KeyStorePool class.
+ *
+ */
+public class KeyStorePoolTest extends TestCase {
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Files.deleteRecursively(tmpDir);
+  }
+
+  public void testKeyStoreHoldsSelfSignedKey() throws Exception {
+    KeyStorePool pool = new KeyStorePool(0);
+    File keyStoreFile = new File(tmpDir, "android.keystore");
+    String path = pool.createKeyStore("\"Some\", User=Name é", keyStoreFile);
+    assertEquals(keyStoreFile.getAbsolutePath(), path);
+    assertEquals(0, pool.getHitCount());
+    assertEquals(1, pool.getMissCount());
+
+    KeyStore keyStore = loadKeyStore(keyStoreFile);
+    Key key = keyStore.getKey("AndroidKey", "android".toCharArray());
+    assertTrue(key instanceof PrivateKey);
+    assertEquals("RSA", key.getAlgorithm());
+
+    X509Certificate certificate = (X509Certificate) keyStore.getCertificate("AndroidKey");
+    certificate.verify(certificate.getPublicKey());
+    certificate.checkValidity();
+    assertEquals(certificate.getSubjectX500Principal(), certificate.getIssuerX500Principal());
+    assertEquals("CN=\\\"Some\\\"\\, User\\=Name é,O=AppInventor for Android,C=US",
+        certificate.getSubjectX500Principal().getName());
+    assertEquals(KeyStorePool.SIGNATURE_ALGORITHM, certificate.getSigAlgName());
+    assertEquals(2048, ((RSAPublicKey) certificate.getPublicKey()).getModulus().bitLength());
+  }
+
+  public void testKeyStoreMatchesKeytool() throws Exception {
+    // Command line arguments may not survive non-ASCII characters in the test environment.
+    String userName = "\"Some\", User=Name";
+    File keytoolDir = new File(tmpDir, "keytool");
+    keytoolDir.mkdir();
+    assertNotNull(ProjectBuilder.createKeyStore(userName, keytoolDir, "android.keystore"));
+    File keyStoreFile = new File(tmpDir, "android.keystore");
+    assertNotNull(new KeyStorePool(0).createKeyStore(userName, keyStoreFile));
+
+    X509Certificate expected = (X509Certificate) loadKeyStore(
+        new File(keytoolDir, "android.keystore")).getCertificate("AndroidKey");
+    X509Certificate actual = (X509Certificate) loadKeyStore(keyStoreFile)
+        .getCertificate("AndroidKey");
+    assertEquals(expected.getSubjectX500Principal(), actual.getSubjectX500Principal());
+    assertEquals(expected.getIssuerX500Principal(), actual.getIssuerX500Principal());
+    assertEquals(expected.getPublicKey().getAlgorithm(), actual.getPublicKey().getAlgorithm());
+    assertEquals(((RSAPublicKey) expected.getPublicKey()).getModulus().bitLength(),
+        ((RSAPublicKey) actual.getPublicKey()).getModulus().bitLength());
+  }
+
+  public void testKeyCanSignWithJarsignerAlgorithm() throws Exception {
+    File keyStoreFile = new File(tmpDir, "android.keystore");
+    new KeyStorePool(0).createKeyStore("user", keyStoreFile);
+    KeyStore keyStore = loadKeyStore(keyStoreFile);
+
+    // Compiler passes -sigalg MD5withRSA to jarsigner.
+    byte[] data = "classes.dex".getBytes("UTF-8");
+    Signature signer = Signature.getInstance("MD5withRSA");
+    signer.initSign((PrivateKey) keyStore.getKey("AndroidKey", "android".toCharArray()));
+    signer.update(data);
+    byte[] signature = signer.sign();
+    Signature verifier = Signature.getInstance("MD5withRSA");
+    verifier.initVerify(keyStore.getCertificate("AndroidKey"));
+    verifier.update(data);
+    assertTrue(verifier.verify(signature));
+  }
+
+  public void testEmptyPoolHasNoReadyKeyPairs() throws Exception {
+    KeyStorePool pool = new KeyStorePool(0);
+    pool.start();
+    assertEquals(0, pool.getReadyCount());
+    assertNotNull(pool.createKeyStore("user", new File(tmpDir, "1.keystore")));
+    assertEquals(0, pool.getHitCount());
+    assertEquals(1, pool.getMissCount());
+  }
+
+  public void testValidityAfter2049() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    GregorianCalendar notBefore = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    notBefore.clear();
+    notBefore.set(2040, Calendar.JANUARY, 1);
+    File keyStoreFile = new File(tmpDir, "android.keystore");
+    new KeyStorePool(0).writeKeyStore(generator.generateKeyPair(), "user", notBefore.getTime(),
+        keyStoreFile);
+
+    X509Certificate certificate = (X509Certificate) loadKeyStore(keyStoreFile)
+        .getCertificate("AndroidKey");
+    assertEquals(notBefore.getTime(), certificate.getNotBefore());
+    // 10000 days after 2040-01-01 is 2067-05-19.
+    GregorianCalendar notAfter = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    notAfter.setTime(certificate.getNotAfter());
+    assertEquals(2067, notAfter.get(Calendar.YEAR));
+    assertEquals(Calendar.MAY, notAfter.get(Calendar.MONTH));
+    assertEquals(19, notAfter.get(Calendar.DAY_OF_MONTH));
+  }
+
+  public void testReadyKeyPairsAreUsed() throws Exception {
+    KeyStorePool pool = new KeyStorePool(2);
+    pool.start();
+    long deadline = System.currentTimeMillis() + 60000;
+    while (pool.getReadyCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(2, pool.getReadyCount());
+    assertNotNull(pool.createKeyStore("user", new File(tmpDir, "1.keystore")));
+    assertEquals(1, pool.getHitCount());
+    assertEquals(0, pool.getMissCount());
+  }
+
+  private static KeyStore loadKeyStore(File keyStoreFile) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    FileInputStream in = new FileInputStream(keyStoreFile);
+    try {
+      keyStore.load(in, "android".toCharArray());
+    } finally {
+      in.close();
+    }
+    return keyStore;
+  }
+}
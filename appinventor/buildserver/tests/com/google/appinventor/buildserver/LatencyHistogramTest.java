@@ -0,0 +1,67 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests LatencyHistogram class.
+ *
+ */
+public class LatencyHistogramTest extends TestCase {
+  public void testEmptyHistogram() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram(60000);
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(50));
+    assertEquals(0, histogram.getWindowCount());
+    assertEquals(0, histogram.getWindowPercentile(99));
+  }
+
+  public void testWindowPercentilesAreExact() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram(60000);
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getWindowCount());
+    assertEquals(50, histogram.getWindowPercentile(50));
+    assertEquals(95, histogram.getWindowPercentile(95));
+    assertEquals(100, histogram.getWindowPercentile(100));
+  }
+
+  public void testPercentilesAreBucketUpperBounds() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram(60000);
+    histogram.record(0);
+    histogram.record(5);
+    histogram.record(1000);
+    histogram.record(20000);
+    histogram.record(30000);
+    assertEquals(5, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(20));
+    // Durations below 16 ms are exact.
+    assertEquals(5, histogram.getPercentile(40));
+    // 1000 is in the bucket from 992 to 1023.
+    assertEquals(1023, histogram.getPercentile(60));
+    // 20000 is in the bucket from 19456 to 20479.
+    assertEquals(20479, histogram.getPercentile(80));
+    // The bucket of 30000 goes up to 30719, but nothing longer than 30000 was recorded.
+    assertEquals(30000, histogram.getPercentile(99));
+  }
+
+  public void testBucketsAreWithinOneSixteenth() throws Exception {
+    for (long millis = 0; millis < 1000000; millis += 7) {
+      long upperBound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(millis));
+      assertTrue(upperBound >= millis);
+      assertTrue(upperBound - millis <= millis / LatencyHistogram.SUB_BUCKETS);
+    }
+    assertEquals(Integer.MAX_VALUE, LatencyHistogram.upperBoundOf(
+        LatencyHistogram.bucketOf(Integer.MAX_VALUE)));
+  }
+
+  public void testOldSamplesLeaveTheWindow() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram(1);
+    histogram.record(10);
+    Thread.sleep(20);
+    assertEquals(0, histogram.getWindowCount());
+    assertEquals(1, histogram.getCount());
+  }
+}
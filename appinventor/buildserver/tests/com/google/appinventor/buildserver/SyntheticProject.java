@@ -0,0 +1,191 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates App Inventor source zips of a given size, for benchmarking the build server.
+ *
+ * <p>Each screen has a number of buttons. The blocks are Click event handlers for the buttons,
+ * each setting the Text of its button a number of times. The assets are random bytes, so they
+ * don't compress, like the images and sounds in real projects.
+ */
+final class SyntheticProject {
+  private static final String PACKAGE_NAME = "appinventor.ai_benchmark.Synthetic";
+  private static final String PROJECT_NAME = "Synthetic";
+
+  // The largest asset file. Larger amounts of asset bytes are split into several files.
+  private static final int MAX_ASSET_FILE_BYTES = 1024 * 1024;
+
+  private final int screens;
+  private final int componentsPerScreen;
+  private final int blocksPerScreen;
+  private final int assetBytes;
+
+  /**
+   * Creates a SyntheticProject.
+   *
+   * @param screens the number of screens
+   * @param componentsPerScreen the number of buttons on each screen, at least 1
+   * @param blocksPerScreen the approximate number of blocks on each screen. There are at most
+   *     three blocks per button, plus two blocks for every additional statement.
+   * @param assetBytes the total size of the assets, in bytes
+   */
+  SyntheticProject(int screens, int componentsPerScreen, int blocksPerScreen, int assetBytes) {
+    this.screens = Math.max(1, screens);
+    this.componentsPerScreen = Math.max(1, componentsPerScreen);
+    this.blocksPerScreen = Math.max(0, blocksPerScreen);
+    this.assetBytes = Math.max(0, assetBytes);
+  }
+
+  /**
+   * Returns the source zip of the project.
+   *
+   * @param nonce written to an asset file, so that zips with different nonces are different
+   *     projects as far as the build cache is concerned
+   * @param keystore the android.keystore file to include, or null to let the build server
+   *     generate one
+   */
+  byte[] toZip(String nonce, byte[] keystore) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ZipOutputStream zip = new ZipOutputStream(bytes);
+    String srcDir = "src/" + PACKAGE_NAME.replace('.', '/') + "/";
+    addEntry(zip, "youngandroidproject/project.properties",
+        ("main=" + PACKAGE_NAME + ".Screen1\n" +
+        "name=" + PROJECT_NAME + "\n" +
+        "assets=../assets\n" +
+        "source=../src\n" +
+        "build=../build\n").getBytes(Charsets.UTF_8));
+    for (int screen = 1; screen <= screens; screen++) {
+      String screenName = "Screen" + screen;
+      addEntry(zip, srcDir + screenName + ".scm",
+          formProperties(screenName).getBytes(Charsets.UTF_8));
+      addEntry(zip, srcDir + screenName + ".blk",
+          blocks(screenName).getBytes(Charsets.UTF_8));
+    }
+
+    // The same seed every time, so that only the nonce makes zips different.
+    Random random = new Random(assetBytes);
+    int remaining = assetBytes;
+    for (int asset = 1; remaining > 0; asset++) {
+      byte[] content = new byte[Math.min(remaining, MAX_ASSET_FILE_BYTES)];
+      random.nextBytes(content);
+      addEntry(zip, "assets/asset" + asset + ".bin", content);
+      remaining -= content.length;
+    }
+    addEntry(zip, "assets/nonce.txt", nonce.getBytes(Charsets.UTF_8));
+
+    if (keystore != null) {
+      addEntry(zip, YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION, keystore);
+    }
+    zip.close();
+    return bytes.toByteArray();
+  }
+
+  private String formProperties(String screenName) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("#|\n$JSON\n");
+    sb.append("{\"YaVersion\":\"41\",\"Source\":\"Form\",\"Properties\":{\"$Name\":\"")
+        .append(screenName)
+        .append("\",\"$Type\":\"Form\",\"$Version\":\"6\",\"Uuid\":\"0\",\"Title\":\"")
+        .append(screenName)
+        .append("\",\"$Components\":[");
+    for (int button = 1; button <= componentsPerScreen; button++) {
+      if (button > 1) {
+        sb.append(',');
+      }
+      sb.append("{\"$Name\":\"Button").append(button)
+          .append("\",\"$Type\":\"Button\",\"$Version\":\"3\",\"Uuid\":\"").append(button)
+          .append("\",\"Text\":\"Button").append(button).append("\"}");
+    }
+    sb.append("]}}\n|#\n");
+    return sb.toString();
+  }
+
+  private String blocks(String screenName) {
+    // Each event handler takes one block, and each statement in it takes two: the setter and
+    // the text that it sets.
+    int handlers = Math.min(componentsPerScreen, blocksPerScreen / 3);
+    int statements = (handlers == 0) ? 0 : (blocksPerScreen - handlers) / 2;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("<!DOCTYPE YACodeBlocks SYSTEM \"/yacodeblocks/support/save_format.dtd\">\n");
+    sb.append("<YACodeBlocks ya-version=\"41\" lang-version=\"13\">\n");
+    sb.append("<Pages><Page page-name=\" \" page-color=\"237 245 211\" page-width=\"2560\" ")
+        .append("page-height=\"1600\" page-drawer=\"My Definitions\" >\n<PageBlocks>\n");
+    int nextId = 1;
+    for (int button = 1; button <= handlers; button++) {
+      String buttonName = "Button" + button;
+      // Spread the statements over the handlers.
+      int handlerStatements = statements / handlers + ((button <= statements % handlers) ? 1 : 0);
+      int handlerId = nextId++;
+      int firstStatementId = (handlerStatements == 0) ? 0 : nextId;
+      sb.append("<Block id=\"").append(handlerId).append("\" genus-name=\"Button-Click\" >\n")
+          .append("<Location><X>50</X><Y>").append(button * 100).append("</Y></Location>\n")
+          .append("<Label>").append(buttonName).append(".Click</Label>\n")
+          .append("<Sockets num-sockets=\"1\" >\n")
+          .append("<BlockConnector connector-kind=\"socket\" connector-type=\"cmd\" ")
+          .append("init-type=\"cmd\" label=\"do\" is-indented=\"yes\" position-type=\"single\"");
+      if (firstStatementId != 0) {
+        sb.append(" con-block-id=\"").append(firstStatementId).append("\"");
+      }
+      sb.append(" ></BlockConnector>\n</Sockets>\n</Block>\n");
+
+      int previousId = handlerId;
+      for (int statement = 0; statement < handlerStatements; statement++) {
+        int setterId = nextId++;
+        int textId = nextId++;
+        int nextStatementId = (statement + 1 < handlerStatements) ? nextId : 0;
+        sb.append("<BlockStub><StubParentName>").append(buttonName)
+            .append(".Text</StubParentName><StubParentGenus>read-write-property")
+            .append("</StubParentGenus><Block id=\"").append(setterId)
+            .append("\" genus-name=\"componentSetter\" >\n")
+            .append("<Location><X>80</X><Y>").append(button * 100 + statement * 30)
+            .append("</Y></Location>\n")
+            .append("<Label>").append(buttonName).append(".Text</Label>\n")
+            .append("<BeforeBlockId>").append(previousId).append("</BeforeBlockId>\n");
+        if (nextStatementId != 0) {
+          sb.append("<AfterBlockId>").append(nextStatementId).append("</AfterBlockId>\n");
+        }
+        sb.append("<Sockets num-sockets=\"1\" >\n")
+            .append("<BlockConnector connector-kind=\"socket\" connector-type=\"poly\" ")
+            .append("init-type=\"poly\" label=\"to\" position-type=\"single\" con-block-id=\"")
+            .append(textId).append("\" ></BlockConnector>\n</Sockets>\n</Block>\n</BlockStub>\n");
+        sb.append("<Block id=\"").append(textId).append("\" genus-name=\"text\" >\n")
+            .append("<Location><X>300</X><Y>").append(button * 100 + statement * 30)
+            .append("</Y></Location>\n")
+            .append("<Label>Text ").append(statement).append("</Label>\n")
+            .append("<Plug><BlockConnector connector-kind=\"plug\" connector-type=\"poly\" ")
+            .append("init-type=\"poly\" label=\"\" position-type=\"single\" con-block-id=\"")
+            .append(setterId).append("\" ></BlockConnector></Plug>\n</Block>\n");
+        previousId = setterId;
+      }
+    }
+    sb.append("</PageBlocks>\n</Page>\n\n</Pages><YoungAndroidMaps><YoungAndroidUuidMap>\n");
+    sb.append("<YoungAndroidUuidEntry uuid=\"0\" component-id=\"").append(screenName)
+        .append("\" component-genus=\"Form\" component-version=\"6\" >")
+        .append("</YoungAndroidUuidEntry>\n");
+    for (int button = 1; button <= componentsPerScreen; button++) {
+      sb.append("<YoungAndroidUuidEntry uuid=\"").append(button)
+          .append("\" component-id=\"Button").append(button)
+          .append("\" component-genus=\"Button\" component-version=\"3\" >")
+          .append("</YoungAndroidUuidEntry>\n");
+    }
+    sb.append("</YoungAndroidUuidMap>\n</YoungAndroidMaps>\n</YACodeBlocks>\n");
+    return sb.toString();
+  }
+
+  private static void addEntry(ZipOutputStream zip, String name, byte[] content)
+      throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content);
+    zip.closeEntry();
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.ByteStreams;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Tests SyntheticProject class.
+ *
+ */
+public class SyntheticProjectTest extends TestCase {
+  private static final String SRC_DIR = "src/appinventor/ai_benchmark/Synthetic/";
+
+  public void testZipContainsEveryScreenAndAllAssetBytes() throws Exception {
+    Map<String, byte[]> entries = unzip(new SyntheticProject(3, 4, 20, 2500000).toZip("1", null));
+    assertTrue(entries.containsKey("youngandroidproject/project.properties"));
+    for (int screen = 1; screen <= 3; screen++) {
+      assertTrue(entries.containsKey(SRC_DIR + "Screen" + screen + ".scm"));
+      assertTrue(entries.containsKey(SRC_DIR + "Screen" + screen + ".blk"));
+    }
+    int assetBytes = 0;
+    for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+      if (entry.getKey().startsWith("assets/asset")) {
+        assetBytes += entry.getValue().length;
+      }
+    }
+    assertEquals(2500000, assetBytes);
+    assertFalse(entries.containsKey(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION));
+  }
+
+  public void testBlocksHaveTheRequestedSize() throws Exception {
+    Map<String, byte[]> entries = unzip(new SyntheticProject(1, 4, 20, 0).toZip("1", null));
+    String blocks = new String(entries.get(SRC_DIR + "Screen1.blk"), "UTF-8");
+    // 4 event handlers and 8 statements of 2 blocks each.
+    assertEquals(4, countOccurrences(blocks, "genus-name=\"Button-Click\""));
+    assertEquals(8, countOccurrences(blocks, "genus-name=\"componentSetter\""));
+    assertEquals(8, countOccurrences(blocks, "genus-name=\"text\""));
+  }
+
+  public void testOnlyTheNonceChangesTheZip() throws Exception {
+    SyntheticProject project = new SyntheticProject(1, 1, 3, 1000);
+    byte[] keystore = { 1, 2, 3 };
+    Map<String, byte[]> first = unzip(project.toZip("1", keystore));
+    Map<String, byte[]> second = unzip(project.toZip("2", keystore));
+    assertEquals(first.keySet(), second.keySet());
+    for (String name : first.keySet()) {
+      assertEquals(name, !name.equals("assets/nonce.txt"),
+          Arrays.equals(first.get(name), second.get(name)));
+    }
+    assertTrue(Arrays.equals(keystore,
+        first.get(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION)));
+  }
+
+  private static Map<String, byte[]> unzip(byte[] zip) throws Exception {
+    Map<String, byte[]> entries = new HashMap<String, byte[]>();
+    ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+    ZipEntry entry;
+    while ((entry = in.getNextEntry()) != null) {
+      entries.put(entry.getName(), ByteStreams.toByteArray(in));
+    }
+    in.close();
+    return entries;
+  }
+
+  private static int countOccurrences(String s, String substring) {
+    int count = 0;
+    for (int i = s.indexOf(substring); i != -1; i = s.indexOf(substring, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -14,6 +14,14 @@ import junit.framework.TestCase;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Tests for YailGenerator.
@@ -121,6 +129,45 @@ public class YailGeneratorTest extends TestCase {
     testGenerateYailVariousBlocks();
   }
 
+  public void testGenerateYailInParallel() throws Exception {
+    // Each thread has its own workspace, so several forms can be compiled at the same time. The
+    // YAIL must be the same as when the forms are compiled one at a time.
+    String[] formNames = {
+      "Screen1",
+      "BlackCat",
+      "CalicoCat",
+      "OrangeCat",
+      "PersianCat",
+      "SiameseCat",
+    };
+    Map<String, String> expectedYail = new HashMap<String, String>();
+    for (String formName : formNames) {
+      expectedYail.put(formName, generateYail("CatSurvey", formName));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<String> submittedFormNames = new ArrayList<String>();
+      List<Future<String>> results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 3; i++) {
+        for (final String formName : formNames) {
+          submittedFormNames.add(formName);
+          results.add(executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+              return generateYail("CatSurvey", formName);
+            }
+          }));
+        }
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(expectedYail.get(submittedFormNames.get(i)), results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   public void testGenerateYailMultipleForms() throws Exception {
     String[] formNames = {
       "Screen1",
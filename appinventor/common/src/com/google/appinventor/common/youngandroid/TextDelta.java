@@ -0,0 +1,247 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.common.youngandroid;
+
+/**
+ * A change to a text file that a client sends instead of the whole file when
+ * it saves a file whose previously saved content it knows.
+ *
+ * <p>A delta replaces one range of the previously saved text, the base, with
+ * new text. Most edits of a blocks or form file change a single region, so the
+ * delta is about as large as the edit. A delta also records the length and
+ * the SHA-1 digest of its base, so that the server can tell whether the file
+ * it has is the one that the delta was computed against, and refuse the delta
+ * if it is not.
+ *
+ * <p>This class is shared by the server, the GWT client and the Blocks Editor,
+ * which is compiled for Java 5, so it must only use classes that all of them
+ * can use. GWT has no {@code java.security.MessageDigest}, so the digest is
+ * computed here.
+ *
+ */
+public final class TextDelta {
+  private static final char SEPARATOR = ':';
+
+  private static final String HEX_DIGITS = "0123456789abcdef";
+  private static final int DIGEST_LENGTH = 40;
+
+  private final int baseLength;
+  private final String baseDigest;
+  private final int start;
+  private final int deleteLength;
+  private final String insert;
+
+  private TextDelta(int baseLength, String baseDigest, int start, int deleteLength,
+      String insert) {
+    this.baseLength = baseLength;
+    this.baseDigest = baseDigest;
+    this.start = start;
+    this.deleteLength = deleteLength;
+    this.insert = insert;
+  }
+
+  /**
+   * Returns the delta that changes the given base text into the given content.
+   *
+   * @param base  the previously saved text
+   * @param content  the new text
+   * @return  the delta from base to content
+   */
+  public static TextDelta between(String base, String content) {
+    int maxCommonLength = Math.min(base.length(), content.length());
+    int prefixLength = 0;
+    while (prefixLength < maxCommonLength &&
+        base.charAt(prefixLength) == content.charAt(prefixLength)) {
+      prefixLength++;
+    }
+    // Don't split a surrogate pair, the inserted text would not survive being encoded.
+    if (prefixLength > 0 && isHighSurrogate(content.charAt(prefixLength - 1))) {
+      prefixLength--;
+    }
+    int suffixLength = 0;
+    while (suffixLength < maxCommonLength - prefixLength &&
+        base.charAt(base.length() - 1 - suffixLength) ==
+        content.charAt(content.length() - 1 - suffixLength)) {
+      suffixLength++;
+    }
+    if (suffixLength > 0 && isLowSurrogate(content.charAt(content.length() - suffixLength))) {
+      suffixLength--;
+    }
+    // Copy the inserted text, so that a delta that is kept around doesn't keep all of the content.
+    return new TextDelta(base.length(), digest(base), prefixLength,
+        base.length() - prefixLength - suffixLength,
+        new String(content.substring(prefixLength, content.length() - suffixLength)));
+  }
+
+  /**
+   * Indicates whether applying this delta leaves the text unchanged.
+   *
+   * @return  {@code true} if the delta neither removes nor inserts text
+   */
+  public boolean isEmpty() {
+    return deleteLength == 0 && insert.length() == 0;
+  }
+
+  /**
+   * Indicates whether the given text is the base this delta was computed
+   * against.
+   *
+   * @param base  the saved text
+   * @return  {@code true} if the delta can be applied to base
+   */
+  public boolean appliesTo(String base) {
+    return base.length() == baseLength && digest(base).equals(baseDigest);
+  }
+
+  /**
+   * Applies this delta to the given base text.
+   *
+   * @param base  the text the delta was computed against
+   * @return  the new text
+   * @throws IllegalArgumentException  if the delta does not apply to base
+   */
+  public String applyTo(String base) {
+    if (!appliesTo(base)) {
+      throw new IllegalArgumentException("The delta was computed against a different text");
+    }
+    return base.substring(0, start) + insert + base.substring(start + deleteLength);
+  }
+
+  /**
+   * Returns this delta as a string that can be sent to the server.
+   *
+   * @return  the encoded delta
+   * @see #decode(String)
+   */
+  public String encode() {
+    return new StringBuilder()
+        .append(baseLength).append(SEPARATOR)
+        .append(baseDigest).append(SEPARATOR)
+        .append(start).append(SEPARATOR)
+        .append(deleteLength).append(SEPARATOR)
+        .append(insert)
+        .toString();
+  }
+
+  /**
+   * Returns the delta encoded in the given string.
+   *
+   * @param encoded  a string returned by {@link #encode()}
+   * @return  the decoded delta
+   * @throws IllegalArgumentException  if the string is not a valid delta
+   */
+  public static TextDelta decode(String encoded) {
+    String[] fields = new String[4];
+    int position = 0;
+    for (int i = 0; i < fields.length; i++) {
+      int end = encoded.indexOf(SEPARATOR, position);
+      if (end < 0) {
+        throw new IllegalArgumentException("Malformed delta");
+      }
+      fields[i] = encoded.substring(position, end);
+      position = end + 1;
+    }
+    int baseLength = Integer.parseInt(fields[0]);
+    String baseDigest = fields[1];
+    int start = Integer.parseInt(fields[2]);
+    int deleteLength = Integer.parseInt(fields[3]);
+    if (baseLength < 0 || baseDigest.length() != DIGEST_LENGTH || start < 0 ||
+        deleteLength < 0 || start > baseLength || deleteLength > baseLength - start) {
+      throw new IllegalArgumentException("Malformed delta");
+    }
+    return new TextDelta(baseLength, baseDigest, start, deleteLength,
+        encoded.substring(position));
+  }
+
+  /*
+   * Returns the SHA-1 digest of the UTF-16BE encoding of the given text, as 40 lowercase hex
+   * digits.
+   */
+  static String digest(String text) {
+    int[] h = { 0x67452301, 0xEFCDAB89, 0x98BADCFE, 0x10325476, 0xC3D2E1F0 };
+    // Each char is 2 bytes. The message is padded with 0x80, zeros and its length in bits, to a
+    // multiple of 64 bytes.
+    long bitLength = text.length() * 16L;
+    int blockCount = (int) ((text.length() * 2L + 8) / 64 + 1);
+    int[] w = new int[80];
+    for (int block = 0; block < blockCount; block++) {
+      for (int i = 0; i < 16; i++) {
+        // Word i of the block holds chars 2 * i and 2 * i + 1 of the block.
+        int index = block * 32 + i * 2;
+        w[i] = (wordHalf(text, index) << 16) | wordHalf(text, index + 1);
+      }
+      if (block == blockCount - 1) {
+        w[14] = (int) (bitLength >>> 32);
+        w[15] = (int) bitLength;
+      }
+      for (int i = 16; i < 80; i++) {
+        w[i] = rotateLeft(w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16], 1);
+      }
+      int a = h[0];
+      int b = h[1];
+      int c = h[2];
+      int d = h[3];
+      int e = h[4];
+      for (int i = 0; i < 80; i++) {
+        int f;
+        int k;
+        if (i < 20) {
+          f = (b & c) | (~b & d);
+          k = 0x5A827999;
+        } else if (i < 40) {
+          f = b ^ c ^ d;
+          k = 0x6ED9EBA1;
+        } else if (i < 60) {
+          f = (b & c) | (b & d) | (c & d);
+          k = 0x8F1BBCDC;
+        } else {
+          f = b ^ c ^ d;
+          k = 0xCA62C1D6;
+        }
+        // In JavaScript, sums of ints can exceed 32 bits, but they stay exact and every value
+        // goes through a bitwise operator, which truncates it to 32 bits, before it matters.
+        int temp = rotateLeft(a, 5) + f + e + k + w[i];
+        e = d;
+        d = c;
+        c = rotateLeft(b, 30);
+        b = a;
+        a = temp;
+      }
+      h[0] += a;
+      h[1] += b;
+      h[2] += c;
+      h[3] += d;
+      h[4] += e;
+    }
+    StringBuilder sb = new StringBuilder(DIGEST_LENGTH);
+    for (int word : h) {
+      for (int shift = 28; shift >= 0; shift -= 4) {
+        sb.append(HEX_DIGITS.charAt((word >>> shift) & 0xF));
+      }
+    }
+    return sb.toString();
+  }
+
+  /*
+   * Returns the 16 bits of the padded message at the given char index: the char itself, the
+   * 0x80 byte that follows the text, or zero.
+   */
+  private static int wordHalf(String text, int index) {
+    if (index < text.length()) {
+      return text.charAt(index);
+    }
+    return (index == text.length()) ? 0x8000 : 0;
+  }
+
+  private static int rotateLeft(int value, int distance) {
+    return (value << distance) | (value >>> (32 - distance));
+  }
+
+  private static boolean isHighSurrogate(char c) {
+    return c >= '\uD800' && c <= '\uDBFF';
+  }
+
+  private static boolean isLowSurrogate(char c) {
+    return c >= '\uDC00' && c <= '\uDFFF';
+  }
+}
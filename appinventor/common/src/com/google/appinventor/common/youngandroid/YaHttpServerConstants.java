@@ -30,6 +30,10 @@ public class YaHttpServerConstants {
   // Filename used for saving the codeblocks connection info
   public static final String CODEBLOCKS_INFO_FILE_PREFIX = "codeblocks_info_";
 
+  // HTTP request header which indicates that a posted codeblocks source is an encoded TextDelta
+  // against the source that was saved last.
+  public static final String TEXT_DELTA_HEADER = "X-AppInventor-Text-Delta";
+
   // Constants used in HTTP requests:
   public static final String LOAD_FORM = "loadForm"; //async
   public static final String RELOAD_PROPERTIES = "reloadProperties";  // async
@@ -0,0 +1,110 @@
+// Copyright 2012 Google Inc. All Rights Reserved.
+
+package com.google.appinventor.common.youngandroid;
+
+import junit.framework.TestCase;
+
+import java.security.MessageDigest;
+
+/**
+ * Tests TextDelta class.
+ *
+ */
+public class TextDeltaTest extends TestCase {
+
+  private static void assertRoundTrip(String base, String content) {
+    TextDelta delta = TextDelta.decode(TextDelta.between(base, content).encode());
+    assertTrue(delta.appliesTo(base));
+    assertEquals(content, delta.applyTo(base));
+  }
+
+  public void testApplyTo() {
+    assertRoundTrip("", "");
+    assertRoundTrip("", "<xml/>");
+    assertRoundTrip("<xml/>", "");
+    assertRoundTrip("<a>1</a><b>2</b>", "<a>1</a><b>3</b>");
+    assertRoundTrip("<a>1</a><b>2</b>", "<a>1</a><c>5</c><b>2</b>");
+    assertRoundTrip("<a>1</a><c>5</c><b>2</b>", "<a>1</a><b>2</b>");
+    assertRoundTrip("aaaa", "aaaaaa");
+    assertRoundTrip("abcabc", "abc");
+    // Text containing colons, which separate the fields of an encoded delta.
+    assertRoundTrip("x:1:2:3:y", "x:1:5:3:y:z");
+  }
+
+  public void testDeltaContainsOnlyTheChange() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      sb.append("<Block id=\"").append(i).append("\"/>\n");
+    }
+    String base = sb.toString();
+    String content = base.replace("<Block id=\"500\"/>", "<Block id=\"500\" collapsed=\"true\"/>");
+    String encoded = TextDelta.between(base, content).encode();
+    assertTrue(encoded.length() < 100);
+    assertEquals(content, TextDelta.decode(encoded).applyTo(base));
+  }
+
+  public void testSurrogatePairsAreNotSplit() {
+    String base = "a\uD83D\uDE00b";
+    String content = "a\uD83D\uDE01b";
+    String encoded = TextDelta.between(base, content).encode();
+    assertTrue(encoded.endsWith(":\uD83D\uDE01"));
+    assertEquals(content, TextDelta.decode(encoded).applyTo(base));
+  }
+
+  public void testIsEmpty() {
+    assertTrue(TextDelta.between("same", "same").isEmpty());
+    assertFalse(TextDelta.between("same", "sane").isEmpty());
+  }
+
+  public void testDoesNotApplyToOtherText() {
+    TextDelta delta = TextDelta.between("<a>1</a>", "<a>2</a>");
+    assertFalse(delta.appliesTo("<a>3</a>"));
+    assertFalse(delta.appliesTo("<a>1</a>\n"));
+    try {
+      delta.applyTo("<a>3</a>");
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // "Aa" and "BB" have the same length and the same hash code.
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertFalse(TextDelta.between("Aa", "Ab").appliesTo("BB"));
+  }
+
+  public void testDigestIsSha1() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int length = 0; length < 300; length++) {
+      assertDigestIsSha1(sb.toString());
+      sb.append((char) ('a' + length % 26));
+    }
+    assertDigestIsSha1("\uD83D\uDE00 \u00e9\uFFFF");
+    for (int i = 0; i < 10000; i++) {
+      sb.append("<Block id=\"").append(i).append("\"/>\n");
+    }
+    assertDigestIsSha1(sb.toString());
+  }
+
+  private static void assertDigestIsSha1(String text) throws Exception {
+    byte[] expected = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-16BE"));
+    StringBuilder sb = new StringBuilder();
+    for (byte b : expected) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    assertEquals(sb.toString(), TextDelta.digest(text));
+  }
+
+  public void testDecodeMalformed() {
+    String digest = TextDelta.digest("12345");
+    String[] malformed = { "", "1:2:3", "a:b:c:d:", "5:0:0:0:", "5:" + digest + ":4:2:",
+        "5:" + digest + ":-1:0:", "5:" + digest + ":0:-1:", "-1:" + digest + ":0:0:" };
+    for (String encoded : malformed) {
+      try {
+        TextDelta.decode(encoded);
+        fail(encoded);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}